@@ -1,19 +1,43 @@
 package Controller;
 
 import Model.BillardThread;
+import Model.GameEventRing;
+import Model.GameHistoryStore;
+import Model.GameRecord;
 import Model.Table;
+import Model.TableListener;
+import Model.TableHistory;
+import Model.TrajectoryWriter;
 import View.Interface_view;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 /**
  * The BillardController class is responsible for controlling the flow of the billiard game,
  * managing the interactions between the model (Table) and the view (Interface_view).
- * It uses a BillardThread for concurrent processing of the game.
+ * It uses a BillardThread for concurrent processing of the game, started when a game starts
+ * so that the welcome page comes up without waiting for it. The worker only ticks while a game is played
+ * and balls are moving; it is parked on the other screens and while the game is paused, and stopped when a game ends.
+ * The end of a game is reported by the table as a game event instead of being checked at every frame.
+ * The game events of the table and the changes of state are published to a GameEventRing that statistics,
+ * recording, sound or display components can read at their own pace.
  *
  * @author Tcheumen Nanseu Lionel
  * @version 1.0
  */
 public class BillardController implements Interface_controller {
 
+    /**
+     * Width of the game window, used as wall width by the physics
+     */
+    static final int VIEW_WIDTH = 1041;
+
+    /**
+     * Height of the game window, used as wall height by the physics
+     */
+    static final int VIEW_HEIGHT = 541;
+
     /**
      * The billiard table model
      */
@@ -35,6 +59,109 @@ public class BillardController implements Interface_controller {
      */
     private GameState state;
 
+    /**
+     * Store receiving the finished games, or null when games are not kept.
+     * Main opens it in the background, so it is set from another thread.
+     */
+    private volatile GameHistoryStore historyStore;
+
+    /**
+     * File the archives of the games are named after, or null when the positions of the balls are not recorded
+     */
+    private Path trajectoryFile;
+
+    /**
+     * Archive receiving the positions of the balls of the current game, null until its first step is recorded
+     */
+    private TrajectoryWriter trajectory;
+
+    /**
+     * Number of games recorded so far
+     */
+    private int trajectoryGames;
+
+    /**
+     * Flag set when the balls are racked for a new game, so the next recorded step starts a new archive
+     */
+    private volatile boolean restarted;
+
+    /**
+     * Number of table states kept for undo and rewind
+     */
+    static final int HISTORY_CAPACITY = 512;
+
+    /**
+     * Number of physics steps between two kept states of a moving table
+     */
+    static final int HISTORY_STEP_INTERVAL = 5;
+
+    /**
+     * Recent states of the table, for undo and rewind
+     */
+    private TableHistory history;
+
+    /**
+     * Number of moves of the table when its last state before a shot was kept, -1 before the first one
+     */
+    private int lastShotMoves = -1;
+
+    /**
+     * Flag indicating whether the game is paused
+     */
+    private boolean paused;
+
+    /**
+     * Number of kept states the paused table is rewound by, 0 for the newest
+     */
+    private int rewound;
+
+    /**
+     * State the game ends in, set by the game events of the table and applied at the next frame; null while it goes on
+     */
+    private volatile GameState decided;
+
+    /**
+     * Listener recording the end of the game reported by the table
+     */
+    private final TableListener rules = new TableListener() {
+        @Override
+        public void gameWon(Table table) { decided = GameState.GAME_WIN; }
+
+        @Override
+        public void gameLost(Table table) {
+            if (decided != GameState.GAME_WIN)
+                decided = GameState.GAME_OVER;
+        }
+
+        @Override
+        public void gameRestarted(Table table) { restarted = true; }
+    };
+
+    /**
+     * Number of game events kept for their readers
+     */
+    static final int EVENT_CAPACITY = 4096;
+
+    /**
+     * Ring receiving the game events of the table and the changes of state
+     */
+    private final GameEventRing events = new GameEventRing(EVENT_CAPACITY);
+
+    /**
+     * Frames of a training run, 0 when the game is played normally
+     */
+    private int trainingFrames;
+
+    /**
+     * Frames played so far in a training run
+     */
+    private int trainingFrame;
+
+    /**
+     * Action ending a training run
+     */
+    private Runnable trainingFinished;
+
     /**
      * Constructor for the BillardController class.
      * Initializes the game state to START.
@@ -45,15 +172,72 @@ public class BillardController implements Interface_controller {
 
     /**
      * Set the model (billiard table) for the controller.
-     * Initialize the table, start the BillardThread for concurrent processing.
+     * Initialize the table; the BillardThread is started with the first game.
      *
      * @param myTable : The billiard table model
      */
     public void setModel(Table myTable) {
+        if (this.myTable != null) {
+            this.myTable.removeListener(rules);
+            this.myTable.setEventRing(null);
+        }
         this.myTable = myTable;
+        myTable.addListener(rules);
+        myTable.setEventRing(events);
         myTable.rack();
-        billardThread = new BillardThread(myTable);
+        history = new TableHistory(myTable, HISTORY_CAPACITY, myTable.getBalls().length, HISTORY_STEP_INTERVAL);
+        lastShotMoves = -1;
+    }
+
+    /**
+     * Start the BillardThread for concurrent processing, if it is not running yet, and let it tick.
+     * A worker stopped at the end of a game is started again.
+     */
+    private void startBillardThread() {
+        if (myTable == null)
+            return;
+        if (billardThread == null)
+            billardThread = new BillardThread(myTable);
         billardThread.startThreads();
+        billardThread.setActive(!paused);
+    }
+
+    /**
+     * Park the BillardThread, if it was started, until a game is played again.
+     */
+    private void parkBillardThread() {
+        if (billardThread != null)
+            billardThread.setActive(false);
+    }
+
+    /**
+     * Stop the BillardThread, if it was started.
+     */
+    private void stopBillardThread() {
+        if (billardThread != null)
+            billardThread.stopThreads();
+    }
+
+    /**
+     * Get the worker processing the game concurrently.
+     *
+     * @return : The BillardThread, or null before the first game
+     */
+    public BillardThread getBillardThread() {
+        return billardThread;
+    }
+
+    /**
+     * Play a scripted game instead of waiting for the player, then run an action.
+     * The welcome page is shown for a quarter of the frames, then a game starts with a break shot.
+     * It is used by the training run creating the class data sharing archive (see README).
+     *
+     * @param frames : number of frames of the training run
+     * @param finished : action run after the last frame, usually closing the window
+     */
+    public void setTrainingRun(int frames, Runnable finished) {
+        this.trainingFrames = frames;
+        this.trainingFinished = finished;
     }
 
     /**
@@ -65,6 +249,84 @@ public class BillardController implements Interface_controller {
         this.view = view;
     }
 
+    /**
+     * Set the store receiving the finished games.
+     *
+     * @param historyStore : The game history store, or null to not keep games
+     */
+    public void setHistoryStore(GameHistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
+
+    /**
+     * Get the store receiving the finished games.
+     *
+     * @return : The game history store, or null when games are not kept
+     */
+    public GameHistoryStore getHistoryStore() {
+        return historyStore;
+    }
+
+    /**
+     * Record the positions of the balls at every physics step of the game loop, one archive per game,
+     * so that every archive holds one game as ArchiveQuery expects.
+     * Game n is written next to the given file, with "-n" before its extension: spiel.traj gives spiel-1.traj,
+     * spiel-2.traj and so on.
+     *
+     * @param file : The file the archives are named after, or null to not record positions
+     */
+    public void setTrajectoryFile(Path file) {
+        this.trajectoryFile = file;
+    }
+
+    /**
+     * Write the last block of the archive of the current game; the next recorded step starts a new archive.
+     *
+     * @throws IOException : if the archive cannot be completed
+     */
+    public void closeTrajectory() throws IOException {
+        TrajectoryWriter finished = trajectory;
+        trajectory = null;
+        if (finished != null)
+            finished.close();
+    }
+
+    /**
+     * Get the file of the archive of a game.
+     *
+     * @param file : The file the archives are named after
+     * @param game : Number of the game, starting at 1
+     * @return : The file of the archive
+     */
+    static Path gameFile(Path file, int game) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String numbered = dot > 0 ? name.substring(0, dot) + "-" + game + name.substring(dot) : name + "-" + game;
+        return file.resolveSibling(numbered);
+    }
+
+    /**
+     * Record the positions of the balls, in a new archive after the balls were racked again;
+     * recording stops if an archive cannot be written.
+     */
+    private void recordTrajectory() {
+        if (trajectoryFile == null)
+            return;
+        try {
+            if (restarted) {
+                restarted = false;
+                closeTrajectory();
+            }
+            if (trajectory == null)
+                trajectory = new TrajectoryWriter(gameFile(trajectoryFile, ++trajectoryGames));
+            trajectory.append(myTable);
+        } catch (IOException e) {
+            System.out.println("Trajectory recording disabled: " + e.getMessage());
+            trajectory = null;
+            trajectoryFile = null;
+        }
+    }
+
     /**
      * Get the current state of the game.
      *
@@ -81,6 +343,29 @@ public class BillardController implements Interface_controller {
      */
     public void setState(GameState state) {
         this.state = state;
+        publishState();
+        if (state == GameState.PLAYING) {
+            decided = null;
+            startBillardThread();
+        }
+        else
+            parkBillardThread();
+    }
+
+    /**
+     * Publish the current state of the game to the event ring.
+     */
+    private void publishState() {
+        events.publish(GameEventRing.STATE, myTable == null ? 0 : myTable.getStepCount(), state.ordinal(), 0);
+    }
+
+    /**
+     * Get the ring receiving the game events of the table and the changes of state.
+     *
+     * @return : the event ring, read with its own GameEventRing.Reader by every consumer
+     */
+    public GameEventRing getEvents() {
+        return events;
     }
 
     /**
@@ -96,6 +381,8 @@ public class BillardController implements Interface_controller {
      * Advance to the next frame of the game based on the current state.
      */
     public void nextFrame() {
+        if (trainingFrame < trainingFrames)
+            train();
         switch (state) {
             case START -> {
                 view.welcomePage();
@@ -103,23 +390,35 @@ public class BillardController implements Interface_controller {
             }
             case PLAYING -> {
                 view.TableDisplay();
+                if (paused)
+                    break;
                 view.handleMovementAndGuide();
-                myTable.action(1041, 541);
-                if (myTable.isAllBallsInHolesExceptWhite()) {
-                    state = GameState.GAME_WIN;
-                } else if (myTable.isGameOver()) {
-                    state = GameState.GAME_OVER;
+                // the BillardThread works on the same table between two frames
+                synchronized (myTable) {
+                    myTable.action(VIEW_WIDTH, VIEW_HEIGHT);
+                    recordTrajectory();
+                    recordHistory();
                 }
+                if (billardThread != null)
+                    billardThread.wake();
+                GameState decided = this.decided;
+                if (decided == null)
+                    break;
+                this.decided = null;
+                state = decided;
+                publishState();
+                if (historyStore != null)
+                    keepGame();
                 break;
             }
             case GAME_WIN -> {
                 view.winGameDraw();
-                billardThread.stopThreads();
+                stopBillardThread();
                 break;
             }
             case GAME_OVER -> {
                 view.LostGamedraw();
-                billardThread.stopThreads();
+                stopBillardThread();
                 break;
             }
             case HELP -> {
@@ -129,6 +428,129 @@ public class BillardController implements Interface_controller {
         }
     }
 
+    /**
+     * Hand the finished game to the history store; a store whose writer failed is dropped.
+     */
+    private void keepGame() {
+        try {
+            historyStore.submit(GameRecord.of(myTable, state == GameState.GAME_WIN));
+        } catch (IllegalStateException e) {
+            System.out.println("Game history disabled: " + e.getMessage());
+            historyStore = null;
+        }
+    }
+
+    /**
+     * Keep the state of the table: once when it comes to rest before a shot, and every few steps while balls move.
+     * A restarted game starts a new history. Called under the lock of the table, so no tick of the BillardThread
+     * compacts the balls while they are copied.
+     */
+    private void recordHistory() {
+        if (myTable.getMoves() < lastShotMoves) {
+            history.clear();
+            lastShotMoves = -1;
+        }
+        if (!myTable.isAtRest()) {
+            history.step(myTable);
+        } else if (myTable.getMoves() != lastShotMoves) {
+            history.captureShot(myTable);
+            lastShotMoves = myTable.getMoves();
+        }
+    }
+
+    /**
+     * Undo the last shot, putting the balls back where they rested before it.
+     * The BillardThread is parked and the table locked while the balls are replaced, even in the middle of a shot.
+     */
+    public void undoShot() {
+        if (state != GameState.PLAYING || history == null)
+            return;
+        if (billardThread != null)
+            billardThread.setActive(false);
+        synchronized (myTable) {
+            rewound = 0;
+            if (history.undoShot(myTable))
+                lastShotMoves = myTable.getMoves();
+        }
+        if (billardThread != null)
+            billardThread.setActive(!paused);
+    }
+
+    /**
+     * Pause or resume the game. A game resumed after a rewind continues from the rewound state.
+     */
+    public void togglePause() {
+        if (state != GameState.PLAYING)
+            return;
+        paused = !paused;
+        if (paused && billardThread != null)
+            billardThread.setActive(false);
+        synchronized (myTable) {
+            if (!paused && rewound > 0) {
+                history.discardNewest(rewound);
+                rewound = 0;
+                // a moving table was shot after its last state at rest
+                lastShotMoves = myTable.isAtRest() ? myTable.getMoves() : myTable.getMoves() - 1;
+            }
+        }
+        if (!paused && billardThread != null)
+            billardThread.setActive(true);
+    }
+
+    /**
+     * Check if the game is paused.
+     *
+     * @return : True if the game is paused, false otherwise
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Move through the states of the current shot while the game is paused.
+     * The table is locked, so a tick of the BillardThread still running from before the pause is finished first.
+     *
+     * @param delta : number of kept states to go forward, negative to go back
+     */
+    public void scrub(int delta) {
+        if (!paused || history.size() == 0)
+            return;
+        synchronized (myTable) {
+            rewound = Math.max(0, Math.min(history.getStepsInCurrentShot(), rewound - delta));
+            history.peek(rewound, myTable);
+        }
+    }
+
+    /**
+     * Advance the training run by one frame: start a game with a break shot, and end the run after the last frame.
+     */
+    private void train() {
+        trainingFrame++;
+        if (trainingFrame == trainingFrames / 4) {
+            setState(GameState.PLAYING);
+            myTable.restartGame();
+            myTable.getBalls()[0].hit(15, 0);
+            myTable.madeMove();
+        }
+        if (trainingFrame == trainingFrames)
+            trainingFinished.run();
+    }
+
+    /**
+     * Apply the game rules to a table during play.
+     *
+     * @param table : The billiard table model
+     * @return : GAME_WIN if all balls except the white one are pocketed, GAME_OVER if the game is lost,
+     * PLAYING otherwise
+     */
+    static GameState evaluate(Table table) {
+        if (table.isAllBallsInHolesExceptWhite())
+            return GameState.GAME_WIN;
+        if (table.isGameOver())
+            return GameState.GAME_OVER;
+        return GameState.PLAYING;
+    }
+
     /**
      * Handles mouse clicks based on the current game state.
      * Delegates the handling of mouse clicks to specific methods in the view
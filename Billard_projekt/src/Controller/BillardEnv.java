@@ -0,0 +1,132 @@
+package Controller;
+
+import Model.Ball;
+import Model.Table;
+
+/**
+ * The BillardEnv class is a reinforcement learning environment over one headless game, in the style of gym:
+ * reset() starts an episode on a new rack, step() plays one shot until the table is at rest and returns its reward,
+ * isDone() tells when the game is won or lost.
+ *
+ * The observation is a fixed-size vector written into a caller's array, so stepping allocates nothing itself:
+ * - score, moves, remaining shots, white balls pocketed
+ * - for every ball color 0 to 15: x and y relative to the table (0 to 1), and 1 if the ball is on the table, else 0
+ *
+ * The reward is the score gained by the shot, minus WHITE_BALL_PENALTY for every pocketed white ball,
+ * plus WIN_REWARD when the shot wins the game or minus LOSS_PENALTY when it loses it.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class BillardEnv {
+
+    /**
+     * Number of ball colors in the observation
+     */
+    public static final int MAX_BALLS = 16;
+
+    /**
+     * Size of the observation vector
+     */
+    public static final int OBSERVATION_SIZE = 4 + 3 * MAX_BALLS;
+
+    /**
+     * Reward lost for every pocketed white ball
+     */
+    public static final float WHITE_BALL_PENALTY = 1;
+
+    /**
+     * Reward for winning the game
+     */
+    public static final float WIN_REWARD = 10;
+
+    /**
+     * Reward lost for losing the game
+     */
+    public static final float LOSS_PENALTY = 10;
+
+    /**
+     * The headless game
+     */
+    private final GameSession session;
+
+    /**
+     * Constructor for the BillardEnv class, with a racked table.
+     */
+    public BillardEnv() {
+        this.session = new GameSession(0);
+    }
+
+    /**
+     * Start a new episode on a new rack.
+     */
+    public void reset() {
+        session.restart();
+    }
+
+    /**
+     * Play one shot with the white ball until the table is at rest.
+     * A finished episode must be reset before the next step.
+     *
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @return : the reward of the shot
+     * @throws IllegalArgumentException : if the shot is refused by GameSession.shoot()
+     * @throws IllegalStateException : if the episode is over and was not reset
+     */
+    public float step(float force, float theta) {
+        if (isDone())
+            throw new IllegalStateException("the episode is over, reset() first");
+        Table table = session.getTable();
+        int score = table.getScore();
+        int whiteBalls = table.getWhiteBallPocketCount();
+        GameState state = session.shoot(force, theta);
+        float reward = table.getScore() - score - WHITE_BALL_PENALTY * (table.getWhiteBallPocketCount() - whiteBalls);
+        if (state == GameState.GAME_WIN)
+            reward += WIN_REWARD;
+        else if (state == GameState.GAME_OVER)
+            reward -= LOSS_PENALTY;
+        return reward;
+    }
+
+    /**
+     * Check if the episode is over.
+     *
+     * @return : True if the game is won or lost, false otherwise
+     */
+    public boolean isDone() {
+        return session.getState() != GameState.PLAYING;
+    }
+
+    /**
+     * Write the observation of the table into an array.
+     *
+     * @param out : array receiving the observation
+     * @param offset : index of the first value, OBSERVATION_SIZE values are written
+     */
+    public void observe(float[] out, int offset) {
+        Table table = session.getTable();
+        out[offset] = table.getScore();
+        out[offset + 1] = table.getMoves();
+        out[offset + 2] = table.getRemainingShots();
+        out[offset + 3] = table.getWhiteBallPocketCount();
+        int balls = offset + 4;
+        for (int i = balls; i < balls + 3 * MAX_BALLS; i++)
+            out[i] = 0;
+        for (Ball ball : table.getBalls()) {
+            if (ball.getC() < 0 || ball.getC() >= MAX_BALLS)
+                continue;
+            int b = balls + 3 * ball.getC();
+            out[b] = (ball.getX() - table.getMyX()) / table.getMyW();
+            out[b + 1] = (ball.getY() - table.getMyY()) / table.getMyH();
+            out[b + 2] = 1;
+        }
+    }
+
+    /**
+     * Get the billiard table of the environment.
+     *
+     * @return : The billiard table model
+     */
+    public Table getTable() { return session.getTable(); }
+}
@@ -0,0 +1,136 @@
+package Controller;
+
+import Model.Ball;
+import Model.Table;
+
+import java.util.Locale;
+
+/**
+ * The GameSession class is one headless game: a billiard table and the rules of BillardController,
+ * without a view and without a physics thread. A shot is simulated until the table comes to rest.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class GameSession {
+
+    /**
+     * Upper bound on the physics steps of one shot
+     */
+    static final int MAX_STEPS_PER_SHOT = 20_000;
+
+    /**
+     * Largest force of a shot, a little more than the longest drag across the game window
+     */
+    public static final float MAX_FORCE = 50;
+
+    /**
+     * Identifier of the session
+     */
+    private final long id;
+
+    /**
+     * The billiard table model
+     */
+    private final Table table;
+
+    /**
+     * The current state of the game
+     */
+    private GameState state = GameState.PLAYING;
+
+    /**
+     * Constructor for the GameSession class.
+     * Creates a table of the size used by Main and racks it.
+     *
+     * @param id : Identifier of the session
+     */
+    public GameSession(long id) {
+        this.id = id;
+        this.table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        table.restartGame();
+    }
+
+    /**
+     * Play a shot with the white ball and simulate it until the table is at rest.
+     *
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @return : the game state after the shot
+     * @throws IllegalArgumentException : if the force is not between 0 and MAX_FORCE or the angle is not finite
+     */
+    public GameState shoot(float force, float theta) {
+        checkShot(force, theta);
+        if (state != GameState.PLAYING)
+            return state;
+        table.getBalls()[0].hit(force, theta);
+        table.madeMove();
+        for (int step = 0; step < MAX_STEPS_PER_SHOT && state == GameState.PLAYING; step++) {
+            table.action(BillardController.VIEW_WIDTH, BillardController.VIEW_HEIGHT);
+            state = BillardController.evaluate(table);
+            if (table.isAtRest())
+                break;
+        }
+        return state;
+    }
+
+    /**
+     * Check that a shot can be simulated: a force that is not a number or too large would keep the balls
+     * rolling for all MAX_STEPS_PER_SHOT steps.
+     *
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @throws IllegalArgumentException : if the force is not between 0 and MAX_FORCE or the angle is not finite
+     */
+    static void checkShot(float force, float theta) {
+        if (!(force >= 0 && force <= MAX_FORCE))
+            throw new IllegalArgumentException("force must be between 0 and " + MAX_FORCE);
+        if (!Float.isFinite(theta))
+            throw new IllegalArgumentException("angle must be finite");
+    }
+
+    /**
+     * Restart the game on a new rack.
+     */
+    public void restart() {
+        table.restartGame();
+        state = GameState.PLAYING;
+    }
+
+    /**
+     * Describe the state of the session on one line:
+     * state, score, moves, remaining shots, white balls pocketed, ball count, then x y of every ball.
+     *
+     * @return : the state line
+     */
+    public String describe() {
+        StringBuilder line = new StringBuilder(64 + 24 * table.getBalls().length);
+        line.append(state).append(' ').append(table.getScore()).append(' ').append(table.getMoves())
+                .append(' ').append(table.getRemainingShots()).append(' ').append(table.getWhiteBallPocketCount())
+                .append(' ').append(table.getBalls().length);
+        for (Ball ball : table.getBalls())
+            line.append(String.format(Locale.ROOT, " %.2f %.2f", ball.getX(), ball.getY()));
+        return line.toString();
+    }
+
+    /**
+     * Get the identifier of the session.
+     *
+     * @return : Identifier of the session
+     */
+    public long getId() { return id; }
+
+    /**
+     * Get the billiard table of the session.
+     *
+     * @return : The billiard table model
+     */
+    public Table getTable() { return table; }
+
+    /**
+     * Get the current state of the game.
+     *
+     * @return : The current game state
+     */
+    public GameState getState() { return state; }
+}
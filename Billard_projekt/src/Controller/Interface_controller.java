@@ -12,6 +12,10 @@ import Model.Table;
  * - getModel(): Gets the model (billiard table) associated with the controller.
  * - getState(): Gets the current state of the game.
  * - setState(GameState state): Sets the current state of the game.
+ * - undoShot(): Undoes the last shot.
+ * - togglePause(): Pauses or resumes the game.
+ * - isPaused(): Checks if the game is paused.
+ * - scrub(int delta): Moves through the current shot while the game is paused.
  *
  * @author Tcheumen Nanseu Lionel
  * @version 1.0
@@ -48,4 +52,28 @@ public interface Interface_controller {
      * Handles mouse clicks based on the current game state.
      */
     void handleMouseClicksByGameState();
+
+    /**
+     * Undoes the last shot.
+     */
+    void undoShot();
+
+    /**
+     * Pauses or resumes the game.
+     */
+    void togglePause();
+
+    /**
+     * Checks if the game is paused.
+     *
+     * @return True if the game is paused, false otherwise
+     */
+    boolean isPaused();
+
+    /**
+     * Moves through the current shot while the game is paused.
+     *
+     * @param delta Number of kept states to go forward, negative to go back
+     */
+    void scrub(int delta);
 }
@@ -0,0 +1,217 @@
+package Controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The Ratings class keeps online Elo and Glicko ratings of the players of a tournament, updated after every match.
+ *
+ * Elo moves both ratings by K_FACTOR times the difference between the result and the expected result.
+ * Glicko also keeps a rating deviation per player, how uncertain its rating is: a player with few matches moves fast,
+ * and a result against an uncertain opponent counts less. Every match is its own rating period, with both players
+ * rated from their values before the match; the deviation never goes below MIN_DEVIATION, so the ratings keep
+ * following strategies that change. The methods are synchronized, as matches finish on several threads.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class Ratings {
+
+    /**
+     * Rating of a new player
+     */
+    public static final double INITIAL_RATING = 1500;
+
+    /**
+     * Largest change of an Elo rating in one match
+     */
+    public static final double K_FACTOR = 16;
+
+    /**
+     * Glicko deviation of a new player, and smallest deviation
+     */
+    public static final double INITIAL_DEVIATION = 350, MIN_DEVIATION = 30;
+
+    /**
+     * Glicko scale factor, ln(10) / 400
+     */
+    private static final double Q = Math.log(10) / 400;
+
+    /**
+     * Names of the players
+     */
+    private final String[] names;
+
+    /**
+     * Elo rating, Glicko rating and Glicko deviation of every player
+     */
+    private final double[] elo, glicko, deviation;
+
+    /**
+     * Number of matches, wins, draws and losses of every player
+     */
+    private final int[] matches, wins, draws, losses;
+
+    /**
+     * Standing of one player.
+     *
+     * @param name : name of the player
+     * @param elo : Elo rating
+     * @param glicko : Glicko rating
+     * @param deviation : Glicko deviation
+     * @param matches : number of matches
+     * @param wins : number of won matches
+     * @param draws : number of drawn matches
+     * @param losses : number of lost matches
+     */
+    public record Standing(String name, double elo, double glicko, double deviation, int matches, int wins, int draws, int losses) {
+
+        /**
+         * Get the points of the player, 1 per win and 0.5 per draw.
+         *
+         * @return : the points
+         */
+        public double points() { return wins + draws / 2.0; }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-12s elo %6.1f  glicko %6.1f rd %5.1f  %d matches  +%d =%d -%d",
+                    name, elo, glicko, deviation, matches, wins, draws, losses);
+        }
+    }
+
+    /**
+     * Constructor for the Ratings class, every player starting at INITIAL_RATING.
+     *
+     * @param names : names of the players
+     */
+    public Ratings(String... names) {
+        this.names = names.clone();
+        int n = names.length;
+        elo = new double[n];
+        glicko = new double[n];
+        deviation = new double[n];
+        Arrays.fill(elo, INITIAL_RATING);
+        Arrays.fill(glicko, INITIAL_RATING);
+        Arrays.fill(deviation, INITIAL_DEVIATION);
+        matches = new int[n];
+        wins = new int[n];
+        draws = new int[n];
+        losses = new int[n];
+    }
+
+    /**
+     * Update the ratings with the result of a match.
+     *
+     * @param first : index of the first player
+     * @param second : index of the second player
+     * @param score : result of the first player, 1 for a win, 0.5 for a draw, 0 for a loss
+     */
+    public synchronized void record(int first, int second, double score) {
+        double expected = 1 / (1 + Math.pow(10, (elo[second] - elo[first]) / 400));
+        elo[first] += K_FACTOR * (score - expected);
+        elo[second] -= K_FACTOR * (score - expected);
+
+        double r1 = glicko[first], r2 = glicko[second], d1 = deviation[first], d2 = deviation[second];
+        updateGlicko(first, r1, d1, r2, d2, score);
+        updateGlicko(second, r2, d2, r1, d1, 1 - score);
+
+        matches[first]++;
+        matches[second]++;
+        if (score > 0.5) {
+            wins[first]++;
+            losses[second]++;
+        } else if (score < 0.5) {
+            losses[first]++;
+            wins[second]++;
+        } else {
+            draws[first]++;
+            draws[second]++;
+        }
+    }
+
+    /**
+     * Update the Glicko rating of a player after one match.
+     *
+     * @param player : index of the player
+     * @param rating : rating of the player before the match
+     * @param dev : deviation of the player before the match
+     * @param opponentRating : rating of the opponent before the match
+     * @param opponentDev : deviation of the opponent before the match
+     * @param score : result of the player
+     */
+    private void updateGlicko(int player, double rating, double dev, double opponentRating, double opponentDev, double score) {
+        double g = 1 / Math.sqrt(1 + 3 * Q * Q * opponentDev * opponentDev / (Math.PI * Math.PI));
+        double expected = 1 / (1 + Math.pow(10, -g * (rating - opponentRating) / 400));
+        double inverseD2 = Q * Q * g * g * expected * (1 - expected);
+        double precision = 1 / (dev * dev) + inverseD2;
+        glicko[player] = rating + Q / precision * g * (score - expected);
+        deviation[player] = Math.max(MIN_DEVIATION, Math.sqrt(1 / precision));
+    }
+
+    /**
+     * Get the number of players.
+     *
+     * @return : Number of players
+     */
+    public int size() { return names.length; }
+
+    /**
+     * Get the name of a player.
+     *
+     * @param player : index of the player
+     * @return : the name
+     */
+    public String getName(int player) { return names[player]; }
+
+    /**
+     * Get the Elo rating of a player.
+     *
+     * @param player : index of the player
+     * @return : the rating
+     */
+    public synchronized double getElo(int player) { return elo[player]; }
+
+    /**
+     * Get the Glicko rating of a player.
+     *
+     * @param player : index of the player
+     * @return : the rating
+     */
+    public synchronized double getGlicko(int player) { return glicko[player]; }
+
+    /**
+     * Get the Glicko deviation of a player.
+     *
+     * @param player : index of the player
+     * @return : the deviation
+     */
+    public synchronized double getDeviation(int player) { return deviation[player]; }
+
+    /**
+     * Get the standing of a player.
+     *
+     * @param player : index of the player
+     * @return : the standing
+     */
+    public synchronized Standing getStanding(int player) {
+        return new Standing(names[player], elo[player], glicko[player], deviation[player],
+                matches[player], wins[player], draws[player], losses[player]);
+    }
+
+    /**
+     * Get the standings of all players, best Elo rating first.
+     *
+     * @return : the standings
+     */
+    public synchronized List<Standing> standings() {
+        List<Standing> standings = new ArrayList<>();
+        for (int i = 0; i < names.length; i++)
+            standings.add(getStanding(i));
+        standings.sort(Comparator.comparingDouble(Standing::elo).reversed());
+        return standings;
+    }
+}
@@ -0,0 +1,222 @@
+package Controller;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The SessionServer class hosts many independent game sessions behind a local TCP socket.
+ * Every connection is served by its own virtual thread, which parks while the client is idle,
+ * so tens of thousands of open sessions cost little more than their tables.
+ *
+ * Protocol (one command per line, one reply per line):
+ * - NEW : creates a session, replies "SESSION id"
+ * - SHOT id force theta : plays a shot until the table is at rest, replies the state line
+ * - STATE id : replies the state line (see GameSession.describe())
+ * - RESTART id : racks a new game, replies the state line
+ * - CLOSE id : drops the session, replies "OK"
+ * - QUIT : closes the connection
+ * Errors are answered with "ERROR message"; a shot with a force outside 0 to GameSession.MAX_FORCE or an angle
+ * that is not finite is refused. The sessions created by a connection are dropped when it closes,
+ * so clients that go away without CLOSE do not leak tables.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class SessionServer implements AutoCloseable {
+
+    /**
+     * Open sessions by identifier
+     */
+    private final Map<Long, GameSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Next session identifier
+     */
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /**
+     * Socket accepting the connections
+     */
+    private final ServerSocket serverSocket;
+
+    /**
+     * Thread accepting the connections
+     */
+    private Thread acceptor;
+
+    /**
+     * Constructor for the SessionServer class. Binds to the loopback address only.
+     *
+     * @param port : TCP port, 0 for any free port
+     * @throws IOException : if the port cannot be bound
+     */
+    public SessionServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Start accepting connections on a virtual thread.
+     */
+    public void start() {
+        acceptor = Thread.ofVirtual().name("session-acceptor").start(this::acceptLoop);
+    }
+
+    /**
+     * Accept connections until the server socket is closed.
+     */
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().start(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed())
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Serve the commands of one connection.
+     *
+     * @param socket : the client connection
+     */
+    private void serve(Socket socket) {
+        Set<Long> owned = new HashSet<>();
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().equalsIgnoreCase("QUIT"))
+                    break;
+                out.println(handle(line, owned));
+            }
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            for (Long id : owned)
+                sessions.remove(id);
+        }
+    }
+
+    /**
+     * Execute one command.
+     *
+     * @param line : the command line
+     * @param owned : sessions created by the connection, dropped when it closes
+     * @return : the reply line
+     */
+    String handle(String line, Set<Long> owned) {
+        String[] words = line.trim().split("\\s+");
+        try {
+            switch (words[0].toUpperCase()) {
+                case "NEW" -> {
+                    long id = nextId.getAndIncrement();
+                    sessions.put(id, new GameSession(id));
+                    owned.add(id);
+                    return "SESSION " + id;
+                }
+                case "SHOT" -> {
+                    GameSession session = session(words);
+                    float force = Float.parseFloat(words[2]);
+                    float theta = Float.parseFloat(words[3]);
+                    GameSession.checkShot(force, theta);
+                    synchronized (session) {
+                        session.shoot(force, theta);
+                        return session.describe();
+                    }
+                }
+                case "STATE" -> {
+                    GameSession session = session(words);
+                    synchronized (session) {
+                        return session.describe();
+                    }
+                }
+                case "RESTART" -> {
+                    GameSession session = session(words);
+                    synchronized (session) {
+                        session.restart();
+                        return session.describe();
+                    }
+                }
+                case "CLOSE" -> {
+                    long id = Long.parseLong(words[1]);
+                    owned.remove(id);
+                    return sessions.remove(id) != null ? "OK" : "ERROR unknown session";
+                }
+                default -> {
+                    return "ERROR unknown command " + words[0];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            return "ERROR malformed command";
+        } catch (IllegalArgumentException e) {
+            return "ERROR " + e.getMessage();
+        }
+    }
+
+    /**
+     * Find the session named by the second word of a command.
+     *
+     * @param words : the words of the command
+     * @return : the session
+     */
+    private GameSession session(String[] words) {
+        GameSession session = sessions.get(Long.parseLong(words[1]));
+        if (session == null)
+            throw new IllegalArgumentException("unknown session");
+        return session;
+    }
+
+    /**
+     * Get the port the server listens on.
+     *
+     * @return : TCP port
+     */
+    public int getPort() { return serverSocket.getLocalPort(); }
+
+    /**
+     * Get the number of open sessions.
+     *
+     * @return : Number of sessions
+     */
+    public int getSessionCount() { return sessions.size(); }
+
+    /**
+     * Stop accepting connections. Connections already open end when their client disconnects.
+     *
+     * @throws IOException : if the server socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        if (acceptor != null)
+            acceptor.interrupt();
+    }
+
+    /**
+     * Run a session server from the command line.
+     *
+     * @param args : optional TCP port, 7777 by default
+     * @throws IOException : if the port cannot be bound
+     * @throws InterruptedException : if the server thread is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        SessionServer server = new SessionServer(args.length > 0 ? Integer.parseInt(args[0]) : 7777);
+        server.start();
+        System.out.println("Session server listening on port " + server.getPort());
+        server.acceptor.join();
+    }
+}
@@ -0,0 +1,76 @@
+package Controller;
+
+import Model.Ball;
+import Model.ShotEvaluator;
+import Model.Table;
+
+import java.util.Random;
+
+/**
+ * The Strategy interface chooses the shots of a player without a view, for the bot tournaments of Tournament.
+ * A strategy must not keep state between calls: one strategy plays many matches at once on several threads,
+ * and draws its randomness from the generator of the match, so a match can be replayed from its seed.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface Strategy {
+
+    /**
+     * A shot with the white ball.
+     *
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     */
+    record Shot(float force, float theta) {}
+
+    /**
+     * Choose the next shot.
+     *
+     * @param table : the billiard table, at rest; it must not be changed
+     * @param random : random generator of the match
+     * @return : the shot
+     */
+    Shot chooseShot(Table table, Random random);
+
+    /**
+     * Get a strategy playing random shots, with a force between 2 and 20.
+     *
+     * @return : the strategy
+     */
+    static Strategy random() {
+        return (table, random) -> new Shot(2 + random.nextFloat() * 18, (float) (random.nextFloat() * 2 * Math.PI));
+    }
+
+    /**
+     * Get a strategy aiming the white ball at every object ball with some forces, and playing the candidate
+     * that scores most according to ShotEvaluator, pocketing the fewest white balls on ties.
+     *
+     * @param forces : number of forces tried per object ball, spread between 4 and 20
+     * @return : the strategy
+     * @throws IllegalArgumentException : if forces is not positive
+     */
+    static Strategy greedy(int forces) {
+        if (forces <= 0)
+            throw new IllegalArgumentException("forces must be positive");
+        return (table, random) -> {
+            Ball[] balls = table.getBalls();
+            Ball white = balls[0];
+            int candidates = forces * (balls.length - 1);
+            if (candidates == 0)
+                return random().chooseShot(table, random);
+            float[] force = new float[candidates], theta = new float[candidates];
+            for (int i = 1, c = 0; i < balls.length; i++) {
+                float angle = (float) Math.atan2(balls[i].getY() - white.getY(), balls[i].getX() - white.getX());
+                for (int f = 0; f < forces; f++, c++) {
+                    // a random offset keeps two strategies from always playing the same shots
+                    force[c] = 4 + 16 * (f + random.nextFloat()) / forces;
+                    theta[c] = angle;
+                }
+            }
+            int best = ShotEvaluator.best(table, force, theta);
+            return new Shot(force[best], theta[best]);
+        };
+    }
+}
@@ -0,0 +1,420 @@
+package Controller;
+
+import Model.Table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * The Tournament class plays bot-vs-bot tournaments between strategies, headless, and rates the players.
+ *
+ * A match is played in duplicate, as the game has a single player: both players get their own GameSession on the
+ * same rack, the same random break shot is played on both tables, then every player shoots with its strategy until
+ * its game is won, lost or reaches the shot limit. A won game beats a game that is not won, two won games are
+ * decided by the fewest moves and two other games by the highest score, then by the fewest white balls pocketed.
+ * Every player has a budget per match for choosing and playing its shots, counted in physics steps: the steps of
+ * its shots and of every simulation its strategy runs. A player over its budget stops and loses the match, and the
+ * match is drawn if both are over. The budget is checked after every shot, so a player may go over it by one shot;
+ * being counted in steps rather than time, it does not depend on the machine or the load of the other threads.
+ *
+ * The matches are independent, so every match is its own task on a work-stealing ForkJoinPool, and a worker done with
+ * short matches steals the others. The result of a match updates the Ratings as soon as it is known, then goes
+ * to the listener. A match is reproducible from its seed, but with several threads the matches finish,
+ * and the online ratings are updated, in varying order.
+ *
+ * Usage: java Controller.Tournament [key=value ...]
+ * - format=roundrobin|swiss, rounds=4 (cycles of the round robin, or rounds of the Swiss system), seed=1
+ * - threads=(processors), budget=1000000 (physics steps per player and match), shots=60 (per game)
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class Tournament implements AutoCloseable {
+
+    /**
+     * Result of a match.
+     *
+     * @param round : round of the match, from 0
+     * @param first : index of the first player
+     * @param second : index of the second player
+     * @param score : result of the first player, 1 for a win, 0.5 for a draw, 0 for a loss
+     * @param firstGame : game of the first player
+     * @param secondGame : game of the second player
+     * @param seed : seed of the match
+     */
+    public record MatchResult(int round, int first, int second, double score, GameResult firstGame, GameResult secondGame, long seed) {}
+
+    /**
+     * Result of the game of one player in a match.
+     *
+     * @param state : state of the game at the end, PLAYING if it reached the shot limit or the budget
+     * @param score : score of the game
+     * @param moves : number of moves, the break shot included
+     * @param whiteBalls : number of white balls pocketed
+     * @param steps : physics steps spent choosing and playing the shots
+     * @param timedOut : true if the player went over its budget
+     */
+    public record GameResult(GameState state, int score, int moves, int whiteBalls, long steps, boolean timedOut) {}
+
+    /**
+     * Names of the players
+     */
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Strategies of the players
+     */
+    private final List<Strategy> strategies = new ArrayList<>();
+
+    /**
+     * Pool playing the matches
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Budget of every player in a match, in physics steps
+     */
+    private final long budgetSteps;
+
+    /**
+     * Largest number of shots of a game, the break shot included
+     */
+    private final int maxShots;
+
+    /**
+     * Listener receiving the results of the matches, null if none
+     */
+    private Consumer<MatchResult> listener;
+
+    /**
+     * Constructor for the Tournament class.
+     *
+     * @param parallelism : number of threads playing the matches
+     * @param budgetSteps : budget of every player in a match, in physics steps
+     * @param maxShots : largest number of shots of a game, the break shot included
+     * @throws IllegalArgumentException : if a value is not positive
+     */
+    public Tournament(int parallelism, long budgetSteps, int maxShots) {
+        if (parallelism <= 0 || budgetSteps <= 0 || maxShots <= 0)
+            throw new IllegalArgumentException("parallelism, budget and shots must be positive");
+        this.pool = new ForkJoinPool(parallelism);
+        this.budgetSteps = budgetSteps;
+        this.maxShots = maxShots;
+    }
+
+    /**
+     * Add a player.
+     *
+     * @param name : name of the player
+     * @param strategy : strategy of the player, shared by all its matches
+     * @return : index of the player
+     */
+    public int addPlayer(String name, Strategy strategy) {
+        names.add(name);
+        strategies.add(strategy);
+        return names.size() - 1;
+    }
+
+    /**
+     * Set the listener receiving the result of every match, after the ratings were updated.
+     * It is called by the threads playing the matches, one call at a time.
+     *
+     * @param listener : the listener, null for none
+     */
+    public void setListener(Consumer<MatchResult> listener) { this.listener = listener; }
+
+    /**
+     * Play a round robin: every player meets every other one once per cycle.
+     * All matches are scheduled at once.
+     *
+     * @param cycles : number of cycles
+     * @param seed : seed of the tournament
+     * @return : the ratings after the last match
+     */
+    public Ratings roundRobin(int cycles, long seed) {
+        Ratings ratings = new Ratings(names.toArray(new String[0]));
+        List<int[]> pairings = new ArrayList<>();
+        for (int cycle = 0; cycle < cycles; cycle++) {
+            for (int a = 0; a < names.size(); a++) {
+                for (int b = a + 1; b < names.size(); b++)
+                    pairings.add(cycle % 2 == 0 ? new int[]{a, b, cycle} : new int[]{b, a, cycle});
+            }
+        }
+        play(ratings, pairings, seed, null);
+        return ratings;
+    }
+
+    /**
+     * Play a tournament in the Swiss system: every round pairs players with the same points, best rated first,
+     * avoiding rematches when possible. With an odd number of players, the last one unpaired gets a bye,
+     * worth a win for the pairings but not rated. A round is paired once the previous one is over.
+     *
+     * @param rounds : number of rounds
+     * @param seed : seed of the tournament
+     * @return : the ratings after the last match
+     */
+    public Ratings swiss(int rounds, long seed) {
+        int n = names.size();
+        Ratings ratings = new Ratings(names.toArray(new String[0]));
+        boolean[][] met = new boolean[n][n];
+        double[] points = new double[n];
+        Consumer<MatchResult> scoring = result -> {
+            points[result.first()] += result.score();
+            points[result.second()] += 1 - result.score();
+        };
+        for (int round = 0; round < rounds; round++) {
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++)
+                order[i] = i;
+            Arrays.sort(order, Comparator.<Integer>comparingDouble(i -> -points[i]).thenComparingDouble(i -> -ratings.getElo(i)));
+            boolean[] paired = new boolean[n];
+            List<int[]> pairings = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int a = order[i];
+                if (paired[a])
+                    continue;
+                int opponent = -1;
+                for (int j = i + 1; j < n; j++) {
+                    int b = order[j];
+                    if (!paired[b] && (opponent < 0 || !met[a][b] && met[a][opponent]))
+                        opponent = b;
+                }
+                paired[a] = true;
+                if (opponent < 0) {
+                    points[a]++;
+                    continue;
+                }
+                paired[opponent] = true;
+                met[a][opponent] = met[opponent][a] = true;
+                pairings.add(new int[]{a, opponent, round});
+            }
+            // the points of the round are added after the round, so the pairings only see finished rounds
+            List<MatchResult> results = new ArrayList<>();
+            play(ratings, pairings, seed, results::add);
+            results.forEach(scoring);
+        }
+        return ratings;
+    }
+
+    /**
+     * Play matches on the pool and wait for all of them.
+     *
+     * @param ratings : ratings updated by the matches
+     * @param pairings : first player, second player and round of every match
+     * @param seed : seed of the tournament
+     * @param results : receives the results before the listener, under the lock of the ratings; null if none
+     */
+    private void play(Ratings ratings, List<int[]> pairings, long seed, Consumer<MatchResult> results) {
+        if (!pairings.isEmpty())
+            pool.invoke(new MatchTask(ratings, pairings, seed, results, 0, pairings.size()));
+    }
+
+    /**
+     * Play one match and rate it.
+     *
+     * @param ratings : ratings updated by the match
+     * @param pairing : first player, second player and round of the match
+     * @param seed : seed of the match
+     * @param results : receives the result before the listener, null if none
+     */
+    private void playAndRate(Ratings ratings, int[] pairing, long seed, Consumer<MatchResult> results) {
+        MatchResult result = playMatch(pairing[0], pairing[1], pairing[2], seed);
+        synchronized (ratings) {
+            ratings.record(result.first(), result.second(), result.score());
+            if (results != null)
+                results.accept(result);
+            if (listener != null)
+                listener.accept(result);
+        }
+    }
+
+    /**
+     * Play one match in duplicate.
+     *
+     * @param first : index of the first player
+     * @param second : index of the second player
+     * @param round : round of the match
+     * @param seed : seed of the match
+     * @return : the result of the match
+     */
+    public MatchResult playMatch(int first, int second, int round, long seed) {
+        Random random = new Random(seed);
+        Strategy.Shot breakShot = Strategy.random().chooseShot(null, random);
+        GameResult firstGame = playGame(strategies.get(first), breakShot, new Random(random.nextLong()), seed);
+        GameResult secondGame = playGame(strategies.get(second), breakShot, new Random(random.nextLong()), seed);
+        return new MatchResult(round, first, second, compare(firstGame, secondGame), firstGame, secondGame, seed);
+    }
+
+    /**
+     * Play the game of one player of a match.
+     *
+     * @param strategy : strategy of the player
+     * @param breakShot : break shot of the match
+     * @param random : random generator of the player
+     * @param seed : seed of the match
+     * @return : the result of the game
+     */
+    private GameResult playGame(Strategy strategy, Strategy.Shot breakShot, Random random, long seed) {
+        GameSession session = new GameSession(seed);
+        Table table = session.getTable();
+        GameState state = session.shoot(breakShot.force(), breakShot.theta());
+        // the game is played on this thread, so the steps of the thread are those of the player
+        long start = Table.getThreadStepCount(), steps = 0;
+        while (state == GameState.PLAYING && table.getMoves() < maxShots && steps <= budgetSteps) {
+            Strategy.Shot shot = strategy.chooseShot(table, random);
+            state = session.shoot(shot.force(), shot.theta());
+            steps = Table.getThreadStepCount() - start;
+        }
+        return new GameResult(state, table.getScore(), table.getMoves(), table.getWhiteBallPocketCount(), steps, steps > budgetSteps);
+    }
+
+    /**
+     * Compare the games of the two players of a match.
+     *
+     * @param first : game of the first player
+     * @param second : game of the second player
+     * @return : result of the first player, 1 for a win, 0.5 for a draw, 0 for a loss
+     */
+    static double compare(GameResult first, GameResult second) {
+        if (first.timedOut() || second.timedOut())
+            return first.timedOut() == second.timedOut() ? 0.5 : first.timedOut() ? 0 : 1;
+        boolean firstWon = first.state() == GameState.GAME_WIN, secondWon = second.state() == GameState.GAME_WIN;
+        int order;
+        if (firstWon != secondWon)
+            order = firstWon ? 1 : -1;
+        else if (firstWon)
+            order = Integer.compare(second.moves(), first.moves());
+        else if (first.score() != second.score())
+            order = Integer.compare(first.score(), second.score());
+        else
+            order = Integer.compare(second.whiteBalls(), first.whiteBalls());
+        return order > 0 ? 1 : order < 0 ? 0 : 0.5;
+    }
+
+    /**
+     * Get the number of players.
+     *
+     * @return : Number of players
+     */
+    public int getPlayerCount() { return names.size(); }
+
+    /**
+     * Stop the threads of the pool.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Task playing a range of matches, split down to single matches so idle workers can steal them.
+     */
+    @SuppressWarnings("serial")
+    private final class MatchTask extends RecursiveAction {
+
+        /**
+         * Ratings updated by the matches
+         */
+        private final Ratings ratings;
+
+        /**
+         * All pairings of the tournament step
+         */
+        private final List<int[]> pairings;
+
+        /**
+         * Seed of the tournament
+         */
+        private final long seed;
+
+        /**
+         * Receives the results before the listener, null if none
+         */
+        private final Consumer<MatchResult> results;
+
+        /**
+         * Range of matches
+         */
+        private final int from, to;
+
+        /**
+         * Constructor for the MatchTask class.
+         *
+         * @param ratings : ratings updated by the matches
+         * @param pairings : all pairings of the tournament step
+         * @param seed : seed of the tournament
+         * @param results : receives the results before the listener, null if none
+         * @param from : first match
+         * @param to : match after the last one
+         */
+        MatchTask(Ratings ratings, List<int[]> pairings, long seed, Consumer<MatchResult> results, int from, int to) {
+            this.ratings = ratings;
+            this.pairings = pairings;
+            this.seed = seed;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                int[] pairing = pairings.get(from);
+                long matchSeed = seed * 0x9E3779B97F4A7C15L + pairing[2] * 1_000_003L + pairing[0] * 1_009L + pairing[1];
+                playAndRate(ratings, pairing, matchSeed, results);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new MatchTask(ratings, pairings, seed, results, from, middle),
+                    new MatchTask(ratings, pairings, seed, results, middle, to));
+        }
+    }
+
+    /**
+     * Play a tournament between the built-in strategies and print the standings and the throughput.
+     *
+     * @param args : options as key=value
+     */
+    public static void main(String[] args) {
+        String format = "roundrobin";
+        int rounds = 4, threads = Runtime.getRuntime().availableProcessors(), shots = 60;
+        long budget = 1_000_000, seed = 1;
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2)
+                throw new IllegalArgumentException("expected key=value, got " + arg);
+            switch (option[0]) {
+                case "format" -> format = option[1];
+                case "rounds" -> rounds = Integer.parseInt(option[1]);
+                case "threads" -> threads = Integer.parseInt(option[1]);
+                case "budget" -> budget = Long.parseLong(option[1]);
+                case "shots" -> shots = Integer.parseInt(option[1]);
+                case "seed" -> seed = Long.parseLong(option[1]);
+                default -> throw new IllegalArgumentException("unknown option " + option[0]);
+            }
+        }
+        try (Tournament tournament = new Tournament(threads, budget, shots)) {
+            tournament.addPlayer("random-a", Strategy.random());
+            tournament.addPlayer("random-b", Strategy.random());
+            tournament.addPlayer("greedy-1", Strategy.greedy(1));
+            tournament.addPlayer("greedy-2", Strategy.greedy(2));
+            long start = System.nanoTime();
+            Ratings ratings = switch (format) {
+                case "roundrobin" -> tournament.roundRobin(rounds, seed);
+                case "swiss" -> tournament.swiss(rounds, seed);
+                default -> throw new IllegalArgumentException("unknown format " + format);
+            };
+            double minutes = (System.nanoTime() - start) / 6e10;
+            int matches = ratings.standings().stream().mapToInt(Ratings.Standing::matches).sum() / 2;
+            ratings.standings().forEach(System.out::println);
+            System.out.printf(Locale.ROOT, "%d matches on %d threads: %.0f matches/min%n", matches, threads, matches / minutes);
+        }
+    }
+}
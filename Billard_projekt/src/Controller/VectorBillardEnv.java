@@ -0,0 +1,250 @@
+package Controller;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The VectorBillardEnv class steps many BillardEnv environments at once, for training on batches.
+ *
+ * Actions are read from flat arrays and the results are written into flat arrays owned by the vector
+ * and reused by every step: observations (OBSERVATION_SIZE values per environment), rewards and done flags.
+ * An environment whose episode ends is reset at once, so its observation is the first one of the next episode,
+ * as with the auto-reset of gym vector environments.
+ * The environments are split into chunks stepped in parallel on a ForkJoinPool.
+ *
+ * Usage: java Controller.VectorBillardEnv [environments] [steps] [threads]
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public final class VectorBillardEnv implements AutoCloseable {
+
+    /**
+     * The environments
+     */
+    private final BillardEnv[] envs;
+
+    /**
+     * Observations of all environments, one after the other
+     */
+    private final float[] observations;
+
+    /**
+     * Reward of the last step of every environment
+     */
+    private final float[] rewards;
+
+    /**
+     * Flag of every environment telling whether the last step ended its episode
+     */
+    private final boolean[] dones;
+
+    /**
+     * Pool stepping the chunks, null to step on the calling thread
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Number of environments stepped by one task
+     */
+    private final int chunk;
+
+    /**
+     * Constructor for the VectorBillardEnv class.
+     *
+     * @param count : number of environments
+     * @param parallelism : number of threads stepping the environments, 1 to step on the calling thread
+     */
+    public VectorBillardEnv(int count, int parallelism) {
+        if (count <= 0 || parallelism <= 0)
+            throw new IllegalArgumentException("count and parallelism must be positive");
+        envs = new BillardEnv[count];
+        for (int i = 0; i < count; i++)
+            envs[i] = new BillardEnv();
+        observations = new float[count * BillardEnv.OBSERVATION_SIZE];
+        rewards = new float[count];
+        dones = new boolean[count];
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        chunk = Math.max(1, count / (4 * parallelism));
+        reset();
+    }
+
+    /**
+     * Start a new episode in every environment.
+     *
+     * @return : the observations
+     */
+    public float[] reset() {
+        for (int i = 0; i < envs.length; i++) {
+            envs[i].reset();
+            envs[i].observe(observations, i * BillardEnv.OBSERVATION_SIZE);
+            rewards[i] = 0;
+            dones[i] = false;
+        }
+        return observations;
+    }
+
+    /**
+     * Play one shot in every environment.
+     * All actions are checked before any environment is stepped, so a refused action leaves every environment,
+     * observation, reward and done flag as it was.
+     *
+     * @param forces : magnitude of the force of every environment
+     * @param thetas : angle of the force of every environment
+     * @return : the observations after the shots
+     * @throws IllegalArgumentException : if an action is missing or refused by GameSession.shoot()
+     * @throws IllegalStateException : if the episode of an environment stepped through get() is over and was not reset
+     */
+    public float[] step(float[] forces, float[] thetas) {
+        if (forces.length < envs.length || thetas.length < envs.length)
+            throw new IllegalArgumentException("one action per environment is needed");
+        for (int i = 0; i < envs.length; i++) {
+            try {
+                GameSession.checkShot(forces[i], thetas[i]);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("environment " + i + ": " + e.getMessage(), e);
+            }
+            if (envs[i].isDone())
+                throw new IllegalStateException("environment " + i + ": the episode is over, reset() first");
+        }
+        if (pool == null)
+            stepRange(forces, thetas, 0, envs.length);
+        else
+            pool.invoke(new StepTask(forces, thetas, 0, envs.length));
+        return observations;
+    }
+
+    /**
+     * Play one shot in a range of environments.
+     *
+     * @param forces : magnitude of the force of every environment
+     * @param thetas : angle of the force of every environment
+     * @param from : first environment
+     * @param to : environment after the last one
+     */
+    private void stepRange(float[] forces, float[] thetas, int from, int to) {
+        for (int i = from; i < to; i++) {
+            BillardEnv env = envs[i];
+            rewards[i] = env.step(forces[i], thetas[i]);
+            dones[i] = env.isDone();
+            if (dones[i])
+                env.reset();
+            env.observe(observations, i * BillardEnv.OBSERVATION_SIZE);
+        }
+    }
+
+    /**
+     * Task splitting a range of environments into chunks.
+     */
+    @SuppressWarnings("serial")
+    private final class StepTask extends RecursiveAction {
+
+        /**
+         * Actions of the step
+         */
+        private final float[] forces, thetas;
+
+        /**
+         * Range of environments
+         */
+        private final int from, to;
+
+        /**
+         * Constructor for the StepTask class.
+         *
+         * @param forces : magnitude of the force of every environment
+         * @param thetas : angle of the force of every environment
+         * @param from : first environment
+         * @param to : environment after the last one
+         */
+        StepTask(float[] forces, float[] thetas, int from, int to) {
+            this.forces = forces;
+            this.thetas = thetas;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                stepRange(forces, thetas, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new StepTask(forces, thetas, from, middle), new StepTask(forces, thetas, middle, to));
+        }
+    }
+
+    /**
+     * Get the observations of all environments, OBSERVATION_SIZE values per environment.
+     *
+     * @return : the observations, reused by every step
+     */
+    public float[] getObservations() { return observations; }
+
+    /**
+     * Get the rewards of the last step.
+     *
+     * @return : the rewards, reused by every step
+     */
+    public float[] getRewards() { return rewards; }
+
+    /**
+     * Get the done flags of the last step.
+     *
+     * @return : the done flags, reused by every step
+     */
+    public boolean[] getDones() { return dones; }
+
+    /**
+     * Get the number of environments.
+     *
+     * @return : number of environments
+     */
+    public int size() { return envs.length; }
+
+    /**
+     * Get one environment.
+     *
+     * @param index : index of the environment
+     * @return : the environment
+     */
+    public BillardEnv get(int index) { return envs[index]; }
+
+    /**
+     * Stop the threads stepping the environments.
+     */
+    @Override
+    public void close() {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    /**
+     * Measure the throughput of random shots from the command line.
+     *
+     * @param args : number of environments, number of vector steps, number of threads
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        float[] forces = new float[count], thetas = new float[count];
+        Random random = new Random(1);
+        try (VectorBillardEnv vector = new VectorBillardEnv(count, threads)) {
+            long start = System.nanoTime();
+            for (int s = 0; s < steps; s++) {
+                for (int i = 0; i < count; i++) {
+                    forces[i] = 2 + random.nextFloat() * 18;
+                    thetas[i] = (float) (random.nextFloat() * 2 * Math.PI);
+                }
+                vector.step(forces, thetas);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf(Locale.ROOT, "%d environments, %d threads: %.0f env steps/s, %.0f per thread%n",
+                    count, threads, count * steps / seconds, count * steps / seconds / threads);
+        }
+    }
+}
@@ -1,12 +1,17 @@
 import Controller.BillardController;
+import Model.GameHistoryStore;
 import Model.Table;
 import View.BillardView;
 import processing.core.PApplet;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 /**
  * The Main class serves as the entry point for the billiard game application.
  * It initializes the model (Table), controller (BillardController), and view (BillardView).
  * It then connects the model, view, and controller and starts the Processing sketch.
+ * Everything not needed for the welcome page is done later or in the background, so the first frame comes up fast.
  *
  * @author Tcheumen Nanseu Lionel
  * @version 1.0
@@ -45,10 +50,47 @@ public final class Main {
         controller.setView(view);
         view.setController(controller);
 
+        /**
+         * Play a scripted game and exit when a training run is asked for, see README
+         */
+        int trainingFrames = Integer.getInteger("billard.training", 0);
+        if (trainingFrames > 0)
+            controller.setTrainingRun(trainingFrames, view::exit);
+
+        /**
+         * Record the positions of the balls when a trajectory file is asked for, one archive per game, see README.
+         * The last block of the archive of the current game is written when the program exits.
+         */
+        String trajectoryFile = System.getProperty("billard.trajectory");
+        if (trajectoryFile != null) {
+            controller.setTrajectoryFile(Path.of(trajectoryFile));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                synchronized (model) {
+                    try {
+                        controller.closeTrajectory();
+                    } catch (IOException e) {
+                        System.out.println("Trajectory not completed: " + e.getMessage());
+                    }
+                }
+            }));
+        }
+
         /**
          * Start the Processing sketch with the specified name and view
          */
         PApplet.runSketch(new String[]{"BillardView"}, view);
 
+        /**
+         * Keep the finished games in the user's home directory, if it is writable.
+         * Reading the history takes a while, so it runs in the background while the welcome page is shown.
+         */
+        Thread.ofVirtual().name("billard-history-open").start(() -> {
+            try {
+                controller.setHistoryStore(new GameHistoryStore(Path.of(System.getProperty("user.home"), ".billard")));
+            } catch (IOException e) {
+                System.out.println("Game history disabled: " + e.getMessage());
+            }
+        });
+
     }
 }
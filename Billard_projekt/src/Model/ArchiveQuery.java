@@ -0,0 +1,694 @@
+package Model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The ArchiveQuery class computes statistics over many games recorded by TrajectoryWriter, one game per archive:
+ * pockets per hole, scratches, shots and moves to win, and a heatmap of where balls come to rest.
+ *
+ * The archives are scanned in parallel on a ForkJoinPool: the files are split in halves down to single files,
+ * and the blocks of a file are split into chunks of CHUNK_BLOCKS blocks. Every task adds up its own partial
+ * result, and the partial results are added together as the tasks are joined, so no lock is taken.
+ * A chunk also decodes the block before it, to know where the balls were when the chunk starts.
+ *
+ * Filters are pushed down to the index of the archives, so columns are only decoded when they may matter:
+ * - steps outside the range of the query are not scanned;
+ * - only the balls needed by the measures are scanned: the white ball for scratches and moves,
+ *   the object balls for pockets, all balls for the heatmap;
+ * - a ball at rest during a whole block is never decoded;
+ * - for pockets, a block is only decoded if the ball leaves the table during it or right after it;
+ * - for the heatmap, a block is only decoded if the bounds of the ball meet the region of the query.
+ *
+ * A scratch is found as a jump of the white ball, from the hole it fell into back to the head string.
+ * A shot is counted when the white ball starts moving while no other ball rolls, so a white ball pushed by another
+ * ball is not a shot; a game is won if no object ball is left at its end.
+ *
+ * Example:
+ * new ArchiveQuery(table).measures(ArchiveQuery.Measure.POCKETS).steps(0, 10_000).run(files)
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class ArchiveQuery {
+
+    /**
+     * Statistics a query can compute.
+     * POCKETS: object balls pocketed per hole.
+     * SCRATCHES: white balls pocketed.
+     * MOVES: shots of every game, and of the won games.
+     * REST_HEATMAP: where balls come to rest, counted per cell of a grid over the table.
+     */
+    public enum Measure { POCKETS, SCRATCHES, MOVES, REST_HEATMAP }
+
+    /**
+     * Number of blocks of a file scanned by one task
+     */
+    static final int CHUNK_BLOCKS = 16;
+
+    /**
+     * Longest move of a ball in its last step before it stops, with room for the rounding of the positions:
+     * a ball moves by its speed and then slows down by 0.02, so it stops after a step no longer than that
+     */
+    static final float LAST_STEP = 0.0205f;
+
+    /**
+     * Table with the geometry and the holes of the recorded games
+     */
+    private final Table template;
+
+    /**
+     * Statistics to compute
+     */
+    private Set<Measure> measures = EnumSet.allOf(Measure.class);
+
+    /**
+     * Range of steps counted in every game, the last one excluded
+     */
+    private long fromStep = 0, toStep = Long.MAX_VALUE;
+
+    /**
+     * Region where balls coming to rest are counted
+     */
+    private float left = Float.NEGATIVE_INFINITY, top = Float.NEGATIVE_INFINITY;
+    private float right = Float.POSITIVE_INFINITY, bottom = Float.POSITIVE_INFINITY;
+
+    /**
+     * Size of a cell of the heatmap
+     */
+    private float cell;
+
+    /**
+     * Pool running the tasks
+     */
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * Shortest jump of the white ball taken as a scratch: a rolling ball never moves that far in one step
+     */
+    private final float scratchJump;
+
+    /**
+     * Number of columns and rows of the heatmap of the running scan
+     */
+    private int columns, rows;
+
+    /**
+     * Result of a query, added up over all games.
+     *
+     * @param games : number of games
+     * @param wonGames : number of won games
+     * @param pockets : object balls pocketed in every hole, in the order of Table.getHoles()
+     * @param scratches : number of times the white ball was pocketed
+     * @param shots : number of shots
+     * @param wonShots : number of shots of the won games
+     * @param heatmap : balls coming to rest in every cell, row by row
+     * @param columns : number of columns of the heatmap
+     * @param cell : size of a cell of the heatmap
+     * @param decoded : number of columns decoded
+     * @param skipped : number of columns answered from the index alone
+     */
+    public record Result(long games, long wonGames, long[] pockets, long scratches, long shots, long wonShots,
+                         long[] heatmap, int columns, float cell, long decoded, long skipped) {
+
+        /**
+         * Get the share of the pocketed object balls that fell into a hole.
+         *
+         * @param hole : index of the hole
+         * @return : share between 0 and 1, 0 if no ball was pocketed
+         */
+        public double pocketRate(int hole) {
+            long total = Arrays.stream(pockets).sum();
+            return total == 0 ? 0 : (double) pockets[hole] / total;
+        }
+
+        /**
+         * Get the average number of scratches per game.
+         *
+         * @return : scratches per game, 0 without games
+         */
+        public double scratchesPerGame() { return games == 0 ? 0 : (double) scratches / games; }
+
+        /**
+         * Get the share of the shots ending with a scratch.
+         *
+         * @return : scratches per shot, 0 without shots
+         */
+        public double scratchesPerShot() { return shots == 0 ? 0 : (double) scratches / shots; }
+
+        /**
+         * Get the average number of moves of the won games.
+         *
+         * @return : moves per won game, NaN without won games
+         */
+        public double averageMovesToWin() { return wonGames == 0 ? Double.NaN : (double) wonShots / wonGames; }
+
+        /**
+         * Get the number of balls that came to rest in a cell of the heatmap.
+         *
+         * @param column : column of the cell
+         * @param row : row of the cell
+         * @return : number of balls
+         */
+        public long restCount(int column, int row) { return heatmap[row * columns + column]; }
+    }
+
+    /**
+     * Constructor for the ArchiveQuery class, computing every measure over all steps,
+     * with a heatmap of cells as large as a ball.
+     *
+     * @param template : table with the geometry and the holes of the recorded games
+     */
+    public ArchiveQuery(Table template) {
+        this.template = template;
+        this.cell = template.getBallSize();
+        this.scratchJump = template.getMyW() / 8;
+    }
+
+    /**
+     * Set the statistics to compute; the others stay zero.
+     *
+     * @param first : a statistic
+     * @param others : more statistics
+     * @return : this query
+     */
+    public ArchiveQuery measures(Measure first, Measure... others) { this.measures = EnumSet.of(first, others); return this; }
+
+    /**
+     * Only count what happens in a range of steps of every game.
+     *
+     * @param from : first step
+     * @param to : step after the last one
+     * @return : this query
+     */
+    public ArchiveQuery steps(long from, long to) { this.fromStep = from; this.toStep = to; return this; }
+
+    /**
+     * Only count the balls coming to rest inside a rectangle.
+     *
+     * @param left : left edge
+     * @param top : top edge
+     * @param right : right edge
+     * @param bottom : bottom edge
+     * @return : this query
+     */
+    public ArchiveQuery region(float left, float top, float right, float bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        return this;
+    }
+
+    /**
+     * Set the size of a cell of the heatmap.
+     *
+     * @param cell : size of a cell
+     * @return : this query
+     */
+    public ArchiveQuery cell(float cell) { this.cell = cell; return this; }
+
+    /**
+     * Set the pool running the scan; the common pool is used otherwise.
+     *
+     * @param pool : the pool
+     * @return : this query
+     */
+    public ArchiveQuery pool(ForkJoinPool pool) { this.pool = pool; return this; }
+
+    /**
+     * Scan the archives, one game per archive. A query runs one scan at a time.
+     *
+     * @param archives : files written by TrajectoryWriter
+     * @return : the statistics added up over all games
+     * @throws IOException : if an archive cannot be read
+     */
+    public synchronized Result run(List<Path> archives) throws IOException {
+        columns = (int) Math.ceil(template.getMyW() / cell);
+        rows = (int) Math.ceil(template.getMyH() / cell);
+        Partial total;
+        try {
+            total = archives.isEmpty() ? new Partial() : pool.invoke(new FilesTask(archives, 0, archives.size()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new Result(total.games, total.wonGames, total.pockets, total.scratches, total.shots, total.wonShots,
+                total.heatmap, columns, cell, total.decoded, total.skipped);
+    }
+
+    /**
+     * Scan one archive, its chunks in parallel.
+     *
+     * @param file : the archive
+     * @return : statistics of the game
+     * @throws IOException : if the archive cannot be read
+     */
+    private Partial scanFile(Path file) throws IOException {
+        try (TrajectoryReader reader = new TrajectoryReader(file)) {
+            List<ChunkTask> chunks = new ArrayList<>();
+            for (int block = 0; block < reader.getBlockCount(); block += CHUNK_BLOCKS) {
+                int to = Math.min(reader.getBlockCount(), block + CHUNK_BLOCKS);
+                if (reader.getFirstStep(block) < toStep && reader.getFirstStep(to - 1) + reader.getBlockSteps(to - 1) > fromStep)
+                    chunks.add(new ChunkTask(reader, block, to));
+            }
+            Partial game = new Partial();
+            for (ChunkTask chunk : ForkJoinTask.invokeAll(chunks))
+                game.add(chunk.join());
+
+            boolean won = true;
+            if (reader.getBlockCount() > 0) {
+                int last = reader.getBlockCount() - 1;
+                for (int color : reader.getColors(last))
+                    won &= color == 0 || !present(reader, last, color, reader.getBlockSteps(last) - 1);
+            }
+            game.games = 1;
+            if (won) {
+                game.wonGames = 1;
+                game.wonShots = game.shots;
+            }
+            return game;
+        }
+    }
+
+    /**
+     * Check from the index whether a ball is on the table at a step of a block, decoding only if needed.
+     *
+     * @param reader : the archive
+     * @param block : index of the block
+     * @param color : color of the ball
+     * @param index : step in the block
+     * @return : True if the ball is on the table
+     * @throws IOException : if the archive cannot be read
+     */
+    private static boolean present(TrajectoryReader reader, int block, int color, int index) throws IOException {
+        int steps = reader.getBlockSteps(block), present = reader.getPresentSteps(block, color);
+        if (present == 0 || present == steps)
+            return present == steps;
+        float[] x = new float[steps], y = new float[steps];
+        reader.readBlock(block, color, x, y);
+        return !Float.isNaN(x[index]);
+    }
+
+    /**
+     * Scan the blocks of a chunk, every block for all the balls of the query.
+     *
+     * @param reader : the archive
+     * @param from : first block
+     * @param to : block after the last one
+     * @param partial : receives the statistics
+     * @throws IOException : if the archive cannot be read
+     */
+    private void scanChunk(TrajectoryReader reader, int from, int to, Partial partial) throws IOException {
+        float[] x = new float[TrajectoryWriter.BLOCK_STEPS], y = new float[TrajectoryWriter.BLOCK_STEPS];
+        int[] colors = new int[0];
+        for (int block = Math.max(0, from - 1); block < to; block++) {
+            for (int color : reader.getColors(block)) {
+                if (Arrays.stream(colors).noneMatch(c -> c == color)) {
+                    colors = Arrays.copyOf(colors, colors.length + 1);
+                    colors[colors.length - 1] = color;
+                }
+            }
+        }
+        // the balls are followed block by block, so the data of a block is read once for all of them
+        Track[] tracks = new Track[colors.length];
+        for (int c = 0; c < colors.length; c++) {
+            boolean white = colors[c] == 0;
+            if (!white && measures.contains(Measure.POCKETS) || measures.contains(Measure.REST_HEATMAP)
+                    || white && (measures.contains(Measure.SCRATCHES) || measures.contains(Measure.MOVES)))
+                tracks[c] = new Track(colors[c]);
+        }
+        // the block before the chunk only sets where the balls are when the chunk starts
+        for (int block = Math.max(0, from - 1); block < to; block++) {
+            Partial counted = block < from ? null : partial;
+            for (Track track : tracks) {
+                if (track != null)
+                    scanBlock(reader, block, track, counted, x, y);
+            }
+        }
+        for (Track track : tracks) {
+            for (int k = 0; track != null && k < track.startCount; k++) {
+                if (!othersMoving(reader, colors, track.starts[k] - 1))
+                    partial.shots++;
+            }
+        }
+    }
+
+    /**
+     * Follow one ball through one block, from the index alone when nothing counted can happen in the block.
+     *
+     * @param reader : the archive
+     * @param block : index of the block
+     * @param track : the ball
+     * @param counted : receives the statistics, null for the block before the chunk
+     * @param x : room for the x-coordinates of the block
+     * @param y : room for the y-coordinates of the block
+     * @throws IOException : if the archive cannot be read
+     */
+    private void scanBlock(TrajectoryReader reader, int block, Track track, Partial counted, float[] x, float[] y) throws IOException {
+        int color = track.color;
+        int steps = reader.getBlockSteps(block), present = reader.getPresentSteps(block, color);
+        long first = reader.getFirstStep(block);
+        if (present == 0) {
+            track.absent(first, counted);
+            return;
+        }
+        float[] bounds = reader.getBounds(block, color);
+        if (present == steps && bounds[0] == bounds[2] && bounds[1] == bounds[3]) {
+            // the ball keeps one position: only its first two steps can change anything
+            for (int i = 0; i < Math.min(2, steps); i++)
+                track.step(first + i, bounds[0], bounds[1], counted);
+            if (counted != null)
+                counted.skipped++;
+            return;
+        }
+        boolean leaves = present < steps
+                || block + 1 < reader.getBlockCount() && reader.getPresentSteps(block + 1, color) == 0;
+        boolean needed = color != 0 && measures.contains(Measure.POCKETS) && leaves
+                || color == 0 && (measures.contains(Measure.SCRATCHES) || measures.contains(Measure.MOVES))
+                || measures.contains(Measure.REST_HEATMAP) && reader.mayVisit(block, color, left, top, right, bottom);
+        if (!needed && present == steps) {
+            // nothing counted happens in the block; where the ball ends is left unknown, since anything
+            // counted at that position is outside the bounds of the block, so outside the region
+            track.unknown();
+            if (counted != null)
+                counted.skipped++;
+            return;
+        }
+        reader.readBlock(block, color, x, y);
+        if (counted != null)
+            counted.decoded++;
+        for (int i = 0; i < steps; i++) {
+            if (Float.isNaN(x[i]))
+                track.absent(first + i, counted);
+            else
+                track.step(first + i, x[i], y[i], counted);
+        }
+    }
+
+    /**
+     * Check if a ball other than the white ball was still rolling at a step, decoding only the blocks
+     * where one may have been. A ball making its last, short step before it stops is not rolling.
+     *
+     * @param reader : the archive
+     * @param colors : colors of the balls
+     * @param step : the step
+     * @return : True if an object ball moved further than LAST_STEP between the step before and this step
+     * @throws IOException : if the archive cannot be read
+     */
+    private static boolean othersMoving(TrajectoryReader reader, int[] colors, long step) throws IOException {
+        if (step < 1)
+            return false;
+        float[] x = new float[2], y = new float[2];
+        for (int color : colors) {
+            if (color == 0 || !mayMove(reader, reader.findBlock(step - 1), color) && !mayMove(reader, reader.findBlock(step), color))
+                continue;
+            reader.read(color, step - 1, x, y);
+            float dx = x[1] - x[0], dy = y[1] - y[0];
+            if (!Float.isNaN(dx) && dx * dx + dy * dy > LAST_STEP * LAST_STEP)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check from the index whether a ball may move during a block.
+     *
+     * @param reader : the archive
+     * @param block : index of the block
+     * @param color : color of the ball
+     * @return : False if the ball is missing or keeps one position during the block, true otherwise
+     */
+    private static boolean mayMove(TrajectoryReader reader, int block, int color) {
+        float[] bounds = block < reader.getBlockCount() ? reader.getBounds(block, color) : null;
+        return bounds != null && (bounds[0] != bounds[2] || bounds[1] != bounds[3]);
+    }
+
+    /**
+     * Check if a step is counted by the query.
+     *
+     * @param step : the step
+     * @return : True if the step is in the range of the query
+     */
+    private boolean counts(long step) {
+        return step >= fromStep && step < toStep;
+    }
+
+    /**
+     * Find the hole nearest to a position.
+     *
+     * @param x : x-coordinate
+     * @param y : y-coordinate
+     * @return : index of the hole
+     */
+    private int nearestHole(float x, float y) {
+        Hole[] holes = template.getHoles();
+        int nearest = 0;
+        float best = Float.POSITIVE_INFINITY;
+        for (int h = 0; h < holes.length; h++) {
+            float dx = holes[h].getX() - x, dy = holes[h].getY() - y;
+            if (dx * dx + dy * dy < best) {
+                best = dx * dx + dy * dy;
+                nearest = h;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * The Track class follows one ball through the steps of a chunk and counts what happens to it.
+     */
+    private final class Track {
+
+        /**
+         * Color of the ball
+         */
+        private final int color;
+
+        /**
+         * Flags indicating whether the ball is on the table, whether its position is known, and whether it moved
+         * at the last step
+         */
+        private boolean present, known, moving;
+
+        /**
+         * Flag indicating whether the ball moved further than LAST_STEP at the last step, so it still rolls
+         */
+        private boolean rolling;
+
+        /**
+         * Last position of the ball
+         */
+        private float x, y;
+
+        /**
+         * Counted steps where the white ball started moving, shots if no other ball was moving
+         */
+        private long[] starts = new long[0];
+        private int startCount;
+
+        /**
+         * Constructor for the Track class.
+         *
+         * @param color : color of the ball
+         */
+        Track(int color) {
+            this.color = color;
+        }
+
+        /**
+         * Follow a step without the ball; an object ball leaving the table was pocketed in the hole nearest to it.
+         *
+         * @param step : the step
+         * @param counted : receives the statistics, null if the step is not counted
+         */
+        void absent(long step, Partial counted) {
+            if (present && known && color != 0 && counted != null && counts(step) && measures.contains(Measure.POCKETS))
+                counted.pockets[nearestHole(x, y)]++;
+            present = known = moving = rolling = false;
+        }
+
+        /**
+         * Follow steps that were not decoded: the ball stays on the table, at a position taken as unknown and moving.
+         */
+        void unknown() {
+            present = moving = rolling = true;
+            known = false;
+        }
+
+        /**
+         * Follow a step with the ball on the table.
+         *
+         * @param step : the step
+         * @param nextX : x-coordinate of the ball
+         * @param nextY : y-coordinate of the ball
+         * @param counted : receives the statistics, null if the step is not counted
+         */
+        void step(long step, float nextX, float nextY, Partial counted) {
+            if (!present) {
+                present = known = true;
+                moving = rolling = false;
+            } else {
+                boolean count = counted != null && counts(step);
+                boolean changed = !known || nextX != x || nextY != y;
+                float dx = nextX - x, dy = nextY - y;
+                if (color == 0 && known && changed && dx * dx + dy * dy > scratchJump * scratchJump) {
+                    // the white ball was put back on the head string, at rest
+                    if (count && measures.contains(Measure.SCRATCHES))
+                        counted.scratches++;
+                    changed = false;
+                } else if (color == 0 && changed && !rolling && count && measures.contains(Measure.MOVES)) {
+                    if (starts.length == startCount)
+                        starts = Arrays.copyOf(starts, startCount * 2 + 8);
+                    starts[startCount++] = step;
+                } else if (!changed && moving && count && measures.contains(Measure.REST_HEATMAP)
+                        && nextX >= left && nextX <= right && nextY >= top && nextY <= bottom) {
+                    int column = Math.max(0, Math.min(columns - 1, (int) ((nextX - template.getMyX()) / cell)));
+                    int row = Math.max(0, Math.min(rows - 1, (int) ((nextY - template.getMyY()) / cell)));
+                    counted.heatmap[row * columns + column]++;
+                }
+                rolling = changed && (!known || dx * dx + dy * dy > LAST_STEP * LAST_STEP);
+                moving = changed;
+                known = true;
+            }
+            x = nextX;
+            y = nextY;
+        }
+    }
+
+    /**
+     * The Partial class adds up the statistics of one task.
+     */
+    private final class Partial {
+
+        /**
+         * Counters, as in Result
+         */
+        long games, wonGames, scratches, shots, wonShots, decoded, skipped;
+
+        /**
+         * Object balls pocketed in every hole
+         */
+        final long[] pockets = new long[template.getHoles().length];
+
+        /**
+         * Balls coming to rest in every cell
+         */
+        final long[] heatmap = new long[columns * rows];
+
+        /**
+         * Add the statistics of another task.
+         *
+         * @param other : statistics of the other task
+         */
+        void add(Partial other) {
+            games += other.games;
+            wonGames += other.wonGames;
+            scratches += other.scratches;
+            shots += other.shots;
+            wonShots += other.wonShots;
+            decoded += other.decoded;
+            skipped += other.skipped;
+            for (int h = 0; h < pockets.length; h++)
+                pockets[h] += other.pockets[h];
+            for (int c = 0; c < heatmap.length; c++)
+                heatmap[c] += other.heatmap[c];
+        }
+    }
+
+    /**
+     * Task scanning a range of archives, split in halves down to single archives.
+     */
+    @SuppressWarnings("serial")
+    private final class FilesTask extends RecursiveTask<Partial> {
+
+        /**
+         * The archives
+         */
+        private final List<Path> files;
+
+        /**
+         * Range of archives
+         */
+        private final int from, to;
+
+        /**
+         * Constructor for the FilesTask class.
+         *
+         * @param files : the archives
+         * @param from : first archive
+         * @param to : archive after the last one
+         */
+        FilesTask(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from == 1) {
+                try {
+                    return scanFile(files.get(from));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int middle = (from + to) >>> 1;
+            FilesTask second = new FilesTask(files, middle, to);
+            second.fork();
+            Partial total = new FilesTask(files, from, middle).compute();
+            total.add(second.join());
+            return total;
+        }
+    }
+
+    /**
+     * Task scanning a chunk of blocks of one archive.
+     */
+    @SuppressWarnings("serial")
+    private final class ChunkTask extends RecursiveTask<Partial> {
+
+        /**
+         * The archive
+         */
+        private final TrajectoryReader reader;
+
+        /**
+         * Range of blocks
+         */
+        private final int from, to;
+
+        /**
+         * Constructor for the ChunkTask class.
+         *
+         * @param reader : the archive
+         * @param from : first block
+         * @param to : block after the last one
+         */
+        ChunkTask(TrajectoryReader reader, int from, int to) {
+            this.reader = reader;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            Partial partial = new Partial();
+            try {
+                scanChunk(reader, from, to, partial);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return partial;
+        }
+    }
+}
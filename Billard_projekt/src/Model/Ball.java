@@ -33,6 +33,17 @@ import static processing.core.PApplet.*;
      */
     private boolean inHole = false;
 
+    /**
+     * Flag indicating whether the ball is extrapolated by LodPhysicsEngine instead of stepped
+     */
+    boolean asleep;
+
+    /**
+     * Table counting its moving balls, told when the ball starts or stops moving; null for a ball off any table.
+     * While the table is attached to a TableBatch, the ball cannot be changed.
+     */
+    Table owner;
+
     /**
      * Size of the ball
      */
@@ -77,7 +88,11 @@ import static processing.core.PApplet.*;
         myLocation.add(myForce);
         if (myForce.mag() > 0.02)
             myForce.setMag((float) (myForce.mag() - 0.02));
-         else  myForce = new PVector();
+         else {
+            boolean wasMoving = isMoving();
+            myForce = new PVector();
+            motionChanged(wasMoving);
+        }
     }
 
     /**
@@ -116,8 +131,10 @@ import static processing.core.PApplet.*;
      * @param theta : angle of the force
      */
     public void hit(float force, float theta) {
-
+        requireOnHeap();
+        boolean wasMoving = isMoving();
         myForce.add(polar(force, theta));
+        motionChanged(wasMoving);
     }
 
     /**
@@ -126,6 +143,7 @@ import static processing.core.PApplet.*;
      * @param that : the other ball involved in the collision
      */
     public void collide(Ball that) {
+        boolean wasMoving = isMoving(), thatWasMoving = that.isMoving();
         float a = myLocation.copy().sub(that.myLocation).heading();
         myLocation = that.myLocation.copy().add(polar(S, a));
         float A1 = myForce.heading() - a;
@@ -134,6 +152,35 @@ import static processing.core.PApplet.*;
         PVector V2 = polar(that.myForce.mag() * cos(A2), a);
         myForce.sub(V1).add(V2);
         that.myForce.sub(V2).add(V1);
+        motionChanged(wasMoving);
+        that.motionChanged(thatWasMoving);
+    }
+
+    /**
+     * Check if the ball has a force.
+     *
+     * @return : True if the ball is moving, false otherwise
+     */
+    boolean isMoving() { return myForce != null && myForce.magSq() != 0; }
+
+    /**
+     * Check that the ball is not on a table attached to a TableBatch, whose state lives in the batch.
+     *
+     * @throws IllegalStateException : if the table of the ball is attached
+     */
+    private void requireOnHeap() {
+        if (owner != null)
+            owner.requireDetached();
+    }
+
+    /**
+     * Tell the owning table when the ball started or stopped moving.
+     *
+     * @param wasMoving : True if the ball was moving before its force changed
+     */
+    private void motionChanged(boolean wasMoving) {
+        if (owner != null && wasMoving != isMoving())
+            owner.motionChanged(wasMoving ? -1 : 1);
     }
 
     /**
@@ -149,7 +196,12 @@ import static processing.core.PApplet.*;
      *
      * @param V : new force vector
      */
-    public void setForce(PVector V) { myForce = V; }
+    public void setForce(PVector V) {
+        requireOnHeap();
+        boolean wasMoving = isMoving();
+        myForce = V;
+        motionChanged(wasMoving);
+    }
 
     /**
      * Get the position vector of the ball.
@@ -163,7 +215,7 @@ import static processing.core.PApplet.*;
      *
      * @param location : new position vector
      */
-    public void setLocation(PVector location) { myLocation = location.copy();
+    public void setLocation(PVector location) { requireOnHeap(); myLocation = location.copy();
     }
 
     /**
@@ -203,7 +255,7 @@ import static processing.core.PApplet.*;
      *
      * @param removed : new removed status
      */
-    public void setRemoved(boolean removed) { this.removed = removed;
+    public void setRemoved(boolean removed) { requireOnHeap(); this.removed = removed;
     }
 
 
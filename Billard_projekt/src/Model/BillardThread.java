@@ -1,90 +1,164 @@
 package Model;
 
-import processing.core.PVector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 
 /**
- * The BillardThread class represents a thread for handling collisions and updating the state
+ * The BillardThread class represents a worker for handling collisions and updating the state
  * of the billiard game concurrently.
  *
- * Extends: Thread
+ * The work is done in ticks scheduled at a fixed rate on a single daemon thread. The worker only ticks
+ * while it is active (a game is being played) and balls are moving: when the table comes to rest
+ * the schedule is cancelled and the thread parks in the scheduler without using the CPU, until wake() is called
+ * after a shot. A woken worker ticks at once, then every TICK_MILLIS milliseconds.
+ * The worker can be stopped and started again, for instance for a new game.
  *
  * Methods:
- * - run(): The main execution logic of the thread.
- * - startThreads(): Starts the collisionThread.
- * - stopThreads(): Stops the collisionThread by interrupting it.
+ * - run(): Performs one tick.
+ * - startThreads(): Starts the scheduler thread.
+ * - stopThreads(): Stops the scheduler thread; it can be started again.
+ * - setActive(boolean active): Lets the worker tick or parks it.
+ * - wake(): Starts ticking if the worker is active and balls are moving.
  *
  * @author Tcheumen Nanseu Lionel
  * @version 1.0
  */
-public class BillardThread  extends Thread  {
+public class BillardThread {
+
+    /**
+     * Time between two ticks in milliseconds
+     */
+    static final long TICK_MILLIS = 30;
 
     /**
      * The billiard table model
      */
-    private Table table;
+    private final Table table;
+
+    /**
+     * The scheduler running the ticks, null while the worker is stopped
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * The scheduled ticks, null while the worker is parked
+     */
+    private ScheduledFuture<?> ticking;
 
     /**
-     * The thread for handling collisions
+     * Flag indicating whether the worker may tick
      */
-    private Thread collisionThread;
+    private boolean active;
 
     /**
-     * Flag indicating whether the thread is running
+     * Number of ticks performed
      */
-    private boolean running;
+    private volatile long ticks;
 
     /**
      * Constructor for the BillardThread class.
-     * Initializes the table, collisionThread, and sets the running flag to true.
+     * The worker is stopped and inactive until it is started and activated.
      *
      * @param table : The billiard table model
      */
     public BillardThread(Table table) {
         this.table = table;
-        this.collisionThread = new Thread(this::run);
-        this.running = true;
     }
 
     /**
-     * The main execution logic of the thread.
-     * Handles collisions, updates ball forces, and introduces a sleep interval.
+     * Performs one tick: handles collisions.
+     * The balls are only slowed down by the physics step of the game loop, in Ball.move(), so a shot rolls
+     * as far as ShotEvaluator and the engines predict whatever the number of ticks between two frames.
+     * The tick holds the lock of the table, so it does not run in the middle of a step of the game loop.
+     * The worker parks once the table is at rest.
      */
     public void run() {
-        while (running) {
-            try {
-                table.collideCheck();
-
-                for (Ball ball : table.getBalls()) {
-                    float decelerationRate = 0.01f;
-                    if (ball.getForce().mag() > decelerationRate) {
-                        ball.getForce().setMag(ball.getForce().mag() - decelerationRate);
-                    } else {
-                        ball.setForce(new PVector());
-                    }
-                }
-
-                Thread.sleep(30);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                break;
-            }
+        synchronized (table) {
+            table.getEngine().collide(table);
         }
+        ticks++;
+
+        if (table.isAtRest())
+            park();
     }
 
 
     /**
-     * Starts the collisionThread.
+     * Starts the scheduler thread, if it is not running. The worker stays parked until it is woken.
      */
-    public void startThreads() {
-        collisionThread.start();
+    public synchronized void startThreads() {
+        if (scheduler != null)
+            return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "billard-simulation");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
 
     /**
-     * Stops the collisionThread by interrupting it.
+     * Stops the scheduler thread and deactivates the worker. It can be started again.
+     */
+    public synchronized void stopThreads() {
+        active = false;
+        park();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Lets the worker tick, waking it if balls are moving, or parks it.
+     *
+     * @param active : True while a game is being played, false otherwise
+     */
+    public synchronized void setActive(boolean active) {
+        this.active = active;
+        if (active)
+            wake();
+        else
+            park();
+    }
+
+    /**
+     * Starts ticking at once if the worker is started and active and balls are moving, usually after a shot.
+     * Nothing happens if the worker is already ticking.
+     */
+    public synchronized void wake() {
+        if (ticking == null && scheduler != null && active && !table.isAtRest())
+            ticking = scheduler.scheduleAtFixedRate(this::run, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the scheduled ticks; a running tick is finished.
+     */
+    private synchronized void park() {
+        if (ticking != null) {
+            ticking.cancel(false);
+            ticking = null;
+        }
+    }
+
+    /**
+     * Check if the worker is parked.
+     *
+     * @return : True if no tick is scheduled, false otherwise
+     */
+    public synchronized boolean isParked() {
+        return ticking == null;
+    }
+
+    /**
+     * Get the number of ticks performed since the worker was created.
+     *
+     * @return : Number of ticks
      */
-    public void stopThreads() {
-        collisionThread.interrupt();
+    public long getTickCount() {
+        return ticks;
     }
 }
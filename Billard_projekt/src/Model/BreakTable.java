@@ -0,0 +1,435 @@
+package Model;
+
+import processing.core.PVector;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The BreakTable class holds the precomputed outcomes of the break shot on the rack of Table.rack().
+ *
+ * The generator simulates every break of a grid of forces, angles and positions of the white ball
+ * along the head string, in parallel on copies of the racked table, and writes one small record per break
+ * into a file. At runtime the file is memory-mapped and queries are answered without simulating:
+ * the record of the nearest break, or values interpolated between the eight surrounding breaks.
+ *
+ * File layout (big endian):
+ * - header: magic, version, grid sizes, grid bounds, table geometry
+ * - one record per break, force varying slowest and white ball position fastest:
+ *   white ball x and y at rest, pocketed ball mask, physics steps, points scored, white balls pocketed
+ *
+ * Usage: java Model.BreakTable file [forces] [angles] [positions]
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class BreakTable {
+
+    /**
+     * Magic number identifying a break table file
+     */
+    private static final int MAGIC = 0x42524B54;
+
+    /**
+     * Version of the file layout
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the file header in bytes
+     */
+    static final int HEADER_BYTES = 64;
+
+    /**
+     * Size of one break record in bytes
+     */
+    static final int RECORD_BYTES = 16;
+
+    /**
+     * Record offsets
+     */
+    private static final int R_WHITE_X = 0, R_WHITE_Y = 4, R_POCKETED = 8, R_STEPS = 12, R_SCORE = 14, R_WHITE = 15;
+
+    /**
+     * Grid of the breaks: the number of values and the bounds of force, angle and white ball position.
+     * The white ball position is its Y-coordinate on the head string.
+     *
+     * @param forces : number of forces
+     * @param forceMin : smallest force
+     * @param forceMax : largest force
+     * @param angles : number of angles
+     * @param thetaMin : smallest angle
+     * @param thetaMax : largest angle
+     * @param positions : number of white ball positions
+     * @param cueYMin : smallest Y-coordinate of the white ball
+     * @param cueYMax : largest Y-coordinate of the white ball
+     */
+    public record Grid(int forces, float forceMin, float forceMax, int angles, float thetaMin, float thetaMax,
+                       int positions, float cueYMin, float cueYMax) {
+
+        /**
+         * Constructor for the Grid record, rejecting empty grids.
+         */
+        public Grid {
+            if (forces < 1 || angles < 1 || positions < 1)
+                throw new IllegalArgumentException("every axis of the grid needs at least one value");
+        }
+
+        /**
+         * A grid over the breaks a player makes: forces from 5 to 30, angles up to 0.3 rad off the rack,
+         * and white ball positions along the head string away from the cushions.
+         *
+         * @param template : racked table
+         * @param forces : number of forces
+         * @param angles : number of angles
+         * @param positions : number of white ball positions
+         * @return : the grid
+         */
+        public static Grid standard(Table template, int forces, int angles, int positions) {
+            float margin = template.getHoleSize();
+            return new Grid(forces, 5, 30, angles, -0.3f, 0.3f, positions,
+                    template.getMyY() + margin, template.getMyY() + template.getMyH() - margin);
+        }
+
+        /**
+         * Get the number of breaks of the grid.
+         *
+         * @return : number of breaks
+         */
+        public int size() { return forces * angles * positions; }
+
+        /**
+         * Value of an axis at a grid index.
+         *
+         * @param min : smallest value
+         * @param max : largest value
+         * @param count : number of values
+         * @param index : grid index
+         * @return : the value
+         */
+        static float value(float min, float max, int count, int index) {
+            return count == 1 ? min : min + (max - min) * index / (count - 1);
+        }
+    }
+
+    /**
+     * Outcome of one break of the grid.
+     *
+     * @param whiteX : X-coordinate of the white ball at rest
+     * @param whiteY : Y-coordinate of the white ball at rest
+     * @param pocketed : bit c set if the ball of color c was pocketed
+     * @param steps : physics steps until the table was at rest
+     * @param score : points scored
+     * @param whiteBallsPocketed : number of times the white ball was pocketed
+     */
+    public record Entry(float whiteX, float whiteY, int pocketed, int steps, int score, int whiteBallsPocketed) {}
+
+    /**
+     * Mapped content of the file
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Grid of the breaks in the file
+     */
+    private final Grid grid;
+
+    /**
+     * Constructor for the BreakTable class.
+     *
+     * @param buffer : mapped content of the file
+     * @param grid : grid of the breaks in the file
+     */
+    private BreakTable(MappedByteBuffer buffer, Grid grid) {
+        this.buffer = buffer;
+        this.grid = grid;
+    }
+
+    /**
+     * Simulate every break of a grid and write the break table file.
+     * The file is written next to its final name and moved into place once complete.
+     *
+     * @param file : path of the break table file
+     * @param template : table with the geometry, the holes and the physics engine; a copy of it is racked for every break
+     * @param grid : grid of the breaks
+     * @param parallelism : number of worker threads
+     * @throws IOException : if the file cannot be written
+     */
+    public static void generate(Path file, Table template, Grid grid, int parallelism) throws IOException {
+        long size = HEADER_BYTES + (long) RECORD_BYTES * grid.size();
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("break table of " + size + " bytes does not fit one mapping");
+        Path partial = file.resolveSibling(file.getFileName() + ".partial");
+        try (FileChannel channel = FileChannel.open(partial, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.order(ByteOrder.BIG_ENDIAN);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.submit(() -> IntStream.range(0, grid.size()).parallel()
+                        .forEach(i -> writeRecord(out, i, simulate(template, grid, i)))).join();
+            } finally {
+                pool.shutdown();
+            }
+            writeHeader(out, template, grid);
+            out.force();
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Simulate one break of the grid.
+     *
+     * @param template : table with the geometry, the holes and the physics engine
+     * @param grid : grid of the breaks
+     * @param index : index of the break
+     * @return : the outcome of the break
+     */
+    static Entry simulate(Table template, Grid grid, int index) {
+        int position = index % grid.positions();
+        int angle = index / grid.positions() % grid.angles();
+        int force = index / grid.positions() / grid.angles();
+        Table table = new Table(template.getMyX(), template.getMyY(), template.getMyW(), template.getHoleSize());
+        table.setHoles(template.getHoles());
+        table.setEngine(PhysicsEngine.named(template.getEngine().getName()));
+        table.restartGame();
+        Ball white = table.getBalls()[0];
+        white.setLocation(new PVector(white.getX(), Grid.value(grid.cueYMin(), grid.cueYMax(), grid.positions(), position)));
+        ShotCache.Outcome outcome = ShotCache.run(table,
+                Grid.value(grid.forceMin(), grid.forceMax(), grid.forces(), force),
+                Grid.value(grid.thetaMin(), grid.thetaMax(), grid.angles(), angle));
+        int pocketed = 0;
+        for (ShotCache.PocketEvent event : outcome.pockets())
+            pocketed |= 1 << event.color();
+        return new Entry(outcome.x()[0], outcome.y()[0], pocketed, outcome.steps(), outcome.scoreGained(),
+                outcome.whiteBallsPocketed());
+    }
+
+    /**
+     * Write the record of a break.
+     *
+     * @param out : mapped file
+     * @param index : index of the break
+     * @param entry : outcome of the break
+     */
+    private static void writeRecord(MappedByteBuffer out, int index, Entry entry) {
+        int r = HEADER_BYTES + index * RECORD_BYTES;
+        out.putFloat(r + R_WHITE_X, entry.whiteX());
+        out.putFloat(r + R_WHITE_Y, entry.whiteY());
+        out.putInt(r + R_POCKETED, entry.pocketed());
+        out.putShort(r + R_STEPS, (short) Math.min(entry.steps(), Short.MAX_VALUE));
+        out.put(r + R_SCORE, (byte) entry.score());
+        out.put(r + R_WHITE, (byte) entry.whiteBallsPocketed());
+    }
+
+    /**
+     * Write the header, once every record is written.
+     *
+     * @param out : mapped file
+     * @param template : table the breaks were simulated on
+     * @param grid : grid of the breaks
+     */
+    private static void writeHeader(MappedByteBuffer out, Table template, Grid grid) {
+        out.putInt(0, MAGIC);
+        out.putInt(4, VERSION);
+        out.putInt(8, grid.forces());
+        out.putInt(12, grid.angles());
+        out.putInt(16, grid.positions());
+        out.putFloat(20, grid.forceMin());
+        out.putFloat(24, grid.forceMax());
+        out.putFloat(28, grid.thetaMin());
+        out.putFloat(32, grid.thetaMax());
+        out.putFloat(36, grid.cueYMin());
+        out.putFloat(40, grid.cueYMax());
+        out.putFloat(44, template.getMyX());
+        out.putFloat(48, template.getMyY());
+        out.putFloat(52, template.getMyW());
+        out.putFloat(56, template.getHoleSize());
+    }
+
+    /**
+     * Map a break table file for queries.
+     *
+     * @param file : path of the break table file
+     * @param table : table the queries are about, it must have the geometry the file was generated for
+     * @return : the break table
+     * @throws IOException : if the file cannot be read, or was generated for another table
+     */
+    public static BreakTable open(Path file, Table table) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            if (channel.size() < HEADER_BYTES)
+                throw new IOException(file + " is not a break table");
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.BIG_ENDIAN);
+            if (in.getInt(0) != MAGIC || in.getInt(4) != VERSION)
+                throw new IOException(file + " is not a break table");
+            if (in.getFloat(44) != table.getMyX() || in.getFloat(48) != table.getMyY()
+                    || in.getFloat(52) != table.getMyW() || in.getFloat(56) != table.getHoleSize())
+                throw new IOException(file + " was generated for another table");
+            Grid grid = new Grid(in.getInt(8), in.getFloat(20), in.getFloat(24), in.getInt(12), in.getFloat(28),
+                    in.getFloat(32), in.getInt(16), in.getFloat(36), in.getFloat(40));
+            if (channel.size() != HEADER_BYTES + (long) RECORD_BYTES * grid.size())
+                throw new IOException(file + " is truncated");
+            return new BreakTable(in, grid);
+        }
+    }
+
+    /**
+     * Get the outcome of a break of the grid.
+     *
+     * @param force : index of the force
+     * @param angle : index of the angle
+     * @param position : index of the white ball position
+     * @return : the outcome of the break
+     */
+    public Entry get(int force, int angle, int position) {
+        int r = HEADER_BYTES + ((force * grid.angles() + angle) * grid.positions() + position) * RECORD_BYTES;
+        return new Entry(buffer.getFloat(r + R_WHITE_X), buffer.getFloat(r + R_WHITE_Y), buffer.getInt(r + R_POCKETED),
+                buffer.getShort(r + R_STEPS), buffer.get(r + R_SCORE), buffer.get(r + R_WHITE));
+    }
+
+    /**
+     * Get the outcome of the break of the grid nearest to a break.
+     *
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @param cueY : Y-coordinate of the white ball on the head string
+     * @return : the outcome of the nearest break
+     */
+    public Entry nearest(float force, float theta, float cueY) {
+        return get(Math.round(position(force, grid.forceMin(), grid.forceMax(), grid.forces())),
+                Math.round(position(theta, grid.thetaMin(), grid.thetaMax(), grid.angles())),
+                Math.round(position(cueY, grid.cueYMin(), grid.cueYMax(), grid.positions())));
+    }
+
+    /**
+     * Get the points a break is expected to score, interpolated between the surrounding breaks of the grid.
+     *
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @param cueY : Y-coordinate of the white ball on the head string
+     * @return : expected points
+     */
+    public float expectedScore(float force, float theta, float cueY) {
+        return interpolate(force, theta, cueY, R_SCORE);
+    }
+
+    /**
+     * Get how often a break is expected to pocket the white ball, interpolated between the surrounding breaks.
+     *
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @param cueY : Y-coordinate of the white ball on the head string
+     * @return : expected number of white balls pocketed
+     */
+    public float expectedWhiteBallsPocketed(float force, float theta, float cueY) {
+        return interpolate(force, theta, cueY, R_WHITE);
+    }
+
+    /**
+     * Find the break of the grid scoring the most points without pocketing the white ball.
+     *
+     * @return : force, angle and white ball position of the best break, or null if every break pockets the white ball
+     */
+    public float[] bestBreak() {
+        int best = -1, bestScore = -1;
+        for (int i = 0; i < grid.size(); i++) {
+            int r = HEADER_BYTES + i * RECORD_BYTES;
+            if (buffer.get(r + R_WHITE) == 0 && buffer.get(r + R_SCORE) > bestScore) {
+                bestScore = buffer.get(r + R_SCORE);
+                best = i;
+            }
+        }
+        if (best < 0)
+            return null;
+        return new float[]{
+                Grid.value(grid.forceMin(), grid.forceMax(), grid.forces(), best / grid.positions() / grid.angles()),
+                Grid.value(grid.thetaMin(), grid.thetaMax(), grid.angles(), best / grid.positions() % grid.angles()),
+                Grid.value(grid.cueYMin(), grid.cueYMax(), grid.positions(), best % grid.positions())};
+    }
+
+    /**
+     * Interpolate a byte field of the records between the eight breaks surrounding a break.
+     *
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @param cueY : Y-coordinate of the white ball on the head string
+     * @param field : offset of the field in a record
+     * @return : the interpolated value
+     */
+    private float interpolate(float force, float theta, float cueY, int field) {
+        float f = position(force, grid.forceMin(), grid.forceMax(), grid.forces());
+        float t = position(theta, grid.thetaMin(), grid.thetaMax(), grid.angles());
+        float p = position(cueY, grid.cueYMin(), grid.cueYMax(), grid.positions());
+        int f0 = Math.min((int) f, grid.forces() - 1), t0 = Math.min((int) t, grid.angles() - 1);
+        int p0 = Math.min((int) p, grid.positions() - 1);
+        int f1 = Math.min(f0 + 1, grid.forces() - 1), t1 = Math.min(t0 + 1, grid.angles() - 1);
+        int p1 = Math.min(p0 + 1, grid.positions() - 1);
+        float wf = f - f0, wt = t - t0, wp = p - p0;
+        float value = 0;
+        for (int corner = 0; corner < 8; corner++) {
+            boolean hf = (corner & 4) != 0, ht = (corner & 2) != 0, hp = (corner & 1) != 0;
+            float weight = (hf ? wf : 1 - wf) * (ht ? wt : 1 - wt) * (hp ? wp : 1 - wp);
+            if (weight == 0)
+                continue;
+            int r = HEADER_BYTES + (((hf ? f1 : f0) * grid.angles() + (ht ? t1 : t0)) * grid.positions()
+                    + (hp ? p1 : p0)) * RECORD_BYTES;
+            value += weight * buffer.get(r + field);
+        }
+        return value;
+    }
+
+    /**
+     * Position of a value on an axis of the grid, clamped to the grid.
+     *
+     * @param value : the value
+     * @param min : smallest value of the axis
+     * @param max : largest value of the axis
+     * @param count : number of values of the axis
+     * @return : fractional grid index between 0 and count - 1
+     */
+    private static float position(float value, float min, float max, int count) {
+        if (count == 1 || max == min)
+            return 0;
+        return Math.max(0, Math.min(count - 1, (value - min) / (max - min) * (count - 1)));
+    }
+
+    /**
+     * Get the grid of the breaks in the file.
+     *
+     * @return : the grid
+     */
+    public Grid getGrid() { return grid; }
+
+    /**
+     * Generate a break table for the table of Main from the command line.
+     *
+     * @param args : file, then the number of forces, angles and white ball positions
+     * @throws IOException : if the file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java Model.BreakTable file [forces] [angles] [positions]");
+            return;
+        }
+        Table template = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        Grid grid = Grid.standard(template,
+                args.length > 1 ? Integer.parseInt(args[1]) : 26,
+                args.length > 2 ? Integer.parseInt(args[2]) : 61,
+                args.length > 3 ? Integer.parseInt(args[3]) : 21);
+        long start = System.nanoTime();
+        generate(Path.of(args[0]), template, grid, Runtime.getRuntime().availableProcessors());
+        BreakTable table = open(Path.of(args[0]), template);
+        float[] best = table.bestBreak();
+        System.out.printf("%d breaks in %.1f s, best break: %s%n", grid.size(), (System.nanoTime() - start) / 1e9,
+                best == null ? "none" : "force " + best[0] + ", theta " + best[1] + ", white ball y " + best[2]);
+    }
+}
@@ -0,0 +1,329 @@
+package Model;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The CheckpointFile class keeps periodic checkpoints of many tables in a memory-mapped file,
+ * so a long batch simulation can resume from the last consistent checkpoint after the JVM dies.
+ *
+ * File layout:
+ * - header: magic, version, number of tables, balls per table, committed generation
+ * - two generations per table, telling which checkpoint each copy belongs to
+ * - two copies of every table, each with the slot layout of TableBatch
+ *
+ * A checkpoint only writes the tables marked dirty, into the copy that is not the current one,
+ * and then commits its generation in the header. A crash in the middle of a checkpoint leaves
+ * the previous copies untouched, so restore() always sees a consistent state. The copies such a checkpoint
+ * stamped with its uncommitted generation are discarded when the file is opened, or before the next checkpoint
+ * in the same process, since the next checkpoint commits the same generation number.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class CheckpointFile implements AutoCloseable {
+
+    /**
+     * Magic number identifying a checkpoint file
+     */
+    private static final int MAGIC = 0x42494C43;
+
+    /**
+     * Version of the file layout
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the file header in bytes
+     */
+    private static final int HEADER_BYTES = 64;
+
+    /**
+     * Header offsets
+     */
+    private static final int MAGIC_AT = 0, VERSION_AT = 4, TABLES_AT = 8, BALLS_AT = 12, GENERATION_AT = 16;
+
+    /**
+     * Mapped content of the file
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Both copies of the tables, as batches over the mapped file
+     */
+    private final TableBatch[] copies = new TableBatch[2];
+
+    /**
+     * Offset of the generation array
+     */
+    private final int generationsAt;
+
+    /**
+     * Number of tables in the file
+     */
+    private final int tables;
+
+    /**
+     * Tables changed since the last checkpoint
+     */
+    private final BitSet dirty = new BitSet();
+
+    /**
+     * Flag indicating whether a checkpoint was started and not committed
+     */
+    private boolean pending;
+
+    /**
+     * Minimal time between two periodic checkpoints, in nanoseconds
+     */
+    private long intervalNanos;
+
+    /**
+     * Time of the last checkpoint, in nanoseconds
+     */
+    private long lastCheckpoint = System.nanoTime();
+
+    /**
+     * Constructor for the CheckpointFile class.
+     * Opens the file if it matches the layout, or starts an empty one.
+     *
+     * @param file : path of the checkpoint file
+     * @param template : table providing the geometry and the holes
+     * @param tables : number of tables
+     * @param maxBalls : maximum number of balls per table
+     * @throws IOException : if the file cannot be opened, or belongs to another layout
+     */
+    public CheckpointFile(Path file, Table template, int tables, int maxBalls) throws IOException {
+        int region = TableBatch.checkedSize(tables, maxBalls);
+        long size = HEADER_BYTES + 16L * tables + 2L * region;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("checkpoint of " + size + " bytes does not fit one mapping");
+        try (FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+            boolean fresh = channel.size() == 0;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            if (fresh) {
+                buffer.putInt(MAGIC_AT, MAGIC);
+                buffer.putInt(VERSION_AT, VERSION);
+                buffer.putInt(TABLES_AT, tables);
+                buffer.putInt(BALLS_AT, maxBalls);
+                buffer.putLong(GENERATION_AT, 0);
+                buffer.force();
+            } else if (buffer.getInt(MAGIC_AT) != MAGIC || buffer.getInt(VERSION_AT) != VERSION
+                    || buffer.getInt(TABLES_AT) != tables || buffer.getInt(BALLS_AT) != maxBalls) {
+                throw new IOException(file + " is not a checkpoint of " + tables + " tables with " + maxBalls + " balls");
+            }
+        }
+        this.tables = tables;
+        generationsAt = HEADER_BYTES;
+        int regionsAt = generationsAt + 16 * tables;
+        copies[0] = new TableBatch(buffer, regionsAt, template, tables, maxBalls);
+        copies[1] = new TableBatch(buffer, regionsAt + region, template, tables, maxBalls);
+        discardUncommitted();
+    }
+
+    /**
+     * Clear the generation of every copy stamped by a checkpoint that was not committed,
+     * so the next checkpoint, which commits the same generation, does not make these torn copies valid.
+     */
+    private void discardUncommitted() {
+        long committed = buffer.getLong(GENERATION_AT);
+        boolean discarded = false;
+        for (int i = 0; i < tables; i++) {
+            for (int copy = 0; copy < 2; copy++) {
+                if (buffer.getLong(generationOffset(i, copy)) > committed) {
+                    buffer.putLong(generationOffset(i, copy), 0);
+                    discarded = true;
+                }
+            }
+        }
+        if (discarded)
+            buffer.force();
+        pending = false;
+    }
+
+    /**
+     * Start a checkpoint, discarding the copies of an earlier one that failed before its commit.
+     *
+     * @return : the generation of the new checkpoint
+     */
+    private long begin() {
+        if (pending)
+            discardUncommitted();
+        pending = true;
+        return getGeneration() + 1;
+    }
+
+    /**
+     * Mark a table as changed since the last checkpoint.
+     *
+     * @param table : index of the table
+     */
+    public void markDirty(int table) {
+        dirty.set(table);
+    }
+
+    /**
+     * Set the minimal time between two checkpoints taken by checkpointIfDue().
+     *
+     * @param millis : interval in milliseconds
+     */
+    public void setInterval(long millis) {
+        intervalNanos = millis * 1_000_000L;
+    }
+
+    /**
+     * Take a checkpoint if the interval since the last one has elapsed.
+     *
+     * @param state : tables of the simulation, indexed like the file
+     * @return : True if a checkpoint was taken, false otherwise
+     */
+    public boolean checkpointIfDue(Table[] state) {
+        if (System.nanoTime() - lastCheckpoint < intervalNanos)
+            return false;
+        checkpoint(state);
+        return true;
+    }
+
+    /**
+     * Write the dirty tables and commit a new generation.
+     *
+     * @param state : tables of the simulation, indexed like the file
+     * @return : the committed generation
+     */
+    public long checkpoint(Table[] state) {
+        long generation = begin();
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+            int copy = currentCopy(i) == 0 ? 1 : 0;
+            copies[copy].store(i, state[i]);
+            buffer.putLong(generationOffset(i, copy), generation);
+        }
+        return commit(generation);
+    }
+
+    /**
+     * Write the dirty slots of a batch and commit a new generation.
+     * The batch must use the same number of balls per table as the file.
+     *
+     * @param batch : batch of the simulation, indexed like the file
+     * @return : the committed generation
+     */
+    public long checkpoint(TableBatch batch) {
+        if (batch.getMaxBalls() != copies[0].getMaxBalls())
+            throw new IllegalArgumentException("batch and checkpoint use different slot sizes");
+        long generation = begin();
+        int slotBytes = TableBatch.slotBytes(batch.getMaxBalls());
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+            int copy = currentCopy(i) == 0 ? 1 : 0;
+            buffer.put(copies[copy].slotOffset(i), batch.buffer(), batch.slotOffset(i), slotBytes);
+            buffer.putLong(generationOffset(i, copy), generation);
+        }
+        return commit(generation);
+    }
+
+    /**
+     * Flush the written copies, then the header naming the new generation.
+     *
+     * @param generation : generation to commit
+     * @return : the committed generation
+     */
+    private long commit(long generation) {
+        buffer.force();
+        buffer.putLong(GENERATION_AT, generation);
+        buffer.force();
+        pending = false;
+        dirty.clear();
+        lastCheckpoint = System.nanoTime();
+        return generation;
+    }
+
+    /**
+     * Restore a table from the last committed checkpoint.
+     *
+     * @param table : index of the table
+     * @param into : table receiving the state
+     * @return : True if the table had been checkpointed, false otherwise
+     */
+    public boolean restore(int table, Table into) {
+        int copy = currentCopy(table);
+        if (copy < 0)
+            return false;
+        copies[copy].load(table, into);
+        return true;
+    }
+
+    /**
+     * Restore every checkpointed table into a batch.
+     *
+     * @param batch : batch receiving the state, indexed like the file
+     * @return : number of restored tables
+     */
+    public int restore(TableBatch batch) {
+        int slotBytes = TableBatch.slotBytes(batch.getMaxBalls());
+        int restored = 0;
+        for (int i = 0; i < tables; i++) {
+            int copy = currentCopy(i);
+            if (copy < 0)
+                continue;
+            batch.buffer().put(batch.slotOffset(i), buffer, copies[copy].slotOffset(i), slotBytes);
+            restored++;
+        }
+        return restored;
+    }
+
+    /**
+     * Copy of a table belonging to the last committed checkpoint.
+     *
+     * @param table : index of the table
+     * @return : 0 or 1, or -1 if the table was never checkpointed
+     */
+    private int currentCopy(int table) {
+        long committed = getGeneration();
+        long g0 = buffer.getLong(generationOffset(table, 0));
+        long g1 = buffer.getLong(generationOffset(table, 1));
+        boolean valid0 = g0 > 0 && g0 <= committed;
+        boolean valid1 = g1 > 0 && g1 <= committed;
+        if (valid0 && valid1)
+            return g0 >= g1 ? 0 : 1;
+        return valid0 ? 0 : valid1 ? 1 : -1;
+    }
+
+    /**
+     * Offset of the generation of one copy of a table.
+     *
+     * @param table : index of the table
+     * @param copy : 0 or 1
+     * @return : byte offset of the generation
+     */
+    private int generationOffset(int table, int copy) {
+        return generationsAt + table * 16 + copy * 8;
+    }
+
+    /**
+     * Get the last committed generation.
+     *
+     * @return : committed generation, 0 if no checkpoint was taken
+     */
+    public long getGeneration() { return buffer.getLong(GENERATION_AT); }
+
+    /**
+     * Get the number of tables in the file.
+     *
+     * @return : Number of tables
+     */
+    public int getTables() { return tables; }
+
+    /**
+     * Flush the file. The mapping itself is released by the garbage collector.
+     */
+    @Override
+    public void close() {
+        buffer.force();
+    }
+}
@@ -0,0 +1,258 @@
+package Model;
+
+import processing.core.PVector;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static java.lang.Math.PI;
+
+/**
+ * The EngineConformance class checks that two physics engines produce the same games.
+ *
+ * Every case builds two identical tables from a seed (a jittered rack from Table.rack(), the plain rack,
+ * or the two-ball contact of ModelTest), plays the same random shots with Ball.hit() on both,
+ * and compares ball positions, pocketed balls, score and white ball pocket count after every step.
+ * Cases run headless in parallel; the report names the first diverging step of every failing case,
+ * and the smallest failing seed, which replays the divergence on its own with runCase().
+ *
+ * Usage: java Model.EngineConformance [engineA] [engineB] [cases] [shots]
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class EngineConformance {
+
+    /**
+     * Wall sizes used by BillardController, the size of the game window
+     */
+    static final float WALL_WIDTH = 1041, WALL_HEIGHT = 541;
+
+    /**
+     * Upper bound on the physics steps of one shot
+     */
+    static final int MAX_STEPS_PER_SHOT = 20_000;
+
+    /**
+     * First diverging step of a case.
+     *
+     * @param seed : seed of the case
+     * @param shot : index of the shot, starting at 0
+     * @param step : physics step inside the shot, starting at 0
+     * @param reason : what differed
+     */
+    public record Divergence(long seed, int shot, int step, String reason) {
+        @Override
+        public String toString() {
+            return "seed " + seed + ", shot " + shot + ", step " + step + ": " + reason;
+        }
+    }
+
+    /**
+     * Result of a sweep.
+     *
+     * @param cases : number of cases played
+     * @param steps : number of physics steps compared
+     * @param divergences : diverging cases, smallest seed first
+     */
+    public record Report(int cases, long steps, List<Divergence> divergences) {
+
+        /**
+         * Check if every case conformed.
+         *
+         * @return : True if no case diverged, false otherwise
+         */
+        public boolean passed() { return divergences.isEmpty(); }
+
+        /**
+         * Get the smallest seed reproducing a divergence.
+         *
+         * @return : the first divergence, or null if every case conformed
+         */
+        public Divergence minimal() { return divergences.isEmpty() ? null : divergences.get(0); }
+    }
+
+    /**
+     * Engines under comparison
+     */
+    private final Supplier<PhysicsEngine> engineA, engineB;
+
+    /**
+     * Largest accepted distance between the positions of the same ball
+     */
+    private final float tolerance;
+
+    /**
+     * Number of shots of every case
+     */
+    private final int shots;
+
+    /**
+     * Constructor for the EngineConformance class.
+     *
+     * @param engineA : creates the first engine, once per table
+     * @param engineB : creates the second engine, once per table
+     * @param tolerance : largest accepted distance between the positions of the same ball
+     * @param shots : number of shots of every case
+     */
+    public EngineConformance(Supplier<PhysicsEngine> engineA, Supplier<PhysicsEngine> engineB, float tolerance, int shots) {
+        this.engineA = engineA;
+        this.engineB = engineB;
+        this.tolerance = tolerance;
+        this.shots = shots;
+    }
+
+    /**
+     * Play many cases in parallel.
+     *
+     * @param firstSeed : seed of the first case, the following cases use the next seeds
+     * @param cases : number of cases
+     * @param parallelism : number of worker threads
+     * @return : the report of the sweep
+     */
+    public Report sweep(long firstSeed, int cases, int parallelism) {
+        long[] steps = new long[cases];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Divergence> divergences = pool.submit(() -> IntStream.range(0, cases).parallel()
+                    .mapToObj(i -> runCase(firstSeed + i, steps, i))
+                    .filter(Objects::nonNull)
+                    .sorted(Comparator.comparingLong(Divergence::seed))
+                    .toList()).join();
+            return new Report(cases, IntStream.range(0, cases).mapToLong(i -> steps[i]).sum(), divergences);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Play one case.
+     *
+     * @param seed : seed of the case
+     * @return : the first divergence, or null if the engines agreed
+     */
+    public Divergence runCase(long seed) {
+        return runCase(seed, new long[1], 0);
+    }
+
+    /**
+     * Play one case, counting the compared steps.
+     *
+     * @param seed : seed of the case
+     * @param steps : step counters of the sweep
+     * @param index : counter of this case
+     * @return : the first divergence, or null if the engines agreed
+     */
+    private Divergence runCase(long seed, long[] steps, int index) {
+        Table a = scenario(seed);
+        Table b = scenario(seed);
+        a.setEngine(engineA.get());
+        b.setEngine(engineB.get());
+        Random shotRandom = new Random(seed * 31 + 7);
+        for (int shot = 0; shot < shots; shot++) {
+            if (a.isAllBallsInHolesExceptWhite() || a.isGameOver())
+                return null;
+            float force = 2 + shotRandom.nextFloat() * 18;
+            float theta = (float) (shotRandom.nextFloat() * 2 * PI);
+            a.getBalls()[0].hit(force, theta);
+            b.getBalls()[0].hit(force, theta);
+            for (int step = 0; step < MAX_STEPS_PER_SHOT; step++) {
+                a.action(WALL_WIDTH, WALL_HEIGHT);
+                b.action(WALL_WIDTH, WALL_HEIGHT);
+                steps[index]++;
+                String reason = compare(a, b);
+                if (reason != null)
+                    return new Divergence(seed, shot, step, reason);
+                if (a.isAtRest() && b.isAtRest())
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Build the table of a case. The seed chooses the scenario and the jitter of the balls.
+     *
+     * @param seed : seed of the case
+     * @return : the table, identical for the same seed
+     */
+    static Table scenario(long seed) {
+        Random random = new Random(seed);
+        Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        table.rack();
+        switch (Math.floorMod(seed, 8)) {
+            case 0 -> {
+                // plain rack of Table.rack()
+            }
+            case 1 -> {
+                // two balls in contact, as in ModelTest.collideCheck_ShouldHandleBallCollisions
+                Ball[] balls = table.getBalls();
+                balls[1].setLocation(new PVector(balls[0].getX() + table.getBallSize() * 0.9f, balls[0].getY() + 2));
+                table.setBalls(new Ball[]{balls[0], balls[1]});
+            }
+            default -> {
+                for (Ball ball : table.getBalls()) {
+                    ball.setLocation(new PVector(ball.getX() + (random.nextFloat() - 0.5f) * 4,
+                            ball.getY() + (random.nextFloat() - 0.5f) * 4));
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Compare the two tables of a case.
+     *
+     * @param a : table of the first engine
+     * @param b : table of the second engine
+     * @return : what differed, or null if the tables agree
+     */
+    private String compare(Table a, Table b) {
+        if (a.getScore() != b.getScore())
+            return "score " + a.getScore() + " vs " + b.getScore();
+        if (a.getWhiteBallPocketCount() != b.getWhiteBallPocketCount())
+            return "white ball pocketed " + a.getWhiteBallPocketCount() + " vs " + b.getWhiteBallPocketCount();
+        Ball[] ballsA = a.getBalls();
+        Ball[] ballsB = b.getBalls();
+        if (ballsA.length != ballsB.length)
+            return "balls on table " + ballsA.length + " vs " + ballsB.length;
+        for (int i = 0; i < ballsA.length; i++) {
+            if (ballsA[i].getC() != ballsB[i].getC())
+                return "pocketed balls differ at index " + i;
+            float distance = ballsA[i].getLocation().dist(ballsB[i].getLocation());
+            if (distance > tolerance)
+                return "ball " + ballsA[i].getC() + " is " + distance + " px apart";
+        }
+        return null;
+    }
+
+    /**
+     * Run a sweep from the command line.
+     *
+     * @param args : engine names, number of cases and shots per case
+     */
+    public static void main(String[] args) {
+        String nameA = args.length > 0 ? args[0] : "reference";
+        String nameB = args.length > 1 ? args[1] : "grid";
+        int cases = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int shots = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        EngineConformance harness = new EngineConformance(() -> PhysicsEngine.named(nameA),
+                () -> PhysicsEngine.named(nameB), 0.01f, shots);
+        long start = System.nanoTime();
+        Report report = harness.sweep(0, cases, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%s vs %s: %d cases, %d steps in %.1f s%n", nameA, nameB, report.cases(), report.steps(),
+                (System.nanoTime() - start) / 1e9);
+        if (report.passed()) {
+            System.out.println("All cases conform");
+            return;
+        }
+        System.out.println(report.divergences().size() + " diverging cases, minimal reproduction: " + report.minimal());
+        report.divergences().stream().limit(10).forEach(d -> System.out.println("  " + d));
+        System.exit(1);
+    }
+}
@@ -0,0 +1,240 @@
+package Model;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The GameEventRing class is a ring buffer of game events, in the style of the Disruptor:
+ * the table publishes pockets, scratches, collisions and state changes, and any number of readers
+ * (statistics, replay recording, sound, user interface) consume them at their own pace.
+ *
+ * Every event is a sequence number and four primitive fields, written into preallocated arrays, so publishing
+ * takes no lock and allocates nothing. The publisher claims a sequence number from a counter, writes the fields
+ * of its slot and then releases the sequence number of the slot; readers acquire it before reading the fields,
+ * and check it again afterwards in case the slot was written again meanwhile.
+ * The publisher never waits for readers: a reader falling more than a ring behind loses the oldest events
+ * and counts them. The table publishes from the thread stepping it, and the background worker may publish
+ * at the same time, so claiming is atomic.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class GameEventRing {
+
+    /**
+     * Event of an object ball falling into a hole: a = color of the ball
+     */
+    public static final int POCKET = 1;
+
+    /**
+     * Event of the white ball falling into a hole: a = number of times it was pocketed in the game
+     */
+    public static final int SCRATCH = 2;
+
+    /**
+     * Event of a collision between two balls: a and b = colors of the balls
+     */
+    public static final int COLLISION = 3;
+
+    /**
+     * Event of the last object ball leaving the table
+     */
+    public static final int WIN = 4;
+
+    /**
+     * Event of the game being lost
+     */
+    public static final int LOSS = 5;
+
+    /**
+     * Event of the last moving ball coming to rest
+     */
+    public static final int SETTLED = 6;
+
+    /**
+     * Event of a change of the game state: a = ordinal of the new state
+     */
+    public static final int STATE = 7;
+
+    /**
+     * Access to the sequence numbers of the slots with release and acquire semantics
+     */
+    private static final VarHandle SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /**
+     * Number of slots minus one, the number of slots being a power of two
+     */
+    private final int mask;
+
+    /**
+     * Sequence number of the event held by every slot, -1 for a slot never written or being written
+     */
+    private final long[] sequences;
+
+    /**
+     * Fields of the event held by every slot: type, physics step, first and second argument
+     */
+    private final int[] types;
+    private final long[] steps;
+    private final int[] as;
+    private final int[] bs;
+
+    /**
+     * Next sequence number to claim
+     */
+    private final AtomicLong cursor = new AtomicLong();
+
+    /**
+     * Consumer of the events read by a reader.
+     */
+    public interface EventHandler {
+
+        /**
+         * Handle one event.
+         *
+         * @param sequence : sequence number of the event
+         * @param type : type of the event
+         * @param step : physics step of the table when the event happened
+         * @param a : first argument
+         * @param b : second argument
+         */
+        void onEvent(long sequence, int type, long step, int a, int b);
+    }
+
+    /**
+     * Constructor for the GameEventRing class.
+     *
+     * @param capacity : number of events kept, rounded up to a power of two
+     */
+    public GameEventRing(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        sequences = new long[size];
+        Arrays.fill(sequences, -1);
+        types = new int[size];
+        steps = new long[size];
+        as = new int[size];
+        bs = new int[size];
+    }
+
+    /**
+     * Publish an event.
+     *
+     * @param type : type of the event
+     * @param step : physics step of the table
+     * @param a : first argument
+     * @param b : second argument
+     */
+    public void publish(int type, long step, int a, int b) {
+        long sequence = cursor.getAndIncrement();
+        int slot = (int) sequence & mask;
+        // readers of the previous event of the slot see it as being written, before its fields change
+        SEQUENCE.setOpaque(sequences, slot, -1L);
+        VarHandle.storeStoreFence();
+        types[slot] = type;
+        steps[slot] = step;
+        as[slot] = a;
+        bs[slot] = b;
+        SEQUENCE.setRelease(sequences, slot, sequence);
+    }
+
+    /**
+     * Get the number of events published so far.
+     *
+     * @return : the next sequence number to claim
+     */
+    public long getPublished() { return cursor.get(); }
+
+    /**
+     * Get the number of events kept.
+     *
+     * @return : number of slots
+     */
+    public int getCapacity() { return mask + 1; }
+
+    /**
+     * Create a reader starting with the next published event.
+     *
+     * @return : the reader
+     */
+    public Reader newReader() { return new Reader(cursor.get()); }
+
+    /**
+     * The Reader class reads the events of a ring in order, at its own pace. A reader is used by one thread.
+     */
+    public final class Reader {
+
+        /**
+         * Sequence number of the next event to read
+         */
+        private long next;
+
+        /**
+         * Number of events overwritten before they were read
+         */
+        private long lost;
+
+        /**
+         * Constructor for the Reader class.
+         *
+         * @param next : sequence number of the first event to read
+         */
+        private Reader(long next) {
+            this.next = next;
+        }
+
+        /**
+         * Read the published events, oldest first, up to a number of events.
+         * Reading stops at the first event whose slot is claimed but not written yet.
+         *
+         * @param handler : consumer of the events
+         * @param max : largest number of events to read
+         * @return : number of events read
+         */
+        public int poll(EventHandler handler, int max) {
+            int read = 0;
+            while (read < max) {
+                int slot = (int) next & mask;
+                long sequence = (long) SEQUENCE.getAcquire(sequences, slot);
+                if (sequence < next)
+                    break;
+                if (sequence == next) {
+                    int type = types[slot];
+                    long step = steps[slot];
+                    int a = as[slot], b = bs[slot];
+                    // the slot may have been written again while it was read
+                    VarHandle.loadLoadFence();
+                    if ((long) SEQUENCE.getAcquire(sequences, slot) == next) {
+                        handler.onEvent(next, type, step, a, b);
+                        next++;
+                        read++;
+                        continue;
+                    }
+                }
+                // the publisher lapped the reader: the oldest event still kept is a ring behind the cursor
+                long oldest = Math.max(next + 1, cursor.get() - (mask + 1));
+                lost += oldest - next;
+                next = oldest;
+            }
+            return read;
+        }
+
+        /**
+         * Get the number of events lost because the reader fell more than a ring behind.
+         *
+         * @return : number of lost events
+         */
+        public long getLost() { return lost; }
+
+        /**
+         * Get the number of events published but not read yet, lost ones included.
+         *
+         * @return : number of events behind the cursor
+         */
+        public long getBacklog() { return Math.max(0, cursor.get() - next); }
+    }
+}
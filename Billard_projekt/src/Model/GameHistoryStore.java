@@ -0,0 +1,440 @@
+package Model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The GameHistoryStore class keeps the finished games on disk and answers high-score queries.
+ *
+ * Games are appended to a log, one CRC-checked entry per game, by a background writer that commits
+ * all pending games with a single write and sync, so ending a game never blocks the render thread.
+ * Every SNAPSHOT_EVERY games the writer compacts the history into a snapshot file and starts a new log.
+ * On startup the snapshot and the log are read back into sorted in-memory indexes;
+ * a torn entry at the end of the log is cut off.
+ * If the writer cannot write, it stops; the store then refuses new games and flush() and close() report the error,
+ * so no caller believes games were saved when they were not.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public final class GameHistoryStore implements AutoCloseable {
+
+    /**
+     * Number of logged games between two snapshots
+     */
+    static final int SNAPSHOT_EVERY = 10_000;
+
+    /**
+     * Largest number of games committed by one write
+     */
+    private static final int MAX_BATCH = 512;
+
+    /**
+     * Size of a log entry: a record followed by its CRC
+     */
+    private static final int ENTRY_BYTES = GameRecord.BYTES + 4;
+
+    /**
+     * Magic number and version of the snapshot file
+     */
+    private static final int SNAPSHOT_MAGIC = 0x42494C48, SNAPSHOT_VERSION = 1;
+
+    /**
+     * Name of the snapshot file
+     */
+    private static final String SNAPSHOT = "history.snapshot";
+
+    /**
+     * Games by score, best first
+     */
+    private final NavigableSet<GameRecord> byScore = new ConcurrentSkipListSet<>(
+            Comparator.comparingInt(GameRecord::score).reversed().thenComparingLong(GameRecord::id));
+
+    /**
+     * Won games by number of moves, fewest first
+     */
+    private final NavigableSet<GameRecord> byMoves = new ConcurrentSkipListSet<>(
+            Comparator.comparingInt(GameRecord::moves).thenComparingLong(GameRecord::id));
+
+    /**
+     * Games waiting for the writer
+     */
+    private final BlockingQueue<GameRecord> pending = new LinkedBlockingQueue<>();
+
+    /**
+     * Directory of the store
+     */
+    private final Path dir;
+
+    /**
+     * Thread writing the pending games
+     */
+    private final Thread writer;
+
+    /**
+     * Log of the current generation
+     */
+    private FileChannel log;
+
+    /**
+     * Generation of the current log, increased by every snapshot
+     */
+    private long generation;
+
+    /**
+     * Id of the next submitted game
+     */
+    private long nextId = 1;
+
+    /**
+     * Id of the last game written to the log
+     */
+    private volatile long writtenId;
+
+    /**
+     * Games logged since the last snapshot
+     */
+    private int sinceSnapshot;
+
+    /**
+     * Flag indicating whether the store accepts games
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Error that stopped the writer, null while it works
+     */
+    private volatile IOException failure;
+
+    /**
+     * Constructor for the GameHistoryStore class.
+     * Reads the snapshot and the log of the directory, then starts the writer.
+     *
+     * @param dir : directory of the store, created if needed
+     * @throws IOException : if the files cannot be read or the snapshot is damaged
+     */
+    public GameHistoryStore(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        readSnapshot();
+        deleteOldLogs();
+        log = FileChannel.open(logFile(generation), CREATE, READ, WRITE);
+        replayLog();
+        writtenId = nextId - 1;
+        writer = new Thread(this::writeLoop, "history-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Submit a finished game. Returns at once; the game is written by the background writer.
+     *
+     * @param record : the finished game
+     * @return : the game numbered by the store
+     * @throws IllegalStateException : if the store is closed or its writer failed
+     */
+    public synchronized GameRecord submit(GameRecord record) {
+        if (failure != null)
+            throw new IllegalStateException("history store failed: " + failure.getMessage(), failure);
+        if (!running)
+            throw new IllegalStateException("history store is closed");
+        GameRecord numbered = record.withId(nextId++);
+        index(numbered);
+        pending.add(numbered);
+        return numbered;
+    }
+
+    /**
+     * Get the best games by score.
+     *
+     * @param n : number of games
+     * @return : at most n games, highest score first
+     */
+    public List<GameRecord> topByScore(int n) {
+        return first(byScore, n);
+    }
+
+    /**
+     * Get the won games with the fewest moves.
+     *
+     * @param n : number of games
+     * @return : at most n won games, fewest moves first
+     */
+    public List<GameRecord> topByFewestMoves(int n) {
+        return first(byMoves, n);
+    }
+
+    /**
+     * Get the number of stored games.
+     *
+     * @return : Number of games
+     */
+    public int size() { return byScore.size(); }
+
+    /**
+     * Wait until every submitted game has been written to disk.
+     *
+     * @throws InterruptedException : if the waiting thread is interrupted
+     * @throws IOException : if the writer failed or stopped before writing them
+     */
+    public void flush() throws InterruptedException, IOException {
+        long target;
+        synchronized (this) {
+            target = nextId - 1;
+        }
+        synchronized (pending) {
+            while (writtenId < target && failure == null && writer.isAlive())
+                pending.wait(100);
+        }
+        checkWritten(target);
+    }
+
+    /**
+     * Check that the games up to an id were written.
+     *
+     * @param target : id of the last game that must be written
+     * @throws IOException : if the writer failed or stopped before writing them
+     */
+    private void checkWritten(long target) throws IOException {
+        if (failure != null)
+            throw new IOException("game history could not be written", failure);
+        if (writtenId < target)
+            throw new IOException("game history writer stopped before writing game " + target);
+    }
+
+    /**
+     * Write the pending games and stop the writer.
+     *
+     * @throws IOException : if the log cannot be closed, or the writer failed before writing every game
+     */
+    @Override
+    public void close() throws IOException {
+        long target;
+        synchronized (this) {
+            running = false;
+            target = nextId - 1;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+        checkWritten(target);
+    }
+
+    /**
+     * Main loop of the writer: group-commit the pending games, compact from time to time.
+     */
+    private void writeLoop() {
+        List<GameRecord> batch = new ArrayList<>(MAX_BATCH);
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_BATCH * ENTRY_BYTES);
+        CRC32 crc = new CRC32();
+        while (running || !pending.isEmpty()) {
+            try {
+                GameRecord first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                pending.drainTo(batch, MAX_BATCH - 1);
+                buffer.clear();
+                for (GameRecord record : batch) {
+                    int start = buffer.position();
+                    record.write(buffer);
+                    crc.reset();
+                    crc.update(buffer.array(), start, GameRecord.BYTES);
+                    buffer.putInt((int) crc.getValue());
+                }
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    log.write(buffer);
+                log.force(false);
+                synchronized (pending) {
+                    writtenId = batch.get(batch.size() - 1).id();
+                    pending.notifyAll();
+                }
+                sinceSnapshot += batch.size();
+                batch.clear();
+                if (sinceSnapshot >= SNAPSHOT_EVERY)
+                    compact();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                synchronized (pending) {
+                    failure = e;
+                    pending.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Write every logged game into a new snapshot and start the log of the next generation.
+     *
+     * @throws IOException : if the snapshot cannot be written
+     */
+    void compact() throws IOException {
+        long next = generation + 1;
+        long upTo = writtenId;
+        Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long count = byScore.stream().filter(r -> r.id() <= upTo).count();
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(next).putLong(count);
+            for (GameRecord record : byScore) {
+                if (record.id() > upTo)
+                    continue;
+                if (buffer.remaining() < GameRecord.BYTES + 4)
+                    drain(out, buffer, crc);
+                record.write(buffer);
+            }
+            drain(out, buffer, crc);
+            buffer.putInt((int) crc.getValue()).flip();
+            while (buffer.hasRemaining())
+                out.write(buffer);
+            out.force(true);
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        FileChannel old = log;
+        log = FileChannel.open(logFile(next), CREATE, READ, WRITE);
+        generation = next;
+        old.close();
+        deleteOldLogs();
+        sinceSnapshot = 0;
+    }
+
+    /**
+     * Write the content of a buffer, adding it to a CRC.
+     *
+     * @param out : file receiving the bytes
+     * @param buffer : buffer in write mode, cleared afterwards
+     * @param crc : CRC of the written bytes
+     * @throws IOException : if the bytes cannot be written
+     */
+    private static void drain(FileChannel out, ByteBuffer buffer, CRC32 crc) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining())
+            out.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Read the snapshot, if any, into the indexes.
+     *
+     * @throws IOException : if the snapshot cannot be read or is damaged
+     */
+    private void readSnapshot() throws IOException {
+        Path file = dir.resolve(SNAPSHOT);
+        if (!Files.exists(file))
+            return;
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        CRC32 crc = new CRC32();
+        if (in.limit() >= 28)
+            crc.update(in.array(), 0, in.limit() - 4);
+        if (in.limit() < 28 || in.getInt() != SNAPSHOT_MAGIC || in.getInt() != SNAPSHOT_VERSION
+                || (int) crc.getValue() != in.getInt(in.limit() - 4))
+            throw new IOException(file + " is damaged");
+        generation = in.getLong();
+        long count = in.getLong();
+        for (long i = 0; i < count; i++)
+            index(GameRecord.read(in));
+    }
+
+    /**
+     * Read the log of the current generation into the indexes, cutting off a torn or damaged tail.
+     *
+     * @throws IOException : if the log cannot be read
+     */
+    private void replayLog() throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES);
+        CRC32 crc = new CRC32();
+        long position = 0;
+        while (true) {
+            entry.clear();
+            while (entry.hasRemaining() && log.read(entry, position + entry.position()) > 0) ;
+            if (entry.hasRemaining())
+                break;
+            crc.reset();
+            crc.update(entry.array(), 0, GameRecord.BYTES);
+            if ((int) crc.getValue() != entry.getInt(GameRecord.BYTES))
+                break;
+            entry.flip();
+            index(GameRecord.read(entry));
+            position += ENTRY_BYTES;
+            sinceSnapshot++;
+        }
+        log.truncate(position);
+        log.position(position);
+    }
+
+    /**
+     * Delete the logs of older generations, already part of the snapshot.
+     *
+     * @throws IOException : if the directory cannot be listed
+     */
+    private void deleteOldLogs() throws IOException {
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(dir, "history-*.log")) {
+            for (Path file : logs) {
+                if (!file.equals(logFile(generation)))
+                    Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Add a game to the indexes.
+     *
+     * @param record : the game
+     */
+    private void index(GameRecord record) {
+        byScore.add(record);
+        if (record.won())
+            byMoves.add(record);
+        nextId = Math.max(nextId, record.id() + 1);
+    }
+
+    /**
+     * Path of the log of a generation.
+     *
+     * @param generation : generation of the log
+     * @return : path of the log file
+     */
+    private Path logFile(long generation) {
+        return dir.resolve("history-" + generation + ".log");
+    }
+
+    /**
+     * First elements of a sorted index.
+     *
+     * @param index : the index
+     * @param n : number of elements
+     * @return : at most n elements
+     */
+    private static List<GameRecord> first(NavigableSet<GameRecord> index, int n) {
+        List<GameRecord> result = new ArrayList<>(Math.min(n, 64));
+        Iterator<GameRecord> it = index.iterator();
+        while (result.size() < n && it.hasNext())
+            result.add(it.next());
+        return result;
+    }
+}
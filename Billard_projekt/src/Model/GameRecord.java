@@ -0,0 +1,68 @@
+package Model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The GameRecord record describes one finished game, as kept by GameHistoryStore.
+ *
+ * @param id : sequence number of the game in the store
+ * @param time : end of the game, in milliseconds since the epoch
+ * @param score : Game score
+ * @param moves : Number of moves made by the player
+ * @param remainingShots : Number of remaining shots
+ * @param whiteBallPocketCount : Count of white balls pocketed
+ * @param won : True if the game was won, false if it was lost
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public record GameRecord(long id, long time, int score, int moves, int remainingShots,
+                         int whiteBallPocketCount, boolean won) {
+
+    /**
+     * Size of a serialized record in bytes
+     */
+    public static final int BYTES = 8 + 8 + 4 * 4 + 1;
+
+    /**
+     * Create the record of a finished game from its table.
+     *
+     * @param table : table at the end of the game
+     * @param won : True if the game was won, false if it was lost
+     * @return : the record, with id 0 until the store numbers it
+     */
+    public static GameRecord of(Table table, boolean won) {
+        return new GameRecord(0, System.currentTimeMillis(), table.getScore(), table.getMoves(),
+                table.getRemainingShots(), table.getWhiteBallPocketCount(), won);
+    }
+
+    /**
+     * Copy of the record with another id.
+     *
+     * @param id : sequence number of the game
+     * @return : the numbered record
+     */
+    GameRecord withId(long id) {
+        return new GameRecord(id, time, score, moves, remainingShots, whiteBallPocketCount, won);
+    }
+
+    /**
+     * Write the record.
+     *
+     * @param out : buffer receiving BYTES bytes
+     */
+    void write(ByteBuffer out) {
+        out.putLong(id).putLong(time).putInt(score).putInt(moves).putInt(remainingShots)
+                .putInt(whiteBallPocketCount).put((byte) (won ? 1 : 0));
+    }
+
+    /**
+     * Read a record.
+     *
+     * @param in : buffer holding BYTES bytes
+     * @return : the record
+     */
+    static GameRecord read(ByteBuffer in) {
+        return new GameRecord(in.getLong(), in.getLong(), in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.get() != 0);
+    }
+}
@@ -0,0 +1,135 @@
+package Model;
+
+import java.util.Arrays;
+
+/**
+ * The GridPhysicsEngine class resolves collisions with a uniform grid broad phase.
+ * Balls are sorted into cells as large as the collision distance, so each ball is only checked
+ * against the balls of its own and the eight neighbouring cells instead of every other ball.
+ * Pairs are resolved in the same order as Table.collideCheck(), so the outcome follows the reference engine.
+ * Balls put to sleep by LodPhysicsEngine are left out of the grid, nothing can reach them.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class GridPhysicsEngine implements PhysicsEngine {
+
+    /**
+     * First ball of every cell, -1 for an empty cell
+     */
+    private int[] head = new int[0];
+
+    /**
+     * Next ball in the same cell, -1 at the end of a cell
+     */
+    private int[] next = new int[0];
+
+    /**
+     * Neighbours of the current ball, reused between balls
+     */
+    private int[] candidates = new int[16];
+
+    /**
+     * Resolves the collisions of one step, checking only neighbouring balls.
+     *
+     * @param table : the billiard table
+     */
+    @Override
+    public void collide(Table table) {
+        Ball[] balls = table.getBalls();
+        float cell = table.getBallSize();
+        if (cell <= 0) {
+            table.collideCheck();
+            return;
+        }
+        int n = balls.length;
+        int columns = (int) (table.getMyW() / cell) + 3;
+        int rows = (int) (table.getMyH() / cell) + 3;
+        float originX = table.getMyX() - cell;
+        float originY = table.getMyY() - cell;
+        if (head.length < columns * rows)
+            head = new int[columns * rows];
+        Arrays.fill(head, 0, columns * rows, -1);
+        if (next.length < n)
+            next = new int[n];
+        for (int i = n - 1; i >= 0; i--) {
+            if (balls[i].asleep)
+                continue;
+            int c = clamp((int) Math.floor((balls[i].getY() - originY) / cell), rows) * columns
+                    + clamp((int) Math.floor((balls[i].getX() - originX) / cell), columns);
+            next[i] = head[c];
+            head[c] = i;
+        }
+
+        for (int i = 0; i < n - 1; i++) {
+            if (balls[i].asleep)
+                continue;
+            int after = i;
+            int found = gather(balls[i], after, originX, originY, cell, columns, rows);
+            for (int k = 0; k < found; k++) {
+                Ball other = balls[candidates[k]];
+                if (balls[i].getLocation().dist(other.getLocation()) <= cell) {
+                    balls[i].collide(other);
+                    table.countCollision(balls[i], other);
+                    // the collision moved ball i, its neighbours are looked up again from the new position
+                    after = candidates[k];
+                    found = gather(balls[i], after, originX, originY, cell, columns, rows);
+                    k = -1;
+                }
+            }
+        }
+        table.checkHoleCollision();
+        table.removeBallFromTable();
+    }
+
+    /**
+     * Collect the balls with a higher index than a given one in the cells around a ball, in index order.
+     * Only the ball being resolved moves during a step, so the other balls are still in their cells.
+     *
+     * @param ball : the ball being resolved
+     * @param after : only balls with a higher index are collected
+     * @param originX : X-coordinate of the first cell
+     * @param originY : Y-coordinate of the first cell
+     * @param cell : size of a cell
+     * @param columns : number of cell columns
+     * @param rows : number of cell rows
+     * @return : number of collected balls, stored in candidates
+     */
+    private int gather(Ball ball, int after, float originX, float originY, float cell, int columns, int rows) {
+        int ballColumn = clamp((int) Math.floor((ball.getX() - originX) / cell), columns);
+        int ballRow = clamp((int) Math.floor((ball.getY() - originY) / cell), rows);
+        int found = 0;
+        for (int r = Math.max(ballRow - 1, 0); r <= Math.min(ballRow + 1, rows - 1); r++) {
+            for (int c = Math.max(ballColumn - 1, 0); c <= Math.min(ballColumn + 1, columns - 1); c++) {
+                for (int j = head[r * columns + c]; j >= 0; j = next[j]) {
+                    if (j <= after)
+                        continue;
+                    if (found == candidates.length)
+                        candidates = Arrays.copyOf(candidates, found * 2);
+                    candidates[found++] = j;
+                }
+            }
+        }
+        Arrays.sort(candidates, 0, found);
+        return found;
+    }
+
+    /**
+     * Clamp a cell index into the grid.
+     *
+     * @param index : cell index
+     * @param size : number of cells
+     * @return : the index inside [0, size - 1]
+     */
+    private static int clamp(int index, int size) {
+        return Math.max(0, Math.min(size - 1, index));
+    }
+
+    /**
+     * Gets the name of the engine.
+     *
+     * @return : "grid"
+     */
+    @Override
+    public String getName() { return "grid"; }
+}
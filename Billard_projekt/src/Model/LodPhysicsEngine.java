@@ -0,0 +1,356 @@
+package Model;
+
+import processing.core.PVector;
+
+import java.util.Arrays;
+
+/**
+ * The LodPhysicsEngine class gives slow, isolated balls a lower level of detail on large tables.
+ *
+ * Every WINDOW steps the engine looks for balls that are slow, far from the cushions and holes,
+ * and so far from every other ball that nothing can reach them before the window ends.
+ * The speed of any ball is bounded by the kinetic energy of the table, since collisions only exchange it,
+ * so the clearance needed is known in advance. Such balls fall asleep: they are not stepped during the window
+ * and their motion is extrapolated at its end with the closed form of the linear deceleration of Ball.move().
+ * At the next window every sleeping ball is woken up and classified again, so a ball that something
+ * approaches is back to full-rate stepping before it can be touched.
+ *
+ * Collisions and holes are resolved by a delegate engine, which leaves the sleeping balls out of its broad phase
+ * and its hole checks. At the end of every step the sleeping balls are moved to their extrapolated position,
+ * which costs a few multiplications per ball, so the view, the shot evaluation and the history never read
+ * a stale position.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class LodPhysicsEngine implements PhysicsEngine {
+
+    /**
+     * Deceleration of a moving ball at each step, as in Ball.move()
+     */
+    static final float DECELERATION = 0.02f;
+
+    /**
+     * Engine resolving the collisions
+     */
+    private final PhysicsEngine delegate;
+
+    /**
+     * Number of steps a sleeping ball is skipped
+     */
+    private final int window;
+
+    /**
+     * Largest speed of a ball allowed to sleep, in pixels per step
+     */
+    private final float slowSpeed;
+
+    /**
+     * Steps since the sleeping balls fell asleep
+     */
+    private int stepInWindow;
+
+    /**
+     * Speed bound the current window was classified with
+     */
+    private float maxSpeed;
+
+    /**
+     * Sleeping balls with the state they fell asleep in: position, direction and speed
+     */
+    private Ball[] sleepers = new Ball[64];
+    private float[] originX = new float[64], originY = new float[64];
+    private float[] directionX = new float[64], directionY = new float[64], speed = new float[64];
+    private int sleeping;
+
+    /**
+     * White ball the current window was classified with, a new one is placed after a scratch
+     */
+    private Ball white;
+
+    /**
+     * Grid of the balls used by the classification, reused between windows
+     */
+    private int[] head = new int[0], next = new int[0];
+
+    /**
+     * Constructor for the LodPhysicsEngine class, with a grid engine for the collisions.
+     */
+    public LodPhysicsEngine() {
+        this(new GridPhysicsEngine(), 8, 1.0f);
+    }
+
+    /**
+     * Constructor for the LodPhysicsEngine class.
+     *
+     * @param delegate : engine resolving the collisions
+     * @param window : number of steps a sleeping ball is skipped
+     * @param slowSpeed : largest speed of a ball allowed to sleep, in pixels per step
+     */
+    public LodPhysicsEngine(PhysicsEngine delegate, int window, float slowSpeed) {
+        if (window < 1)
+            throw new IllegalArgumentException("window must be positive");
+        this.delegate = delegate;
+        this.window = window;
+        this.slowSpeed = slowSpeed;
+        this.stepInWindow = window;
+    }
+
+    /**
+     * Resolves the collisions of one step with the delegate engine.
+     * Sleeping balls are far enough from everything to take no part in them, the delegate skips them.
+     *
+     * @param table : the billiard table
+     */
+    @Override
+    public void collide(Table table) {
+        delegate.collide(table);
+    }
+
+    /**
+     * Bounces and moves the balls that are awake.
+     *
+     * @param table : the billiard table
+     * @param widthWall : Width of the wall
+     * @param heightWall : Height of the wall
+     */
+    @Override
+    public void integrate(Table table, float widthWall, float heightWall) {
+        Ball[] balls = table.getBalls();
+        float half = table.getBallSize() / 2;
+        for (Ball ball : balls) {
+            if (ball.asleep)
+                continue;
+            if (ball.getX() <= table.getMyX() + half || ball.getX() >= table.getMyX() + table.getMyW() - half)
+                ball.Xbounce(widthWall);
+            if (ball.getY() <= table.getMyY() + half || ball.getY() >= table.getMyY() + table.getMyH() - half)
+                ball.Ybounce(heightWall);
+            ball.move();
+        }
+    }
+
+    /**
+     * Performs a whole physics step, waking and classifying the balls at the start of every window.
+     * A shot of the player adds energy to the table and a scratch places a new white ball,
+     * so both start a new window at once.
+     *
+     * @param table : the billiard table
+     * @param widthWall : Width of the wall
+     * @param heightWall : Height of the wall
+     */
+    @Override
+    public void step(Table table, float widthWall, float heightWall) {
+        Ball[] balls = table.getBalls();
+        if (stepInWindow >= window || (balls.length > 0 && (balls[0] != white || balls[0].getForce().mag() > maxSpeed))) {
+            sync(table);
+            classify(table);
+        }
+        collide(table);
+        integrate(table, widthWall, heightWall);
+        stepInWindow++;
+        for (int s = 0; s < sleeping; s++)
+            extrapolate(s);
+    }
+
+    /**
+     * Wake every sleeping ball, moving it to where full-rate stepping would have brought it.
+     * The current window ends, the next step classifies the balls again.
+     *
+     * @param table : the billiard table
+     */
+    public void sync(Table table) {
+        for (int s = 0; s < sleeping; s++) {
+            extrapolate(s);
+            sleepers[s].asleep = false;
+            sleepers[s] = null;
+        }
+        sleeping = 0;
+        stepInWindow = window;
+        maxSpeed = Float.MAX_VALUE;
+        white = null;
+    }
+
+    /**
+     * Move a sleeping ball to where full-rate stepping would have brought it by now.
+     * The position and the force are updated in place, the ball only reports to the table when it stops.
+     *
+     * @param s : index of the ball among the sleeping balls
+     */
+    private void extrapolate(int s) {
+        Ball ball = sleepers[s];
+        float v = speed[s];
+        int moving = (int) Math.ceil(v / DECELERATION);
+        int m = Math.min(stepInWindow, moving);
+        float travel = m * v - DECELERATION * m * (m - 1) / 2f;
+        ball.getLocation().set(originX[s] + directionX[s] * travel, originY[s] + directionY[s] * travel);
+        if (m < moving) {
+            float left = v - m * DECELERATION;
+            ball.getForce().set(directionX[s] * left, directionY[s] * left);
+        } else if (ball.isMoving()) {
+            ball.setForce(new PVector());
+        }
+    }
+
+    /**
+     * Put to sleep the balls that nothing can reach during the next window.
+     *
+     * @param table : the billiard table
+     */
+    private void classify(Table table) {
+        Ball[] balls = table.getBalls();
+        float size = table.getBallSize();
+        stepInWindow = 0;
+        white = balls.length > 0 ? balls[0] : null;
+        double energy = 0;
+        for (Ball ball : balls)
+            energy += ball.getForce().magSq();
+        maxSpeed = (float) Math.sqrt(energy);
+        if (size <= 0 || balls.length < 2)
+            return;
+
+        float cell = 2 * size;
+        int columns = (int) (table.getMyW() / cell) + 3;
+        int rows = (int) (table.getMyH() / cell) + 3;
+        float originGridX = table.getMyX() - cell;
+        float originGridY = table.getMyY() - cell;
+        if (head.length < columns * rows)
+            head = new int[columns * rows];
+        Arrays.fill(head, 0, columns * rows, -1);
+        if (next.length < balls.length)
+            next = new int[balls.length];
+        for (int i = 0; i < balls.length; i++) {
+            int c = cellIndex(balls[i], originGridX, originGridY, cell, columns, rows);
+            next[i] = head[c];
+            head[c] = i;
+        }
+
+        // the white ball is hit by the player at any time, it never sleeps
+        for (int i = 1; i < balls.length; i++) {
+            Ball ball = balls[i];
+            float v = ball.getForce().mag();
+            if (v > slowSpeed)
+                continue;
+            float travel = window * v;
+            if (!isClearOfCushionsAndHoles(table, ball, travel))
+                continue;
+            float clearance = size + window * (v + maxSpeed);
+            int rings = (int) Math.ceil(clearance / cell);
+            if (rings > 3 || !isIsolated(balls, i, clearance, rings, originGridX, originGridY, cell, columns, rows))
+                continue;
+            sleep(ball, v);
+        }
+    }
+
+    /**
+     * Check if a ball cannot reach a cushion or a hole within a travel distance.
+     *
+     * @param table : the billiard table
+     * @param ball : the ball
+     * @param travel : largest distance the ball can travel
+     * @return : True if the ball stays clear, false otherwise
+     */
+    private static boolean isClearOfCushionsAndHoles(Table table, Ball ball, float travel) {
+        float half = table.getBallSize() / 2;
+        if (ball.getX() - travel <= table.getMyX() + half || ball.getX() + travel >= table.getMyX() + table.getMyW() - half)
+            return false;
+        if (ball.getY() - travel <= table.getMyY() + half || ball.getY() + travel >= table.getMyY() + table.getMyH() - half)
+            return false;
+        for (Hole hole : table.getHoles()) {
+            float reach = (ball.getSize() + hole.getHoleSize() / 2) / 2 + travel;
+            float dx = ball.getX() - hole.getX(), dy = ball.getY() - hole.getY();
+            if (dx * dx + dy * dy <= reach * reach)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check if no other ball is within a clearance of a ball.
+     *
+     * @param balls : balls of the table
+     * @param i : index of the ball
+     * @param clearance : distance no other ball may be within
+     * @param rings : number of cell rings covering the clearance
+     * @param originGridX : X-coordinate of the first cell
+     * @param originGridY : Y-coordinate of the first cell
+     * @param cell : size of a cell
+     * @param columns : number of cell columns
+     * @param rows : number of cell rows
+     * @return : True if the ball is isolated, false otherwise
+     */
+    private boolean isIsolated(Ball[] balls, int i, float clearance, int rings, float originGridX, float originGridY,
+                               float cell, int columns, int rows) {
+        int c = cellIndex(balls[i], originGridX, originGridY, cell, columns, rows);
+        int column = c % columns;
+        int row = c / columns;
+        float x = balls[i].getX(), y = balls[i].getY(), clearanceSq = clearance * clearance;
+        for (int r = Math.max(0, row - rings); r <= Math.min(rows - 1, row + rings); r++) {
+            for (int cc = Math.max(0, column - rings); cc <= Math.min(columns - 1, column + rings); cc++) {
+                for (int j = head[r * columns + cc]; j >= 0; j = next[j]) {
+                    float dx = balls[j].getX() - x, dy = balls[j].getY() - y;
+                    if (j != i && dx * dx + dy * dy < clearanceSq)
+                        return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Put a ball to sleep, remembering the state to extrapolate from.
+     *
+     * @param ball : the ball
+     * @param v : speed of the ball
+     */
+    private void sleep(Ball ball, float v) {
+        if (sleeping == sleepers.length) {
+            int size = sleeping * 2;
+            sleepers = Arrays.copyOf(sleepers, size);
+            originX = Arrays.copyOf(originX, size);
+            originY = Arrays.copyOf(originY, size);
+            directionX = Arrays.copyOf(directionX, size);
+            directionY = Arrays.copyOf(directionY, size);
+            speed = Arrays.copyOf(speed, size);
+        }
+        sleepers[sleeping] = ball;
+        originX[sleeping] = ball.getX();
+        originY[sleeping] = ball.getY();
+        directionX[sleeping] = v > 0 ? ball.getForce().x / v : 0;
+        directionY[sleeping] = v > 0 ? ball.getForce().y / v : 0;
+        speed[sleeping] = v;
+        sleeping++;
+        ball.asleep = true;
+    }
+
+    /**
+     * Cell of a ball in the classification grid.
+     *
+     * @param ball : the ball
+     * @param originGridX : X-coordinate of the first cell
+     * @param originGridY : Y-coordinate of the first cell
+     * @param cell : size of a cell
+     * @param columns : number of cell columns
+     * @param rows : number of cell rows
+     * @return : index of the cell
+     */
+    private static int cellIndex(Ball ball, float originGridX, float originGridY, float cell, int columns, int rows) {
+        int column = Math.max(0, Math.min(columns - 1, (int) Math.floor((ball.getX() - originGridX) / cell)));
+        int row = Math.max(0, Math.min(rows - 1, (int) Math.floor((ball.getY() - originGridY) / cell)));
+        return row * columns + column;
+    }
+
+    /**
+     * Get the number of balls sleeping in the current window.
+     *
+     * @return : Number of sleeping balls
+     */
+    public int getSleeping() { return sleeping; }
+
+    /**
+     * Gets the name of the engine.
+     *
+     * @return : "lod"
+     */
+    @Override
+    public String getName() { return "lod"; }
+}
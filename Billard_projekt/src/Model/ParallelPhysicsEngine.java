@@ -0,0 +1,379 @@
+package Model;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The ParallelPhysicsEngine class spreads the physics of one giant table over several cores.
+ *
+ * A step first finds the touching pairs of balls with a uniform grid, in parallel over ranges of balls.
+ * Ball.collide() changes both balls of a pair, so the pairs are then coloured: a greedy graph colouring
+ * puts every pair into the first batch that holds neither of its balls. The batches are resolved one after
+ * the other, the pairs of a batch in parallel, since no ball appears twice in a batch. Finally the balls
+ * bounce and move in parallel, and holes are checked as in the other engines.
+ *
+ * Unlike the reference engine, the pairs are found once at the start of the step; a pair is still checked again
+ * right before it is resolved. The pairs are coloured in the order of the reference engine,
+ * so the outcome does not depend on the number of threads.
+ * The tasks run on the common fork/join pool unless a pool is given, so engines own no threads of their own.
+ * Tables with few balls are stepped on the calling thread. Collisions resolved in batches are only counted,
+ * they are not published to the event ring of the table one by one.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class ParallelPhysicsEngine implements PhysicsEngine {
+
+    /**
+     * Tables with fewer balls are stepped on the calling thread
+     */
+    static final int PARALLEL_THRESHOLD = 512;
+
+    /**
+     * Number of balls or pairs handled by one task
+     */
+    static final int CHUNK = 256;
+
+    /**
+     * Number of colours; pairs that find no free colour go to a last batch resolved on the calling thread
+     */
+    static final int COLOURS = 64;
+
+    /**
+     * Pool running the tasks
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Grid of the balls, rebuilt at every step
+     */
+    private int[] head = new int[0], next = new int[0];
+    private float cell, originX, originY;
+    private int columns, rows;
+
+    /**
+     * Touching pairs found by every range of balls: pair k of range r is (first[r][k], second[r][k])
+     */
+    private int[][] firsts = new int[0][], seconds = new int[0][];
+    private int[] found = new int[0];
+
+    /**
+     * Pairs sorted by colour: balls of the pairs, and the first pair of every colour
+     */
+    private int[] batchFirst = new int[0], batchSecond = new int[0];
+    private final int[] colourStart = new int[COLOURS + 2];
+
+    /**
+     * Colours used by every ball in the current step, one bit per colour
+     */
+    private long[] used = new long[0];
+
+    /**
+     * Colour of every pair, in the order the pairs were found
+     */
+    private int[] colours = new int[0];
+
+    /**
+     * Constructor for the ParallelPhysicsEngine class, running on the common fork/join pool.
+     */
+    public ParallelPhysicsEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor for the ParallelPhysicsEngine class.
+     *
+     * @param pool : pool running the tasks, shut down by the caller
+     */
+    public ParallelPhysicsEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Resolves the collisions of one step in coloured batches.
+     *
+     * @param table : the billiard table
+     */
+    @Override
+    public void collide(Table table) {
+        Ball[] balls = table.getBalls();
+        if (balls.length < PARALLEL_THRESHOLD || table.getBallSize() <= 0) {
+            table.collideCheck();
+            return;
+        }
+        buildGrid(table, balls);
+        int ranges = (balls.length + CHUNK - 1) / CHUNK;
+        if (firsts.length < ranges) {
+            firsts = Arrays.copyOf(firsts, ranges);
+            seconds = Arrays.copyOf(seconds, ranges);
+            found = new int[ranges];
+        }
+        run(new RangeTask(0, ranges, range -> findPairs(balls, range)));
+
+        colour(balls.length, ranges);
+        long collisions = 0;
+        for (int colour = 0; colour <= COLOURS; colour++) {
+            int from = colourStart[colour], to = colourStart[colour + 1];
+            if (colour == COLOURS || to - from <= CHUNK) {
+                collisions += resolve(balls, from, to);
+            } else {
+                long[] counts = new long[(to - from + CHUNK - 1) / CHUNK];
+                run(new RangeTask(0, counts.length, chunk ->
+                        counts[chunk] = resolve(balls, from + chunk * CHUNK, Math.min(to, from + (chunk + 1) * CHUNK))));
+                for (long count : counts)
+                    collisions += count;
+            }
+        }
+        table.countCollisions(collisions);
+        table.checkHoleCollision();
+        table.removeBallFromTable();
+    }
+
+    /**
+     * Bounces and moves the balls, in parallel over ranges of balls.
+     *
+     * @param table : the billiard table
+     * @param widthWall : Width of the wall
+     * @param heightWall : Height of the wall
+     */
+    @Override
+    public void integrate(Table table, float widthWall, float heightWall) {
+        Ball[] balls = table.getBalls();
+        if (balls.length < PARALLEL_THRESHOLD) {
+            table.moveBalls(widthWall, heightWall);
+            return;
+        }
+        float half = table.getBallSize() / 2;
+        float left = table.getMyX() + half, right = table.getMyX() + table.getMyW() - half;
+        float top = table.getMyY() + half, bottom = table.getMyY() + table.getMyH() - half;
+        run(new RangeTask(0, (balls.length + CHUNK - 1) / CHUNK, range -> {
+            for (int i = range * CHUNK; i < Math.min(balls.length, (range + 1) * CHUNK); i++) {
+                Ball ball = balls[i];
+                if (ball.getX() <= left || ball.getX() >= right)
+                    ball.Xbounce(widthWall);
+                if (ball.getY() <= top || ball.getY() >= bottom)
+                    ball.Ybounce(heightWall);
+                ball.move();
+            }
+        }));
+    }
+
+    /**
+     * Sort the balls into the cells of the grid.
+     *
+     * @param table : the billiard table
+     * @param balls : balls of the table
+     */
+    private void buildGrid(Table table, Ball[] balls) {
+        cell = table.getBallSize();
+        columns = (int) (table.getMyW() / cell) + 3;
+        rows = (int) (table.getMyH() / cell) + 3;
+        originX = table.getMyX() - cell;
+        originY = table.getMyY() - cell;
+        if (head.length < columns * rows)
+            head = new int[columns * rows];
+        Arrays.fill(head, 0, columns * rows, -1);
+        if (next.length < balls.length) {
+            next = new int[balls.length];
+            used = new long[balls.length];
+        }
+        for (int i = balls.length - 1; i >= 0; i--) {
+            int c = cellOf(balls[i]);
+            next[i] = head[c];
+            head[c] = i;
+        }
+    }
+
+    /**
+     * Find the touching pairs (i, j) with i in a range of balls and j greater than i, in the order of j.
+     *
+     * @param balls : balls of the table
+     * @param range : index of the range
+     */
+    private void findPairs(Ball[] balls, int range) {
+        int[] first = firsts[range] == null ? new int[64] : firsts[range];
+        int[] second = seconds[range] == null ? new int[64] : seconds[range];
+        int count = 0;
+        int[] neighbours = new int[32];
+        for (int i = range * CHUNK; i < Math.min(balls.length, (range + 1) * CHUNK); i++) {
+            int c = cellOf(balls[i]);
+            int column = c % columns, row = c / columns;
+            int n = 0;
+            for (int r = Math.max(row - 1, 0); r <= Math.min(row + 1, rows - 1); r++) {
+                for (int cc = Math.max(column - 1, 0); cc <= Math.min(column + 1, columns - 1); cc++) {
+                    for (int j = head[r * columns + cc]; j >= 0; j = next[j]) {
+                        if (j <= i || balls[i].getLocation().dist(balls[j].getLocation()) > cell)
+                            continue;
+                        if (n == neighbours.length)
+                            neighbours = Arrays.copyOf(neighbours, n * 2);
+                        neighbours[n++] = j;
+                    }
+                }
+            }
+            Arrays.sort(neighbours, 0, n);
+            for (int k = 0; k < n; k++) {
+                if (count == first.length) {
+                    first = Arrays.copyOf(first, count * 2);
+                    second = Arrays.copyOf(second, count * 2);
+                }
+                first[count] = i;
+                second[count++] = neighbours[k];
+            }
+        }
+        firsts[range] = first;
+        seconds[range] = second;
+        found[range] = count;
+    }
+
+    /**
+     * Colour the pairs greedily and sort them by colour into the batch arrays.
+     *
+     * @param ballCount : number of balls
+     * @param ranges : number of ball ranges
+     * @return : number of pairs
+     */
+    private int colour(int ballCount, int ranges) {
+        int pairs = 0;
+        for (int r = 0; r < ranges; r++)
+            pairs += found[r];
+        if (colours.length < pairs) {
+            colours = new int[pairs];
+            batchFirst = new int[pairs];
+            batchSecond = new int[pairs];
+        }
+        Arrays.fill(used, 0, ballCount, 0L);
+        Arrays.fill(colourStart, 0);
+
+        // the ranges hold the pairs in the order of the reference engine
+        int p = 0;
+        for (int r = 0; r < ranges; r++) {
+            for (int q = 0; q < found[r]; q++, p++) {
+                int i = firsts[r][q], j = seconds[r][q];
+                long free = ~(used[i] | used[j]);
+                int colour = free == 0 ? COLOURS : Long.numberOfTrailingZeros(free);
+                if (colour < COLOURS) {
+                    used[i] |= 1L << colour;
+                    used[j] |= 1L << colour;
+                }
+                colours[p] = colour;
+                colourStart[colour + 1]++;
+            }
+        }
+        for (int colour = 0; colour <= COLOURS; colour++)
+            colourStart[colour + 1] += colourStart[colour];
+
+        int[] fill = Arrays.copyOf(colourStart, COLOURS + 1);
+        p = 0;
+        for (int r = 0; r < ranges; r++) {
+            for (int q = 0; q < found[r]; q++, p++) {
+                int at = fill[colours[p]]++;
+                batchFirst[at] = firsts[r][q];
+                batchSecond[at] = seconds[r][q];
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Resolve a range of pairs of one batch, checking every pair again before it is resolved.
+     *
+     * @param balls : balls of the table
+     * @param from : first pair
+     * @param to : pair after the last one
+     * @return : number of resolved collisions
+     */
+    private long resolve(Ball[] balls, int from, int to) {
+        long collisions = 0;
+        for (int p = from; p < to; p++) {
+            Ball first = balls[batchFirst[p]], second = balls[batchSecond[p]];
+            if (first.getLocation().dist(second.getLocation()) <= cell) {
+                first.collide(second);
+                collisions++;
+            }
+        }
+        return collisions;
+    }
+
+    /**
+     * Cell of a ball, clamped into the grid.
+     *
+     * @param ball : the ball
+     * @return : index of the cell
+     */
+    private int cellOf(Ball ball) {
+        int column = Math.max(0, Math.min(columns - 1, (int) Math.floor((ball.getX() - originX) / cell)));
+        int row = Math.max(0, Math.min(rows - 1, (int) Math.floor((ball.getY() - originY) / cell)));
+        return row * columns + column;
+    }
+
+    /**
+     * Run a task on the pool and wait for it.
+     *
+     * @param task : the task
+     */
+    private void run(RangeTask task) {
+        pool.invoke(task);
+    }
+
+    /**
+     * Work on one index of a range task.
+     */
+    private interface RangeWork {
+
+        /**
+         * Work on one index.
+         *
+         * @param index : the index
+         */
+        void run(int index);
+    }
+
+    /**
+     * Task splitting a range of indices in halves until single indices are left.
+     */
+    @SuppressWarnings("serial")
+    private static final class RangeTask extends RecursiveAction {
+
+        /**
+         * Range of indices
+         */
+        private final int from, to;
+
+        /**
+         * Work on one index
+         */
+        private final RangeWork work;
+
+        /**
+         * Constructor for the RangeTask class.
+         *
+         * @param from : first index
+         * @param to : index after the last one
+         * @param work : work on one index
+         */
+        RangeTask(int from, int to, RangeWork work) {
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                work.run(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, middle, work), new RangeTask(middle, to, work));
+        }
+    }
+
+    /**
+     * Gets the name of the engine.
+     *
+     * @return : "parallel"
+     */
+    @Override
+    public String getName() { return "parallel"; }
+}
@@ -0,0 +1,92 @@
+package Model;
+
+/**
+ * The PhysicsEngine interface is the contract for the physics of a billiard table.
+ * A step is split in two halves: the collisions (ball against ball, ball against hole, removal of pocketed balls)
+ * and the integration (cushions and motion). The game rules stay in Table and BillardController,
+ * so engines can be exchanged without changing the outcome of a game.
+ *
+ * The engine used by new tables is chosen at startup with the system property "billard.physics":
+ * - reference : the original behaviour, every pair of balls is checked (default)
+ * - grid : a uniform grid broad phase, only neighbouring balls are checked
+ * - lod : the grid engine, with slow and isolated balls extrapolated instead of stepped (large tables)
+ * - parallel : contacts resolved in graph-coloured batches on all cores (giant tables)
+ *
+ * Methods:
+ * - collide(Table table): Resolves the collisions of one step.
+ * - integrate(Table table, float widthWall, float heightWall): Bounces and moves the balls.
+ * - step(Table table, float widthWall, float heightWall): Performs a whole step.
+ * - getName(): Gets the name of the engine.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public interface PhysicsEngine {
+
+    /**
+     * Name of the system property selecting the default engine
+     */
+    String PROPERTY = "billard.physics";
+
+    /**
+     * Resolves the collisions of one step: ball against ball, ball against hole, removal of pocketed balls.
+     *
+     * @param table : the billiard table
+     */
+    void collide(Table table);
+
+    /**
+     * Bounces the balls off the cushions and moves them.
+     *
+     * @param table : the billiard table
+     * @param widthWall : Width of the wall
+     * @param heightWall : Height of the wall
+     */
+    default void integrate(Table table, float widthWall, float heightWall) {
+        table.moveBalls(widthWall, heightWall);
+    }
+
+    /**
+     * Performs a whole physics step.
+     *
+     * @param table : the billiard table
+     * @param widthWall : Width of the wall
+     * @param heightWall : Height of the wall
+     */
+    default void step(Table table, float widthWall, float heightWall) {
+        collide(table);
+        integrate(table, widthWall, heightWall);
+    }
+
+    /**
+     * Gets the name of the engine.
+     *
+     * @return The name used to select the engine
+     */
+    String getName();
+
+    /**
+     * Creates an engine from its name.
+     *
+     * @param name : name of the engine
+     * @return The engine
+     */
+    static PhysicsEngine named(String name) {
+        return switch (name.toLowerCase()) {
+            case "reference" -> new ReferencePhysicsEngine();
+            case "grid" -> new GridPhysicsEngine();
+            case "lod" -> new LodPhysicsEngine();
+            case "parallel" -> new ParallelPhysicsEngine();
+            default -> throw new IllegalArgumentException("unknown physics engine " + name);
+        };
+    }
+
+    /**
+     * Gets the engine selected by the "billard.physics" system property, the reference engine by default.
+     *
+     * @return A new engine for one table
+     */
+    static PhysicsEngine getDefault() {
+        return named(System.getProperty(PROPERTY, "reference"));
+    }
+}
@@ -0,0 +1,30 @@
+package Model;
+
+/**
+ * The ReferencePhysicsEngine class is the original physics of the game:
+ * every pair of balls is checked for a collision at each step, as in Table.collideCheck().
+ * It is the reference other engines are compared against.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class ReferencePhysicsEngine implements PhysicsEngine {
+
+    /**
+     * Resolves the collisions of one step with Table.collideCheck().
+     *
+     * @param table : the billiard table
+     */
+    @Override
+    public void collide(Table table) {
+        table.collideCheck();
+    }
+
+    /**
+     * Gets the name of the engine.
+     *
+     * @return : "reference"
+     */
+    @Override
+    public String getName() { return "reference"; }
+}
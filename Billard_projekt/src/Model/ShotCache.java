@@ -0,0 +1,415 @@
+package Model;
+
+import processing.core.PVector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The ShotCache class remembers the outcome of simulated shots, so that hints, bots and replay analysis
+ * do not simulate the same shot on the same table twice.
+ *
+ * A shot is keyed by the table state, with ball positions quantized to QUANTUM pixels, by the exact geometry
+ * of the table (frame, ball size, holes) and its physics engine, and by the exact force and angle of the shot.
+ * One cache can therefore be shared between tables of different sizes without mixing up their outcomes.
+ * The outcome is the state of the balls once the table is at rest (or the game is decided) and the balls
+ * pocketed on the way. The least recently used outcomes are evicted when the cache holds more entries or more
+ * bytes than allowed. The cache can be shared between threads.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class ShotCache {
+
+    /**
+     * Grid ball positions and forces are quantized to, in pixels
+     */
+    static final float QUANTUM = 0.05f;
+
+    /**
+     * Key words before the hole records: force, angle, white balls pocketed, game over, ball count,
+     * x, y, width, height and ball size of the table, physics engine, hole count
+     */
+    private static final int KEY_HEADER = 12;
+
+    /**
+     * Key words per hole: x, y, size
+     */
+    private static final int KEY_HOLE = 3;
+
+    /**
+     * Key words per ball: x, y, force x, force y, color
+     */
+    private static final int KEY_BALL = 5;
+
+    /**
+     * Ball pocketed during a simulated shot.
+     *
+     * @param step : physics step of the shot, starting at 0
+     * @param color : color of the ball, 0 for the white ball
+     */
+    public record PocketEvent(int step, int color) {}
+
+    /**
+     * Outcome of a simulated shot.
+     * A cached outcome is handed to every caller asking for the same shot, so its arrays are shared and read-only.
+     *
+     * @param x : X-coordinates of the balls left, must not be changed
+     * @param y : Y-coordinates of the balls left, must not be changed
+     * @param forceX : X-forces of the balls left, 0 when the table is at rest, must not be changed
+     * @param forceY : Y-forces of the balls left, 0 when the table is at rest, must not be changed
+     * @param colors : colors of the balls left, must not be changed
+     * @param scoreGained : points scored by the shot
+     * @param whiteBallsPocketed : number of times the white ball was pocketed
+     * @param objectBallPocketed : True if an object ball was pocketed
+     * @param gameOver : True if the shot lost the game
+     * @param pockets : balls pocketed, in the order they fell
+     * @param steps : physics steps simulated
+     */
+    public record Outcome(float[] x, float[] y, float[] forceX, float[] forceY, int[] colors, int scoreGained,
+                          int whiteBallsPocketed, boolean objectBallPocketed, boolean gameOver,
+                          List<PocketEvent> pockets, int steps) {
+
+        /**
+         * Estimate the memory held by the outcome.
+         *
+         * @return : size in bytes
+         */
+        long bytes() { return 128 + 20L * colors.length + 24L * pockets.size(); }
+    }
+
+    /**
+     * Canonical form of a table state and a shot, with a 64-bit hash.
+     */
+    private static final class Key {
+
+        /**
+         * Quantized words of the state and the shot
+         */
+        private final int[] words;
+
+        /**
+         * Hash of the words
+         */
+        private final long hash;
+
+        /**
+         * Constructor for the Key class.
+         *
+         * @param words : quantized words of the state and the shot
+         */
+        Key(int[] words) {
+            this.words = words;
+            long h = 0x9E3779B97F4A7C15L;
+            for (int word : words) {
+                h ^= word;
+                h *= 0xBF58476D1CE4E5B9L;
+                h ^= h >>> 31;
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && other.hash == hash && Arrays.equals(other.words, words);
+        }
+
+        @Override
+        public int hashCode() { return (int) (hash ^ (hash >>> 32)); }
+    }
+
+    /**
+     * Outcomes in least recently used order
+     */
+    private final LinkedHashMap<Key, Outcome> outcomes;
+
+    /**
+     * Largest number of outcomes kept
+     */
+    private final int maxEntries;
+
+    /**
+     * Largest memory held by the outcomes, in bytes
+     */
+    private final long maxBytes;
+
+    /**
+     * Memory held by the outcomes, in bytes
+     */
+    private long bytes;
+
+    /**
+     * Metrics of the cache
+     */
+    private long hits, misses, evictions;
+
+    /**
+     * Constructor for the ShotCache class.
+     *
+     * @param maxEntries : largest number of outcomes kept
+     * @param maxBytes : largest memory held by the outcomes, in bytes
+     */
+    public ShotCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0)
+            throw new IllegalArgumentException("maxEntries and maxBytes must be positive");
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.outcomes = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Get the outcome of a shot, simulating it on a copy of the table if it is not cached.
+     * The table itself is not changed.
+     *
+     * @param table : the billiard table, usually at rest
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @return : the outcome of the shot
+     */
+    public Outcome simulate(Table table, float force, float theta) {
+        Key key = key(table, force, theta);
+        synchronized (this) {
+            Outcome outcome = outcomes.get(key);
+            if (outcome != null) {
+                hits++;
+                return outcome;
+            }
+            misses++;
+        }
+        Outcome outcome = run(table, force, theta);
+        synchronized (this) {
+            Outcome previous = outcomes.put(key, outcome);
+            bytes += outcome.bytes() - (previous == null ? 0 : previous.bytes());
+            evict();
+        }
+        return outcome;
+    }
+
+    /**
+     * Play a shot on a table, taking the outcome from the cache when possible.
+     *
+     * @param table : the billiard table
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @return : the outcome applied to the table
+     */
+    public Outcome shoot(Table table, float force, float theta) {
+        Outcome outcome = simulate(table, force, theta);
+        apply(outcome, table);
+        return outcome;
+    }
+
+    /**
+     * Put a table in the state following a shot.
+     *
+     * @param outcome : outcome of the shot
+     * @param table : the billiard table the shot was simulated on
+     */
+    public static void apply(Outcome outcome, Table table) {
+        Ball[] balls = new Ball[outcome.colors().length];
+        for (int i = 0; i < balls.length; i++) {
+            balls[i] = new Ball(new PVector(outcome.x()[i], outcome.y()[i]), table.getBallSize(), outcome.colors()[i]);
+            balls[i].setForce(new PVector(outcome.forceX()[i], outcome.forceY()[i]));
+        }
+        table.setBalls(balls);
+        table.restoreCounters(table.getScore() + outcome.scoreGained(), table.getMoves() + 1,
+                table.getRemainingShots() - outcome.whiteBallsPocketed(),
+                table.getWhiteBallPocketCount() + outcome.whiteBallsPocketed(),
+                table.isGameOver() || outcome.gameOver(), table.isWhiteBallInHole() || outcome.objectBallPocketed());
+    }
+
+    /**
+     * Drop outcomes, least recently used first, until the cache fits its bounds.
+     */
+    private void evict() {
+        var eldest = outcomes.entrySet().iterator();
+        while ((outcomes.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            Map.Entry<Key, Outcome> entry = eldest.next();
+            bytes -= entry.getValue().bytes();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Build the canonical key of a table state and a shot.
+     *
+     * @param table : the billiard table
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @return : the key
+     */
+    private static Key key(Table table, float force, float theta) {
+        Ball[] balls = table.getBalls();
+        Hole[] holes = table.getHoles();
+        int[] words = new int[KEY_HEADER + KEY_HOLE * holes.length + KEY_BALL * balls.length];
+        words[0] = Float.floatToIntBits(force);
+        words[1] = Float.floatToIntBits(theta);
+        words[2] = table.getWhiteBallPocketCount();
+        words[3] = table.isGameOver() ? 1 : 0;
+        words[4] = balls.length;
+        words[5] = Float.floatToIntBits(table.getMyX());
+        words[6] = Float.floatToIntBits(table.getMyY());
+        words[7] = Float.floatToIntBits(table.getMyW());
+        words[8] = Float.floatToIntBits(table.getMyH());
+        words[9] = Float.floatToIntBits(table.getBallSize());
+        words[10] = table.getEngine().getName().hashCode();
+        words[11] = holes.length;
+        int w = KEY_HEADER;
+        for (Hole hole : holes) {
+            words[w++] = Float.floatToIntBits(hole.getX());
+            words[w++] = Float.floatToIntBits(hole.getY());
+            words[w++] = Float.floatToIntBits(hole.getHoleSize());
+        }
+        for (int i = 0; i < balls.length; i++, w += KEY_BALL) {
+            words[w] = Math.round(balls[i].getX() / QUANTUM);
+            words[w + 1] = Math.round(balls[i].getY() / QUANTUM);
+            words[w + 2] = Math.round(balls[i].getForce().x / QUANTUM);
+            words[w + 3] = Math.round(balls[i].getForce().y / QUANTUM);
+            words[w + 4] = balls[i].getC();
+        }
+        return new Key(words);
+    }
+
+    /**
+     * Simulate a shot on a copy of a table, until it is at rest or the game is decided.
+     *
+     * @param table : the billiard table
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @return : the outcome of the shot
+     */
+    static Outcome run(Table table, float force, float theta) {
+        return run(table, force, theta, copy -> false);
+    }
+
+    /**
+     * Simulate a shot on a copy of a table, until it is at rest, the game is decided or a condition holds.
+     *
+     * @param table : the billiard table
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @param done : condition on the copy, checked after every step, ending the simulation early
+     * @return : the outcome of the shot
+     */
+    static Outcome run(Table table, float force, float theta, Predicate<Table> done) {
+        Table copy = copyOf(table);
+        copy.getBalls()[0].hit(force, theta);
+        List<PocketEvent> pockets = new ArrayList<>();
+        int step = 0;
+        while (step < EngineConformance.MAX_STEPS_PER_SHOT) {
+            Ball[] before = copy.getBalls();
+            int whiteBefore = copy.getWhiteBallPocketCount();
+            copy.action(EngineConformance.WALL_WIDTH, EngineConformance.WALL_HEIGHT);
+            if (copy.getWhiteBallPocketCount() > whiteBefore)
+                pockets.add(new PocketEvent(step, 0));
+            if (copy.getBalls().length < before.length)
+                addPocketed(before, copy.getBalls(), step, pockets);
+            step++;
+            if (copy.isAtRest() || copy.isGameOver() || copy.isAllBallsInHolesExceptWhite() || done.test(copy))
+                break;
+        }
+
+        Ball[] balls = copy.getBalls();
+        float[] x = new float[balls.length], y = new float[balls.length];
+        float[] forceX = new float[balls.length], forceY = new float[balls.length];
+        int[] colors = new int[balls.length];
+        for (int i = 0; i < balls.length; i++) {
+            x[i] = balls[i].getX();
+            y[i] = balls[i].getY();
+            forceX[i] = balls[i].getForce().x;
+            forceY[i] = balls[i].getForce().y;
+            colors[i] = balls[i].getC();
+        }
+        int whiteBalls = copy.getWhiteBallPocketCount() - table.getWhiteBallPocketCount();
+        return new Outcome(x, y, forceX, forceY, colors, copy.getScore() - table.getScore(), whiteBalls,
+                copy.getScore() > table.getScore(), copy.isGameOver() && !table.isGameOver(), List.copyOf(pockets), step);
+    }
+
+    /**
+     * Record the balls of a step that are no longer on the table.
+     * Both arrays keep the order of the balls, so the missing ones are found in one pass.
+     *
+     * @param before : balls before the step
+     * @param after : balls after the step
+     * @param step : physics step
+     * @param pockets : pocketed balls so far
+     */
+    private static void addPocketed(Ball[] before, Ball[] after, int step, List<PocketEvent> pockets) {
+        int j = 0;
+        for (Ball ball : before) {
+            if (j < after.length && after[j].getC() == ball.getC())
+                j++;
+            else if (ball.getC() != 0)
+                pockets.add(new PocketEvent(step, ball.getC()));
+        }
+    }
+
+    /**
+     * Copy a table with its balls, counters, holes and physics engine.
+     *
+     * @param table : the billiard table
+     * @return : an independent copy
+     */
+    static Table copyOf(Table table) {
+        Table copy = new Table(table.getMyX(), table.getMyY(), table.getMyW(), table.getHoleSize());
+        copy.setHoles(table.getHoles());
+        copy.setEngine(PhysicsEngine.named(table.getEngine().getName()));
+        Ball[] balls = new Ball[table.getBalls().length];
+        for (int i = 0; i < balls.length; i++) {
+            Ball ball = table.getBalls()[i];
+            balls[i] = new Ball(ball.getLocation(), ball.getSize(), ball.getC());
+            balls[i].setForce(ball.getForce().copy());
+        }
+        copy.setBalls(balls);
+        copy.restoreCounters(table.getScore(), table.getMoves(), table.getRemainingShots(),
+                table.getWhiteBallPocketCount(), table.isGameOver(), table.isWhiteBallInHole());
+        return copy;
+    }
+
+    /**
+     * Get the number of lookups answered from the cache.
+     *
+     * @return : number of hits
+     */
+    public synchronized long getHits() { return hits; }
+
+    /**
+     * Get the number of lookups that had to simulate.
+     *
+     * @return : number of misses
+     */
+    public synchronized long getMisses() { return misses; }
+
+    /**
+     * Get the number of outcomes evicted to keep the cache in its bounds.
+     *
+     * @return : number of evictions
+     */
+    public synchronized long getEvictions() { return evictions; }
+
+    /**
+     * Get the share of lookups answered from the cache.
+     *
+     * @return : hit rate between 0 and 1, 0 before the first lookup
+     */
+    public synchronized double getHitRate() { return hits + misses == 0 ? 0 : (double) hits / (hits + misses); }
+
+    /**
+     * Get the number of outcomes kept.
+     *
+     * @return : number of outcomes
+     */
+    public synchronized int size() { return outcomes.size(); }
+
+    /**
+     * Get the memory held by the outcomes.
+     *
+     * @return : estimated size in bytes
+     */
+    public synchronized long getBytes() { return bytes; }
+}
@@ -0,0 +1,206 @@
+package Model;
+
+/**
+ * The ShotEvaluator class simulates candidate shots for search and hints, stopping as soon as their outcome is decided.
+ *
+ * A ball rolling at speed v loses DECELERATION at every step, so it can still travel a known distance before it stops,
+ * and cushions only change its direction. Once no moving ball can reach another ball or a hole within its remaining travel,
+ * no collision and no pocket can happen anymore: the pocketed balls, the score and the scratches of the shot are fixed,
+ * even though balls are still rolling. The simulation stops there instead of running the table to rest.
+ * When a single ball is left moving, usually the white ball, its path with the cushion bounces is known, so it only has
+ * to miss the balls and holes along that path instead of everything within its remaining travel.
+ *
+ * The outcome is a ShotCache.Outcome whose balls may still have a force; applied to a table with ShotCache.apply(),
+ * the balls roll on to where a full simulation would have left them.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class ShotEvaluator {
+
+    /**
+     * Speed lost by a ball at every step, see Ball.move()
+     */
+    static final float DECELERATION = 0.02f;
+
+    /**
+     * Distance kept in reserve against rounding, in pixels
+     */
+    static final float MARGIN = 0.5f;
+
+    /**
+     * Divisor of the hole size used by Table.checkHoleCollision()
+     */
+    static final float HOLE_HARDNESS = 2;
+
+    /**
+     * Number of steps between two checks of the outcome, so a decided shot runs at most CHECK_INTERVAL - 1 steps too many
+     */
+    static final int CHECK_INTERVAL = 4;
+
+    /**
+     * Largest number of cushion bounces followed along the path of a lone moving ball
+     */
+    static final int MAX_BOUNCES = 32;
+
+    /**
+     * Indices of the balls near a moving ball, one buffer per thread since shots are evaluated on several threads
+     */
+    private static final ThreadLocal<int[]> NEAR = ThreadLocal.withInitial(() -> new int[32]);
+
+    /**
+     * Constructor for the ShotEvaluator class; the class only has static methods.
+     */
+    private ShotEvaluator() {}
+
+    /**
+     * Simulate a shot on a copy of a table until its outcome is decided.
+     *
+     * @param table : the billiard table, left unchanged
+     * @param force : magnitude of the force
+     * @param theta : angle of the force
+     * @return : the outcome of the shot, with the step it was decided at
+     */
+    public static ShotCache.Outcome evaluate(Table table, float force, float theta) {
+        return ShotCache.run(table, force, theta, copy -> copy.getStepCount() % CHECK_INTERVAL == 0 && isDecided(copy));
+    }
+
+    /**
+     * Evaluate candidate shots and find the one scoring most, pocketing the fewest white balls on ties.
+     *
+     * @param table : the billiard table, left unchanged
+     * @param forces : magnitude of the force of every candidate
+     * @param thetas : angle of the force of every candidate
+     * @return : index of the best candidate, -1 if there is none
+     */
+    public static int best(Table table, float[] forces, float[] thetas) {
+        int best = -1;
+        ShotCache.Outcome bestOutcome = null;
+        for (int i = 0; i < Math.min(forces.length, thetas.length); i++) {
+            ShotCache.Outcome outcome = evaluate(table, forces[i], thetas[i]);
+            if (bestOutcome == null || outcome.scoreGained() > bestOutcome.scoreGained()
+                    || (outcome.scoreGained() == bestOutcome.scoreGained()
+                    && outcome.whiteBallsPocketed() < bestOutcome.whiteBallsPocketed())) {
+                best = i;
+                bestOutcome = outcome;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Check if no collision and no pocket can happen anymore on a table.
+     * A moving ball must stay farther from every hole than it can still travel, and farther from every other ball
+     * than both can still travel; the other balls are looked up in the spatial index of the table.
+     *
+     * @param table : the billiard table
+     * @return : True if the outcome of the current shot is decided, false otherwise
+     */
+    public static boolean isDecided(Table table) {
+        Ball[] balls = table.getBalls();
+        float fastest = 0;
+        int moving = 0, lone = -1;
+        for (int i = 0; i < balls.length; i++) {
+            float travel = remainingTravel(balls[i]);
+            if (travel > 0) {
+                moving++;
+                lone = i;
+            }
+            fastest = Math.max(fastest, travel);
+        }
+        if (moving == 0)
+            return true;
+        if (moving == 1)
+            return isPathClear(table, lone);
+        SpatialIndex spatial = null;
+        int[] near = NEAR.get();
+        for (int i = 0; i < balls.length; i++) {
+            float travel = remainingTravel(balls[i]);
+            if (travel == 0)
+                continue;
+            for (Hole hole : table.getHoles()) {
+                float reach = (balls[i].getSize() + hole.getHoleSize() / HOLE_HARDNESS) / 2;
+                float distance = (float) Math.hypot(balls[i].getX() - hole.getX(), balls[i].getY() - hole.getY());
+                if (distance <= reach + travel + MARGIN)
+                    return false;
+            }
+            if (spatial == null)
+                spatial = table.getSpatialIndex();
+            int found = spatial.withinRadius(balls[i].getX(), balls[i].getY(), table.getBallSize() + travel + fastest + MARGIN, near);
+            if (found > near.length)
+                return false;
+            for (int k = 0; k < found; k++) {
+                Ball other = balls[near[k]];
+                if (near[k] != i && balls[i].getLocation().dist(other.getLocation())
+                        <= table.getBallSize() + travel + remainingTravel(other) + MARGIN)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if the only moving ball of a table misses every ball and hole along the rest of its path.
+     * The path is followed from cushion to cushion. The ball bounces once it has passed a cushion, up to one step
+     * beyond it, so the path is widened by the speed of the ball, and by twice more at every bounce.
+     *
+     * @param table : the billiard table
+     * @param index : index of the moving ball
+     * @return : True if the ball touches nothing anymore, false otherwise
+     */
+    static boolean isPathClear(Table table, int index) {
+        Ball ball = table.getBalls()[index];
+        float half = table.getBallSize() / 2;
+        float left = table.getMyX() + half, right = table.getMyX() + table.getMyW() - half;
+        float top = table.getMyY() + half, bottom = table.getMyY() + table.getMyH() - half;
+        float x = ball.getX(), y = ball.getY();
+        float speed = ball.getForce().mag();
+        float dx = ball.getForce().x / speed, dy = ball.getForce().y / speed;
+        float travel = remainingTravel(ball);
+        float slack = speed + MARGIN;
+        SpatialIndex spatial = table.getSpatialIndex();
+        if (!spatial.isFree(x, y, table.getBallSize() + slack, index))
+            return false;
+        for (int bounce = 0; bounce <= MAX_BOUNCES; bounce++) {
+            if ((x <= left && dx < 0) || (x >= right && dx > 0))
+                dx = -dx;
+            if ((y <= top && dy < 0) || (y >= bottom && dy > 0))
+                dy = -dy;
+            float toX = dx > 0 ? (right - x) / dx : dx < 0 ? (left - x) / dx : Float.MAX_VALUE;
+            float toY = dy > 0 ? (bottom - y) / dy : dy < 0 ? (top - y) / dy : Float.MAX_VALUE;
+            float length = Math.min(travel, Math.max(0, Math.min(toX, toY)));
+
+            SpatialIndex.RayHit hit = spatial.raycast(x, y, dx, dy, table.getBallSize() + slack, index);
+            if (hit != null && hit.distance() <= length)
+                return false;
+            for (Hole hole : table.getHoles()) {
+                float reach = (ball.getSize() + hole.getHoleSize() / HOLE_HARDNESS) / 2 + slack;
+                float along = Math.max(0, Math.min(length, (hole.getX() - x) * dx + (hole.getY() - y) * dy));
+                if (Math.hypot(x + dx * along - hole.getX(), y + dy * along - hole.getY()) <= reach)
+                    return false;
+            }
+
+            travel -= length;
+            if (travel <= 0)
+                return true;
+            x += dx * length;
+            y += dy * length;
+            slack += 2 * speed;
+        }
+        return false;
+    }
+
+    /**
+     * Get the distance a ball still travels before it stops, along its path.
+     *
+     * @param ball : the ball
+     * @return : the remaining travel, 0 for a ball at rest
+     */
+    public static float remainingTravel(Ball ball) {
+        float v = ball.getForce().mag();
+        if (v == 0)
+            return 0;
+        int steps = (int) Math.ceil(v / DECELERATION);
+        return steps * v - DECELERATION * steps * (steps - 1) / 2f;
+    }
+}
@@ -0,0 +1,396 @@
+package Model;
+
+import processing.core.PVector;
+
+import java.util.Arrays;
+
+/**
+ * The SpatialIndex class answers geometric queries about the balls of a table:
+ * the first ball along a ray, the nearest ball, the balls within a radius, and a free spot to place a ball.
+ *
+ * The balls are kept in a uniform grid with cells as large as a ball, rebuilt when the table has stepped
+ * since the last query, so calling it every frame costs one pass over the balls at most.
+ * Ray casts walk the cells along the ray and stop at the first cell that cannot hold a nearer hit.
+ * Placing a ball tries the same candidate spots as TableBatch, so both place the white ball alike.
+ * Use Table.getSpatialIndex() to get an index in sync with the table.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class SpatialIndex {
+
+    /**
+     * Largest number of rings searched around a spot for a free place
+     */
+    static final int MAX_PLACEMENT_RINGS = 16;
+
+    /**
+     * First ball touching a ray.
+     *
+     * @param index : index of the ball in the balls of the table
+     * @param distance : distance travelled along the ray until the contact
+     * @param x : X-coordinate of the centre of the travelling ball at the contact
+     * @param y : Y-coordinate of the centre of the travelling ball at the contact
+     */
+    public record RayHit(int index, float distance, float x, float y) {}
+
+    /**
+     * Indexed table
+     */
+    private Table table;
+
+    /**
+     * Balls indexed, to detect a replaced ball array
+     */
+    private Ball[] indexed;
+
+    /**
+     * Step of the table the index was built at
+     */
+    private long builtAt = -1;
+
+    /**
+     * Grid geometry
+     */
+    private float cell, originX, originY;
+    private int columns, rows;
+
+    /**
+     * First ball of every cell, -1 for an empty cell
+     */
+    private int[] head = new int[0];
+
+    /**
+     * Next ball in the same cell, -1 at the end of a cell
+     */
+    private int[] next = new int[0];
+
+    /**
+     * Query stamp of every ball, so a ray cast checks each ball once
+     */
+    private int[] seen = new int[0];
+    private int stamp;
+
+    /**
+     * Bring the index in sync with a table, rebuilding it only if the table stepped or its balls changed.
+     *
+     * @param table : the billiard table
+     * @return : this index
+     */
+    public SpatialIndex refresh(Table table) {
+        if (table != this.table || table.getBalls() != indexed || table.getStepCount() != builtAt)
+            rebuild(table);
+        return this;
+    }
+
+    /**
+     * Mark the index as out of date, so the next refresh() rebuilds it.
+     * Used after a rebuild in the middle of a step, whose positions the rest of the step changes.
+     */
+    void invalidate() { builtAt = -1; }
+
+    /**
+     * Rebuild the index from the current positions of the balls.
+     *
+     * @param table : the billiard table
+     * @return : this index
+     */
+    public SpatialIndex rebuild(Table table) {
+        this.table = table;
+        this.indexed = table.getBalls();
+        this.builtAt = table.getStepCount();
+        Ball[] balls = indexed;
+        cell = Math.max(table.getBallSize(), 1);
+        columns = (int) (table.getMyW() / cell) + 3;
+        rows = (int) (table.getMyH() / cell) + 3;
+        originX = table.getMyX() - cell;
+        originY = table.getMyY() - cell;
+        if (head.length < columns * rows)
+            head = new int[columns * rows];
+        Arrays.fill(head, 0, columns * rows, -1);
+        if (next.length < balls.length) {
+            next = new int[balls.length];
+            seen = new int[balls.length];
+        }
+        for (int i = balls.length - 1; i >= 0; i--) {
+            int c = row(balls[i].getY()) * columns + column(balls[i].getX());
+            next[i] = head[c];
+            head[c] = i;
+        }
+        return this;
+    }
+
+    /**
+     * Find the first ball a ball travelling along a ray would touch.
+     *
+     * @param x : X-coordinate of the start of the ray
+     * @param y : Y-coordinate of the start of the ray
+     * @param dx : X-direction of the ray
+     * @param dy : Y-direction of the ray
+     * @param radius : distance between the centres at the contact, the ball size for two balls of the table
+     * @param exclude : index of a ball to ignore, usually the travelling ball, -1 for none
+     * @return : the first contact, or null if the ray leaves the table without touching a ball
+     */
+    public RayHit raycast(float x, float y, float dx, float dy, float radius, int exclude) {
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length == 0)
+            return null;
+        dx /= length;
+        dy /= length;
+        Ball[] balls = indexed;
+        nextStamp();
+        int best = -1;
+        float bestT = Float.MAX_VALUE;
+        int rings = (int) Math.ceil(radius / cell);
+
+        // walk the cells along the ray, as a digital differential analyser
+        int c = column(x), r = row(y);
+        int stepC = dx > 0 ? 1 : -1, stepR = dy > 0 ? 1 : -1;
+        float tDeltaC = dx == 0 ? Float.MAX_VALUE : Math.abs(cell / dx);
+        float tDeltaR = dy == 0 ? Float.MAX_VALUE : Math.abs(cell / dy);
+        float tMaxC = dx == 0 ? Float.MAX_VALUE : ((originX + (c + (dx > 0 ? 1 : 0)) * cell) - x) / dx;
+        float tMaxR = dy == 0 ? Float.MAX_VALUE : ((originY + (r + (dy > 0 ? 1 : 0)) * cell) - y) / dy;
+        float tEnter = 0;
+        while (c >= 0 && c < columns && r >= 0 && r < rows && tEnter <= bestT) {
+            for (int rr = Math.max(0, r - rings); rr <= Math.min(rows - 1, r + rings); rr++) {
+                for (int cc = Math.max(0, c - rings); cc <= Math.min(columns - 1, c + rings); cc++) {
+                    for (int j = head[rr * columns + cc]; j >= 0; j = next[j]) {
+                        if (j == exclude || seen[j] == stamp)
+                            continue;
+                        seen[j] = stamp;
+                        float t = contact(x, y, dx, dy, radius, balls[j]);
+                        if (t >= 0 && t < bestT) {
+                            bestT = t;
+                            best = j;
+                        }
+                    }
+                }
+            }
+            if (tMaxC < tMaxR) {
+                tEnter = tMaxC;
+                tMaxC += tDeltaC;
+                c += stepC;
+            } else {
+                tEnter = tMaxR;
+                tMaxR += tDeltaR;
+                r += stepR;
+            }
+        }
+        return best < 0 ? null : new RayHit(best, bestT, x + dx * bestT, y + dy * bestT);
+    }
+
+    /**
+     * Distance along a ray until a travelling ball touches a ball.
+     *
+     * @param x : X-coordinate of the start of the ray
+     * @param y : Y-coordinate of the start of the ray
+     * @param dx : X-direction of the ray, normalised
+     * @param dy : Y-direction of the ray, normalised
+     * @param radius : distance between the centres at the contact
+     * @param ball : the ball
+     * @return : the distance, or -1 if the ray misses the ball or starts inside it
+     */
+    private static float contact(float x, float y, float dx, float dy, float radius, Ball ball) {
+        float ox = x - ball.getX(), oy = y - ball.getY();
+        float b = ox * dx + oy * dy;
+        float c = ox * ox + oy * oy - radius * radius;
+        if (c < 0)
+            return -1;
+        float discriminant = b * b - c;
+        if (discriminant < 0 || b > 0)
+            return -1;
+        return -b - (float) Math.sqrt(discriminant);
+    }
+
+    /**
+     * Find the ball nearest to a point.
+     *
+     * @param x : X-coordinate of the point
+     * @param y : Y-coordinate of the point
+     * @param exclude : index of a ball to ignore, -1 for none
+     * @return : index of the nearest ball, -1 if there is none
+     */
+    public int nearest(float x, float y, int exclude) {
+        Ball[] balls = indexed;
+        int c = column(x), r = row(y);
+        int best = -1;
+        float bestDistance = Float.MAX_VALUE;
+        for (int ring = 0; ring < Math.max(columns, rows); ring++) {
+            // every ball from this ring on is more than (ring - 1) cells away
+            if (best >= 0 && (ring - 1) * cell > bestDistance)
+                break;
+            for (int rr = r - ring; rr <= r + ring; rr++) {
+                if (rr < 0 || rr >= rows)
+                    continue;
+                boolean edgeRow = rr == r - ring || rr == r + ring;
+                for (int cc = c - ring; cc <= c + ring; cc += edgeRow ? 1 : 2 * ring) {
+                    if (cc < 0 || cc >= columns)
+                        continue;
+                    for (int j = head[rr * columns + cc]; j >= 0; j = next[j]) {
+                        if (j == exclude)
+                            continue;
+                        float ox = balls[j].getX() - x, oy = balls[j].getY() - y;
+                        float distance = (float) Math.sqrt(ox * ox + oy * oy);
+                        if (distance < bestDistance) {
+                            bestDistance = distance;
+                            best = j;
+                        }
+                    }
+                    if (ring == 0)
+                        break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the balls within a radius of a point.
+     *
+     * @param x : X-coordinate of the point
+     * @param y : Y-coordinate of the point
+     * @param radius : the radius
+     * @param out : array receiving the indices of the balls
+     * @return : number of balls found; only the first out.length are written
+     */
+    public int withinRadius(float x, float y, float radius, int[] out) {
+        Ball[] balls = indexed;
+        int found = 0;
+        for (int rr = Math.max(0, row(y - radius)); rr <= Math.min(rows - 1, row(y + radius)); rr++) {
+            for (int cc = Math.max(0, column(x - radius)); cc <= Math.min(columns - 1, column(x + radius)); cc++) {
+                for (int j = head[rr * columns + cc]; j >= 0; j = next[j]) {
+                    float ox = balls[j].getX() - x, oy = balls[j].getY() - y;
+                    if (ox * ox + oy * oy <= radius * radius) {
+                        if (found < out.length)
+                            out[found] = j;
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Check if no ball is within a clearance of a point.
+     *
+     * @param x : X-coordinate of the point
+     * @param y : Y-coordinate of the point
+     * @param clearance : smallest distance to any ball
+     * @param exclude : index of a ball to ignore, -1 for none
+     * @return : True if the point is free, false otherwise
+     */
+    public boolean isFree(float x, float y, float clearance, int exclude) {
+        Ball[] balls = indexed;
+        for (int rr = Math.max(0, row(y - clearance)); rr <= Math.min(rows - 1, row(y + clearance)); rr++) {
+            for (int cc = Math.max(0, column(x - clearance)); cc <= Math.min(columns - 1, column(x + clearance)); cc++) {
+                for (int j = head[rr * columns + cc]; j >= 0; j = next[j]) {
+                    float ox = balls[j].getX() - x, oy = balls[j].getY() - y;
+                    if (j != exclude && ox * ox + oy * oy < clearance * clearance)
+                        return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find a free spot for a ball as close as possible to a wanted spot, inside the cushions.
+     * The spot itself is tried first, then rings of spots around it, one clearance apart.
+     *
+     * @param x : X-coordinate of the wanted spot
+     * @param y : Y-coordinate of the wanted spot
+     * @param clearance : smallest distance to any ball
+     * @param exclude : index of a ball to ignore, usually the ball being placed, -1 for none
+     * @return : the free spot, or the wanted spot if the table is too crowded around it
+     */
+    public PVector findFreeSpot(float x, float y, float clearance, int exclude) {
+        float[] spot = new float[2];
+        for (int ring = 0; ring <= MAX_PLACEMENT_RINGS; ring++) {
+            for (int k = 0; k < placementsInRing(ring); k++) {
+                placement(ring, k, x, y, clearance, spot);
+                if (isInside(table, spot[0], spot[1]) && isFree(spot[0], spot[1], clearance, exclude))
+                    return new PVector(spot[0], spot[1]);
+            }
+        }
+        return new PVector(x, y);
+    }
+
+    /**
+     * Number of candidate spots in a ring around a wanted spot.
+     *
+     * @param ring : ring, 0 for the wanted spot itself
+     * @return : number of candidates
+     */
+    static int placementsInRing(int ring) {
+        return ring == 0 ? 1 : 8 * ring;
+    }
+
+    /**
+     * A candidate spot of a ring around a wanted spot: the four sides of a square, clockwise from the right side.
+     *
+     * @param ring : ring, 0 for the wanted spot itself
+     * @param k : candidate inside the ring
+     * @param x : X-coordinate of the wanted spot
+     * @param y : Y-coordinate of the wanted spot
+     * @param spacing : distance between two candidates
+     * @param out : array receiving x and y of the candidate
+     */
+    static void placement(int ring, int k, float x, float y, float spacing, float[] out) {
+        int side = ring == 0 ? 0 : k / (2 * ring);
+        int along = ring == 0 ? 0 : k % (2 * ring);
+        int cx, cy;
+        switch (side) {
+            case 0 -> { cx = ring; cy = -ring + along; }
+            case 1 -> { cx = ring - along; cy = ring; }
+            case 2 -> { cx = -ring; cy = ring - along; }
+            default -> { cx = -ring + along; cy = -ring; }
+        }
+        out[0] = x + cx * spacing;
+        out[1] = y + cy * spacing;
+    }
+
+    /**
+     * Check if a ball centred on a point lies inside the cushions.
+     *
+     * @param table : the billiard table
+     * @param x : X-coordinate of the point
+     * @param y : Y-coordinate of the point
+     * @return : True if the point is inside, false otherwise
+     */
+    static boolean isInside(Table table, float x, float y) {
+        float half = table.getBallSize() / 2;
+        return x > table.getMyX() + half && x < table.getMyX() + table.getMyW() - half
+                && y > table.getMyY() + half && y < table.getMyY() + table.getMyH() - half;
+    }
+
+    /**
+     * Start a new ray cast, invalidating the stamps of the previous one.
+     */
+    private void nextStamp() {
+        if (++stamp == 0) {
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+    }
+
+    /**
+     * Column of an X-coordinate, clamped into the grid.
+     *
+     * @param x : X-coordinate
+     * @return : the column
+     */
+    private int column(float x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - originX) / cell)));
+    }
+
+    /**
+     * Row of a Y-coordinate, clamped into the grid.
+     *
+     * @param y : Y-coordinate
+     * @return : the row
+     */
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - originY) / cell)));
+    }
+}
@@ -0,0 +1,242 @@
+package Model;
+
+import processing.core.PVector;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The StateDeltaDecoder class rebuilds a table from the frames written by StateDeltaEncoder.
+ * The rebuilt table can be given to a BillardController, so BillardView shows a remote game.
+ * Frames must be applied in order; delta frames received before the first keyframe are ignored.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class StateDeltaDecoder {
+
+    /**
+     * Table rebuilt from the stream
+     */
+    private final Table table;
+
+    /**
+     * Quantized positions of the balls of the table
+     */
+    private int[] qx = new int[16], qy = new int[16];
+
+    /**
+     * Tick of the last applied frame
+     */
+    private long tick;
+
+    /**
+     * Flag indicating whether a keyframe has been applied
+     */
+    private boolean synced;
+
+    /**
+     * Constructor for the StateDeltaDecoder class.
+     *
+     * @param table : table receiving the decoded state, with the geometry of the encoded table
+     */
+    public StateDeltaDecoder(Table table) {
+        this.table = table;
+    }
+
+    /**
+     * Apply the next frame of the stream to the table.
+     *
+     * @param in : buffer positioned at the start of a frame; its position moves past the frame
+     * @return : True if the frame was applied, false if it was a delta received before any keyframe
+     */
+    public boolean apply(ByteBuffer in) {
+        byte type = in.get();
+        if (type == StateDeltaEncoder.KEYFRAME) {
+            applyKeyframe(in);
+            return true;
+        }
+        if (type != StateDeltaEncoder.DELTA)
+            throw new IllegalArgumentException("unknown frame type " + type);
+        if (!synced) {
+            skipDelta(in);
+            return false;
+        }
+        applyDelta(in);
+        return true;
+    }
+
+    /**
+     * Check if a frame is a keyframe, from which decoding can start.
+     *
+     * @param frame : buffer positioned at the start of a frame; its position does not move
+     * @return : True if the frame is a keyframe, false otherwise
+     */
+    public static boolean isKeyframe(ByteBuffer frame) {
+        return frame.get(frame.position()) == StateDeltaEncoder.KEYFRAME;
+    }
+
+    /**
+     * Apply a keyframe.
+     *
+     * @param in : buffer positioned after the frame type
+     */
+    private void applyKeyframe(ByteBuffer in) {
+        tick = getVarLong(in);
+        int score = unzigzag(getVarInt(in));
+        int moves = unzigzag(getVarInt(in));
+        int shots = unzigzag(getVarInt(in));
+        int white = unzigzag(getVarInt(in));
+        int flags = getVarInt(in);
+        int count = getVarInt(in);
+        ensureCapacity(count);
+        Ball[] balls = new Ball[count];
+        for (int i = 0; i < count; i++) {
+            int color = unzigzag(getVarInt(in));
+            float size = unzigzag(getVarInt(in)) * StateDeltaEncoder.QUANTUM;
+            qx[i] = unzigzag(getVarInt(in));
+            qy[i] = unzigzag(getVarInt(in));
+            balls[i] = new Ball(new PVector(qx[i] * StateDeltaEncoder.QUANTUM, qy[i] * StateDeltaEncoder.QUANTUM), size, color);
+        }
+        table.setBalls(balls);
+        table.restoreCounters(score, moves, shots, white, (flags & StateDeltaEncoder.GAME_OVER) != 0, table.isWhiteBallInHole());
+        synced = true;
+    }
+
+    /**
+     * Apply a delta frame.
+     *
+     * @param in : buffer positioned after the frame type
+     */
+    private void applyDelta(ByteBuffer in) {
+        long nextTick = tick + getVarLong(in);
+        int mask = getVarInt(in);
+        int score = (mask & StateDeltaEncoder.SCORE) != 0 ? unzigzag(getVarInt(in)) : table.getScore();
+        int moves = (mask & StateDeltaEncoder.MOVES) != 0 ? unzigzag(getVarInt(in)) : table.getMoves();
+        int shots = (mask & StateDeltaEncoder.SHOTS) != 0 ? unzigzag(getVarInt(in)) : table.getRemainingShots();
+        int white = (mask & StateDeltaEncoder.WHITE) != 0 ? unzigzag(getVarInt(in)) : table.getWhiteBallPocketCount();
+        boolean gameOver = (mask & StateDeltaEncoder.FLAGS) != 0
+                ? (getVarInt(in) & StateDeltaEncoder.GAME_OVER) != 0 : table.isGameOver();
+
+        int removed = getVarInt(in);
+        Ball[] balls = table.getBalls();
+        if (removed > 0) {
+            int kept = 0;
+            int nextRemoved = getVarInt(in);
+            int r = 1;
+            for (int i = 0; i < balls.length; i++) {
+                if (i == nextRemoved) {
+                    nextRemoved = r < removed ? getVarInt(in) : -1;
+                    r++;
+                    continue;
+                }
+                balls[kept] = balls[i];
+                qx[kept] = qx[i];
+                qy[kept] = qy[i];
+                kept++;
+            }
+            balls = Arrays.copyOf(balls, kept);
+        }
+
+        int moved = getVarInt(in);
+        for (int m = 0; m < moved; m++) {
+            int index = getVarInt(in);
+            int dx = unzigzag(getVarInt(in));
+            int dy = unzigzag(getVarInt(in));
+            qx[index] += dx;
+            qy[index] += dy;
+            balls[index].getLocation().set(qx[index] * StateDeltaEncoder.QUANTUM, qy[index] * StateDeltaEncoder.QUANTUM);
+        }
+        table.setBalls(balls);
+        table.restoreCounters(score, moves, shots, white, gameOver, table.isWhiteBallInHole());
+        tick = nextTick;
+    }
+
+    /**
+     * Move past a delta frame without applying it.
+     *
+     * @param in : buffer positioned after the frame type
+     */
+    private void skipDelta(ByteBuffer in) {
+        getVarLong(in);
+        int mask = getVarInt(in);
+        for (int bit = 1; bit <= StateDeltaEncoder.FLAGS; bit <<= 1) {
+            if ((mask & bit) != 0)
+                getVarInt(in);
+        }
+        int removed = getVarInt(in);
+        for (int r = 0; r < removed; r++)
+            getVarInt(in);
+        int moved = getVarInt(in);
+        for (int m = 0; m < 3 * moved; m++)
+            getVarInt(in);
+    }
+
+    /**
+     * Grow the position buffers to hold a number of balls.
+     *
+     * @param count : number of balls
+     */
+    private void ensureCapacity(int count) {
+        if (count > qx.length) {
+            qx = new int[count];
+            qy = new int[count];
+        }
+    }
+
+    /**
+     * Read an unsigned varint.
+     *
+     * @param in : buffer to read from
+     * @return : the value
+     */
+    static int getVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    /**
+     * Read an unsigned long varint.
+     *
+     * @param in : buffer to read from
+     * @return : the value
+     */
+    static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    /**
+     * Map a zigzag encoded value back to a signed value.
+     *
+     * @param value : zigzag encoded value
+     * @return : signed value
+     */
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Get the table rebuilt from the stream.
+     *
+     * @return : the decoded table
+     */
+    public Table getTable() { return table; }
+
+    /**
+     * Get the tick of the last applied frame.
+     *
+     * @return : physics step of the decoded state
+     */
+    public long getTick() { return tick; }
+}
@@ -0,0 +1,325 @@
+package Model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The StateDeltaEncoder class turns the state of a table into a compact stream of frames
+ * for spectators or remote views.
+ *
+ * A keyframe carries the whole table. A delta frame only carries what changed since the previous frame:
+ * the counters that changed, the balls that were pocketed and the balls that moved.
+ * Positions are quantized to QUANTUM pixels and written as zigzag varints, so a ball at rest costs nothing
+ * and a moving ball usually costs three to five bytes. StateDeltaDecoder reads the stream back.
+ *
+ * Frame layout:
+ * - keyframe: KEYFRAME, tick, score, moves, remaining shots, white balls pocketed, flags, ball count,
+ *   then color, size, x, y of every ball
+ * - delta: DELTA, tick increment, counter mask, changed counters, pocketed count, pocketed indexes,
+ *   moved count, then index, dx, dy of every moved ball
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class StateDeltaEncoder {
+
+    /**
+     * Frame types
+     */
+    static final byte KEYFRAME = 1, DELTA = 2;
+
+    /**
+     * Size of a position step in pixels
+     */
+    static final float QUANTUM = 0.05f;
+
+    /**
+     * Bits of the counter mask of a delta frame
+     */
+    static final int SCORE = 1, MOVES = 2, SHOTS = 4, WHITE = 8, FLAGS = 16;
+
+    /**
+     * Flag bit for a lost game
+     */
+    static final int GAME_OVER = 1;
+
+    /**
+     * Number of frames between two keyframes
+     */
+    private final int keyframeInterval;
+
+    /**
+     * Frames written since the last keyframe, -1 before the first frame
+     */
+    private int sinceKeyframe = -1;
+
+    /**
+     * Tick of the previous frame
+     */
+    private long tick;
+
+    /**
+     * Counters of the previous frame
+     */
+    private int score, moves, shots, white, flags;
+
+    /**
+     * Balls of the previous frame: count, colors and quantized positions
+     */
+    private int count;
+    private int[] colors = new int[16], qx = new int[16], qy = new int[16];
+
+    /**
+     * Scratch buffers for the balls of the current frame, reused between frames
+     */
+    private int[] nextColors = new int[16], nextX = new int[16], nextY = new int[16];
+
+    /**
+     * Scratch buffer for the pocketed indexes of a frame
+     */
+    private int[] pocketed = new int[16];
+
+    /**
+     * Constructor for the StateDeltaEncoder class.
+     *
+     * @param keyframeInterval : number of frames between two keyframes
+     */
+    public StateDeltaEncoder(int keyframeInterval) {
+        if (keyframeInterval < 1)
+            throw new IllegalArgumentException("keyframeInterval must be positive");
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Upper bound on the size of one frame.
+     *
+     * @param balls : number of balls on the table
+     * @return : size in bytes
+     */
+    public static int maxFrameBytes(int balls) {
+        return 64 + balls * 25;
+    }
+
+    /**
+     * Force the next frame to be a keyframe, for example when a new spectator joins.
+     */
+    public void requestKeyframe() {
+        sinceKeyframe = -1;
+    }
+
+    /**
+     * Encode the state of a table as the next frame.
+     *
+     * @param table : table to encode
+     * @param tick : physics step of the state, increasing between frames
+     * @param out : buffer receiving the frame, with at least maxFrameBytes() remaining
+     * @return : number of bytes written
+     */
+    public int encode(Table table, long tick, ByteBuffer out) {
+        int start = out.position();
+        Ball[] balls = table.getBalls();
+        quantize(balls);
+        int nextFlags = table.isGameOver() ? GAME_OVER : 0;
+        boolean keyframe = sinceKeyframe < 0 || sinceKeyframe + 1 >= keyframeInterval
+                || !writeDelta(table, tick, balls.length, nextFlags, out);
+        if (keyframe) {
+            out.position(start);
+            writeKeyframe(table, tick, balls, nextFlags, out);
+            sinceKeyframe = 0;
+        } else {
+            sinceKeyframe++;
+        }
+        remember(table, tick, balls.length, nextFlags);
+        return out.position() - start;
+    }
+
+    /**
+     * Write a keyframe.
+     *
+     * @param table : table to encode
+     * @param tick : physics step of the state
+     * @param balls : balls of the table
+     * @param nextFlags : flags of the current frame
+     * @param out : buffer receiving the frame
+     */
+    private void writeKeyframe(Table table, long tick, Ball[] balls, int nextFlags, ByteBuffer out) {
+        out.put(KEYFRAME);
+        putVarLong(out, tick);
+        putVarInt(out, zigzag(table.getScore()));
+        putVarInt(out, zigzag(table.getMoves()));
+        putVarInt(out, zigzag(table.getRemainingShots()));
+        putVarInt(out, zigzag(table.getWhiteBallPocketCount()));
+        putVarInt(out, nextFlags);
+        putVarInt(out, balls.length);
+        for (int i = 0; i < balls.length; i++) {
+            putVarInt(out, zigzag(nextColors[i]));
+            putVarInt(out, zigzag(Math.round(balls[i].getSize() / QUANTUM)));
+            putVarInt(out, zigzag(nextX[i]));
+            putVarInt(out, zigzag(nextY[i]));
+        }
+    }
+
+    /**
+     * Write a delta frame against the previous frame.
+     *
+     * @param table : table to encode
+     * @param tick : physics step of the state
+     * @param nextCount : number of balls of the current frame
+     * @param nextFlags : flags of the current frame
+     * @param out : buffer receiving the frame
+     * @return : False if the balls cannot be matched with the previous frame and a keyframe is needed
+     */
+    private boolean writeDelta(Table table, long tick, int nextCount, int nextFlags, ByteBuffer out) {
+        int removed = 0;
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            if (j < nextCount && colors[i] == nextColors[j]) {
+                j++;
+            } else {
+                if (removed == pocketed.length)
+                    pocketed = grow(pocketed);
+                pocketed[removed++] = i;
+            }
+        }
+        if (j != nextCount)
+            return false;
+
+        out.put(DELTA);
+        putVarLong(out, tick - this.tick);
+        int mask = (table.getScore() != score ? SCORE : 0) | (table.getMoves() != moves ? MOVES : 0)
+                | (table.getRemainingShots() != shots ? SHOTS : 0)
+                | (table.getWhiteBallPocketCount() != white ? WHITE : 0) | (nextFlags != flags ? FLAGS : 0);
+        putVarInt(out, mask);
+        if ((mask & SCORE) != 0) putVarInt(out, zigzag(table.getScore()));
+        if ((mask & MOVES) != 0) putVarInt(out, zigzag(table.getMoves()));
+        if ((mask & SHOTS) != 0) putVarInt(out, zigzag(table.getRemainingShots()));
+        if ((mask & WHITE) != 0) putVarInt(out, zigzag(table.getWhiteBallPocketCount()));
+        if ((mask & FLAGS) != 0) putVarInt(out, nextFlags);
+
+        putVarInt(out, removed);
+        for (int r = 0; r < removed; r++)
+            putVarInt(out, pocketed[r]);
+
+        putVarInt(out, movedBalls(nextCount, removed, false, out));
+        movedBalls(nextCount, removed, true, out);
+        return true;
+    }
+
+    /**
+     * Walk the balls of the current frame alongside their previous positions, skipping pocketed balls.
+     *
+     * @param nextCount : number of balls of the current frame
+     * @param removed : number of pocketed balls
+     * @param write : True to write index, dx, dy of every moved ball, false to only count them
+     * @param out : buffer receiving the balls
+     * @return : number of moved balls
+     */
+    private int movedBalls(int nextCount, int removed, boolean write, ByteBuffer out) {
+        int moved = 0;
+        for (int i = 0, prev = 0, r = 0; i < nextCount; i++, prev++) {
+            while (r < removed && pocketed[r] == prev) {
+                prev++;
+                r++;
+            }
+            int dx = nextX[i] - qx[prev];
+            int dy = nextY[i] - qy[prev];
+            if (dx != 0 || dy != 0) {
+                if (write) {
+                    putVarInt(out, i);
+                    putVarInt(out, zigzag(dx));
+                    putVarInt(out, zigzag(dy));
+                }
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Quantize the balls of the current frame into the scratch buffers.
+     *
+     * @param balls : balls of the table
+     */
+    private void quantize(Ball[] balls) {
+        if (balls.length > nextX.length) {
+            int size = Math.max(balls.length, nextX.length * 2);
+            nextColors = new int[size];
+            nextX = new int[size];
+            nextY = new int[size];
+        }
+        for (int i = 0; i < balls.length; i++) {
+            nextColors[i] = balls[i].getC();
+            nextX[i] = Math.round(balls[i].getX() / QUANTUM);
+            nextY[i] = Math.round(balls[i].getY() / QUANTUM);
+        }
+    }
+
+    /**
+     * Keep the current frame as the reference of the next delta, swapping the buffers.
+     *
+     * @param table : encoded table
+     * @param tick : physics step of the state
+     * @param nextCount : number of balls of the current frame
+     * @param nextFlags : flags of the current frame
+     */
+    private void remember(Table table, long tick, int nextCount, int nextFlags) {
+        this.tick = tick;
+        score = table.getScore();
+        moves = table.getMoves();
+        shots = table.getRemainingShots();
+        white = table.getWhiteBallPocketCount();
+        flags = nextFlags;
+        count = nextCount;
+        int[] swap = colors; colors = nextColors; nextColors = swap;
+        swap = qx; qx = nextX; nextX = swap;
+        swap = qy; qy = nextY; nextY = swap;
+    }
+
+    /**
+     * Double the size of an array.
+     *
+     * @param array : array to grow
+     * @return : the larger copy
+     */
+    private static int[] grow(int[] array) {
+        return Arrays.copyOf(array, array.length * 2);
+    }
+
+    /**
+     * Map a signed value to an unsigned one, small magnitudes to small values.
+     *
+     * @param value : signed value
+     * @return : zigzag encoded value
+     */
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Write an unsigned varint, seven bits per byte.
+     *
+     * @param out : buffer receiving the bytes
+     * @param value : value to write
+     */
+    static void putVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Write an unsigned long varint, seven bits per byte.
+     *
+     * @param out : buffer receiving the bytes
+     * @param value : value to write
+     */
+    static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+}
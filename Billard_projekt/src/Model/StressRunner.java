@@ -0,0 +1,151 @@
+package Model;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * The StressRunner class runs a scripted break on a large table and reports the throughput of the physics:
+ * steps per second, collisions per second and the allocation rate of the simulating thread.
+ * It is used to size hardware and to catch scalability regressions in the collision and hole checks.
+ *
+ * Usage: java Model.StressRunner [key=value ...]
+ * - balls=2000, width=4000, holeSize=70, pockets=3 (per long cushion), rack=hex|random, seed=1
+ * - engine=reference|grid|lod|parallel (see PhysicsEngine), steps=2000, warmup=200
+ * - force=30, theta=0 (break shot on the white ball)
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class StressRunner {
+
+    /**
+     * Measured throughput of a run.
+     *
+     * @param steps : number of measured steps
+     * @param collisions : number of ball collisions during the measured steps
+     * @param ballsLeft : number of balls on the table at the end
+     * @param nanos : duration of the measured steps
+     * @param allocatedBytes : bytes allocated by the simulating thread, -1 if the JVM cannot tell
+     */
+    public record Result(long steps, long collisions, int ballsLeft, long nanos, long allocatedBytes) {
+
+        /**
+         * Get the number of steps per second.
+         *
+         * @return : steps per second
+         */
+        public double stepsPerSecond() { return steps * 1e9 / nanos; }
+
+        /**
+         * Get the number of collisions per second.
+         *
+         * @return : collisions per second
+         */
+        public double collisionsPerSecond() { return collisions * 1e9 / nanos; }
+
+        /**
+         * Get the allocation rate of the simulating thread.
+         *
+         * @return : megabytes per second, negative if unknown
+         */
+        public double allocatedMegabytesPerSecond() { return allocatedBytes < 0 ? -1 : allocatedBytes * 1e3 / nanos; }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d steps, %.0f steps/s, %.0f collisions/s, %.1f MB/s allocated, %d balls left",
+                    steps, stepsPerSecond(), collisionsPerSecond(), allocatedMegabytesPerSecond(), ballsLeft);
+        }
+    }
+
+    /**
+     * Wall sizes for a table: the table centred in its frame, as in the game window
+     */
+    private final float widthWall, heightWall;
+
+    /**
+     * The table under stress
+     */
+    private final Table table;
+
+    /**
+     * Constructor for the StressRunner class.
+     *
+     * @param table : the racked table
+     */
+    public StressRunner(Table table) {
+        this.table = table;
+        this.widthWall = 2 * table.getMyX() + table.getMyW();
+        this.heightWall = 2 * table.getMyY() + table.getMyH();
+    }
+
+    /**
+     * Play the break shot, then step the table, measuring after the warm-up steps.
+     *
+     * @param force : force of the break shot
+     * @param theta : angle of the break shot
+     * @param warmup : steps run before measuring
+     * @param steps : measured steps
+     * @return : the measured throughput
+     */
+    public Result run(float force, float theta, int warmup, int steps) {
+        table.getBalls()[0].hit(force, theta);
+        for (int i = 0; i < warmup; i++)
+            table.action(widthWall, heightWall);
+
+        long collisionsBefore = table.getCollisionCount();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < steps; i++)
+            table.action(widthWall, heightWall);
+        long nanos = System.nanoTime() - start;
+        long allocatedAfter = allocatedBytes();
+        return new Result(steps, table.getCollisionCount() - collisionsBefore, table.getBalls().length, nanos,
+                allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore);
+    }
+
+    /**
+     * Bytes allocated so far by the current thread.
+     *
+     * @return : allocated bytes, -1 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemoryEnabled())
+            return threads.getThreadAllocatedBytes(Thread.currentThread().threadId());
+        return -1;
+    }
+
+    /**
+     * Run a stress test from the command line.
+     *
+     * @param args : key=value options, see the class description
+     */
+    public static void main(String[] args) {
+        StressTableBuilder builder = new StressTableBuilder().width(4000).balls(2000);
+        int steps = 2000, warmup = 200;
+        float force = 30, theta = 0;
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2)
+                throw new IllegalArgumentException("expected key=value, got " + arg);
+            switch (option[0]) {
+                case "balls" -> builder.balls(Integer.parseInt(option[1]));
+                case "width" -> builder.width(Float.parseFloat(option[1]));
+                case "holeSize" -> builder.holeSize(Float.parseFloat(option[1]));
+                case "pockets" -> builder.pocketsPerLongSide(Integer.parseInt(option[1]));
+                case "rack" -> builder.rack(StressTableBuilder.Rack.valueOf(option[1].toUpperCase()));
+                case "seed" -> builder.seed(Long.parseLong(option[1]));
+                case "engine" -> builder.engine(PhysicsEngine.named(option[1]));
+                case "steps" -> steps = Integer.parseInt(option[1]);
+                case "warmup" -> warmup = Integer.parseInt(option[1]);
+                case "force" -> force = Float.parseFloat(option[1]);
+                case "theta" -> theta = Float.parseFloat(option[1]);
+                default -> throw new IllegalArgumentException("unknown option " + option[0]);
+            }
+        }
+        Table table = builder.build();
+        System.out.println("Table " + table.getMyW() + " x " + table.getMyH() + ", " + table.getBalls().length
+                + " balls, " + table.getHoles().length + " holes, engine " + table.getEngine().getName());
+        System.out.println(new StressRunner(table).run(force, theta, warmup, steps));
+    }
+}
@@ -0,0 +1,262 @@
+package Model;
+
+import processing.core.PVector;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The StressTableBuilder class builds tables of arbitrary size for stress and load runs:
+ * any number of balls, racked in a hex-packed block or at random free spots,
+ * and a configurable number of pockets along the long cushions.
+ *
+ * Example:
+ * new StressTableBuilder().width(4000).balls(2000).rack(StressTableBuilder.Rack.HEX).pocketsPerLongSide(5).build()
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class StressTableBuilder {
+
+    /**
+     * Ways to rack the balls.
+     * HEX: a hex-packed block towards the foot of the table, like a large triangle rack.
+     * RANDOM: balls at random spots, never overlapping.
+     */
+    public enum Rack { HEX, RANDOM }
+
+    /**
+     * Gap left between racked balls, as a fraction of the ball size, so no collision starts at rest
+     */
+    private static final float GAP = 0.02f;
+
+    /**
+     * Width of the table
+     */
+    private float width = 1000;
+
+    /**
+     * Size of the holes, the balls are half as large
+     */
+    private float holeSize = 70;
+
+    /**
+     * Number of balls, the white ball included
+     */
+    private int balls = 16;
+
+    /**
+     * Way to rack the balls
+     */
+    private Rack rack = Rack.HEX;
+
+    /**
+     * Number of holes along each long cushion, corners included
+     */
+    private int pocketsPerLongSide = 3;
+
+    /**
+     * Seed of the random rack
+     */
+    private long seed = 1;
+
+    /**
+     * Physics engine of the table, null for the default engine
+     */
+    private PhysicsEngine engine;
+
+    /**
+     * Set the width of the table; the height is half the width.
+     *
+     * @param width : Width of the table
+     * @return : this builder
+     */
+    public StressTableBuilder width(float width) { this.width = width; return this; }
+
+    /**
+     * Set the size of the holes; the balls are half as large.
+     *
+     * @param holeSize : Size of the holes
+     * @return : this builder
+     */
+    public StressTableBuilder holeSize(float holeSize) { this.holeSize = holeSize; return this; }
+
+    /**
+     * Set the number of balls, the white ball included.
+     *
+     * @param balls : Number of balls
+     * @return : this builder
+     */
+    public StressTableBuilder balls(int balls) { this.balls = balls; return this; }
+
+    /**
+     * Set the way to rack the balls.
+     *
+     * @param rack : HEX or RANDOM
+     * @return : this builder
+     */
+    public StressTableBuilder rack(Rack rack) { this.rack = rack; return this; }
+
+    /**
+     * Set the number of holes along each long cushion, corners included.
+     * 3 gives the six holes of the normal table, 0 a table without holes.
+     *
+     * @param pocketsPerLongSide : 0, or at least 2
+     * @return : this builder
+     */
+    public StressTableBuilder pocketsPerLongSide(int pocketsPerLongSide) { this.pocketsPerLongSide = pocketsPerLongSide; return this; }
+
+    /**
+     * Set the seed of the random rack.
+     *
+     * @param seed : seed
+     * @return : this builder
+     */
+    public StressTableBuilder seed(long seed) { this.seed = seed; return this; }
+
+    /**
+     * Set the physics engine of the table.
+     *
+     * @param engine : the physics engine
+     * @return : this builder
+     */
+    public StressTableBuilder engine(PhysicsEngine engine) { this.engine = engine; return this; }
+
+    /**
+     * Build the table.
+     *
+     * @return : the racked table
+     */
+    public Table build() {
+        if (balls < 1)
+            throw new IllegalArgumentException("a table needs at least the white ball");
+        if (pocketsPerLongSide == 1 || pocketsPerLongSide < 0)
+            throw new IllegalArgumentException("pocketsPerLongSide must be 0 or at least 2");
+        Table table = new Table(0, 0, width, holeSize);
+        if (engine != null)
+            table.setEngine(engine);
+        table.setHoles(holes(table));
+        Ball[] racked = new Ball[balls];
+        float size = table.getBallSize();
+        racked[0] = new Ball(new PVector(table.getMyW() / 4, table.getMyH() / 2), size, 0);
+        if (rack == Rack.HEX)
+            rackHex(table, racked);
+        else
+            rackRandom(table, racked);
+        table.setBalls(racked);
+        return table;
+    }
+
+    /**
+     * Holes along the long cushions, evenly spaced, corners included.
+     *
+     * @param table : the table
+     * @return : the holes
+     */
+    private Hole[] holes(Table table) {
+        Hole[] holes = new Hole[2 * pocketsPerLongSide];
+        for (int i = 0; i < pocketsPerLongSide; i++) {
+            float x = table.getMyX() + table.getMyW() * i / (pocketsPerLongSide - 1);
+            holes[2 * i] = new Hole(x, table.getMyY(), holeSize);
+            holes[2 * i + 1] = new Hole(x, table.getMyY() + table.getMyH(), holeSize);
+        }
+        return holes;
+    }
+
+    /**
+     * Rack the object balls in a hex-packed block growing from the foot spot towards the head of the table.
+     *
+     * @param table : the table
+     * @param racked : balls, the white ball already placed
+     */
+    private void rackHex(Table table, Ball[] racked) {
+        float size = table.getBallSize();
+        float dx = size * (1 + GAP) * (float) Math.sqrt(3) / 2;
+        float dy = size * (1 + GAP);
+        float margin = holeSize;
+        float top = table.getMyY() + margin;
+        float bottom = table.getMyY() + table.getMyH() - margin;
+        float x = table.getMyX() + table.getMyW() - margin;
+        int perColumn = Math.max(1, (int) ((bottom - top) / dy));
+        for (int i = 1, column = 0; i < racked.length; column++, x -= dx) {
+            if (x < racked[0].getX() + 2 * size)
+                throw new IllegalStateException("no room left for ball " + i + ", the table is too small");
+            float offset = (column % 2) * dy / 2;
+            for (int r = 0; r < perColumn && i < racked.length; r++, i++)
+                racked[i] = new Ball(new PVector(x, top + offset + r * dy), size, i);
+        }
+    }
+
+    /**
+     * Rack the object balls at random spots, rejecting spots that overlap another ball.
+     *
+     * @param table : the table
+     * @param racked : balls, the white ball already placed
+     */
+    private void rackRandom(Table table, Ball[] racked) {
+        float size = table.getBallSize();
+        float minDistance = size * (1 + GAP);
+        float margin = holeSize;
+        int columns = Math.max(1, (int) (table.getMyW() / minDistance));
+        int rows = Math.max(1, (int) (table.getMyH() / minDistance));
+        int[] occupant = new int[columns * rows];
+        Arrays.fill(occupant, -1);
+        occupant[cell(racked[0].getX(), racked[0].getY(), minDistance, columns, rows)] = 0;
+        Random random = new Random(seed);
+        for (int i = 1; i < racked.length; i++) {
+            for (int attempt = 0; ; attempt++) {
+                if (attempt > 10_000)
+                    throw new IllegalStateException("no free spot left for ball " + i + ", the table is too small");
+                float x = table.getMyX() + margin + random.nextFloat() * (table.getMyW() - 2 * margin);
+                float y = table.getMyY() + margin + random.nextFloat() * (table.getMyH() - 2 * margin);
+                if (isFree(racked, occupant, x, y, minDistance, columns, rows)) {
+                    racked[i] = new Ball(new PVector(x, y), size, i);
+                    occupant[cell(x, y, minDistance, columns, rows)] = i;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if a spot is far enough from the balls of the neighbouring cells.
+     * A cell is as large as the minimal distance and is given to at most one ball.
+     *
+     * @param racked : balls placed so far
+     * @param occupant : ball of every cell, -1 for a free cell
+     * @param x : X-coordinate of the spot
+     * @param y : Y-coordinate of the spot
+     * @param minDistance : minimal distance between two balls
+     * @param columns : number of cell columns
+     * @param rows : number of cell rows
+     * @return : True if the spot is free, false otherwise
+     */
+    private static boolean isFree(Ball[] racked, int[] occupant, float x, float y, float minDistance, int columns, int rows) {
+        int c = Math.min(columns - 1, (int) (x / minDistance));
+        int r = Math.min(rows - 1, (int) (y / minDistance));
+        if (occupant[r * columns + c] >= 0)
+            return false;
+        for (int rr = Math.max(0, r - 1); rr <= Math.min(rows - 1, r + 1); rr++) {
+            for (int cc = Math.max(0, c - 1); cc <= Math.min(columns - 1, c + 1); cc++) {
+                int other = occupant[rr * columns + cc];
+                if (other >= 0 && PVector.dist(racked[other].getLocation(), new PVector(x, y)) < minDistance)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cell of a spot in the occupancy grid of the random rack.
+     *
+     * @param x : X-coordinate of the spot
+     * @param y : Y-coordinate of the spot
+     * @param minDistance : size of a cell
+     * @param columns : number of cell columns
+     * @param rows : number of cell rows
+     * @return : index of the cell
+     */
+    private static int cell(float x, float y, float minDistance, int columns, int rows) {
+        return Math.min(rows - 1, (int) (y / minDistance)) * columns + Math.min(columns - 1, (int) (x / minDistance));
+    }
+}
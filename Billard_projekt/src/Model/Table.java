@@ -3,6 +3,9 @@ package Model;
 import processing.core.PVector;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.Math.*;
 import static processing.core.PApplet.dist;
@@ -10,6 +13,8 @@ import static processing.core.PApplet.dist;
 /**
  * The Table class represents the billiard table in the game.
  * It contains methods for managing game logic, ball interactions, and collisions.
+ * The number of moving balls and of object balls left are kept up to date as balls start, stop and fall,
+ * and game events are published to TableListeners and to an optional GameEventRing.
  *
  * @author Tcheumen Nanseu Lionel
  * @version 1.0
@@ -92,6 +97,67 @@ public class Table {
      */
     private boolean isGameOver;
 
+    /**
+     * Number of ball collisions resolved since the table was created
+     */
+    private long collisions;
+
+    /**
+     * Number of physics steps since the table was created
+     */
+    private long steps;
+
+    /**
+     * Number of balls with a force, counted by the balls when they start or stop moving.
+     * The parallel engine moves balls on several threads, so the counter is atomic.
+     */
+    private final AtomicInteger movingBalls = new AtomicInteger();
+
+    /**
+     * Number of object balls left in the ball array, counted when balls are set and when pocketed ones are removed
+     */
+    private int objectBallsLeft;
+
+    /**
+     * Flag indicating whether balls moved since the table was last at rest
+     */
+    private boolean settling;
+
+    /**
+     * Listeners receiving the game events of the table
+     */
+    private final List<TableListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Ring receiving the game events and collisions of the table, null when they are not recorded
+     */
+    private GameEventRing events;
+
+    /**
+     * Physics steps run by every thread on all tables
+     */
+    private static final ThreadLocal<long[]> THREAD_STEPS = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * Geometric queries over the balls, rebuilt on demand
+     */
+    private final SpatialIndex spatial = new SpatialIndex();
+
+    /**
+     * Physics engine stepping the table
+     */
+    private PhysicsEngine engine = PhysicsEngine.getDefault();
+
+    /**
+     * Off-heap batch the table is attached to, or null when the table runs on its own Ball objects
+     */
+    private TableBatch batch;
+
+    /**
+     * Slot of this table inside the attached batch
+     */
+    private int slot = -1;
+
 
     /**
      * Constructor for the Table class.
@@ -110,6 +176,7 @@ public class Table {
        BallSize = holeSize / 2;
        balls = new Ball[16];
        Arrays.fill(balls, new Ball(50));
+       adopt(balls);
 
 
        holes = new Hole[]{
@@ -124,12 +191,75 @@ public class Table {
 
     /**
      * Perform actions on the table, including ball movements and collisions.
+     * The step is delegated to the physics engine of the table.
      *
      * @param widthwall : Width of the wall
      * @param heightWall : Height of the wall
      */
     public void action(float widthwall, float heightWall) {
-        collideCheck();
+        steps++;
+        THREAD_STEPS.get()[0]++;
+        if (batch != null) {
+            batch.step(slot, widthwall, heightWall);
+            return;
+        }
+        settling |= movingBalls.get() > 0;
+        engine.step(this, widthwall, heightWall);
+        if (movingBalls.get() > 0) {
+            settling = true;
+        } else if (settling) {
+            settling = false;
+            publish(GameEventRing.SETTLED, 0, 0);
+            for (TableListener listener : listeners)
+                listener.tableSettled(this);
+        }
+    }
+
+    /**
+     * Make the table the owner of its balls and count the moving balls and the object balls left.
+     *
+     * @param balls : balls of the table
+     */
+    private void adopt(Ball[] balls) {
+        int moving = 0, objects = 0;
+        for (int i = 0; i < balls.length; i++) {
+            if (balls[i] == null)
+                continue;
+            balls[i].owner = this;
+            if (balls[i].isMoving())
+                moving++;
+            // a ball flagged removed is still counted until removeBallFromTable() takes it off
+            if (i > 0)
+                objects++;
+        }
+        movingBalls.set(moving);
+        objectBallsLeft = objects;
+    }
+
+    /**
+     * Release the current balls before they are replaced, so that they no longer change the counters of the table.
+     */
+    private void release() {
+        for (Ball ball : balls) {
+            if (ball != null && ball.owner == this)
+                ball.owner = null;
+        }
+    }
+
+    /**
+     * Count a ball that started (+1) or stopped (-1) moving.
+     *
+     * @param delta : change of the number of moving balls
+     */
+    void motionChanged(int delta) { movingBalls.addAndGet(delta); }
+
+    /**
+     * Bounce the balls off the cushions and move them, the second half of a physics step.
+     *
+     * @param widthwall : Width of the wall
+     * @param heightWall : Height of the wall
+     */
+    public void moveBalls(float widthwall, float heightWall) {
         for (int i = 0; i < balls.length; i++) {
             if (balls[i].getX() <= myX + BallSize/2 || balls[i].getX() >= myX + myW - BallSize/2)
                 balls[i].Xbounce(widthwall);
@@ -142,12 +272,148 @@ public class Table {
         }
     }
 
+    /**
+     * Count a ball collision resolved by a physics engine.
+     *
+     * @param first : ball moved by the collision
+     * @param second : other ball
+     */
+    void countCollision(Ball first, Ball second) {
+        collisions++;
+        publish(GameEventRing.COLLISION, first.getC(), second.getC());
+    }
+
+    /**
+     * Count several ball collisions resolved by a physics engine; no collision events are published for them.
+     *
+     * @param count : Number of collisions
+     */
+    void countCollisions(long count) { collisions += count; }
+
+    /**
+     * Get the number of physics steps the calling thread ran on all tables, simulated copies included.
+     * Unlike a clock, it does not depend on the machine, so work measured with it can be replayed exactly.
+     *
+     * @return : Number of steps
+     */
+    public static long getThreadStepCount() { return THREAD_STEPS.get()[0]; }
+
+    /**
+     * Get the number of physics steps since the table was created.
+     *
+     * @return : Number of steps
+     */
+    public long getStepCount() { return steps; }
+
+    /**
+     * Get the geometric queries over the balls, in sync with their current positions.
+     *
+     * @return : the spatial index of the table
+     */
+    public SpatialIndex getSpatialIndex() { requireDetached(); return spatial.refresh(this); }
+
+    /**
+     * Get the number of ball collisions resolved since the table was created.
+     *
+     * @return : Number of collisions
+     */
+    public long getCollisionCount() { return collisions; }
+
+    /**
+     * Get the physics engine stepping the table.
+     *
+     * @return : the physics engine
+     */
+    public PhysicsEngine getEngine() { return engine; }
+
+    /**
+     * Set the physics engine stepping the table.
+     *
+     * @param engine : the physics engine
+     */
+    public void setEngine(PhysicsEngine engine) { this.engine = engine; }
+
+    /**
+     * Attach the table to a slot of an off-heap batch.
+     * The current state is copied into the slot and, until detach() is called,
+     * action() steps the slot directly instead of the Ball objects.
+     * While the table is attached, its balls and game counters live in the slot only: reading or changing them
+     * through the table or its Ball objects throws an IllegalStateException instead of using a stale copy.
+     *
+     * @param batch : the batch holding the slot
+     * @param slot : index of the slot inside the batch
+     */
+    public void attach(TableBatch batch, int slot) {
+        batch.store(slot, this);
+        this.batch = batch;
+        this.slot = slot;
+    }
+
+    /**
+     * Detach the table from its batch and copy the slot state back into Ball objects.
+     */
+    public void detach() {
+        if (batch == null)
+            return;
+        TableBatch attached = batch;
+        batch = null;
+        // the Ball objects from before the attach are replaced and no longer belong to the table
+        release();
+        attached.load(slot, this);
+        slot = -1;
+    }
+
+    /**
+     * Check if the table is attached to an off-heap batch.
+     *
+     * @return : True if the table is attached, false otherwise
+     */
+    public boolean isAttached() { return batch != null; }
+
+    /**
+     * Check that the state of the table is on the heap, not in the slot of a batch.
+     *
+     * @throws IllegalStateException : if the table is attached to a batch
+     */
+    void requireDetached() {
+        if (batch != null)
+            throw new IllegalStateException("the table is attached to a batch, detach() it first");
+    }
+
+    /**
+     * Restore the game counters, used when the table is loaded from a stored state.
+     *
+     * @param score : Game score
+     * @param moves : Number of moves
+     * @param remainingShots : Number of remaining shots
+     * @param whiteBallPocketCount : Count of white balls pocketed
+     * @param gameOver : Flag indicating whether the game is over
+     * @param whiteBallInHole : Flag indicating whether the white ball is in a hole
+     */
+    void restoreCounters(int score, int moves, int remainingShots, int whiteBallPocketCount,
+                         boolean gameOver, boolean whiteBallInHole) {
+        this.score = score;
+        this.moves = moves;
+        this.remainingShots = remainingShots;
+        this.whiteBallPocketCount = whiteBallPocketCount;
+        this.isGameOver = gameOver;
+        this.whiteBallInHole = whiteBallInHole;
+    }
+
+    /**
+     * Check if the white ball has been flagged as in a hole.
+     *
+     * @return : True if the white ball is in a hole, false otherwise
+     */
+    boolean isWhiteBallInHole() { return whiteBallInHole; }
+
     /**
      * Get the count of pocketed white balls.
      *
      * @return : Count of white balls pocketed
      */
     public int getWhiteBallPocketCount() {
+        requireDetached();
         return whiteBallPocketCount;
     }
 
@@ -157,9 +423,13 @@ public class Table {
      */
     public void collideCheck() {
         for (int i = 0; i < balls.length - 1; i++) {
+            if (balls[i].asleep)
+                continue;
             for (int j = i + 1; j < balls.length; j++) {
-                if (balls[i].getLocation().dist(balls[j].getLocation()) <= BallSize)
+                if (!balls[j].asleep && balls[i].getLocation().dist(balls[j].getLocation()) <= BallSize) {
                     balls[i].collide(balls[j]);
+                    countCollision(balls[i], balls[j]);
+                }
             }
         }
         checkHoleCollision();
@@ -169,11 +439,14 @@ public class Table {
 
     /**
      * Check collisions between balls and holes.
+     * Balls put to sleep by LodPhysicsEngine are clear of the holes and skipped.
      */
     public void  checkHoleCollision(){
 
         float hardnessLevel = 2;
         for (int i = 0; i < balls.length; i++) {
+            if (balls[i].asleep)
+                continue;
             for (int j = 0; j < holes.length; j++) {
                 boolean inTheHole = collideCircleCircle(balls[i].getX(), balls[i].getY(), balls[i].getSize(),
                         holes[j].getX(), holes[j].getY(), holes[j].getHoleSize() / hardnessLevel);
@@ -182,14 +455,31 @@ public class Table {
                     whiteBallInHole = true;
                     balls[i].removed = true;
                     score++;
+                    publish(GameEventRing.POCKET, balls[i].getC(), 0);
+                    for (TableListener listener : listeners)
+                        listener.ballPocketed(this, balls[i]);
                 }
                 if (inTheHole && i == 0) {
                     // TODO: Gotta wait until all balls settle.
-                    balls[0] = new Ball( new PVector(myX + myW / 4, myY + myH / 2), BallSize, 0);
+                    // the white ball goes back to the head string, next to it if a ball lies there
+                    if (balls[0].isMoving())
+                        motionChanged(-1);
+                    balls[0].owner = null;
+                    PVector spot = spatial.rebuild(this).findFreeSpot(myX + myW / 4, myY + myH / 2, BallSize, 0);
+                    spatial.invalidate();
+                    balls[0] = new Ball(spot, BallSize, 0);
+                    balls[0].owner = this;
                     whiteBallPocketCount ++;
                       remainingShots--;
-                    if(whiteBallPocketCount >= 5 )
+                    publish(GameEventRing.SCRATCH, whiteBallPocketCount, 0);
+                    for (TableListener listener : listeners)
+                        listener.whiteBallPocketed(this, whiteBallPocketCount);
+                    if(whiteBallPocketCount >= 5 && !isGameOver) {
                         isGameOver = true;
+                        publish(GameEventRing.LOSS, 0, 0);
+                        for (TableListener listener : listeners)
+                            listener.gameLost(this);
+                    }
                 }
             }
         }
@@ -199,12 +489,24 @@ public class Table {
      * Remove flagged balls from the table.
      */
     public void removeBallFromTable(){
-        for (int i = balls.length - 1; i >= 0; i--) {
-            if (balls[i].removed) {
-                for (int j = i; j < balls.length - 1; j++)
-                    balls[j] = balls[j + 1];
-                balls = Arrays.copyOf(balls, balls.length - 1);
+        int kept = 0, objectsBefore = objectBallsLeft;
+        for (int i = 0; i < balls.length; i++) {
+            if (!balls[i].removed) {
+                balls[kept++] = balls[i];
+                continue;
             }
+            if (balls[i].isMoving())
+                motionChanged(-1);
+            balls[i].owner = null;
+            if (i > 0)
+                objectBallsLeft--;
+        }
+        if (kept < balls.length)
+            balls = Arrays.copyOf(balls, kept);
+        if (objectsBefore > 0 && objectBallsLeft == 0) {
+            publish(GameEventRing.WIN, 0, 0);
+            for (TableListener listener : listeners)
+                listener.gameWon(this);
         }
     }
 
@@ -226,14 +528,16 @@ public class Table {
     /**
      * Increment the moves count.
      */
-    public void madeMove() { moves++;
+    public void madeMove() { requireDetached(); moves++;
     }
 
     /**
      * Rack the balls on the table for a new game.
      */
     public void rack() {
+        requireDetached();
         PVector footSpot = new PVector(myX + 3 * myW / 4, myY + myH / 2);
+        release();
         balls = new Ball[16];
 
         float offsetX = (float) (BallSize * cos(PI / 3));
@@ -247,6 +551,8 @@ public class Table {
             float y = footSpot.y + (float) (i % 2 == 0 ? 2 * offsetY * sin(angle) : offsetY * sin(angle));
             balls[i] = new Ball(new PVector(x, y), BallSize, i);
         }
+        adopt(balls);
+        settling = false;
     }
 
 
@@ -254,6 +560,7 @@ public class Table {
      * Reset the game state.
      */
     public void resetGame() {
+        requireDetached();
         score = 0;
         moves = 0;
         remainingShots = 5;
@@ -271,7 +578,10 @@ public class Table {
         resetGame();
         rack();
         whiteBallPocketCount = 0;
+        isGameOver = false;
         showRestartButton = false;
+        for (TableListener listener : listeners)
+            listener.gameRestarted(this);
     }
 
     /**
@@ -280,16 +590,73 @@ public class Table {
      * @return : True if all balls (except white) are in holes, false otherwise
      */
     public boolean isAllBallsInHolesExceptWhite() {
-        int whiteBallIndex = 0;
-        boolean allBallsInHolesExceptWhite = true;
+        requireDetached();
+        return objectBallsLeft == 0;
+    }
 
-        for (int i = 1; i < balls.length; i++) {
-            if (i != whiteBallIndex && balls[i] != null && !balls[i].isRemoved()) {
-                allBallsInHolesExceptWhite = false;
-                break;
-            }
-        }
-        return allBallsInHolesExceptWhite;
+    /**
+     * Check if every ball on the table has come to rest.
+     *
+     * @return : True if no ball is moving, false otherwise
+     */
+    public boolean isAtRest() {
+        requireDetached();
+        return movingBalls.get() == 0;
+    }
+
+    /**
+     * Get the number of moving balls.
+     *
+     * @return : Number of balls with a force
+     */
+    public int getMovingBallCount() { return movingBalls.get(); }
+
+    /**
+     * Get the number of object balls left on the table.
+     *
+     * @return : Number of balls other than the white one not pocketed yet
+     */
+    public int getObjectBallsLeft() { requireDetached(); return objectBallsLeft; }
+
+    /**
+     * Add a listener receiving the game events of the table.
+     *
+     * @param listener : the listener
+     */
+    public void addListener(TableListener listener) { listeners.add(listener); }
+
+    /**
+     * Remove a listener of the table.
+     *
+     * @param listener : the listener
+     */
+    public void removeListener(TableListener listener) { listeners.remove(listener); }
+
+    /**
+     * Set the ring receiving the game events and collisions of the table.
+     *
+     * @param events : the ring, or null to not record events
+     */
+    public void setEventRing(GameEventRing events) { this.events = events; }
+
+    /**
+     * Get the ring receiving the game events and collisions of the table.
+     *
+     * @return : the ring, or null when events are not recorded
+     */
+    public GameEventRing getEventRing() { return events; }
+
+    /**
+     * Publish an event of the current step to the ring, if there is one.
+     *
+     * @param type : type of the event
+     * @param a : first argument
+     * @param b : second argument
+     */
+    private void publish(int type, int a, int b) {
+        GameEventRing ring = events;
+        if (ring != null)
+            ring.publish(type, steps, a, b);
     }
 
     /**
@@ -297,7 +664,7 @@ public class Table {
      *
      * @return : Game score
      */
-    public int getScore() { return score;
+    public int getScore() { requireDetached(); return score;
     }
 
     /**
@@ -305,21 +672,21 @@ public class Table {
      *
      * @param score : New game score
      */
-    public void setScore(int score) { this.score = score; }
+    public void setScore(int score) { requireDetached(); this.score = score; }
 
     /**
      * Get the number of moves made by the player.
      *
      * @return : Number of moves
      */
-    public int getMoves() { return moves; }
+    public int getMoves() { requireDetached(); return moves; }
 
     /**
      * Set the number of moves made by the player.
      *
      * @param moves : New number of moves
      */
-    public void setMoves(int moves) { this.moves = moves; }
+    public void setMoves(int moves) { requireDetached(); this.moves = moves; }
 
     /**
      * Get the X-coordinate of the table.
@@ -360,6 +727,14 @@ public class Table {
     public float getHoleSize() { return HoleSize; }
 
 
+    /**
+     * Get the size of the individual balls on the table.
+     *
+     * @return : Size of the balls
+     */
+    public float getBallSize() { return BallSize; }
+
+
     /**
      * Get the array of holes on the table.
      *
@@ -368,26 +743,39 @@ public class Table {
     public Hole[] getHoles() { return holes; }
 
 
+    /**
+     * Set the array of holes on the table.
+     *
+     * @param holes : New array of holes
+     */
+    public void setHoles(Hole[] holes) { this.holes = holes; }
+
+
     /**
      * Get the array of balls on the table.
      *
      * @return : Array of balls
      */
-    public Ball[] getBalls() { return balls; }
+    public Ball[] getBalls() { requireDetached(); return balls; }
 
     /**
      * Set the array of balls on the table.
      *
      * @param balls : New array of balls
      */
-    public void setBalls(Ball[] balls) { this.balls = balls; }
+    public void setBalls(Ball[] balls) {
+        requireDetached();
+        release();
+        this.balls = balls;
+        adopt(balls);
+    }
 
     /**
      * Check if the game is over.
      *
      * @return : True if the game is over, false otherwise
      */
-    public boolean isGameOver() { return isGameOver; }
+    public boolean isGameOver() { requireDetached(); return isGameOver; }
 
     /**
      * Get whether the restart button should be displayed.
@@ -402,6 +790,6 @@ public class Table {
      *
      * @return Number of remaining shots
      */
-    public int getRemainingShots() { return remainingShots; }
+    public int getRemainingShots() { requireDetached(); return remainingShots; }
 
 }
@@ -0,0 +1,542 @@
+package Model;
+
+import processing.core.PVector;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The TableBatch class stores the state of many billiard tables off-heap.
+ * All tables share the geometry of a template table and live in one contiguous buffer,
+ * one fixed-size slot per table, so a large batch adds no Ball or PVector objects to the heap.
+ *
+ * Slot layout (little or big endian, as the platform):
+ * - header: ball count, score, moves, remaining shots, white ball pocket count, flags
+ * - one record per ball: x, y, force x, force y, size, color, flags
+ *
+ * The physics kernel in step() works directly on the buffer through VarHandles
+ * and follows the same rules as Table.action().
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class TableBatch {
+
+    /**
+     * Size of the slot header in bytes
+     */
+    static final int HEADER_BYTES = 32;
+
+    /**
+     * Size of one ball record in bytes
+     */
+    static final int BALL_BYTES = 32;
+
+    /**
+     * Header offsets inside a slot
+     */
+    static final int H_COUNT = 0, H_SCORE = 4, H_MOVES = 8, H_SHOTS = 12, H_WHITE = 16, H_FLAGS = 20;
+
+    /**
+     * Ball record offsets
+     */
+    static final int B_X = 0, B_Y = 4, B_FX = 8, B_FY = 12, B_SIZE = 16, B_COLOR = 20, B_FLAGS = 24;
+
+    /**
+     * Flag bits of the slot header
+     */
+    static final int GAME_OVER = 1, WHITE_IN_HOLE = 2;
+
+    /**
+     * Flag bit of a ball record
+     */
+    static final int REMOVED = 1;
+
+    /**
+     * Deceleration applied to a moving ball at each step, as in Ball.move()
+     */
+    private static final float DECELERATION = 0.02f;
+
+    /**
+     * Access to float fields of the buffer
+     */
+    private static final VarHandle FLOAT =
+            MethodHandles.byteBufferViewVarHandle(float[].class, ByteOrder.nativeOrder());
+
+    /**
+     * Access to int fields of the buffer
+     */
+    private static final VarHandle INT =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    /**
+     * Buffer holding all slots
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Offset of the first slot inside the buffer
+     */
+    private final int base;
+
+    /**
+     * Number of table slots
+     */
+    private final int tables;
+
+    /**
+     * Maximum number of balls per table
+     */
+    private final int maxBalls;
+
+    /**
+     * Size of one slot in bytes
+     */
+    private final int slotBytes;
+
+    /**
+     * Geometry shared by all tables of the batch
+     */
+    private final float myX, myY, myW, myH, ballSize;
+
+    /**
+     * Hole positions and sizes shared by all tables of the batch
+     */
+    private final float[] holeX, holeY, holeSize;
+
+    /**
+     * Candidate spot of the white ball respawn, reused between steps as a batch is stepped by one thread at a time
+     */
+    private final float[] spot = new float[2];
+
+    /**
+     * Constructor for the TableBatch class.
+     *
+     * @param buffer : buffer holding the slots
+     * @param base : offset of the first slot inside the buffer
+     * @param template : table providing the geometry and the holes
+     * @param tables : number of table slots
+     * @param maxBalls : maximum number of balls per table
+     */
+    TableBatch(ByteBuffer buffer, int base, Table template, int tables, int maxBalls) {
+        this.buffer = buffer;
+        this.base = base;
+        this.tables = tables;
+        this.maxBalls = maxBalls;
+        this.slotBytes = slotBytes(maxBalls);
+        myX = template.getMyX();
+        myY = template.getMyY();
+        myW = template.getMyW();
+        myH = template.getMyH();
+        ballSize = template.getBallSize();
+        Hole[] holes = template.getHoles();
+        holeX = new float[holes.length];
+        holeY = new float[holes.length];
+        holeSize = new float[holes.length];
+        for (int i = 0; i < holes.length; i++) {
+            holeX[i] = holes[i].getX();
+            holeY[i] = holes[i].getY();
+            holeSize[i] = holes[i].getHoleSize();
+        }
+    }
+
+    /**
+     * Allocate a batch in direct (off-heap) memory.
+     *
+     * @param template : table providing the geometry and the holes
+     * @param tables : number of table slots
+     * @param maxBalls : maximum number of balls per table
+     * @return : the new batch
+     */
+    public static TableBatch allocate(Table template, int tables, int maxBalls) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(checkedSize(tables, maxBalls)).order(ByteOrder.nativeOrder());
+        return new TableBatch(buffer, 0, template, tables, maxBalls);
+    }
+
+    /**
+     * Map a batch onto a file, so the whole batch is persisted by the operating system.
+     * An existing file of the right size keeps its content.
+     *
+     * @param file : file backing the batch
+     * @param template : table providing the geometry and the holes
+     * @param tables : number of table slots
+     * @param maxBalls : maximum number of balls per table
+     * @return : the new batch
+     * @throws IOException : if the file cannot be opened or mapped
+     */
+    public static TableBatch map(Path file, Table template, int tables, int maxBalls) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, checkedSize(tables, maxBalls));
+            buffer.order(ByteOrder.nativeOrder());
+            return new TableBatch(buffer, 0, template, tables, maxBalls);
+        }
+    }
+
+    /**
+     * Size of one slot in bytes.
+     *
+     * @param maxBalls : maximum number of balls per table
+     * @return : slot size
+     */
+    static int slotBytes(int maxBalls) {
+        return HEADER_BYTES + maxBalls * BALL_BYTES;
+    }
+
+    /**
+     * Size of a whole batch in bytes, rejecting batches that do not fit one buffer.
+     *
+     * @param tables : number of table slots
+     * @param maxBalls : maximum number of balls per table
+     * @return : batch size
+     */
+    static int checkedSize(int tables, int maxBalls) {
+        if (tables <= 0 || maxBalls <= 0)
+            throw new IllegalArgumentException("tables and maxBalls must be positive");
+        long size = (long) tables * slotBytes(maxBalls);
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("batch of " + size + " bytes does not fit one buffer");
+        return (int) size;
+    }
+
+    /**
+     * Copy the state of a table into a slot.
+     *
+     * @param slot : index of the slot
+     * @param table : table to copy
+     */
+    public void store(int slot, Table table) {
+        Ball[] balls = table.getBalls();
+        if (balls.length > maxBalls)
+            throw new IllegalArgumentException(balls.length + " balls do not fit a slot of " + maxBalls);
+        int s = slotOffset(slot);
+        INT.set(buffer, s + H_COUNT, balls.length);
+        INT.set(buffer, s + H_SCORE, table.getScore());
+        INT.set(buffer, s + H_MOVES, table.getMoves());
+        INT.set(buffer, s + H_SHOTS, table.getRemainingShots());
+        INT.set(buffer, s + H_WHITE, table.getWhiteBallPocketCount());
+        INT.set(buffer, s + H_FLAGS, (table.isGameOver() ? GAME_OVER : 0) | (table.isWhiteBallInHole() ? WHITE_IN_HOLE : 0));
+        for (int i = 0; i < balls.length; i++) {
+            int b = s + HEADER_BYTES + i * BALL_BYTES;
+            Ball ball = balls[i];
+            FLOAT.set(buffer, b + B_X, ball.getX());
+            FLOAT.set(buffer, b + B_Y, ball.getY());
+            FLOAT.set(buffer, b + B_FX, ball.getForce().x);
+            FLOAT.set(buffer, b + B_FY, ball.getForce().y);
+            FLOAT.set(buffer, b + B_SIZE, ball.getSize());
+            INT.set(buffer, b + B_COLOR, ball.getC());
+            INT.set(buffer, b + B_FLAGS, ball.isRemoved() ? REMOVED : 0);
+        }
+    }
+
+    /**
+     * Copy the state of a slot into a table, replacing its balls.
+     *
+     * @param slot : index of the slot
+     * @param table : table receiving the state
+     */
+    public void load(int slot, Table table) {
+        int s = slotOffset(slot);
+        int count = (int) INT.get(buffer, s + H_COUNT);
+        int flags = (int) INT.get(buffer, s + H_FLAGS);
+        Ball[] balls = new Ball[count];
+        for (int i = 0; i < count; i++) {
+            int b = s + HEADER_BYTES + i * BALL_BYTES;
+            balls[i] = new Ball(new PVector((float) FLOAT.get(buffer, b + B_X), (float) FLOAT.get(buffer, b + B_Y)),
+                    (float) FLOAT.get(buffer, b + B_SIZE), (int) INT.get(buffer, b + B_COLOR));
+            balls[i].setForce(new PVector((float) FLOAT.get(buffer, b + B_FX), (float) FLOAT.get(buffer, b + B_FY)));
+            balls[i].setRemoved(((int) INT.get(buffer, b + B_FLAGS) & REMOVED) != 0);
+        }
+        table.setBalls(balls);
+        table.restoreCounters((int) INT.get(buffer, s + H_SCORE), (int) INT.get(buffer, s + H_MOVES),
+                (int) INT.get(buffer, s + H_SHOTS), (int) INT.get(buffer, s + H_WHITE),
+                (flags & GAME_OVER) != 0, (flags & WHITE_IN_HOLE) != 0);
+    }
+
+    /**
+     * Advance one table of the batch by one step, with the same rules as Table.action().
+     *
+     * @param slot : index of the slot
+     * @param widthWall : Width of the wall
+     * @param heightWall : Height of the wall
+     */
+    public void step(int slot, float widthWall, float heightWall) {
+        int s = slotOffset(slot);
+        collideCheck(s);
+        int count = (int) INT.get(buffer, s + H_COUNT);
+        for (int i = 0; i < count; i++) {
+            int b = s + HEADER_BYTES + i * BALL_BYTES;
+            float x = (float) FLOAT.get(buffer, b + B_X);
+            float y = (float) FLOAT.get(buffer, b + B_Y);
+            float fx = (float) FLOAT.get(buffer, b + B_FX);
+            float fy = (float) FLOAT.get(buffer, b + B_FY);
+            if (x <= myX + ballSize / 2 || x >= myX + myW - ballSize / 2)
+                fx = (x > widthWall / 2) ? -Math.abs(fx) : Math.abs(fx);
+            if (y <= myY + ballSize / 2 || y >= myY + myH - ballSize / 2)
+                fy = (y > heightWall / 2) ? -Math.abs(fy) : Math.abs(fy);
+            x += fx;
+            y += fy;
+            float mag = (float) Math.sqrt(fx * fx + fy * fy);
+            if (mag > DECELERATION) {
+                float scale = (mag - DECELERATION) / mag;
+                fx *= scale;
+                fy *= scale;
+            } else {
+                fx = 0;
+                fy = 0;
+            }
+            FLOAT.set(buffer, b + B_X, x);
+            FLOAT.set(buffer, b + B_Y, y);
+            FLOAT.set(buffer, b + B_FX, fx);
+            FLOAT.set(buffer, b + B_FY, fy);
+            if (i == 0 && ((int) INT.get(buffer, b + B_FLAGS) & REMOVED) != 0)
+                INT.set(buffer, s + H_FLAGS, (int) INT.get(buffer, s + H_FLAGS) | WHITE_IN_HOLE);
+        }
+    }
+
+    /**
+     * Advance every table of the batch by one step.
+     *
+     * @param widthWall : Width of the wall
+     * @param heightWall : Height of the wall
+     */
+    public void stepAll(float widthWall, float heightWall) {
+        for (int slot = 0; slot < tables; slot++)
+            step(slot, widthWall, heightWall);
+    }
+
+    /**
+     * Ball collisions, hole collisions and removal of pocketed balls, as Table.collideCheck().
+     *
+     * @param s : offset of the slot
+     */
+    private void collideCheck(int s) {
+        int count = (int) INT.get(buffer, s + H_COUNT);
+        for (int i = 0; i < count - 1; i++) {
+            for (int j = i + 1; j < count; j++) {
+                int bi = s + HEADER_BYTES + i * BALL_BYTES;
+                int bj = s + HEADER_BYTES + j * BALL_BYTES;
+                float dx = (float) FLOAT.get(buffer, bi + B_X) - (float) FLOAT.get(buffer, bj + B_X);
+                float dy = (float) FLOAT.get(buffer, bi + B_Y) - (float) FLOAT.get(buffer, bj + B_Y);
+                if ((float) Math.sqrt(dx * dx + dy * dy) <= ballSize)
+                    collide(bi, bj);
+            }
+        }
+        checkHoleCollision(s, count);
+        removeBalls(s);
+    }
+
+    /**
+     * Collision of two ball records, as Ball.collide().
+     *
+     * @param bi : offset of the first ball
+     * @param bj : offset of the second ball
+     */
+    private void collide(int bi, int bj) {
+        float xj = (float) FLOAT.get(buffer, bj + B_X);
+        float yj = (float) FLOAT.get(buffer, bj + B_Y);
+        float a = (float) Math.atan2((float) FLOAT.get(buffer, bi + B_Y) - yj, (float) FLOAT.get(buffer, bi + B_X) - xj);
+        float size = (float) FLOAT.get(buffer, bi + B_SIZE);
+        float cos = (float) Math.cos(a);
+        float sin = (float) Math.sin(a);
+        FLOAT.set(buffer, bi + B_X, xj + size * cos);
+        FLOAT.set(buffer, bi + B_Y, yj + size * sin);
+
+        float fxi = (float) FLOAT.get(buffer, bi + B_FX), fyi = (float) FLOAT.get(buffer, bi + B_FY);
+        float fxj = (float) FLOAT.get(buffer, bj + B_FX), fyj = (float) FLOAT.get(buffer, bj + B_FY);
+        float v1 = (float) Math.sqrt(fxi * fxi + fyi * fyi) * (float) Math.cos((float) Math.atan2(fyi, fxi) - a);
+        float v2 = (float) Math.sqrt(fxj * fxj + fyj * fyj) * (float) Math.cos((float) Math.atan2(fyj, fxj) - a);
+        float dx = (v2 - v1) * cos;
+        float dy = (v2 - v1) * sin;
+        FLOAT.set(buffer, bi + B_FX, fxi + dx);
+        FLOAT.set(buffer, bi + B_FY, fyi + dy);
+        FLOAT.set(buffer, bj + B_FX, fxj - dx);
+        FLOAT.set(buffer, bj + B_FY, fyj - dy);
+    }
+
+    /**
+     * Hole collisions of a slot, as Table.checkHoleCollision().
+     *
+     * @param s : offset of the slot
+     * @param count : number of balls of the slot
+     */
+    private void checkHoleCollision(int s, int count) {
+        float hardnessLevel = 2;
+        for (int i = 0; i < count; i++) {
+            int b = s + HEADER_BYTES + i * BALL_BYTES;
+            for (int j = 0; j < holeX.length; j++) {
+                float dx = (float) FLOAT.get(buffer, b + B_X) - holeX[j];
+                float dy = (float) FLOAT.get(buffer, b + B_Y) - holeY[j];
+                float reach = ((float) FLOAT.get(buffer, b + B_SIZE) + holeSize[j] / hardnessLevel) / 2;
+                if ((float) Math.sqrt(dx * dx + dy * dy) >= reach)
+                    continue;
+                if (i > 0) {
+                    INT.set(buffer, b + B_FLAGS, (int) INT.get(buffer, b + B_FLAGS) | REMOVED);
+                    INT.set(buffer, s + H_SCORE, (int) INT.get(buffer, s + H_SCORE) + 1);
+                    INT.set(buffer, s + H_FLAGS, (int) INT.get(buffer, s + H_FLAGS) | WHITE_IN_HOLE);
+                } else {
+                    respawnWhiteBall(s, count, b);
+                    FLOAT.set(buffer, b + B_FX, 0f);
+                    FLOAT.set(buffer, b + B_FY, 0f);
+                    FLOAT.set(buffer, b + B_SIZE, ballSize);
+                    INT.set(buffer, b + B_COLOR, 0);
+                    INT.set(buffer, b + B_FLAGS, 0);
+                    int pocketed = (int) INT.get(buffer, s + H_WHITE) + 1;
+                    INT.set(buffer, s + H_WHITE, pocketed);
+                    INT.set(buffer, s + H_SHOTS, (int) INT.get(buffer, s + H_SHOTS) - 1);
+                    if (pocketed >= 5)
+                        INT.set(buffer, s + H_FLAGS, (int) INT.get(buffer, s + H_FLAGS) | GAME_OVER);
+                }
+            }
+        }
+    }
+
+    /**
+     * Put the white ball back on the head string, or on the nearest free spot around it,
+     * trying the same spots as SpatialIndex.findFreeSpot().
+     *
+     * @param s : offset of the slot
+     * @param count : number of balls of the slot
+     * @param white : offset of the white ball
+     */
+    private void respawnWhiteBall(int s, int count, int white) {
+        float x = myX + myW / 4, y = myY + myH / 2;
+        for (int ring = 0; ring <= SpatialIndex.MAX_PLACEMENT_RINGS; ring++) {
+            for (int k = 0; k < SpatialIndex.placementsInRing(ring); k++) {
+                float cx = x, cy = y;
+                if (ring > 0) {
+                    SpatialIndex.placement(ring, k, x, y, ballSize, spot);
+                    cx = spot[0];
+                    cy = spot[1];
+                }
+                if (isFreeSpot(s, count, white, cx, cy)) {
+                    FLOAT.set(buffer, white + B_X, cx);
+                    FLOAT.set(buffer, white + B_Y, cy);
+                    return;
+                }
+            }
+        }
+        FLOAT.set(buffer, white + B_X, x);
+        FLOAT.set(buffer, white + B_Y, y);
+    }
+
+    /**
+     * Check if a spot inside the cushions is further than a ball size from every ball of a slot but one.
+     *
+     * @param s : offset of the slot
+     * @param count : number of balls of the slot
+     * @param exclude : offset of the ball to ignore
+     * @param x : X-coordinate of the spot
+     * @param y : Y-coordinate of the spot
+     * @return : True if the spot is free, false otherwise
+     */
+    private boolean isFreeSpot(int s, int count, int exclude, float x, float y) {
+        float half = ballSize / 2;
+        if (x <= myX + half || x >= myX + myW - half || y <= myY + half || y >= myY + myH - half)
+            return false;
+        for (int i = 0; i < count; i++) {
+            int b = s + HEADER_BYTES + i * BALL_BYTES;
+            if (b == exclude)
+                continue;
+            float dx = (float) FLOAT.get(buffer, b + B_X) - x;
+            float dy = (float) FLOAT.get(buffer, b + B_Y) - y;
+            if (dx * dx + dy * dy < ballSize * ballSize)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove flagged balls of a slot, keeping the order of the remaining balls.
+     *
+     * @param s : offset of the slot
+     */
+    private void removeBalls(int s) {
+        int count = (int) INT.get(buffer, s + H_COUNT);
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int from = s + HEADER_BYTES + i * BALL_BYTES;
+            if (((int) INT.get(buffer, from + B_FLAGS) & REMOVED) != 0)
+                continue;
+            if (kept != i) {
+                int to = s + HEADER_BYTES + kept * BALL_BYTES;
+                for (int k = 0; k < BALL_BYTES; k += 4)
+                    INT.set(buffer, to + k, (int) INT.get(buffer, from + k));
+            }
+            kept++;
+        }
+        INT.set(buffer, s + H_COUNT, kept);
+    }
+
+    /**
+     * Flush a file-backed batch to disk. Does nothing for a batch in direct memory.
+     */
+    public void force() {
+        if (buffer instanceof MappedByteBuffer mapped)
+            mapped.force();
+    }
+
+    /**
+     * Offset of a slot inside the buffer.
+     *
+     * @param slot : index of the slot
+     * @return : byte offset of the slot
+     */
+    int slotOffset(int slot) {
+        if (slot < 0 || slot >= tables)
+            throw new IndexOutOfBoundsException("slot " + slot + " of " + tables);
+        return base + slot * slotBytes;
+    }
+
+    /**
+     * Get the number of balls on the table of a slot.
+     *
+     * @param slot : index of the slot
+     * @return : Number of balls
+     */
+    public int getBallCount(int slot) { return (int) INT.get(buffer, slotOffset(slot) + H_COUNT); }
+
+    /**
+     * Get the score of the table of a slot.
+     *
+     * @param slot : index of the slot
+     * @return : Game score
+     */
+    public int getScore(int slot) { return (int) INT.get(buffer, slotOffset(slot) + H_SCORE); }
+
+    /**
+     * Check if the game of a slot is over.
+     *
+     * @param slot : index of the slot
+     * @return : True if the game is over, false otherwise
+     */
+    public boolean isGameOver(int slot) { return ((int) INT.get(buffer, slotOffset(slot) + H_FLAGS) & GAME_OVER) != 0; }
+
+    /**
+     * Get the number of table slots.
+     *
+     * @return : Number of slots
+     */
+    public int getTables() { return tables; }
+
+    /**
+     * Get the maximum number of balls per table.
+     *
+     * @return : Maximum number of balls
+     */
+    public int getMaxBalls() { return maxBalls; }
+
+    /**
+     * Get the buffer holding the slots.
+     *
+     * @return : the backing buffer
+     */
+    ByteBuffer buffer() { return buffer; }
+}
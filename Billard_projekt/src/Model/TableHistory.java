@@ -0,0 +1,191 @@
+package Model;
+
+/**
+ * The TableHistory class keeps the recent states of a table in a ring buffer, for undo and rewind.
+ *
+ * A snapshot is taken when the table comes to rest before a shot, and every few physics steps while balls move.
+ * The snapshots live in the preallocated slots of a TableBatch and are overwritten in place,
+ * so capturing allocates nothing; when the ring is full the oldest snapshot is dropped.
+ *
+ * Methods:
+ * - captureShot(Table table): Keeps the state of a table at rest, before a shot.
+ * - step(Table table): Counts a physics step, keeping the state every few steps.
+ * - undoShot(Table table): Restores the state before the last shot.
+ * - peek(int back, Table table): Restores an earlier state of the current shot without forgetting the later ones.
+ * - discardNewest(int count): Forgets the newest states, to continue from an earlier one.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class TableHistory {
+
+    /**
+     * Slots holding the snapshots
+     */
+    private final TableBatch slots;
+
+    /**
+     * For every slot, the number of moves of the table if the snapshot was taken before a shot, -1 otherwise
+     */
+    private final int[] shotMoves;
+
+    /**
+     * Number of physics steps between two snapshots of a moving table, 0 to keep only shots
+     */
+    private final int stepInterval;
+
+    /**
+     * Slot of the newest snapshot
+     */
+    private int newest = -1;
+
+    /**
+     * Number of snapshots kept
+     */
+    private int size;
+
+    /**
+     * Physics steps since the last snapshot
+     */
+    private int stepsSinceCapture;
+
+    /**
+     * Constructor for the TableHistory class.
+     *
+     * @param template : table providing the geometry and the holes
+     * @param capacity : number of snapshots kept
+     * @param maxBalls : maximum number of balls of the table
+     * @param stepInterval : number of physics steps between two snapshots of a moving table, 0 to keep only shots
+     */
+    public TableHistory(Table template, int capacity, int maxBalls, int stepInterval) {
+        if (stepInterval < 0)
+            throw new IllegalArgumentException("stepInterval must not be negative");
+        this.slots = TableBatch.allocate(template, capacity, maxBalls);
+        this.shotMoves = new int[capacity];
+        this.stepInterval = stepInterval;
+    }
+
+    /**
+     * Keep the state of a table at rest, before a shot.
+     *
+     * @param table : the billiard table
+     */
+    public void captureShot(Table table) {
+        capture(table, table.getMoves());
+    }
+
+    /**
+     * Count a physics step, keeping the state of the table every few steps.
+     *
+     * @param table : the billiard table, after the step
+     */
+    public void step(Table table) {
+        if (stepInterval > 0 && ++stepsSinceCapture >= stepInterval)
+            capture(table, -1);
+    }
+
+    /**
+     * Write a snapshot over the oldest slot.
+     *
+     * @param table : the billiard table
+     * @param moves : number of moves for a snapshot before a shot, -1 otherwise
+     */
+    private void capture(Table table, int moves) {
+        newest = (newest + 1) % slots.getTables();
+        slots.store(newest, table);
+        shotMoves[newest] = moves;
+        size = Math.min(size + 1, slots.getTables());
+        stepsSinceCapture = 0;
+    }
+
+    /**
+     * Restore the state before the last shot and forget everything after it.
+     * If the table already rests after the last shot, the shot before it is restored.
+     *
+     * @param table : the billiard table
+     * @return : True if a state was restored, false if no shot is left in the history
+     */
+    public boolean undoShot(Table table) {
+        int back = shotBack(0);
+        if (back >= 0 && shotMoves[slot(back)] == table.getMoves() && table.isAtRest())
+            back = shotBack(back + 1);
+        if (back < 0)
+            return false;
+        slots.load(slot(back), table);
+        discardNewest(back);
+        return true;
+    }
+
+    /**
+     * Restore an earlier state of the current shot, keeping the later states.
+     *
+     * @param back : number of snapshots to go back, 0 for the newest
+     * @param table : the billiard table
+     */
+    public void peek(int back, Table table) {
+        if (back < 0 || back >= size)
+            throw new IndexOutOfBoundsException("no snapshot " + back + " back, " + size + " kept");
+        slots.load(slot(back), table);
+    }
+
+    /**
+     * Forget the newest snapshots, to continue from an earlier state.
+     *
+     * @param count : number of snapshots to forget
+     */
+    public void discardNewest(int count) {
+        count = Math.min(count, size);
+        newest = Math.floorMod(newest - count, slots.getTables());
+        size -= count;
+        stepsSinceCapture = 0;
+    }
+
+    /**
+     * Get how far back the current shot started.
+     *
+     * @return : number of snapshots taken since the newest snapshot before a shot,
+     * or since the oldest snapshot if no shot is kept
+     */
+    public int getStepsInCurrentShot() {
+        int back = shotBack(0);
+        return back < 0 ? Math.max(size - 1, 0) : back;
+    }
+
+    /**
+     * Get the number of snapshots kept.
+     *
+     * @return : number of snapshots
+     */
+    public int size() { return size; }
+
+    /**
+     * Forget every snapshot, for a new game.
+     */
+    public void clear() {
+        discardNewest(size);
+    }
+
+    /**
+     * Find the newest snapshot before a shot, starting some snapshots back.
+     *
+     * @param from : number of snapshots back to start from
+     * @return : number of snapshots back, -1 if there is none
+     */
+    private int shotBack(int from) {
+        for (int back = from; back < size; back++) {
+            if (shotMoves[slot(back)] >= 0)
+                return back;
+        }
+        return -1;
+    }
+
+    /**
+     * Slot of a snapshot.
+     *
+     * @param back : number of snapshots back, 0 for the newest
+     * @return : index of the slot
+     */
+    private int slot(int back) {
+        return Math.floorMod(newest - back, slots.getTables());
+    }
+}
@@ -0,0 +1,66 @@
+package Model;
+
+/**
+ * The TableListener interface receives the game events of a table, so that the rules can be followed
+ * without scanning the balls at every frame.
+ *
+ * Events are published by the thread stepping the table, in the middle of a physics step for pockets and scratches;
+ * a listener should only record them and act on them from its own thread.
+ *
+ * Methods:
+ * - ballPocketed(Table table, Ball ball): An object ball fell into a hole.
+ * - whiteBallPocketed(Table table, int count): The white ball fell into a hole and was put back.
+ * - gameWon(Table table): The last object ball left the table.
+ * - gameLost(Table table): The game was lost.
+ * - tableSettled(Table table): The last moving ball came to rest.
+ * - gameRestarted(Table table): The balls were racked for a new game.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public interface TableListener {
+
+    /**
+     * An object ball fell into a hole; it leaves the table at the end of the step.
+     *
+     * @param table : the billiard table
+     * @param ball : the pocketed ball
+     */
+    default void ballPocketed(Table table, Ball ball) {}
+
+    /**
+     * The white ball fell into a hole and was put back on the head string.
+     *
+     * @param table : the billiard table
+     * @param count : number of times the white ball was pocketed in the game
+     */
+    default void whiteBallPocketed(Table table, int count) {}
+
+    /**
+     * The last object ball left the table.
+     *
+     * @param table : the billiard table
+     */
+    default void gameWon(Table table) {}
+
+    /**
+     * The game was lost, the white ball having been pocketed too often.
+     *
+     * @param table : the billiard table
+     */
+    default void gameLost(Table table) {}
+
+    /**
+     * The last moving ball came to rest.
+     *
+     * @param table : the billiard table
+     */
+    default void tableSettled(Table table) {}
+
+    /**
+     * The balls were racked for a new game.
+     *
+     * @param table : the billiard table
+     */
+    default void gameRestarted(Table table) {}
+}
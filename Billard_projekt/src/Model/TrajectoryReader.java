@@ -0,0 +1,493 @@
+package Model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The TrajectoryReader class reads the positions of balls from an archive written by TrajectoryWriter.
+ *
+ * Opening the archive only reads the headers of the blocks into an index. A read then decodes the columns
+ * of the requested ball in the blocks overlapping the requested steps, and nothing else. The bounds kept
+ * for every ball and block let a query skip blocks where a ball cannot be in a region.
+ * A block cut off at the end of the file, by a crash of the writer, is ignored.
+ * Reads use positional file access, so several threads may read the same archive. Every thread keeps the data
+ * of the last block it read, so reading the balls of a block one after the other reads the file once.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class TrajectoryReader implements AutoCloseable {
+
+    /**
+     * Archive file
+     */
+    private final FileChannel channel;
+
+    /**
+     * Data of the last block read by every thread
+     */
+    private final ThreadLocal<CachedBlock> lastBlock = ThreadLocal.withInitial(CachedBlock::new);
+
+    /**
+     * Index of the blocks: first step, number of steps, first column
+     */
+    private long[] firstSteps = new long[16];
+    private int[] blockSteps = new int[16];
+    private int[] firstColumns = new int[17];
+
+    /**
+     * Index of the columns of all blocks: color, steps on the table, bounds, position and size of the data
+     */
+    private int[] colors = new int[64], present = new int[64];
+    private float[] minX = new float[64], maxX = new float[64], minY = new float[64], maxY = new float[64];
+    private long[] dataPositions = new long[64];
+    private int[] dataSizes = new int[64];
+
+    /**
+     * Number of blocks and of recorded steps
+     */
+    private int blocks;
+    private long steps;
+
+    /**
+     * Constructor for the TrajectoryReader class.
+     *
+     * @param file : archive file
+     * @throws IOException : if the file cannot be read or is not a trajectory archive
+     */
+    public TrajectoryReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readFully(0, 8);
+            if (header == null || header.getInt() != TrajectoryWriter.MAGIC || header.getInt() != TrajectoryWriter.VERSION)
+                throw new IOException("not a trajectory archive: " + file);
+            long position = 8;
+            int columns = 0;
+            while (true) {
+                ByteBuffer size = readFully(position, 4);
+                if (size == null || position + 4 + size.getInt(0) > channel.size())
+                    break;
+                ByteBuffer block = readFully(position + 4, TrajectoryWriter.BLOCK_HEADER_BYTES);
+                int count = block.getInt(12);
+                ByteBuffer directory = readFully(position + 4 + TrajectoryWriter.BLOCK_HEADER_BYTES,
+                        count * TrajectoryWriter.COLUMN_HEADER_BYTES);
+                long data = position + 4 + TrajectoryWriter.BLOCK_HEADER_BYTES + (long) count * TrajectoryWriter.COLUMN_HEADER_BYTES;
+                growBlocks();
+                growColumns(columns + count);
+                firstSteps[blocks] = block.getLong(0);
+                blockSteps[blocks] = block.getInt(8);
+                firstColumns[blocks] = columns;
+                for (int c = 0; c < count; c++, columns++) {
+                    colors[columns] = directory.getInt();
+                    present[columns] = directory.getInt();
+                    minX[columns] = directory.getFloat();
+                    maxX[columns] = directory.getFloat();
+                    minY[columns] = directory.getFloat();
+                    maxY[columns] = directory.getFloat();
+                    dataSizes[columns] = directory.getInt();
+                    dataPositions[columns] = data;
+                    data += dataSizes[columns];
+                }
+                steps = firstSteps[blocks] + blockSteps[blocks];
+                blocks++;
+                firstColumns[blocks] = columns;
+                position += 4 + size.getInt(0);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the positions of a ball over a range of steps.
+     * Steps without the ball, or beyond the end of the archive, are given as NaN.
+     *
+     * @param color : color of the ball
+     * @param from : first step
+     * @param x : receives the x-coordinates, one per step
+     * @param y : receives the y-coordinates, one per step
+     * @return : number of steps with the ball on the table
+     * @throws IOException : if the file cannot be read
+     */
+    public int read(int color, long from, float[] x, float[] y) throws IOException {
+        int length = Math.min(x.length, y.length);
+        Arrays.fill(x, 0, length, Float.NaN);
+        Arrays.fill(y, 0, length, Float.NaN);
+        int found = 0;
+        float[] blockX = null, blockY = null;
+        for (int block = findBlock(from); block >= 0 && block < blocks && firstSteps[block] < from + length; block++) {
+            if (getColumn(block, color) < 0)
+                continue;
+            if (blockX == null) {
+                blockX = new float[TrajectoryWriter.BLOCK_STEPS];
+                blockY = new float[TrajectoryWriter.BLOCK_STEPS];
+            }
+            readBlock(block, color, blockX, blockY);
+            for (int i = 0; i < blockSteps[block]; i++) {
+                long step = firstSteps[block] + i;
+                if (step < from || step >= from + length)
+                    continue;
+                x[(int) (step - from)] = blockX[i];
+                y[(int) (step - from)] = blockY[i];
+                if (!Float.isNaN(blockX[i]))
+                    found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Decode the positions of a ball in one block. Steps without the ball are given as NaN.
+     *
+     * @param block : index of the block
+     * @param color : color of the ball
+     * @param x : receives the x-coordinates, at least getBlockSteps(block) of them
+     * @param y : receives the y-coordinates, at least getBlockSteps(block) of them
+     * @return : number of steps with the ball on the table
+     * @throws IOException : if the file cannot be read or the block is damaged
+     */
+    public int readBlock(int block, int color, float[] x, float[] y) throws IOException {
+        int steps = blockSteps[block];
+        int column = getColumn(block, color);
+        if (column < 0) {
+            Arrays.fill(x, 0, steps, Float.NaN);
+            Arrays.fill(y, 0, steps, Float.NaN);
+            return 0;
+        }
+        CachedBlock cached = lastBlock.get();
+        if (cached.block != block || cached.data == null) {
+            long start = dataPositions[firstColumns[block]];
+            int last = firstColumns[block + 1] - 1;
+            ByteBuffer data = readFully(start, (int) (dataPositions[last] + dataSizes[last] - start));
+            if (data == null)
+                throw new IOException("block " + block + " cut off");
+            cached.block = block;
+            cached.start = start;
+            cached.data = data.array();
+        }
+        int offset = (int) (dataPositions[column] - cached.start);
+        BitReader bits = new BitReader(cached.data, offset, offset + dataSizes[column]);
+        int bx = 0, by = 0, dx = 0, dy = 0, ddx = 0, ddy = 0;
+        for (int i = 0; i < steps; ) {
+            if (bits.read(1) == 0) {
+                // at rest
+                int run = bits.readGamma();
+                Arrays.fill(x, i, i + run, Float.intBitsToFloat(bx));
+                Arrays.fill(y, i, i + run, Float.intBitsToFloat(by));
+                dx = dy = ddx = ddy = 0;
+                i += run;
+                continue;
+            }
+            if (bits.read(1) == 0) {
+                // moving
+                ddx += readResidual(bits);
+                ddy += readResidual(bits);
+                dx += ddx;
+                dy += ddy;
+                bx += dx;
+                by += dy;
+            } else if (bits.read(1) == 0) {
+                int run = bits.readGamma();
+                Arrays.fill(x, i, i + run, Float.NaN);
+                Arrays.fill(y, i, i + run, Float.NaN);
+                i += run;
+                continue;
+            } else {
+                bx = bits.read(32);
+                by = bits.read(32);
+                dx = dy = ddx = ddy = 0;
+            }
+            x[i] = Float.intBitsToFloat(bx);
+            y[i] = Float.intBitsToFloat(by);
+            i++;
+        }
+        return present[column];
+    }
+
+    /**
+     * Read the distance of a coordinate from its prediction, written by the column encoder.
+     *
+     * @param bits : the column
+     * @return : change of the delta of delta
+     */
+    private static int readResidual(BitReader bits) {
+        int zigzag;
+        if (bits.read(1) == 0)
+            return 0;
+        if (bits.read(1) == 0)
+            zigzag = bits.read(7);
+        else if (bits.read(1) == 0)
+            zigzag = bits.read(12);
+        else if (bits.read(1) == 0)
+            zigzag = bits.read(20);
+        else
+            zigzag = bits.read(32);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * Check from the index whether a ball may be inside a rectangle during a block, without decoding it.
+     *
+     * @param block : index of the block
+     * @param color : color of the ball
+     * @param left : left edge
+     * @param top : top edge
+     * @param right : right edge
+     * @param bottom : bottom edge
+     * @return : False if the ball is never inside the rectangle during the block, true if it may be
+     */
+    public boolean mayVisit(int block, int color, float left, float top, float right, float bottom) {
+        int column = getColumn(block, color);
+        return column >= 0 && present[column] > 0
+                && minX[column] <= right && maxX[column] >= left && minY[column] <= bottom && maxY[column] >= top;
+    }
+
+    /**
+     * Get the bounds of the positions of a ball during a block.
+     *
+     * @param block : index of the block
+     * @param color : color of the ball
+     * @return : min x, min y, max x, max y, or null if the ball is not in the block
+     */
+    public float[] getBounds(int block, int color) {
+        int column = getColumn(block, color);
+        return column < 0 ? null : new float[]{minX[column], minY[column], maxX[column], maxY[column]};
+    }
+
+    /**
+     * Find the column of a ball in a block.
+     *
+     * @param block : index of the block
+     * @param color : color of the ball
+     * @return : index of the column, -1 if the ball is not in the block
+     */
+    private int getColumn(int block, int color) {
+        for (int c = firstColumns[block]; c < firstColumns[block + 1]; c++) {
+            if (colors[c] == color)
+                return c;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the block holding a step.
+     *
+     * @param step : the step
+     * @return : index of the block, 0 for a step before the archive, getBlockCount() for a step after it
+     */
+    public int findBlock(long step) {
+        int low = 0, high = blocks - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (firstSteps[middle] + blockSteps[middle] <= step)
+                low = middle + 1;
+            else if (firstSteps[middle] > step)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return low;
+    }
+
+    /**
+     * Get the colors of the balls of a block.
+     *
+     * @param block : index of the block
+     * @return : the colors, in the order the balls first appeared in the block
+     */
+    public int[] getColors(int block) {
+        return Arrays.copyOfRange(colors, firstColumns[block], firstColumns[block + 1]);
+    }
+
+    /**
+     * Get the number of steps a ball spends on the table during a block.
+     *
+     * @param block : index of the block
+     * @param color : color of the ball
+     * @return : number of steps, 0 if the ball is not in the block
+     */
+    public int getPresentSteps(int block, int color) {
+        int column = getColumn(block, color);
+        return column < 0 ? 0 : present[column];
+    }
+
+    /**
+     * Get the number of blocks.
+     *
+     * @return : Number of blocks
+     */
+    public int getBlockCount() { return blocks; }
+
+    /**
+     * Get the first step of a block.
+     *
+     * @param block : index of the block
+     * @return : the first step
+     */
+    public long getFirstStep(int block) { return firstSteps[block]; }
+
+    /**
+     * Get the number of steps of a block.
+     *
+     * @param block : index of the block
+     * @return : Number of steps
+     */
+    public int getBlockSteps(int block) { return blockSteps[block]; }
+
+    /**
+     * Get the number of recorded steps.
+     *
+     * @return : Number of steps
+     */
+    public long getSteps() { return steps; }
+
+    /**
+     * Close the file.
+     *
+     * @throws IOException : if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Read bytes at a position of the file.
+     *
+     * @param position : position in the file
+     * @param length : number of bytes
+     * @return : the bytes, or null if the file ends first
+     * @throws IOException : if the file cannot be read
+     */
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                return null;
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Make room for one more block in the index.
+     */
+    private void growBlocks() {
+        if (blocks + 1 < firstSteps.length)
+            return;
+        firstSteps = Arrays.copyOf(firstSteps, firstSteps.length * 2);
+        blockSteps = Arrays.copyOf(blockSteps, blockSteps.length * 2);
+        firstColumns = Arrays.copyOf(firstColumns, firstSteps.length + 1);
+    }
+
+    /**
+     * Make room for a number of columns in the index.
+     *
+     * @param count : number of columns needed
+     */
+    private void growColumns(int count) {
+        if (count <= colors.length)
+            return;
+        int size = Math.max(count, colors.length * 2);
+        colors = Arrays.copyOf(colors, size);
+        present = Arrays.copyOf(present, size);
+        minX = Arrays.copyOf(minX, size);
+        maxX = Arrays.copyOf(maxX, size);
+        minY = Arrays.copyOf(minY, size);
+        maxY = Arrays.copyOf(maxY, size);
+        dataPositions = Arrays.copyOf(dataPositions, size);
+        dataSizes = Arrays.copyOf(dataSizes, size);
+    }
+
+    /**
+     * The BitReader class reads bits, most significant first, from an array of bytes.
+     */
+    private static final class BitReader {
+
+        /**
+         * Bytes to read, up to the end of the column
+         */
+        private final byte[] bytes;
+        private final int end;
+
+        /**
+         * Next byte to load into the buffer
+         */
+        private int index;
+
+        /**
+         * Bits loaded and not read yet, in the low bits of the buffer
+         */
+        private long buffer;
+        private int available;
+
+        /**
+         * Constructor for the BitReader class.
+         *
+         * @param bytes : bytes holding the column
+         * @param start : first byte of the column
+         * @param end : byte after the column
+         */
+        BitReader(byte[] bytes, int start, int end) {
+            this.bytes = bytes;
+            this.index = start;
+            this.end = end;
+        }
+
+        /**
+         * Read bits as an unsigned value.
+         *
+         * @param count : number of bits, at most 32
+         * @return : the value
+         */
+        int read(int count) {
+            if (available < count) {
+                // load whole bytes until no more fits; past the end the column is padded with zeros
+                while (available <= 56) {
+                    buffer = buffer << 8 | (index < end ? bytes[index] & 0xFF : 0);
+                    index++;
+                    available += 8;
+                }
+            }
+            available -= count;
+            return (int) (buffer >>> available & (1L << count) - 1);
+        }
+
+        /**
+         * Read a number in the Elias gamma code.
+         *
+         * @return : the number
+         */
+        int readGamma() {
+            int zeros = 0;
+            while (read(1) == 0)
+                zeros++;
+            return 1 << zeros | read(zeros);
+        }
+    }
+
+    /**
+     * The CachedBlock class holds the data of the last block read by a thread.
+     */
+    private static final class CachedBlock {
+
+        /**
+         * Index of the block
+         */
+        int block = -1;
+
+        /**
+         * Position of the data in the file
+         */
+        long start;
+
+        /**
+         * Data of all columns of the block
+         */
+        byte[] data;
+    }
+}
@@ -0,0 +1,408 @@
+package Model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The TrajectoryWriter class records the position of every ball at every physics step into a compact archive,
+ * read back by TrajectoryReader.
+ *
+ * The steps are grouped into blocks of BLOCK_STEPS steps, and every block stores one column per ball,
+ * the balls being told apart by their color. A column is a bit stream of runs and steps:
+ * - a run of steps at rest, where the ball keeps its position, costs a few bits whatever its length;
+ * - a run of steps without the ball, before it appears or after it was pocketed, costs as little;
+ * - the first step of the ball in the block stores its position as raw floats;
+ * - a moving step stores, for x and y, how far the bits of the float are from a prediction, in a code of 1 to 36 bits.
+ *   The prediction keeps the delta of delta of the last step: a ball rolling straight slows down by the same amount
+ *   at every step, so the delta of delta is constant and only rounding is left, while the delta of delta itself,
+ *   the deceleration in units of the float, takes a dozen bits.
+ * The encoding is lossless. Every column starts at the beginning of its block, and the header of the block gives
+ * the steps of the block and, for every ball, its number of steps on the table and the bounds of its positions,
+ * so a reader can skip blocks and balls it does not need.
+ *
+ * File layout:
+ * - header: magic, version
+ * - block: size of the block after this field, first step, steps, number of columns,
+ *   then color, steps on the table, min x, max x, min y, max y, data size of every column,
+ *   then the data of every column
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class TrajectoryWriter implements AutoCloseable {
+
+    /**
+     * Magic number identifying a trajectory archive
+     */
+    static final int MAGIC = 0x42494C54;
+
+    /**
+     * Version of the file layout
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Number of steps of a full block
+     */
+    static final int BLOCK_STEPS = 256;
+
+    /**
+     * Size of the header of a block before its columns, and of the header of a column
+     */
+    static final int BLOCK_HEADER_BYTES = 8 + 4 + 4, COLUMN_HEADER_BYTES = 7 * 4;
+
+    /**
+     * Prefix codes of the symbols of a column: run at rest, moving step, run without the ball, raw position
+     */
+    static final int REST = 0b0, MOVE = 0b10, ABSENT = 0b110, RAW = 0b111;
+
+    /**
+     * Archive file
+     */
+    private final FileChannel channel;
+
+    /**
+     * Columns of the current block, by color of the ball
+     */
+    private final Map<Integer, Column> byColor = new HashMap<>();
+    private final List<Column> columns = new ArrayList<>();
+
+    /**
+     * Number of steps recorded, and of steps in the current block
+     */
+    private long steps;
+    private int blockSteps;
+
+    /**
+     * Number of bytes written to the file
+     */
+    private long bytesWritten;
+
+    /**
+     * Constructor for the TrajectoryWriter class. An existing file is replaced.
+     *
+     * @param file : archive file
+     * @throws IOException : if the file cannot be created
+     */
+    public TrajectoryWriter(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).flip();
+        write(header);
+    }
+
+    /**
+     * Record the positions of the balls of a table as the next step, usually right after a physics step.
+     *
+     * @param table : the billiard table
+     * @throws IOException : if a full block cannot be written
+     * @throws IllegalArgumentException : if two balls of the table share a color
+     */
+    public void append(Table table) throws IOException {
+        for (Ball ball : table.getBalls()) {
+            Column column = byColor.get(ball.getC());
+            if (column == null) {
+                column = new Column(ball.getC(), blockSteps);
+                byColor.put(ball.getC(), column);
+                columns.add(column);
+            } else if (column.steps > blockSteps) {
+                throw new IllegalArgumentException("two balls share the color " + ball.getC());
+            }
+            column.append(Float.floatToRawIntBits(ball.getX()), Float.floatToRawIntBits(ball.getY()));
+        }
+        blockSteps++;
+        for (Column column : columns) {
+            if (column.steps < blockSteps)
+                column.appendAbsent();
+        }
+        steps++;
+        if (blockSteps == BLOCK_STEPS)
+            writeBlock();
+    }
+
+    /**
+     * Write the current block and start a new one.
+     *
+     * @throws IOException : if the block cannot be written
+     */
+    private void writeBlock() throws IOException {
+        int size = BLOCK_HEADER_BYTES;
+        for (Column column : columns) {
+            column.finish();
+            size += COLUMN_HEADER_BYTES + column.bits.byteCount();
+        }
+        ByteBuffer block = ByteBuffer.allocate(4 + size);
+        block.putInt(size).putLong(steps - blockSteps).putInt(blockSteps).putInt(columns.size());
+        for (Column column : columns) {
+            block.putInt(column.color).putInt(column.present)
+                    .putFloat(column.minX).putFloat(column.maxX).putFloat(column.minY).putFloat(column.maxY)
+                    .putInt(column.bits.byteCount());
+        }
+        for (Column column : columns)
+            block.put(column.bits.bytes, 0, column.bits.byteCount());
+        write(block.flip());
+        byColor.clear();
+        columns.clear();
+        blockSteps = 0;
+    }
+
+    /**
+     * Write a buffer at the end of the file.
+     *
+     * @param buffer : bytes to write
+     * @throws IOException : if the bytes cannot be written
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        bytesWritten += buffer.remaining();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Get the number of recorded steps.
+     *
+     * @return : Number of steps
+     */
+    public long getSteps() { return steps; }
+
+    /**
+     * Get the size of the archive written so far, without the current block.
+     *
+     * @return : Number of bytes
+     */
+    public long getBytesWritten() { return bytesWritten; }
+
+    /**
+     * Write the current block, even if it is not full, and close the file.
+     *
+     * @throws IOException : if the block cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (blockSteps > 0)
+                writeBlock();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * The Column class encodes the positions of one ball in the current block.
+     */
+    private static final class Column {
+
+        /**
+         * Color of the ball
+         */
+        final int color;
+
+        /**
+         * Encoded symbols
+         */
+        final BitWriter bits = new BitWriter();
+
+        /**
+         * Number of steps of the block recorded, and of steps with the ball on the table
+         */
+        int steps, present;
+
+        /**
+         * Bounds of the positions of the ball
+         */
+        float minX = Float.POSITIVE_INFINITY, maxX = Float.NEGATIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+
+        /**
+         * Bits of the last position, their last delta and their last delta of delta
+         */
+        int x, y, dx, dy, ddx, ddy;
+
+        /**
+         * Flag indicating whether the ball was on the table at the last step
+         */
+        boolean onTable;
+
+        /**
+         * Symbol of the pending run, REST or ABSENT, and its length; 0 steps for no run
+         */
+        int run, runLength;
+
+        /**
+         * Constructor for the Column class.
+         *
+         * @param color : color of the ball
+         * @param absent : number of steps of the block before the ball appeared
+         */
+        Column(int color, int absent) {
+            this.color = color;
+            for (int i = 0; i < absent; i++)
+                appendAbsent();
+        }
+
+        /**
+         * Record a step with the ball on the table.
+         *
+         * @param nextX : bits of the x-coordinate
+         * @param nextY : bits of the y-coordinate
+         */
+        void append(int nextX, int nextY) {
+            steps++;
+            present++;
+            float fx = Float.intBitsToFloat(nextX), fy = Float.intBitsToFloat(nextY);
+            minX = Math.min(minX, fx);
+            maxX = Math.max(maxX, fx);
+            minY = Math.min(minY, fy);
+            maxY = Math.max(maxY, fy);
+            if (!onTable) {
+                flushRun();
+                bits.write(RAW, 3);
+                bits.write(nextX, 32);
+                bits.write(nextY, 32);
+                dx = dy = ddx = ddy = 0;
+            } else if (nextX == x && nextY == y) {
+                extendRun(REST);
+                dx = dy = ddx = ddy = 0;
+            } else {
+                flushRun();
+                bits.write(MOVE, 2);
+                int nextDdx = nextX - x - dx, nextDdy = nextY - y - dy;
+                writeResidual(nextDdx - ddx);
+                writeResidual(nextDdy - ddy);
+                dx += nextDdx;
+                dy += nextDdy;
+                ddx = nextDdx;
+                ddy = nextDdy;
+            }
+            x = nextX;
+            y = nextY;
+            onTable = true;
+        }
+
+        /**
+         * Record a step without the ball.
+         */
+        void appendAbsent() {
+            steps++;
+            extendRun(ABSENT);
+            onTable = false;
+        }
+
+        /**
+         * Extend the pending run, writing the previous one if it is of another kind.
+         *
+         * @param symbol : REST or ABSENT
+         */
+        private void extendRun(int symbol) {
+            if (runLength > 0 && run != symbol)
+                flushRun();
+            run = symbol;
+            runLength++;
+        }
+
+        /**
+         * Write the pending run, if any.
+         */
+        private void flushRun() {
+            if (runLength == 0)
+                return;
+            if (run == REST)
+                bits.write(REST, 1);
+            else
+                bits.write(ABSENT, 3);
+            bits.writeGamma(runLength);
+            runLength = 0;
+        }
+
+        /**
+         * Write the distance of a coordinate from its prediction: 0 as one bit, else a prefix and 7, 12, 20 or 32 bits.
+         *
+         * @param value : change of the delta of delta of the bits of the coordinate
+         */
+        private void writeResidual(int value) {
+            if (value == 0) {
+                bits.write(0, 1);
+                return;
+            }
+            int zigzag = (value << 1) ^ (value >> 31);
+            if (zigzag >>> 7 == 0) {
+                bits.write(0b10, 2);
+                bits.write(zigzag, 7);
+            } else if (zigzag >>> 12 == 0) {
+                bits.write(0b110, 3);
+                bits.write(zigzag, 12);
+            } else if (zigzag >>> 20 == 0) {
+                bits.write(0b1110, 4);
+                bits.write(zigzag, 20);
+            } else {
+                bits.write(0b1111, 4);
+                bits.write(zigzag, 32);
+            }
+        }
+
+        /**
+         * Write the pending run at the end of the block.
+         */
+        void finish() {
+            flushRun();
+        }
+    }
+
+    /**
+     * The BitWriter class appends bits, most significant first, to a growing array of bytes.
+     */
+    private static final class BitWriter {
+
+        /**
+         * Written bytes, the last one possibly partial
+         */
+        byte[] bytes = new byte[64];
+
+        /**
+         * Number of written bits
+         */
+        long bitCount;
+
+        /**
+         * Write the low bits of a value.
+         *
+         * @param value : the value
+         * @param count : number of bits, at most 32
+         */
+        void write(int value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                int index = (int) (bitCount >>> 3);
+                if (index == bytes.length)
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                if ((value >>> i & 1) != 0)
+                    bytes[index] |= (byte) (0x80 >>> (bitCount & 7));
+                bitCount++;
+            }
+        }
+
+        /**
+         * Write a positive number in the Elias gamma code: as many zeros as its bits after the first, then its bits.
+         *
+         * @param value : the number, at least 1
+         */
+        void writeGamma(int value) {
+            int length = 32 - Integer.numberOfLeadingZeros(value);
+            write(0, length - 1);
+            write(value, length);
+        }
+
+        /**
+         * Get the number of bytes holding the written bits.
+         *
+         * @return : Number of bytes
+         */
+        int byteCount() { return (int) ((bitCount + 7) >>> 3); }
+    }
+}
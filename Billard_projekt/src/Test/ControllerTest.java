@@ -0,0 +1,350 @@
+package Test;
+
+import Controller.BillardController;
+import Controller.BillardEnv;
+import Controller.GameSession;
+import Controller.GameState;
+import Controller.Ratings;
+import Controller.SessionServer;
+import Controller.Strategy;
+import Controller.Tournament;
+import Controller.VectorBillardEnv;
+import Model.ArchiveQuery;
+import Model.Ball;
+import Model.BillardThread;
+import Model.Table;
+import Model.TrajectoryReader;
+import View.Interface_view;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import processing.core.PVector;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The ControllerTest class contains unit tests for the Controller package.
+ * It uses JUnit 5 for testing.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+class ControllerTest {
+
+    /**
+     * Tests the shoot method of the GameSession class.
+     * It checks whether a shot is simulated until the table is at rest and counted as a move.
+     */
+    @Test
+    void shoot_ShouldSimulateUntilRest() {
+        GameSession session = new GameSession(1);
+        GameState state = session.shoot(8, 0);
+        assertEquals(GameState.PLAYING, state);
+        assertTrue(session.getTable().isAtRest());
+        assertEquals(1, session.getTable().getMoves());
+    }
+
+    /**
+     * Tests the SessionServer class over a local socket.
+     * It checks whether a client can open a session, play a shot and read the state back,
+     * whether bad shots are refused, and whether the sessions of a closed connection are dropped.
+     */
+    @Test
+    void sessionServer_ShouldServeSessionsOverSocket() throws Exception {
+        try (SessionServer server = new SessionServer(0)) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+                out.println("NEW");
+                String reply = in.readLine();
+                assertTrue(reply.startsWith("SESSION "));
+                String id = reply.substring(8);
+
+                out.println("SHOT " + id + " 8 0");
+                String[] state = in.readLine().split(" ");
+                assertEquals("PLAYING", state[0]);
+                assertEquals("1", state[2]);
+
+                out.println("STATE 999");
+                assertEquals("ERROR unknown session", in.readLine());
+                out.println("SHOT " + id + " NaN 0");
+                assertTrue(in.readLine().startsWith("ERROR force"));
+                out.println("SHOT " + id + " 1e30 0");
+                assertTrue(in.readLine().startsWith("ERROR force"));
+                out.println("SHOT " + id + " 8 Infinity");
+                assertTrue(in.readLine().startsWith("ERROR angle"));
+                out.println("CLOSE " + id);
+                assertEquals("OK", in.readLine());
+                out.println("NEW");
+                assertTrue(in.readLine().startsWith("SESSION "));
+                assertEquals(1, server.getSessionCount());
+            }
+            // the session left open is dropped with its connection
+            for (int wait = 0; wait < 100 && server.getSessionCount() > 0; wait++)
+                Thread.sleep(20);
+            assertEquals(0, server.getSessionCount());
+        }
+    }
+
+    /**
+     * Tests the training run of the BillardController class with a view drawing nothing.
+     * It checks whether the run starts a game with a break shot and ends after its last frame.
+     */
+    @Test
+    void trainingRun_ShouldPlayBreakShotAndFinish() {
+        BillardController controller = new BillardController();
+        controller.setModel(new Table(25.0f, 25.0f, 1000.0f, 70.0f));
+        controller.setView((Interface_view) Proxy.newProxyInstance(Interface_view.class.getClassLoader(),
+                new Class<?>[]{Interface_view.class}, (proxy, method, args) -> null));
+        AtomicBoolean finished = new AtomicBoolean();
+        controller.setTrainingRun(40, () -> finished.set(true));
+        for (int frame = 0; frame < 39; frame++)
+            controller.nextFrame();
+        assertEquals(GameState.PLAYING, controller.getState());
+        assertEquals(1, controller.getModel().getMoves());
+        assertFalse(finished.get());
+        controller.nextFrame();
+        assertTrue(finished.get());
+        controller.setState(GameState.GAME_OVER);
+        controller.nextFrame();
+    }
+
+    /**
+     * Tests the trajectory recording of the BillardController class over a restarted game.
+     * It checks whether every game gets its own archive, so that ArchiveQuery counts two games.
+     */
+    @Test
+    void trajectoryFile_ShouldRecordOneArchivePerGame(@TempDir Path dir) throws Exception {
+        BillardController controller = new BillardController();
+        Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        controller.setModel(table);
+        controller.setView((Interface_view) Proxy.newProxyInstance(Interface_view.class.getClassLoader(),
+                new Class<?>[]{Interface_view.class}, (proxy, method, args) -> null));
+        controller.setTrajectoryFile(dir.resolve("game.traj"));
+        table.restartGame();
+        controller.setState(GameState.PLAYING);
+        for (int frame = 0; frame < 10; frame++)
+            controller.nextFrame();
+        table.restartGame();
+        for (int frame = 0; frame < 5; frame++)
+            controller.nextFrame();
+        controller.setState(GameState.GAME_OVER);
+        controller.nextFrame();
+        controller.closeTrajectory();
+
+        List<Path> files = List.of(dir.resolve("game-1.traj"), dir.resolve("game-2.traj"));
+        try (TrajectoryReader first = new TrajectoryReader(files.get(0));
+             TrajectoryReader second = new TrajectoryReader(files.get(1))) {
+            assertEquals(10, first.getSteps());
+            assertEquals(5, second.getSteps());
+        }
+        assertFalse(Files.exists(dir.resolve("game-3.traj")));
+        assertEquals(2, new ArchiveQuery(table).run(files).games());
+    }
+
+    /**
+     * Tests the BillardEnv and VectorBillardEnv classes.
+     * It checks whether the vector writes the same rewards and observations as environments stepped one by one.
+     */
+    @Test
+    void vectorBillardEnv_ShouldMatchSingleEnvironments() {
+        float[] forces = {8, 15, 3, 20};
+        float[] thetas = {0, 0.1f, 2, -1};
+        try (VectorBillardEnv vector = new VectorBillardEnv(4, 2)) {
+            vector.step(forces, thetas);
+            float[] observation = new float[BillardEnv.OBSERVATION_SIZE];
+            for (int i = 0; i < 4; i++) {
+                BillardEnv env = new BillardEnv();
+                env.reset();
+                int score = env.getTable().getScore();
+                float reward = env.step(forces[i], thetas[i]);
+                assertEquals(vector.getRewards()[i], reward);
+                assertEquals(vector.getDones()[i], env.isDone());
+                if (!env.isDone()) {
+                    env.observe(observation, 0);
+                    assertArrayEquals(observation, Arrays.copyOfRange(vector.getObservations(),
+                            i * BillardEnv.OBSERVATION_SIZE, (i + 1) * BillardEnv.OBSERVATION_SIZE));
+                    assertEquals(1, observation[1]);
+                    assertEquals(env.getTable().getScore() - score
+                            - BillardEnv.WHITE_BALL_PENALTY * env.getTable().getWhiteBallPocketCount(), reward);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the step method of the VectorBillardEnv class with a refused action.
+     * It checks whether no environment is stepped and the observations, rewards and done flags are left as they were.
+     */
+    @Test
+    void vectorBillardEnv_ShouldRefuseActionsBeforeStepping() {
+        try (VectorBillardEnv vector = new VectorBillardEnv(4, 2)) {
+            vector.step(new float[]{8, 15, 3, 20}, new float[]{0, 0.1f, 2, -1});
+            float[] observations = vector.getObservations().clone();
+            float[] rewards = vector.getRewards().clone();
+            boolean[] dones = vector.getDones().clone();
+            int[] moves = new int[4];
+            for (int i = 0; i < 4; i++)
+                moves[i] = vector.get(i).getTable().getMoves();
+
+            assertThrows(IllegalArgumentException.class,
+                    () -> vector.step(new float[]{8, 15, 3, Float.NaN}, new float[]{0, 0.1f, 2, -1}));
+            assertArrayEquals(observations, vector.getObservations());
+            assertArrayEquals(rewards, vector.getRewards());
+            assertArrayEquals(dones, vector.getDones());
+            for (int i = 0; i < 4; i++)
+                assertEquals(moves[i], vector.get(i).getTable().getMoves());
+        }
+    }
+
+    /**
+     * Tests the BillardThread worker of the BillardController class.
+     * It checks whether the worker parks at rest and outside of games, wakes on a shot and starts again after a game.
+     */
+    @Test
+    void billardThread_ShouldParkAndWakeOnShot() throws InterruptedException {
+        BillardController controller = new BillardController();
+        controller.setModel(new Table(25.0f, 25.0f, 1000.0f, 70.0f));
+        controller.setView((Interface_view) Proxy.newProxyInstance(Interface_view.class.getClassLoader(),
+                new Class<?>[]{Interface_view.class}, (proxy, method, args) -> null));
+        assertNull(controller.getBillardThread());
+        controller.setState(GameState.PLAYING);
+        BillardThread worker = controller.getBillardThread();
+        assertTrue(worker.isParked());
+
+        controller.getModel().getBalls()[0].hit(0.3f, 0);
+        controller.nextFrame();
+        assertFalse(worker.isParked());
+        controller.setState(GameState.HELP);
+        assertTrue(worker.isParked());
+        long ticks = worker.getTickCount();
+        Thread.sleep(100);
+        assertEquals(ticks, worker.getTickCount());
+
+        controller.setState(GameState.GAME_OVER);
+        controller.nextFrame();
+        controller.setState(GameState.PLAYING);
+        controller.getModel().getBalls()[0].hit(0.3f, 0);
+        // the balls are slowed down by the frames only
+        for (int wait = 0; wait < 100 && !worker.isParked(); wait++) {
+            controller.nextFrame();
+            Thread.sleep(50);
+        }
+        assertTrue(worker.isParked());
+        assertTrue(worker.getTickCount() > ticks);
+        assertTrue(controller.getModel().isAtRest());
+    }
+
+    /**
+     * Tests the undo of the BillardController class in the middle of a shot, with the BillardThread ticking.
+     * It checks whether the balls are put back where they rested before the shot and the worker parks.
+     */
+    @Test
+    void undoShot_ShouldRestoreRestDuringShot() {
+        BillardController controller = new BillardController();
+        Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        controller.setModel(table);
+        controller.setView((Interface_view) Proxy.newProxyInstance(Interface_view.class.getClassLoader(),
+                new Class<?>[]{Interface_view.class}, (proxy, method, args) -> null));
+        controller.setState(GameState.PLAYING);
+        controller.nextFrame();
+        PVector white = table.getBalls()[0].getLocation().copy();
+        int balls = table.getBalls().length;
+
+        table.getBalls()[0].hit(15, 0);
+        table.madeMove();
+        for (int frame = 0; frame < 20; frame++)
+            controller.nextFrame();
+        assertFalse(table.isAtRest());
+        controller.undoShot();
+        assertTrue(table.isAtRest());
+        assertTrue(controller.getBillardThread().isParked());
+        assertEquals(balls, table.getBalls().length);
+        assertEquals(0, table.getMoves());
+        assertEquals(white, table.getBalls()[0].getLocation());
+        controller.setState(GameState.GAME_OVER);
+        controller.nextFrame();
+    }
+
+    /**
+     * Tests the game events handled by the BillardController class.
+     * It checks whether the game is won at the frame the last object ball is pocketed.
+     */
+    @Test
+    void gameWonEvent_ShouldEndGame() {
+        BillardController controller = new BillardController();
+        Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        controller.setModel(table);
+        controller.setView((Interface_view) Proxy.newProxyInstance(Interface_view.class.getClassLoader(),
+                new Class<?>[]{Interface_view.class}, (proxy, method, args) -> null));
+        controller.setState(GameState.PLAYING);
+        Ball last = new Ball(new PVector(table.getMyX() + 60, table.getMyY() + 60), table.getBallSize(), 1);
+        table.setBalls(new Ball[]{table.getBalls()[0], last});
+        last.hit(3, (float) (-3 * Math.PI / 4));
+        for (int frame = 0; frame < 100 && controller.getState() == GameState.PLAYING; frame++) {
+            assertEquals(1, table.getObjectBallsLeft());
+            controller.nextFrame();
+        }
+        assertEquals(GameState.GAME_WIN, controller.getState());
+        assertEquals(0, table.getObjectBallsLeft());
+        assertEquals(1, table.getScore());
+        controller.nextFrame();
+    }
+
+    /**
+     * Tests the tournaments of the Tournament class.
+     * It checks whether every match is rated once, whether a match is replayed from its seed,
+     * and whether players over their budget of physics steps draw.
+     */
+    @Test
+    void tournament_ShouldRateEveryMatch() {
+        try (Tournament tournament = new Tournament(2, 10_000_000_000L, 20)) {
+            tournament.addPlayer("random", Strategy.random());
+            tournament.addPlayer("greedy", Strategy.greedy(1));
+            tournament.addPlayer("straight", (table, random) -> new Strategy.Shot(10, 0));
+            AtomicInteger matches = new AtomicInteger();
+            tournament.setListener(result -> matches.incrementAndGet());
+
+            Ratings ratings = tournament.roundRobin(2, 7);
+            assertEquals(6, matches.get());
+            double total = 0;
+            for (int i = 0; i < ratings.size(); i++) {
+                assertEquals(4, ratings.getStanding(i).matches());
+                total += ratings.getElo(i);
+            }
+            assertEquals(3 * Ratings.INITIAL_RATING, total, 1e-6);
+            assertTrue(ratings.getDeviation(0) < Ratings.INITIAL_DEVIATION);
+
+            Tournament.MatchResult first = tournament.playMatch(0, 1, 0, 42), again = tournament.playMatch(0, 1, 0, 42);
+            assertEquals(first.score(), again.score());
+            assertEquals(first.firstGame().score(), again.firstGame().score());
+            assertEquals(first.secondGame().moves(), again.secondGame().moves());
+            assertEquals(first.secondGame().steps(), again.secondGame().steps());
+            assertTrue(first.secondGame().steps() > 0);
+
+            Ratings swiss = tournament.swiss(2, 7);
+            assertEquals(8, matches.get());
+            assertEquals(2, Arrays.stream(new int[]{0, 1, 2}).map(i -> swiss.getStanding(i).matches()).sum() / 2);
+        }
+        try (Tournament tournament = new Tournament(1, 1, 20)) {
+            tournament.addPlayer("a", Strategy.random());
+            tournament.addPlayer("b", Strategy.random());
+            Tournament.MatchResult result = tournament.playMatch(0, 1, 0, 1);
+            assertTrue(result.firstGame().timedOut() && result.secondGame().timedOut());
+            assertEquals(0.5, result.score());
+        }
+    }
+}
@@ -1,10 +1,45 @@
 package Test;
 
+import Model.ArchiveQuery;
 import Model.Ball;
+import Model.BreakTable;
+import Model.CheckpointFile;
+import Model.EngineConformance;
+import Model.GameEventRing;
+import Model.GameHistoryStore;
+import Model.GameRecord;
+import Model.GridPhysicsEngine;
+import Model.Hole;
+import Model.LodPhysicsEngine;
+import Model.ParallelPhysicsEngine;
+import Model.PhysicsEngine;
+import Model.ReferencePhysicsEngine;
+import Model.ShotCache;
+import Model.ShotEvaluator;
+import Model.SpatialIndex;
+import Model.StressTableBuilder;
+import Model.StateDeltaDecoder;
+import Model.StateDeltaEncoder;
 import Model.Table;
+import Model.TableBatch;
+import Model.TableHistory;
+import Model.TableListener;
+import Model.TrajectoryReader;
+import Model.TrajectoryWriter;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import processing.core.PVector;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static processing.core.PApplet.*;
@@ -259,9 +294,11 @@ class ModelTest {
     @Test
     void isAllBallsInHolesExceptWhite_ShouldReturnFalseWhenAllBallsExceptWhiteInHoles() {
         Table table = new Table(0, 0, 500, 20);
-        for (int i = 1; i < table.getBalls().length; i++) {
-            table.getBalls()[i] = new Ball(new PVector(0, 0), 10, 255);
+        Ball[] balls = table.getBalls().clone();
+        for (int i = 1; i < balls.length; i++) {
+            balls[i] = new Ball(new PVector(0, 0), 10, 255);
         }
+        table.setBalls(balls);
         assertFalse(table.isAllBallsInHolesExceptWhite(), "Expected all balls except white to be in holes");
     }
 
@@ -272,12 +309,14 @@ class ModelTest {
     @Test
     void isAllBallsInHolesExceptWhite_ShouldReturnFalseWhenSomeBallsNotInHoles() {
         Table table = new Table(0, 0, 500, 20);
-        for (int i = 1; i < table.getBalls().length; i++) {
+        Ball[] balls = table.getBalls().clone();
+        for (int i = 1; i < balls.length; i++) {
             if (i % 2 == 0) {
                 continue;
             }
-            table.getBalls()[i] = new Ball(new PVector(0, 0), 10, 255);
+            balls[i] = new Ball(new PVector(0, 0), 10, 255);
         }
+        table.setBalls(balls);
 
         assertFalse(table.isAllBallsInHolesExceptWhite(), "Expected some balls not in holes");
     }
@@ -290,9 +329,11 @@ class ModelTest {
     @Test
     void isAllBallsInHolesExceptWhite_ShouldReturnTrueWhenNoBalls() {
         Table table = new Table(0, 0, 500, 20);
-        for (int i = 0; i < table.getBalls().length; i++) {
-            table.getBalls()[i] = null;
+        Ball[] balls = table.getBalls().clone();
+        for (int i = 0; i < balls.length; i++) {
+            balls[i] = null;
         }
+        table.setBalls(balls);
         assertTrue(table.isAllBallsInHolesExceptWhite(), "Expected no balls to be in holes");
     }
 
@@ -325,4 +366,837 @@ class ModelTest {
         table.collideCheck();
         assertFalse(forceUpdated);
     }
+  
+    /**
+     * Tests the store and load methods of the TableBatch class.
+     * It checks whether a racked table survives a round trip through an off-heap slot.
+     */
+    @Test
+    void tableBatch_ShouldStoreAndLoadTable() {
+        Table table = new Table(0, 0, 500, 20);
+        table.rack();
+        table.setScore(3);
+        table.getBalls()[0].hit(4, radians(30));
+        TableBatch batch = TableBatch.allocate(table, 4, 16);
+        batch.store(2, table);
+
+        Table copy = new Table(0, 0, 500, 20);
+        batch.load(2, copy);
+        assertEquals(16, copy.getBalls().length);
+        assertEquals(3, copy.getScore());
+        assertEquals(table.getBalls()[5].getLocation(), copy.getBalls()[5].getLocation());
+        assertEquals(table.getBalls()[0].getForce(), copy.getBalls()[0].getForce());
+        assertEquals(5, copy.getBalls()[5].getC());
+    }
+
+    /**
+     * Tests the attach method of the Table class with a shot.
+     * It checks whether a shot played before the attach is stepped in the batch and kept by the detach,
+     * and whether shots and reads on an attached table are rejected instead of being lost.
+     */
+    @Test
+    void attach_ShouldKeepShotAndRejectStaleAccess() {
+        Table table = new Table(0, 0, 500, 20);
+        table.rack();
+        Ball white = table.getBalls()[0];
+        float startX = white.getX();
+        white.hit(6, 0);
+        table.madeMove();
+        table.attach(TableBatch.allocate(table, 1, 16), 0);
+
+        assertThrows(IllegalStateException.class, () -> white.hit(6, 0));
+        assertThrows(IllegalStateException.class, table::madeMove);
+        assertThrows(IllegalStateException.class, table::getBalls);
+        assertThrows(IllegalStateException.class, table::getMoves);
+        for (int i = 0; i < 50; i++)
+            table.action(500, 250);
+        table.detach();
+
+        assertEquals(1, table.getMoves());
+        assertTrue(table.getBalls()[0].getX() > startX + 50);
+    }
+
+    /**
+     * Tests the attach method of the Table class.
+     * It checks whether stepping an attached table follows the same rules as the on-heap action method.
+     */
+    @Test
+    void attach_ShouldStepLikeAction() {
+        Table heap = new Table(0, 0, 500, 20);
+        heap.rack();
+        heap.getBalls()[0].hit(6, 0);
+        Table attached = new Table(0, 0, 500, 20);
+        attached.rack();
+        attached.getBalls()[0].hit(6, 0);
+        attached.attach(TableBatch.allocate(attached, 1, 16), 0);
+
+        for (int i = 0; i < 200; i++) {
+            heap.action(500, 250);
+            attached.action(500, 250);
+        }
+        attached.detach();
+        assertFalse(attached.isAttached());
+        assertEquals(heap.getBalls().length, attached.getBalls().length);
+        assertEquals(heap.getScore(), attached.getScore());
+        for (int i = 0; i < heap.getBalls().length; i++) {
+            assertEquals(heap.getBalls()[i].getX(), attached.getBalls()[i].getX(), 0.5);
+            assertEquals(heap.getBalls()[i].getY(), attached.getBalls()[i].getY(), 0.5);
+        }
+    }
+  
+    /**
+     * Tests the checkpoint and restore methods of the CheckpointFile class.
+     * It checks whether a reopened file restores the last committed state of the dirty tables only.
+     */
+    @Test
+    void checkpointFile_ShouldRestoreLastCommittedState(@TempDir Path dir) throws Exception {
+        Table[] tables = {new Table(0, 0, 500, 20), new Table(0, 0, 500, 20)};
+        for (Table table : tables)
+            table.rack();
+        Path file = dir.resolve("batch.ckpt");
+        try (CheckpointFile checkpoint = new CheckpointFile(file, tables[0], 2, 16)) {
+            checkpoint.markDirty(0);
+            checkpoint.markDirty(1);
+            checkpoint.checkpoint(tables);
+            tables[1].setScore(7);
+            checkpoint.markDirty(1);
+            assertEquals(2, checkpoint.checkpoint(tables));
+            tables[0].setScore(9);
+        }
+
+        try (CheckpointFile reopened = new CheckpointFile(file, tables[0], 2, 16)) {
+            Table restored = new Table(0, 0, 500, 20);
+            assertTrue(reopened.restore(0, restored));
+            assertEquals(0, restored.getScore());
+            assertTrue(reopened.restore(1, restored));
+            assertEquals(7, restored.getScore());
+            assertEquals(16, restored.getBalls().length);
+        }
+    }
+  
+    /**
+     * Tests the CheckpointFile class after a crash in the middle of a checkpoint.
+     * It checks whether a table written by the interrupted checkpoint is not restored once the next
+     * checkpoint commits the same generation without that table.
+     */
+    @Test
+    void checkpointFile_ShouldDiscardInterruptedCheckpoint(@TempDir Path dir) throws Exception {
+        Table[] tables = {new Table(0, 0, 500, 20), new Table(0, 0, 500, 20)};
+        for (Table table : tables)
+            table.rack();
+        Path file = dir.resolve("batch.ckpt");
+        try (CheckpointFile checkpoint = new CheckpointFile(file, tables[0], 2, 16)) {
+            checkpoint.markDirty(0);
+            checkpoint.markDirty(1);
+            assertEquals(1, checkpoint.checkpoint(tables));
+            tables[0].setScore(9);
+            Ball[] tooMany = new Ball[17];
+            for (int i = 0; i < tooMany.length; i++)
+                tooMany[i] = new Ball(new PVector(50 + 20 * i, 100), 10, i);
+            Table[] failing = {tables[0], new Table(0, 0, 500, 20)};
+            failing[1].setBalls(tooMany);
+            checkpoint.markDirty(0);
+            checkpoint.markDirty(1);
+            // table 0 is written and stamped with generation 2 before table 1 fails: the process dies here
+            assertThrows(IllegalArgumentException.class, () -> checkpoint.checkpoint(failing));
+        }
+
+        try (CheckpointFile reopened = new CheckpointFile(file, tables[0], 2, 16)) {
+            assertEquals(1, reopened.getGeneration());
+            reopened.markDirty(1);
+            assertEquals(2, reopened.checkpoint(tables));
+            Table restored = new Table(0, 0, 500, 20);
+            assertTrue(reopened.restore(0, restored));
+            assertEquals(0, restored.getScore());
+        }
+    }
+
+    /**
+     * Tests the StateDeltaEncoder and StateDeltaDecoder classes.
+     * It checks whether a decoded stream follows a break shot and is much smaller than the full state.
+     */
+    @Test
+    void stateDelta_ShouldRebuildTableFromFrames() {
+        Table table = new Table(25, 25, 1000, 70);
+        table.rack();
+        table.getBalls()[0].hit(15, radians(1));
+        StateDeltaEncoder encoder = new StateDeltaEncoder(100);
+        StateDeltaDecoder decoder = new StateDeltaDecoder(new Table(25, 25, 1000, 70));
+        ByteBuffer frame = ByteBuffer.allocate(StateDeltaEncoder.maxFrameBytes(16));
+        long encoded = 0;
+        long full = 0;
+
+        for (int tick = 0; tick < 600; tick++) {
+            table.action(1041, 541);
+            frame.clear();
+            encoded += encoder.encode(table, tick, frame);
+            full += 16L * table.getBalls().length + 16;
+            frame.flip();
+            assertTrue(decoder.apply(frame));
+            assertFalse(frame.hasRemaining());
+        }
+
+        Table decoded = decoder.getTable();
+        assertEquals(table.getBalls().length, decoded.getBalls().length);
+        assertEquals(table.getScore(), decoded.getScore());
+        for (int i = 0; i < table.getBalls().length; i++) {
+            assertEquals(table.getBalls()[i].getX(), decoded.getBalls()[i].getX(), 0.05);
+            assertEquals(table.getBalls()[i].getY(), decoded.getBalls()[i].getY(), 0.05);
+        }
+        assertTrue(encoded * 5 < full);
+    }
+  
+    /**
+     * Tests the GameHistoryStore class.
+     * It checks whether finished games survive a restart, a torn log tail is ignored and top-N queries are sorted.
+     */
+    @Test
+    void gameHistoryStore_ShouldRebuildIndexFromLog(@TempDir Path dir) throws Exception {
+        try (GameHistoryStore store = new GameHistoryStore(dir)) {
+            for (int i = 0; i < 50; i++)
+                store.submit(new GameRecord(0, i, i % 10, 20 + i, 5, 0, i % 2 == 0));
+            store.flush();
+        }
+        Path log = dir.resolve("history-0.log");
+        Files.write(log, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (GameHistoryStore store = new GameHistoryStore(dir)) {
+            assertEquals(50, store.size());
+            List<GameRecord> best = store.topByScore(3);
+            assertEquals(3, best.size());
+            assertEquals(9, best.get(0).score());
+            assertEquals(9, best.get(1).score());
+            List<GameRecord> fastest = store.topByFewestMoves(2);
+            assertEquals(20, fastest.get(0).moves());
+            assertEquals(22, fastest.get(1).moves());
+            assertEquals(51, store.submit(new GameRecord(0, 0, 1, 1, 1, 0, false)).id());
+        }
+    }
+  
+    /**
+     * Tests the GameHistoryStore class when its writer fails.
+     * It checks whether the store refuses new games and flush() and close() report the error.
+     */
+    @Test
+    void gameHistoryStore_ShouldReportWriterFailure(@TempDir Path dir) throws Exception {
+        // the snapshot taken after 10 000 games cannot be written over a directory
+        Files.createDirectories(dir.resolve("history.snapshot.tmp"));
+        GameHistoryStore store = new GameHistoryStore(dir);
+        for (int i = 0; i < 10_000; i++)
+            store.submit(new GameRecord(0, i, i % 10, 20, 5, 0, false));
+        IllegalStateException refused = null;
+        for (int wait = 0; wait < 500 && refused == null; wait++) {
+            try {
+                store.submit(new GameRecord(0, 0, 1, 20, 5, 0, false));
+                Thread.sleep(20);
+            } catch (IllegalStateException e) {
+                refused = e;
+            }
+        }
+        assertNotNull(refused);
+        assertThrows(IOException.class, store::flush);
+        assertThrows(IOException.class, store::close);
+    }
+
+    /**
+     * Tests the GridPhysicsEngine class.
+     * It checks whether a break shot stepped with the grid broad phase ends like the reference engine.
+     */
+    @Test
+    void gridPhysicsEngine_ShouldMatchReferenceEngine() {
+        Table reference = new Table(25, 25, 1000, 70);
+        Table grid = new Table(25, 25, 1000, 70);
+        grid.setEngine(new GridPhysicsEngine());
+        for (Table table : new Table[]{reference, grid}) {
+            table.rack();
+            table.getBalls()[0].hit(18, radians(2));
+            for (int i = 0; i < 1500; i++)
+                table.action(1041, 541);
+        }
+        assertEquals("grid", grid.getEngine().getName());
+        assertEquals(reference.getScore(), grid.getScore());
+        assertEquals(reference.getBalls().length, grid.getBalls().length);
+        for (int i = 0; i < reference.getBalls().length; i++)
+            assertEquals(reference.getBalls()[i].getLocation(), grid.getBalls()[i].getLocation());
+    }
+  
+    /**
+     * Tests the EngineConformance class.
+     * It checks whether the grid engine conforms to the reference engine over a small sweep.
+     */
+    @Test
+    void engineConformance_ShouldPassForGridEngine() {
+        EngineConformance harness = new EngineConformance(ReferencePhysicsEngine::new, GridPhysicsEngine::new, 0.01f, 2);
+        EngineConformance.Report report = harness.sweep(0, 16, 2);
+        assertTrue(report.passed(), () -> String.valueOf(report.minimal()));
+        assertTrue(report.steps() > 0);
+    }
+  
+    /**
+     * Tests the StressTableBuilder class.
+     * It checks whether large racks have the requested balls and pockets and start without collisions.
+     */
+    @Test
+    void stressTableBuilder_ShouldBuildLargeRacks() {
+        for (StressTableBuilder.Rack rack : StressTableBuilder.Rack.values()) {
+            Table table = new StressTableBuilder().width(3000).balls(500).rack(rack).pocketsPerLongSide(4).build();
+            assertEquals(500, table.getBalls().length);
+            assertEquals(8, table.getHoles().length);
+            table.collideCheck();
+            assertEquals(0, table.getCollisionCount());
+            assertEquals(500, table.getBalls().length);
+        }
+    }
+
+    /**
+     * Tests the lod engine against the grid engine on a sparse table of slow balls.
+     * It checks whether some balls fall asleep and whether the positions read between two steps,
+     * in the middle of a window, are those of the grid engine.
+     */
+    @Test
+    void lodPhysicsEngine_ShouldFollowGridEngine() {
+        LodPhysicsEngine lod = new LodPhysicsEngine();
+        Table grid = slowRandomTable(new GridPhysicsEngine());
+        Table table = slowRandomTable(lod);
+        grid.getBalls()[0].hit(20, 0.3f);
+        table.getBalls()[0].hit(20, 0.3f);
+        int sleeping = 0;
+        for (int step = 0; step < 1000; step++) {
+            grid.action(4000, 2000);
+            table.action(4000, 2000);
+            sleeping = Math.max(sleeping, lod.getSleeping());
+        }
+        assertTrue(sleeping > 0);
+        assertTrue(lod.getSleeping() > 0);
+        assertEquals(grid.getBalls().length, table.getBalls().length);
+        for (int i = 0; i < grid.getBalls().length; i++)
+            assertEquals(0, grid.getBalls()[i].getLocation().dist(table.getBalls()[i].getLocation()), 0.01f);
+    }
+
+    /**
+     * Build a sparse table whose object balls roll slowly in random directions.
+     *
+     * @param engine : the physics engine
+     * @return : the table
+     */
+    private static Table slowRandomTable(PhysicsEngine engine) {
+        Table table = new StressTableBuilder().width(4000).balls(300).rack(StressTableBuilder.Rack.RANDOM).engine(engine).build();
+        Random random = new Random(5);
+        for (int i = 1; i < table.getBalls().length; i++)
+            table.getBalls()[i].hit(random.nextFloat() * 1.5f, (float) (random.nextFloat() * 2 * Math.PI));
+        return table;
+    }
+
+    /**
+     * Tests the TableHistory class.
+     * It checks whether undoing a shot puts the balls back where they rested and whether a shot can be rewound.
+     */
+    @Test
+    void tableHistory_ShouldUndoAndRewindShots() {
+        Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        table.rack();
+        TableHistory history = new TableHistory(table, 64, table.getBalls().length, 5);
+        history.captureShot(table);
+        PVector white = table.getBalls()[0].getLocation().copy();
+
+        table.getBalls()[0].hit(8, 0);
+        table.madeMove();
+        for (int step = 0; step < 100; step++) {
+            table.action(1041, 541);
+            history.step(table);
+        }
+        assertEquals(20, history.getStepsInCurrentShot());
+        history.peek(10, table);
+        assertFalse(table.isAtRest());
+
+        assertTrue(history.undoShot(table));
+        assertEquals(0, table.getMoves());
+        assertTrue(table.isAtRest());
+        assertEquals(0, white.dist(table.getBalls()[0].getLocation()), 0.0f);
+        assertEquals(1, history.size());
+        assertFalse(history.undoShot(table));
+    }
+
+    /**
+     * Tests the ShotCache class on the opening rack.
+     * It checks whether a cached outcome matches a direct simulation and whether the least recently used outcome is evicted.
+     */
+    @Test
+    void shotCache_ShouldReuseAndEvictOutcomes() {
+        ShotCache cache = new ShotCache(2, 1 << 20);
+        Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        table.rack();
+        ShotCache.Outcome first = cache.simulate(table, 15, 0.02f);
+        assertSame(first, cache.simulate(table, 15, 0.02f));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        Table direct = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        direct.rack();
+        direct.getBalls()[0].hit(15, 0.02f);
+        for (int step = 0; step < first.steps(); step++)
+            direct.action(1041, 541);
+        assertTrue(direct.isAtRest());
+        cache.shoot(table, 15, 0.02f);
+        assertEquals(direct.getScore(), table.getScore());
+        assertEquals(1, table.getMoves());
+        assertEquals(direct.getBalls().length, table.getBalls().length);
+        for (int i = 0; i < direct.getBalls().length; i++)
+            assertEquals(0, direct.getBalls()[i].getLocation().dist(table.getBalls()[i].getLocation()), 0.0f);
+        assertEquals(table.getScore(), first.pockets().stream().filter(p -> p.color() != 0).count());
+
+        cache.simulate(table, 5, 1);
+        cache.simulate(table, 5, 2);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    /**
+     * Tests the ShotCache class on tables with the same balls but another geometry.
+     * It checks whether a table with other holes or another size does not get the outcome of the first table.
+     */
+    @Test
+    void shotCache_ShouldKeyOnTableGeometry() {
+        ShotCache cache = new ShotCache(8, 1 << 20);
+        Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        table.rack();
+        ShotCache.Outcome outcome = cache.simulate(table, 15, 0.02f);
+
+        Table pockets = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        pockets.rack();
+        pockets.setHoles(new Hole[]{new Hole(25, 25, 70)});
+        assertNotSame(outcome, cache.simulate(pockets, 15, 0.02f));
+
+        Table wide = new Table(25.0f, 25.0f, 1200.0f, 70.0f);
+        wide.setBalls(table.getBalls());
+        wide.setHoles(table.getHoles());
+        assertNotSame(outcome, cache.simulate(wide, 15, 0.02f));
+        assertSame(outcome, cache.simulate(table, 15, 0.02f));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    /**
+     * Tests the BreakTable class on a small grid.
+     * It checks whether the mapped file answers with the simulated breaks and interpolates between them.
+     */
+    @Test
+    void breakTable_ShouldAnswerFromPrecomputedBreaks(@TempDir Path dir) throws Exception {
+        Table template = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        BreakTable.Grid grid = new BreakTable.Grid(2, 10, 20, 2, -0.1f, 0.1f, 1, 275, 275);
+        Path file = dir.resolve("breaks.bin");
+        BreakTable.generate(file, template, grid, 2);
+        BreakTable breaks = BreakTable.open(file, template);
+
+        ShotCache cache = new ShotCache(4, 1 << 20);
+        Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        table.rack();
+        ShotCache.Outcome outcome = cache.simulate(table, 20, -0.1f);
+        BreakTable.Entry entry = breaks.nearest(19, -0.09f, 300);
+        assertEquals(outcome.x()[0], entry.whiteX(), 0.0f);
+        assertEquals(outcome.y()[0], entry.whiteY(), 0.0f);
+        assertEquals(outcome.scoreGained(), entry.score());
+        assertEquals(outcome.steps(), entry.steps());
+
+        float low = breaks.get(0, 0, 0).score(), high = breaks.get(1, 0, 0).score();
+        assertEquals((low + high) / 2, breaks.expectedScore(15, -0.1f, 275), 1e-5f);
+        assertThrows(java.io.IOException.class, () -> BreakTable.open(file, new Table(0, 0, 500, 20)));
+    }
+
+    /**
+     * Tests the SpatialIndex class against a scan of every ball.
+     * It checks ray casts, nearest balls and balls within a radius on a random table.
+     */
+    @Test
+    void spatialIndex_ShouldMatchBruteForce() {
+        Table table = new StressTableBuilder().width(2000).balls(300).rack(StressTableBuilder.Rack.RANDOM).build();
+        Ball[] balls = table.getBalls();
+        SpatialIndex index = table.getSpatialIndex();
+        Random random = new Random(3);
+        int[] found = new int[balls.length];
+        for (int query = 0; query < 200; query++) {
+            float x = random.nextFloat() * table.getMyW(), y = random.nextFloat() * table.getMyH();
+            float theta = random.nextFloat() * 2 * PI;
+            int first = -1, nearest = -1, inside = 0;
+            float firstT = Float.MAX_VALUE, nearestDistance = Float.MAX_VALUE;
+            for (int j = 0; j < balls.length; j++) {
+                PVector offset = PVector.sub(balls[j].getLocation(), new PVector(x, y));
+                float along = offset.x * cos(theta) + offset.y * sin(theta);
+                float across = offset.x * sin(theta) - offset.y * cos(theta);
+                float size = table.getBallSize();
+                if (offset.mag() >= size && along > 0 && abs(across) <= size) {
+                    float t = along - sqrt(size * size - across * across);
+                    if (t < firstT) {
+                        firstT = t;
+                        first = j;
+                    }
+                }
+                if (offset.mag() < nearestDistance) {
+                    nearestDistance = offset.mag();
+                    nearest = j;
+                }
+                if (offset.mag() <= 60)
+                    inside++;
+            }
+            SpatialIndex.RayHit hit = index.raycast(x, y, cos(theta), sin(theta), table.getBallSize(), -1);
+            assertEquals(first, hit == null ? -1 : hit.index());
+            if (hit != null)
+                assertEquals(firstT, hit.distance(), 1e-2f);
+            assertEquals(nearest, index.nearest(x, y, -1));
+            assertEquals(inside, index.withinRadius(x, y, 60, found));
+        }
+    }
+
+    /**
+     * Tests the respawn of the white ball when another ball lies on the head string spot.
+     * It checks whether Table and TableBatch both put the white ball on the same free spot.
+     */
+    @Test
+    void checkHoleCollision_ShouldRespawnWhiteBallOnFreeSpot() {
+        Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        table.rack();
+        PVector spot = new PVector(table.getMyX() + table.getMyW() / 4, table.getMyY() + table.getMyH() / 2);
+        table.getBalls()[1].setLocation(spot);
+        table.getBalls()[0].setLocation(new PVector(table.getHoles()[0].getX() + 1, table.getHoles()[0].getY() + 1));
+        TableBatch batch = TableBatch.allocate(table, 1, 16);
+        batch.store(0, table);
+
+        table.checkHoleCollision();
+        Ball white = table.getBalls()[0];
+        assertEquals(1, table.getWhiteBallPocketCount());
+        assertTrue(white.getLocation().dist(table.getBalls()[1].getLocation()) >= table.getBallSize());
+        assertTrue(table.getSpatialIndex().isFree(white.getX(), white.getY(), table.getBallSize(), 0));
+
+        batch.step(0, 1041, 541);
+        Table stepped = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        batch.load(0, stepped);
+        assertEquals(white.getX(), stepped.getBalls()[0].getX(), 1e-3f);
+        assertEquals(white.getY(), stepped.getBalls()[0].getY(), 1e-3f);
+    }
+
+    /**
+     * Tests the spatial index of a table after a step in which the white ball was pocketed.
+     * It checks whether the index follows the balls that moved after the respawn of the white ball.
+     */
+    @Test
+    void getSpatialIndex_ShouldFollowStepWithScratch() {
+        Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        table.rack();
+        table.getBalls()[0].setLocation(new PVector(table.getHoles()[0].getX() + 1, table.getHoles()[0].getY() + 1));
+        Ball moving = table.getBalls()[1];
+        moving.setLocation(new PVector(table.getMyX() + table.getMyW() / 2, table.getMyY() + table.getMyH() / 2));
+        moving.setForce(new PVector(0, 3 * table.getBallSize()));
+        table.action(1041, 541);
+        assertEquals(1, table.getWhiteBallPocketCount());
+        assertFalse(table.getSpatialIndex().isFree(moving.getX(), moving.getY(), table.getBallSize(), 0));
+        assertEquals(1, table.getSpatialIndex().nearest(moving.getX(), moving.getY(), -1));
+    }
+
+    /**
+     * Tests the ParallelPhysicsEngine class.
+     * It checks whether a break on a giant rack gives the same table with one and with several threads,
+     * and whether it resolves about as many collisions as the grid engine.
+     */
+    @Test
+    void parallelPhysicsEngine_ShouldNotDependOnThreads() {
+        ForkJoinPool one = new ForkJoinPool(1), three = new ForkJoinPool(3);
+        Table single = giantBreak(new ParallelPhysicsEngine(one));
+        Table parallel = giantBreak(new ParallelPhysicsEngine(three));
+        one.shutdown();
+        three.shutdown();
+        Table grid = giantBreak(new GridPhysicsEngine());
+        assertEquals(single.getBalls().length, parallel.getBalls().length);
+        for (int i = 0; i < single.getBalls().length; i++)
+            assertEquals(single.getBalls()[i].getLocation(), parallel.getBalls()[i].getLocation());
+        assertEquals(single.getCollisionCount(), parallel.getCollisionCount());
+        assertTrue(parallel.getCollisionCount() > 0);
+        assertEquals(grid.getCollisionCount(), parallel.getCollisionCount(), grid.getCollisionCount() * 0.25);
+    }
+
+    /**
+     * Break a giant hexagonal rack and step it for a while.
+     *
+     * @param engine : the physics engine
+     * @return : the table
+     */
+    private static Table giantBreak(PhysicsEngine engine) {
+        Table table = new StressTableBuilder().width(4000).balls(2000).rack(StressTableBuilder.Rack.HEX).engine(engine).build();
+        table.getBalls()[0].hit(20, 0.01f);
+        for (int step = 0; step < 300; step++)
+            table.action(4000, 2000);
+        return table;
+    }
+
+    /**
+     * Tests the ShotEvaluator class on the opening rack.
+     * It checks whether shots stopped early pocket the same balls as shots run to rest, in fewer steps.
+     */
+    @Test
+    void shotEvaluator_ShouldMatchFullSimulationInFewerSteps() {
+        Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        table.rack();
+        ShotCache full = new ShotCache(1, 1 << 20);
+        long earlySteps = 0, fullSteps = 0;
+        for (int shot = 0; shot < 24; shot++) {
+            float force = 4 + shot % 3 * 8, theta = (float) (shot * Math.PI / 12);
+            ShotCache.Outcome early = ShotEvaluator.evaluate(table, force, theta);
+            ShotCache.Outcome rest = full.simulate(table, force, theta);
+            assertEquals(rest.pockets(), early.pockets());
+            assertEquals(rest.scoreGained(), early.scoreGained());
+            assertEquals(rest.whiteBallsPocketed(), early.whiteBallsPocketed());
+            assertEquals(rest.gameOver(), early.gameOver());
+            assertTrue(early.steps() <= rest.steps());
+            earlySteps += early.steps();
+            fullSteps += rest.steps();
+        }
+        assertTrue(earlySteps < fullSteps);
+        assertEquals(0, table.getMoves());
+    }
+
+    /**
+     * Tests the counters and game events of the Table class on a break shot, with every physics engine.
+     * It checks whether the moving balls and object balls left match a scan of the balls at every step,
+     * and whether pockets and the settling of the table are published once each.
+     */
+    @Test
+    void tableEvents_ShouldFollowBreakShot() {
+        for (String engine : new String[]{"reference", "grid", "lod", "parallel"}) {
+            Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+            table.setEngine(PhysicsEngine.named(engine));
+            table.rack();
+            int[] pockets = new int[1], settled = new int[1];
+            table.addListener(new TableListener() {
+                @Override
+                public void ballPocketed(Table t, Ball ball) { pockets[0]++; }
+
+                @Override
+                public void tableSettled(Table t) { settled[0]++; }
+            });
+            assertTrue(table.isAtRest());
+            assertEquals(15, table.getObjectBallsLeft());
+            table.getBalls()[0].hit(20, 0.02f);
+            assertEquals(1, table.getMovingBallCount());
+            for (int step = 0; step < 5000 && settled[0] == 0; step++) {
+                table.action(1041, 541);
+                long moving = Arrays.stream(table.getBalls()).filter(b -> b.getForce().mag() != 0).count();
+                assertEquals(moving, table.getMovingBallCount(), engine);
+                assertEquals(table.getBalls().length - 1, table.getObjectBallsLeft(), engine);
+            }
+            assertEquals(1, settled[0], engine);
+            assertTrue(table.isAtRest());
+            assertEquals(table.getScore(), pockets[0]);
+            table.action(1041, 541);
+            assertEquals(1, settled[0]);
+        }
+    }
+
+    /**
+     * Tests the GameEventRing class.
+     * It checks whether readers see the events of a break shot in order at their own pace,
+     * and whether a reader falling more than a ring behind counts the lost events.
+     */
+    @Test
+    void gameEventRing_ShouldDeliverEventsToEveryReader() {
+        Table table = new Table(25.0f, 25.0f, 1000.0f, 70.0f);
+        table.setEngine(new GridPhysicsEngine());
+        table.rack();
+        GameEventRing ring = new GameEventRing(1 << 14);
+        table.setEventRing(ring);
+        GameEventRing.Reader stats = ring.newReader(), late = ring.newReader();
+        int[] counts = new int[8];
+        long[] last = {-1};
+        table.getBalls()[0].hit(20, 0.02f);
+        while (!table.isAtRest()) {
+            table.action(1041, 541);
+            stats.poll((sequence, type, step, a, b) -> {
+                assertEquals(last[0] + 1, sequence);
+                assertEquals(table.getStepCount(), step);
+                last[0] = sequence;
+                counts[type]++;
+            }, Integer.MAX_VALUE);
+        }
+        assertEquals(table.getCollisionCount(), counts[GameEventRing.COLLISION]);
+        assertEquals(table.getScore(), counts[GameEventRing.POCKET]);
+        assertEquals(1, counts[GameEventRing.SETTLED]);
+        assertEquals(0, stats.getLost());
+        assertEquals(ring.getPublished(), late.poll((sequence, type, step, a, b) -> {}, Integer.MAX_VALUE));
+
+        GameEventRing small = new GameEventRing(5);
+        assertEquals(8, small.getCapacity());
+        GameEventRing.Reader slow = small.newReader();
+        for (int i = 0; i < 20; i++)
+            small.publish(GameEventRing.POCKET, i, i, 0);
+        List<Integer> seen = new ArrayList<>();
+        assertEquals(8, slow.poll((sequence, type, step, a, b) -> seen.add(a), Integer.MAX_VALUE));
+        assertEquals(List.of(12, 13, 14, 15, 16, 17, 18, 19), seen);
+        assertEquals(12, slow.getLost());
+        assertEquals(0, slow.getBacklog());
+    }
+
+    /**
+     * Tests the GameEventRing class with a publisher and a reader on different threads.
+     * It checks whether every event is either read in order with its own fields or counted as lost.
+     */
+    @Test
+    void gameEventRing_ShouldNotTearEventsAcrossThreads() throws InterruptedException {
+        GameEventRing ring = new GameEventRing(256);
+        GameEventRing.Reader reader = ring.newReader();
+        int total = 200_000;
+        Thread publisher = new Thread(() -> {
+            for (int i = 0; i < total; i++)
+                ring.publish(GameEventRing.COLLISION, i, i, -i);
+        });
+        publisher.start();
+        long[] read = {0}, previous = {-1};
+        while (publisher.isAlive() || reader.getBacklog() > 0) {
+            reader.poll((sequence, type, step, a, b) -> {
+                assertEquals(sequence, step);
+                assertEquals(sequence, a);
+                assertEquals(-a, b);
+                assertTrue(sequence > previous[0]);
+                previous[0] = sequence;
+                read[0]++;
+            }, 64);
+        }
+        publisher.join();
+        assertEquals(total, read[0] + reader.getLost());
+    }
+
+    /**
+     * Tests the TrajectoryWriter and TrajectoryReader classes with a game of several shots.
+     * It checks whether every position is read back exactly, whether the archive is at least
+     * ten times smaller than raw floats, and whether reads of one ball and a range of steps work.
+     */
+    @Test
+    void trajectoryArchive_ShouldReadBackExactPositions(@TempDir Path dir) throws Exception {
+        Table table = new Table(25, 25, 1000, 70);
+        table.rack();
+        Random random = new Random(7);
+        List<float[][]> recorded = new ArrayList<>();
+        Path file = dir.resolve("game.traj");
+        try (TrajectoryWriter writer = new TrajectoryWriter(file)) {
+            for (int shot = 0; shot < 6 && !table.isGameOver(); shot++) {
+                table.getBalls()[0].hit(15 + random.nextFloat() * 10, random.nextFloat() * TWO_PI);
+                do {
+                    table.action(1041, 541);
+                    writer.append(table);
+                    float[][] positions = new float[16][];
+                    for (Ball ball : table.getBalls())
+                        positions[ball.getC()] = new float[]{ball.getX(), ball.getY()};
+                    recorded.add(positions);
+                } while (!table.isAtRest());
+            }
+        }
+        long raw = recorded.size() * 16L * 2 * Float.BYTES;
+        assertTrue(Files.size(file) * 10 <= raw, Files.size(file) + " bytes for " + raw + " raw bytes");
+
+        try (TrajectoryReader reader = new TrajectoryReader(file)) {
+            assertEquals(recorded.size(), reader.getSteps());
+            float[] x = new float[recorded.size()], y = new float[recorded.size()];
+            for (int color = 0; color < 16; color++) {
+                int present = reader.read(color, 0, x, y);
+                int expected = 0;
+                for (int step = 0; step < recorded.size(); step++) {
+                    float[] position = recorded.get(step)[color];
+                    if (position == null) {
+                        assertTrue(Float.isNaN(x[step]));
+                        continue;
+                    }
+                    expected++;
+                    assertEquals(position[0], x[step]);
+                    assertEquals(position[1], y[step]);
+                }
+                assertEquals(expected, present);
+            }
+
+            float[] part = new float[100], partY = new float[100];
+            long from = reader.getSteps() - 50;
+            reader.read(0, from, part, partY);
+            assertEquals(recorded.get((int) from)[0][0], part[0]);
+            assertTrue(Float.isNaN(part[50]));
+
+            for (int block = 0; block < reader.getBlockCount(); block++) {
+                float[] blockX = new float[reader.getBlockSteps(block)], blockY = new float[blockX.length];
+                reader.readBlock(block, 0, blockX, blockY);
+                for (int i = 0; i < blockX.length; i++)
+                    assertTrue(reader.mayVisit(block, 0, blockX[i], blockY[i], blockX[i], blockY[i]));
+            }
+        }
+    }
+
+    /**
+     * Tests the ArchiveQuery class with games recorded by TrajectoryWriter.
+     * It checks the pockets per hole, scratches, shots and won games against the events of the tables,
+     * and whether a heatmap restricted to a region decodes less and counts the same in that region.
+     */
+    @Test
+    void archiveQuery_ShouldMatchTableEvents(@TempDir Path dir) throws Exception {
+        Table template = new Table(25, 25, 1000, 70);
+        long[] pockets = new long[template.getHoles().length];
+        long[] counts = new long[3];
+        List<Path> files = new ArrayList<>();
+        for (int game = 0; game < 9; game++) {
+            Table table = new Table(25, 25, 1000, 70);
+            table.rack();
+            if (game == 0) {
+                // one object ball on the edge of a hole: the first shot wins
+                Hole hole = table.getHoles()[0];
+                table.setBalls(new Ball[]{table.getBalls()[0],
+                        new Ball(new PVector(hole.getX() + 10, hole.getY() + 10), table.getBallSize(), 5)});
+            }
+            table.addListener(new TableListener() {
+                @Override
+                public void ballPocketed(Table table, Ball ball) {
+                    int nearest = 0;
+                    for (int h = 1; h < table.getHoles().length; h++) {
+                        Hole hole = table.getHoles()[h], best = table.getHoles()[nearest];
+                        if (dist(ball.getX(), ball.getY(), hole.getX(), hole.getY()) < dist(ball.getX(), ball.getY(), best.getX(), best.getY()))
+                            nearest = h;
+                    }
+                    pockets[nearest]++;
+                }
+
+                @Override
+                public void whiteBallPocketed(Table table, int count) {
+                    counts[0]++;
+                }
+            });
+            Random random = new Random(game);
+            Path file = dir.resolve("game" + game + ".traj");
+            try (TrajectoryWriter writer = new TrajectoryWriter(file)) {
+                writer.append(table);
+                for (int shot = 0; shot < 12 && !table.isGameOver() && table.getObjectBallsLeft() > 0; shot++) {
+                    table.getBalls()[0].hit(15 + random.nextFloat() * 10, random.nextFloat() * TWO_PI);
+                    counts[1]++;
+                    do {
+                        table.action(1041, 541);
+                        writer.append(table);
+                    } while (!table.isAtRest());
+                }
+            }
+            if (table.getObjectBallsLeft() == 0)
+                counts[2]++;
+            files.add(file);
+        }
+
+        ArchiveQuery.Result all = new ArchiveQuery(template).run(files);
+        assertEquals(9, all.games());
+        assertArrayEquals(pockets, all.pockets());
+        assertEquals(counts[0], all.scratches());
+        assertEquals(counts[1], all.shots());
+        assertEquals(counts[2], all.wonGames());
+        assertEquals(1.0, all.averageMovesToWin());
+        assertTrue(Arrays.stream(all.heatmap()).sum() > 0);
+
+        float cell = template.getBallSize();
+        ArchiveQuery.Result corner = new ArchiveQuery(template).measures(ArchiveQuery.Measure.REST_HEATMAP)
+                .region(25, 25, 25 + 4 * cell, 25 + 4 * cell).run(files);
+        ArchiveQuery.Result heatmap = new ArchiveQuery(template).measures(ArchiveQuery.Measure.REST_HEATMAP).run(files);
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++)
+                assertEquals(heatmap.restCount(column, row), corner.restCount(column, row));
+        }
+        assertTrue(corner.decoded() < heatmap.decoded());
+        assertEquals(0, new ArchiveQuery(template).steps(0, 0).run(files).shots());
+    }
   }
@@ -0,0 +1,202 @@
+package Test;
+
+import Model.Ball;
+import Model.StateDeltaEncoder;
+import Model.Table;
+import View.DirtyRegions;
+import View.FrameChanges;
+import View.ReplayRenderer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The ViewTest class contains unit tests for the View package.
+ * It uses JUnit 5 for testing.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+class ViewTest {
+
+    /**
+     * Tests the add method of the DirtyRegions class.
+     * It checks whether rectangles are rounded out to whole pixels, clipped to the canvas,
+     * and dropped when nothing of them is left on the canvas.
+     */
+    @Test
+    void dirtyRegions_ShouldClipToCanvas() {
+        DirtyRegions regions = new DirtyRegions(100, 50);
+        regions.add(-5.5f, -3, 20.2f, 10);
+        regions.add(90.5f, 40.5f, 120, 60);
+        regions.add(-20, 10, -1, 20);
+        regions.add(10, 60, 20, 70);
+        regions.addCircle(50, 25, 0);
+        assertEquals(2, regions.size());
+        assertRectangle(regions, 0, 0, 0, 21, 10);
+        assertRectangle(regions, 1, 90, 40, 10, 10);
+        assertEquals(310, regions.area());
+
+        regions.clear();
+        assertEquals(0, regions.size());
+        assertEquals(0, regions.area());
+    }
+
+    /**
+     * Tests the merge method of the DirtyRegions class.
+     * It checks whether overlapping rectangles are merged, whether a chain of rectangles that only overlap
+     * through a merged one ends in one rectangle, although merging moves the last rectangle into the freed slot,
+     * and whether rectangles that only share an edge are kept apart.
+     */
+    @Test
+    void dirtyRegions_ShouldMergeOverlappingAndChainedRectangles() {
+        DirtyRegions regions = new DirtyRegions(200, 200);
+        regions.add(0, 0, 10, 10);
+        regions.add(5, 5, 20, 20);
+        regions.add(100, 100, 110, 110);
+        regions.add(18, 18, 30, 30);
+        regions.add(30, 0, 40, 10);
+        regions.merge();
+        assertEquals(3, regions.size());
+        assertRectangle(regions, 0, 0, 0, 30, 30);
+        assertRectangle(regions, 1, 30, 0, 10, 10);
+        assertRectangle(regions, 2, 100, 100, 10, 10);
+        assertEquals(1100, regions.area());
+
+        DirtyRegions next = new DirtyRegions(200, 200);
+        next.add(25, 5, 105, 105);
+        next.addAll(regions);
+        next.merge();
+        assertEquals(1, next.size());
+        assertRectangle(next, 0, 0, 0, 110, 110);
+    }
+
+    /**
+     * Tests the overlaps method of the DirtyRegions class.
+     * It checks circles inside, across the edge, touching the edge and away from a rectangle.
+     */
+    @Test
+    void dirtyRegions_ShouldTellOverlappingCircles() {
+        DirtyRegions regions = new DirtyRegions(200, 200);
+        regions.add(30, 0, 40, 10);
+        assertTrue(regions.overlaps(0, 35, 5, 1));
+        assertTrue(regions.overlaps(0, 45, 5, 6));
+        assertFalse(regions.overlaps(0, 45, 5, 5));
+        assertFalse(regions.overlaps(0, 35, 15, 5));
+        assertFalse(regions.overlaps(0, 100, 100, 20));
+    }
+
+    /**
+     * Tests the begin and endGuide methods of the FrameChanges class.
+     * It checks whether a table at rest with the mouse still leaves no region to draw, whether moving the mouse
+     * only restores the guide, and whether a moved ball adds its old and new square and a pocketed ball its old one.
+     */
+    @Test
+    void frameChanges_ShouldOnlyMarkWhatChanged() {
+        Table table = new Table(25, 25, 1000, 70);
+        table.rack();
+        Ball white = table.getBalls()[0];
+        FrameChanges changes = new FrameChanges(1041, 541, 2);
+        assertEquals(16, changes.begin(table.getBalls()).size());
+        assertTrue(changes.endGuide(true, white.getX(), white.getY(), 600, 300));
+        changes.addGuide(white.getX(), white.getY(), 600, 300);
+
+        for (int frame = 0; frame < 3; frame++) {
+            assertEquals(0, changes.begin(table.getBalls()).size());
+            assertFalse(changes.endGuide(true, white.getX(), white.getY(), 600, 300));
+            assertEquals(0, changes.getDirty().size());
+        }
+
+        assertEquals(0, changes.begin(table.getBalls()).size());
+        assertTrue(changes.endGuide(true, white.getX(), white.getY(), 610, 300));
+        assertEquals(1, changes.getDirty().size());
+        changes.addGuide(white.getX(), white.getY(), 610, 300);
+
+        Ball moved = table.getBalls()[5];
+        moved.getLocation().add(40, 0);
+        assertEquals(2, changes.begin(table.getBalls()).size());
+        assertTrue(changes.endGuide(true, white.getX(), white.getY(), 610, 300));
+
+        Ball[] pocketed = new Ball[15];
+        System.arraycopy(table.getBalls(), 0, pocketed, 0, 5);
+        System.arraycopy(table.getBalls(), 6, pocketed, 5, 10);
+        DirtyRegions dirty = changes.begin(pocketed);
+        assertEquals(1, dirty.size());
+        assertTrue(dirty.overlaps(0, moved.getX(), moved.getY(), 1));
+        assertFalse(changes.endGuide(false, white.getX(), white.getY(), 610, 300));
+    }
+
+    /**
+     * Tests the export method of the ReplayRenderer class on a short recorded break.
+     * It checks whether one image is written per frame, named in frame order, and whether several workers
+     * with a small window write the same images as one worker.
+     */
+    @Test
+    void replayRenderer_ShouldExportFramesInOrder(@TempDir Path dir) throws Exception {
+        Table table = new Table(25, 25, 1000, 70);
+        table.rack();
+        table.getBalls()[0].hit(15, 0.02f);
+        StateDeltaEncoder encoder = new StateDeltaEncoder(20);
+        List<ByteBuffer> frames = new ArrayList<>();
+        for (int tick = 0; tick < 70; tick++) {
+            table.action(1041, 541);
+            ByteBuffer frame = ByteBuffer.allocate(StateDeltaEncoder.maxFrameBytes(16));
+            encoder.encode(table, tick, frame);
+            frames.add(frame.flip());
+        }
+
+        Table template = new Table(25, 25, 1000, 70);
+        Path one = dir.resolve("one"), three = dir.resolve("three");
+        assertEquals(70, new ReplayRenderer(template, 1041, 541, 1, 1).export(frames, one));
+        assertEquals(70, new ReplayRenderer(template, 1041, 541, 3, 1).export(frames, three));
+        List<String> names = list(one);
+        assertEquals(70, names.size());
+        for (int i = 0; i < names.size(); i++)
+            assertEquals(String.format("frame-%06d.png", i), names.get(i));
+        assertEquals(names, list(three));
+        for (String name : names)
+            assertArrayEquals(Files.readAllBytes(one.resolve(name)), Files.readAllBytes(three.resolve(name)));
+        assertFalse(Arrays.equals(Files.readAllBytes(one.resolve(names.get(0))),
+                Files.readAllBytes(one.resolve(names.get(69)))));
+    }
+
+    /**
+     * List the names of the files of a directory in order.
+     *
+     * @param dir the directory
+     * @return the sorted file names
+     * @throws IOException if the directory cannot be read
+     */
+    private static List<String> list(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    /**
+     * Check the position and size of a rectangle.
+     *
+     * @param regions the regions
+     * @param i index of the rectangle
+     * @param x expected left edge
+     * @param y expected top edge
+     * @param width expected width
+     * @param height expected height
+     */
+    private static void assertRectangle(DirtyRegions regions, int i, float x, float y, float width, float height) {
+        assertEquals(x, regions.getX(i));
+        assertEquals(y, regions.getY(i));
+        assertEquals(width, regions.getWidth(i));
+        assertEquals(height, regions.getHeight(i));
+    }
+}
@@ -4,7 +4,10 @@ import Controller.GameState;
 import Controller.Interface_controller;
 import Model.Ball;
 import Model.Hole;
+import Model.SpatialIndex;
+import Model.Table;
 import processing.core.PApplet;
+import processing.core.PGraphics;
 import processing.core.PVector;
 
 /**
@@ -42,6 +45,47 @@ public class BillardView extends PApplet implements Interface_view {
      */
     protected boolean canMove = true;
 
+    /**
+     * Cushion, felt and head string of the table, drawn once in the background while the welcome page is shown.
+     * Null until it is ready, the table is then drawn shape by shape.
+     */
+    private volatile PGraphics tableLayer;
+
+    /**
+     * Share of the canvas above which a frame is drawn whole instead of region by region
+     */
+    private static final float FULL_REDRAW_SHARE = 0.5f;
+
+    /**
+     * Pixels added around a ball for its outline and anti-aliasing
+     */
+    private static final float BALL_MARGIN = 2;
+
+    /**
+     * Pixels added around the shooting guide for its stroke and arrow head
+     */
+    private static final float GUIDE_MARGIN = 12;
+
+    /**
+     * Changes of the balls and the shooting guide since the last frame
+     */
+    private final FrameChanges changes;
+
+    /**
+     * Regions to restore from the table layer and draw again in the current frame
+     */
+    private final DirtyRegions dirty;
+
+    /**
+     * Flag indicating whether the next table frame must be drawn whole, after another screen was shown
+     */
+    private boolean fullRedraw = true;
+
+    /**
+     * Score, moves and remaining shots shown by the last frame
+     */
+    private int shownScore = -1, shownMoves = -1, shownShots = -1;
+
 
     /**
      * Constructor for the BillardView class.
@@ -51,6 +95,8 @@ public class BillardView extends PApplet implements Interface_view {
      */
     public BillardView(int width, int height) {
         setSize(width, height);
+        changes = new FrameChanges(width, height, BALL_MARGIN);
+        dirty = changes.getDirty();
     }
 
     /**
@@ -65,9 +111,38 @@ public class BillardView extends PApplet implements Interface_view {
 
     /**
      * Setup method called once at the beginning of the PApplet.
+     * Starts drawing the table layer in the background.
      */
     public void setup() {
+        Thread.ofVirtual().name("billard-table-layer").start(this::prerenderTable);
+    }
+
+    /**
+     * Draw the parts of the table that never change into an offscreen layer.
+     */
+    private void prerenderTable() {
+        PGraphics layer = createGraphics(width, height);
+        layer.beginDraw();
+        drawTableBase(layer, controller.getModel());
+        layer.endDraw();
+        tableLayer = layer;
+    }
+
+    /**
+     * Draw the cushion, the felt and the head string of a table.
+     *
+     * @param g Graphics to draw into
+     * @param table The billiard table model
+     */
+    static void drawTableBase(PGraphics g, Table table) {
+        g.fill(200, 150, 100);
+        g.rect(table.getMyX() - table.getHoleSize() / 2, table.getMyY() - table.getHoleSize() / 2, table.getMyW() + table.getHoleSize(), table.getMyH() + table.getHoleSize());
 
+        g.fill(40, 150, 100);
+        g.rect(table.getMyX(), table.getMyY(), table.getMyW(), table.getMyH());
+
+        g.line(table.getMyX() + table.getMyW() / 4, table.getMyY(),
+                table.getMyX() + table.getMyW() / 4, table.getMyY() + table.getMyH());
     }
 
     /**
@@ -85,6 +160,22 @@ public class BillardView extends PApplet implements Interface_view {
         controller.handleMouseClicksByGameState();
     }
 
+    /**
+     * KeyPressed method called when a key is pressed.
+     * U undoes the last shot, P pauses or resumes the game, the arrow keys rewind the paused shot.
+     */
+    public void keyPressed() {
+        if (key == 'u' || key == 'U') {
+            controller.undoShot();
+        } else if (key == 'p' || key == 'P') {
+            controller.togglePause();
+        } else if (key == CODED && keyCode == LEFT) {
+            controller.scrub(-1);
+        } else if (key == CODED && keyCode == RIGHT) {
+            controller.scrub(1);
+        }
+    }
+
     /**
      * Method to handle clicks in the START game state.
      */
@@ -134,43 +225,96 @@ public class BillardView extends PApplet implements Interface_view {
      * Method to display the billiard table and game-related information.
      */
     public void TableDisplay() {
+        Table table = controller.getModel();
+        PGraphics layer = tableLayer;
+
+        // only the balls, counters and guide that changed since the last frame are restored and drawn again
+        changes.begin(table.getBalls());
+        if (table.getScore() != shownScore || table.getMoves() != shownMoves || table.getRemainingShots() != shownShots) {
+            addCounters(dirty);
+            shownScore = table.getScore();
+            shownMoves = table.getMoves();
+            shownShots = table.getRemainingShots();
+        }
+        Ball white = table.getBalls()[0];
+        changes.endGuide(table.isAtRest() && !controller.isPaused(), white.getX(), white.getY(), mouseX, mouseY);
+
+        if (layer == null || fullRedraw || dirty.area() > FULL_REDRAW_SHARE * width * height) {
+            if (layer != null)
+                image(layer, 0, 0);
+            else
+                drawTableBase(g, table);
+            drawTableContents(table, -1);
+            changes.redrawAll();
+            fullRedraw = layer == null;
+            return;
+        }
+        for (int i = 0; i < dirty.size(); i++) {
+            clip(dirty.getX(i), dirty.getY(i), dirty.getWidth(i), dirty.getHeight(i));
+            image(layer, 0, 0);
+            drawTableContents(table, i);
+        }
+        noClip();
+    }
 
-        fill(200, 150, 100);
-        rect(controller.getModel().getMyX() - controller.getModel().getHoleSize() / 2, controller.getModel().getMyY() - controller.getModel().getHoleSize() / 2, controller.getModel().getMyW() + controller.getModel().getHoleSize(), controller.getModel().getMyH() + controller.getModel().getHoleSize());
-
-        fill(40, 150, 100);
-        rect(controller.getModel().getMyX(), controller.getModel().getMyY(), controller.getModel().getMyW(), controller.getModel().getMyH());
-
-        push();
-        fill(255);
-        textSize(60);
-        noStroke();
-        textAlign(CENTER, CENTER);
-
-        text(controller.getModel().getScore(), width / 2 - 400, height / 2 - 180);
-        text(controller.getModel().getMoves(), width / 2 - 300, height / 2 - 180);
-
-        textSize(20);
-        fill(200);
-
-        text("pockets", width / 2 - 400, height / 2 - 220);
-        text("shots", width / 2 - 300, height / 2 - 220);
-
-        fill(255); // Couleur rouge
-        textSize(32);
-         text("Heart  " + controller.getModel().getRemainingShots(), width - 120, height/2 -220 );
-        pop();
+    /**
+     * Draw the counters, the holes and the balls of the table, all of them or those overlapping a dirty region.
+     *
+     * @param table The billiard table model
+     * @param region Index of the dirty region, -1 for the whole table
+     */
+    private void drawTableContents(Table table, int region) {
+        drawCounters(g, table);
 
-        for (Hole hole : controller.getModel().getHoles()) {
-            HoleDisplay(hole.getX(), hole.getY(), hole.getHoleSize(), hole.getHoleSize());
+        for (Hole hole : table.getHoles()) {
+            if (region < 0 || dirty.overlaps(region, hole.getX(), hole.getY(), hole.getHoleSize() / 2))
+                HoleDisplay(hole.getX(), hole.getY(), hole.getHoleSize(), hole.getHoleSize());
         }
-        line(controller.getModel().getMyX() + controller.getModel().getMyW() / 4, controller.getModel().getMyY(),
-                controller.getModel().getMyX() + controller.getModel().getMyW() / 4, controller.getModel().getMyY() + controller.getModel().getMyH());
-        for (Ball ball : controller.getModel().getBalls()) {
+        for (Ball ball : table.getBalls()) {
+            if (region >= 0 && !dirty.overlaps(region, ball.getX(), ball.getY(), ball.getSize() / 2 + BALL_MARGIN))
+                continue;
             color = ball.getC();
             BallDisplay(ball.getX(), ball.getY(), ball.getSize(), ball.getSize());
         }
+    }
 
+    /**
+     * Draw the score, moves and remaining shots counters of a table.
+     *
+     * @param g Graphics to draw into
+     * @param table The billiard table model
+     */
+    static void drawCounters(PGraphics g, Table table) {
+        int width = g.width, height = g.height;
+        g.push();
+        g.fill(255);
+        g.textSize(60);
+        g.noStroke();
+        g.textAlign(CENTER, CENTER);
+
+        g.text(table.getScore(), width / 2 - 400, height / 2 - 180);
+        g.text(table.getMoves(), width / 2 - 300, height / 2 - 180);
+
+        g.textSize(20);
+        g.fill(200);
+
+        g.text("pockets", width / 2 - 400, height / 2 - 220);
+        g.text("shots", width / 2 - 300, height / 2 - 220);
+
+        g.fill(255); // Couleur rouge
+        g.textSize(32);
+        g.text("Heart  " + table.getRemainingShots(), width - 120, height/2 -220 );
+        g.pop();
+    }
+
+    /**
+     * Add the regions of the score, moves and remaining shots counters.
+     *
+     * @param regions The regions to add to
+     */
+    private void addCounters(DirtyRegions regions) {
+        regions.add(width / 2 - 460, height / 2 - 240, width / 2 - 240, height / 2 - 140);
+        regions.add(width - 220, height / 2 - 245, width - 20, height / 2 - 195);
     }
 
     /**
@@ -182,8 +326,22 @@ public class BillardView extends PApplet implements Interface_view {
      * @param h Height of the ball
      */
     public void BallDisplay(float x, float y, float w, float h) {
-        filler(color);
-        ellipse(x, y, w, h);
+        drawBall(g, color, x, y, w, h);
+    }
+
+    /**
+     * Draw a billiard ball.
+     *
+     * @param g Graphics to draw into
+     * @param color Color code of the ball
+     * @param x X-coordinate of the ball
+     * @param y Y-coordinate of the ball
+     * @param w Width of the ball
+     * @param h Height of the ball
+     */
+    static void drawBall(PGraphics g, int color, float x, float y, float w, float h) {
+        fillBall(g, color);
+        g.ellipse(x, y, w, h);
     }
 
     /**
@@ -195,8 +353,22 @@ public class BillardView extends PApplet implements Interface_view {
      * @param h Height of the hole
      */
     public void HoleDisplay(float x, float y, float w, float h) {
-        fill(color);
-        ellipse(x, y, w - 10, h - 10);
+        drawHole(g, color, x, y, w, h);
+    }
+
+    /**
+     * Draw a hole of the table.
+     *
+     * @param g Graphics to draw into
+     * @param color Gray level of the hole
+     * @param x X-coordinate of the hole
+     * @param y Y-coordinate of the hole
+     * @param w Width of the hole
+     * @param h Height of the hole
+     */
+    static void drawHole(PGraphics g, int color, float x, float y, float w, float h) {
+        g.fill(color);
+        g.ellipse(x, y, w - 10, h - 10);
     }
 
     /**
@@ -205,57 +377,67 @@ public class BillardView extends PApplet implements Interface_view {
      * @param Color Color code for filling the shape
      */
     public void filler(int Color) {
+        fillBall(g, Color);
+    }
+
+    /**
+     * Set the fill of a graphics to the color of a ball.
+     *
+     * @param g Graphics to draw into
+     * @param Color Color code of the ball
+     */
+    static void fillBall(PGraphics g, int Color) {
         switch (Color) {
             case 0:
-                fill(255);
+                g.fill(255);
                 break;
             case 1:
-                fill(150, 150, 0);
+                g.fill(150, 150, 0);
                 break;
             case 2:
-                fill(0, 0, 150);
+                g.fill(0, 0, 150);
                 break;
             case 3:
-                fill(150, 0, 0);
+                g.fill(150, 0, 0);
                 break;
             case 4:
-                fill(150, 0, 150);
+                g.fill(150, 0, 150);
                 break;
             case 5:
-                fill(250, 150, 0);
+                g.fill(250, 150, 0);
                 break;
             case 6:
-                fill(0, 150, 0);
+                g.fill(0, 150, 0);
                 break;
             case 7:
-                fill(150, 100, 50);
+                g.fill(150, 100, 50);
                 break;
             case 8:
-                fill(0);
+                g.fill(0);
                 break;
             case 9:
-                fill(250, 250, 50);
+                g.fill(250, 250, 50);
                 break;
             case 10:
-                fill(100, 100, 250);
+                g.fill(100, 100, 250);
                 break;
             case 11:
-                fill(250, 50, 50);
+                g.fill(250, 50, 50);
                 break;
             case 12:
-                fill(250, 50, 250);
+                g.fill(250, 50, 250);
                 break;
             case 13:
-                fill(255, 200, 50);
+                g.fill(255, 200, 50);
                 break;
             case 14:
-                fill(100, 250, 100);
+                g.fill(100, 250, 100);
                 break;
             case 15:
-                fill(200, 150, 100);
+                g.fill(200, 150, 100);
                 break;
             default:
-                fill(255, 0, 0);
+                g.fill(255, 0, 0);
         }
     }
 
@@ -282,29 +464,39 @@ public class BillardView extends PApplet implements Interface_view {
      * Method to handle movement and display the shooting guide.
      */
     public void handleMovementAndGuide() {
-        boolean canMove = true;
-        for (int i = 0; i < controller.getModel().getBalls().length; i++) {
-            if (controller.getModel().getBalls()[i].getForce().mag() != 0) {
-                canMove = false;
-            }
-        }
+        boolean canMove = controller.getModel().isAtRest();
         if (canMove) {
-            push();
-            colorMode(HSB);
-            float dist = sqrt(pow((controller.getModel().getBalls()[0].getX() - mouseX), 2) +
-                    pow((controller.getModel().getBalls()[0].getY() - mouseY), 2));
-            float guideHue = map(dist, 0, 1040, 0, 360);
-            int guideColor = color(guideHue, 100, 90);
-            float guideWidth = map(dist, 0, 1040, 1, 7);
-            colorMode(RGB);
-
-            stroke(guideColor);
-            strokeWeight(guideWidth);
-            arrow(controller.getModel().getBalls()[0].getX(), controller.getModel().getBalls()[0].getY(), mouseX, mouseY);
-            pop();
-
+            // the canvas still shows the guide of the last frame unless it changed or was covered
+            if (changes.isGuideDue()) {
+                push();
+                colorMode(HSB);
+                float dist = sqrt(pow((controller.getModel().getBalls()[0].getX() - mouseX), 2) +
+                        pow((controller.getModel().getBalls()[0].getY() - mouseY), 2));
+                float guideHue = map(dist, 0, 1040, 0, 360);
+                int guideColor = color(guideHue, 100, 90);
+                float guideWidth = map(dist, 0, 1040, 1, 7);
+                colorMode(RGB);
+
+                stroke(guideColor);
+                strokeWeight(guideWidth);
+                arrow(controller.getModel().getBalls()[0].getX(), controller.getModel().getBalls()[0].getY(), mouseX, mouseY);
+
+                // outline of the white ball where it would touch the first ball along the aim
+                Table table = controller.getModel();
+                SpatialIndex.RayHit hit = table.getSpatialIndex().raycast(table.getBalls()[0].getX(), table.getBalls()[0].getY(),
+                        mouseX - table.getBalls()[0].getX(), mouseY - table.getBalls()[0].getY(), table.getBallSize(), 0);
+                if (hit != null) {
+                    noFill();
+                    strokeWeight(1);
+                    ellipse(hit.x(), hit.y(), table.getBallSize(), table.getBallSize());
+                    changes.addGuideCircle(hit.x(), hit.y(), table.getBallSize() / 2 + BALL_MARGIN);
+                }
+                pop();
+                float x = table.getBalls()[0].getX(), y = table.getBalls()[0].getY();
+                changes.addGuide(min(x, mouseX) - GUIDE_MARGIN, min(y, mouseY) - GUIDE_MARGIN,
+                        max(x, mouseX) + GUIDE_MARGIN, max(y, mouseY) + GUIDE_MARGIN);
+            }
             resetCanMove();
-
         }
     }
 
@@ -314,7 +506,7 @@ public class BillardView extends PApplet implements Interface_view {
     public void handleMouseReleased() {
         System.out.println("Move release");
         System.out.println("CanMove: " + canMove);
-        if (canMove) {
+        if (canMove && !controller.isPaused()) {
             PVector mover = new PVector(mouseX - controller.getModel().getBalls()[0].getX(), mouseY - controller.getModel().getBalls()[0].getY());
             controller.getModel().getBalls()[0].hit(mover.mag() / 25, mover.heading());
             canMove = false;
@@ -333,6 +525,7 @@ public class BillardView extends PApplet implements Interface_view {
      * Method to display the welcome page.
      */
     public void welcomePage() {
+        fullRedraw = true;
         background(198, 187, 123);
         fill(color);
         textSize(64);
@@ -345,6 +538,7 @@ public class BillardView extends PApplet implements Interface_view {
      * Method to display the win game message.
      */
     public void winGameDraw() {
+        fullRedraw = true;
         background(198, 187, 123);
         fill(color);
         textSize(64);
@@ -356,6 +550,7 @@ public class BillardView extends PApplet implements Interface_view {
      * Method to display the game over message.
      */
     public void LostGamedraw(){
+        fullRedraw = true;
         background(198, 187, 123);
         fill(color);
         textSize(64);
@@ -446,6 +641,7 @@ public class BillardView extends PApplet implements Interface_view {
      * Method to display game instructions.
      */
     public void displayInstructions() {
+        fullRedraw = true;
         background(108, 144, 160);
 
         fill(255);
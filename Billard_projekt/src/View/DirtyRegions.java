@@ -0,0 +1,181 @@
+package View;
+
+import java.util.Arrays;
+
+/**
+ * The DirtyRegions class collects the rectangles of the canvas that changed between two frames.
+ * Rectangles are kept inside the canvas, and overlapping ones are merged so that no pixel is redrawn twice.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class DirtyRegions {
+
+    /**
+     * Size of the canvas
+     */
+    private final float width, height;
+
+    /**
+     * Corners of the rectangles: left, top, right, bottom, four values per rectangle
+     */
+    private float[] corners = new float[4 * 32];
+
+    /**
+     * Number of rectangles
+     */
+    private int count;
+
+    /**
+     * Constructor for the DirtyRegions class.
+     *
+     * @param width Width of the canvas
+     * @param height Height of the canvas
+     */
+    public DirtyRegions(float width, float height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Add a rectangle, clipped to the canvas and rounded out to whole pixels.
+     *
+     * @param left Left edge
+     * @param top Top edge
+     * @param right Right edge
+     * @param bottom Bottom edge
+     */
+    public void add(float left, float top, float right, float bottom) {
+        left = Math.max(0, (float) Math.floor(left));
+        top = Math.max(0, (float) Math.floor(top));
+        right = Math.min(width, (float) Math.ceil(right));
+        bottom = Math.min(height, (float) Math.ceil(bottom));
+        if (right <= left || bottom <= top)
+            return;
+        if (4 * count == corners.length)
+            corners = Arrays.copyOf(corners, corners.length * 2);
+        corners[4 * count] = left;
+        corners[4 * count + 1] = top;
+        corners[4 * count + 2] = right;
+        corners[4 * count + 3] = bottom;
+        count++;
+    }
+
+    /**
+     * Add the square around a circle.
+     *
+     * @param x X-coordinate of the centre
+     * @param y Y-coordinate of the centre
+     * @param radius Radius of the circle, its outline included
+     */
+    public void addCircle(float x, float y, float radius) {
+        add(x - radius, y - radius, x + radius, y + radius);
+    }
+
+    /**
+     * Add all rectangles of other regions.
+     *
+     * @param other The other regions
+     */
+    public void addAll(DirtyRegions other) {
+        for (int i = 0; i < other.count; i++)
+            add(other.corners[4 * i], other.corners[4 * i + 1], other.corners[4 * i + 2], other.corners[4 * i + 3]);
+    }
+
+    /**
+     * Replace overlapping rectangles by their bounding box until no two rectangles overlap.
+     */
+    public void merge() {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < count && !merged; i++) {
+                for (int j = i + 1; j < count; j++) {
+                    if (corners[4 * i] < corners[4 * j + 2] && corners[4 * j] < corners[4 * i + 2]
+                            && corners[4 * i + 1] < corners[4 * j + 3] && corners[4 * j + 1] < corners[4 * i + 3]) {
+                        corners[4 * i] = Math.min(corners[4 * i], corners[4 * j]);
+                        corners[4 * i + 1] = Math.min(corners[4 * i + 1], corners[4 * j + 1]);
+                        corners[4 * i + 2] = Math.max(corners[4 * i + 2], corners[4 * j + 2]);
+                        corners[4 * i + 3] = Math.max(corners[4 * i + 3], corners[4 * j + 3]);
+                        count--;
+                        System.arraycopy(corners, 4 * count, corners, 4 * j, 4);
+                        merged = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of pixels covered by the rectangles, counted once per rectangle.
+     *
+     * @return The area
+     */
+    public float area() {
+        float area = 0;
+        for (int i = 0; i < count; i++)
+            area += (corners[4 * i + 2] - corners[4 * i]) * (corners[4 * i + 3] - corners[4 * i + 1]);
+        return area;
+    }
+
+    /**
+     * Check if a circle overlaps a rectangle.
+     *
+     * @param i Index of the rectangle
+     * @param x X-coordinate of the centre
+     * @param y Y-coordinate of the centre
+     * @param radius Radius of the circle
+     * @return True if the square around the circle overlaps the rectangle, false otherwise
+     */
+    public boolean overlaps(int i, float x, float y, float radius) {
+        return x - radius < corners[4 * i + 2] && x + radius > corners[4 * i]
+                && y - radius < corners[4 * i + 3] && y + radius > corners[4 * i + 1];
+    }
+
+    /**
+     * Remove all rectangles.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Get the number of rectangles.
+     *
+     * @return The number of rectangles
+     */
+    public int size() { return count; }
+
+    /**
+     * Get the left edge of a rectangle.
+     *
+     * @param i Index of the rectangle
+     * @return The left edge
+     */
+    public float getX(int i) { return corners[4 * i]; }
+
+    /**
+     * Get the top edge of a rectangle.
+     *
+     * @param i Index of the rectangle
+     * @return The top edge
+     */
+    public float getY(int i) { return corners[4 * i + 1]; }
+
+    /**
+     * Get the width of a rectangle.
+     *
+     * @param i Index of the rectangle
+     * @return The width
+     */
+    public float getWidth(int i) { return corners[4 * i + 2] - corners[4 * i]; }
+
+    /**
+     * Get the height of a rectangle.
+     *
+     * @param i Index of the rectangle
+     * @return The height
+     */
+    public float getHeight(int i) { return corners[4 * i + 3] - corners[4 * i + 1]; }
+}
@@ -0,0 +1,206 @@
+package View;
+
+import Model.Ball;
+
+import java.util.Arrays;
+
+/**
+ * The FrameChanges class finds the regions of the canvas a table frame has to draw again.
+ * A ball is only drawn again when it moved, was pocketed or appeared since the last frame, and the shooting guide
+ * only when it changed or another region may have covered it, so a table at rest with the mouse still draws nothing.
+ * The balls of two frames are matched by identity and in order, since pocketed balls leave the ball array of a table
+ * without reordering it; a respawned white ball is a new ball.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class FrameChanges {
+
+    /**
+     * Pixels added around a ball for its outline and anti-aliasing
+     */
+    private final float margin;
+
+    /**
+     * Regions to restore from the table layer and draw again in the current frame
+     */
+    private final DirtyRegions dirty;
+
+    /**
+     * Regions covered by the shooting guide drawn in the last frame it was drawn in
+     */
+    private final DirtyRegions guide;
+
+    /**
+     * Balls of the last frame
+     */
+    private Ball[] shown = new Ball[0];
+
+    /**
+     * Centres and radii, margin included, the balls of the last frame were drawn at
+     */
+    private float[] shownX = new float[0], shownY = new float[0], shownRadius = new float[0];
+
+    /**
+     * Number of balls of the last frame
+     */
+    private int count;
+
+    /**
+     * Flag indicating whether the guide was shown in the last frame
+     */
+    private boolean guideShown;
+
+    /**
+     * White ball and mouse position the guide of the last frame was drawn for
+     */
+    private float guideX, guideY, aimX, aimY;
+
+    /**
+     * Flag indicating whether the guide must be drawn in the current frame
+     */
+    private boolean guideDue;
+
+    /**
+     * Constructor for the FrameChanges class.
+     *
+     * @param width Width of the canvas
+     * @param height Height of the canvas
+     * @param margin Pixels added around a ball for its outline and anti-aliasing
+     */
+    public FrameChanges(float width, float height, float margin) {
+        this.margin = margin;
+        dirty = new DirtyRegions(width, height);
+        guide = new DirtyRegions(width, height);
+    }
+
+    /**
+     * Start a frame with the regions of the balls that changed since the last frame: the old and new square
+     * of a ball that moved, the old square of a ball that vanished and the new square of a ball that appeared.
+     *
+     * @param balls The balls of the current frame
+     * @return The regions of the current frame, more of them may be added before the guide ends the frame
+     */
+    public DirtyRegions begin(Ball[] balls) {
+        dirty.clear();
+        int j = 0;
+        for (Ball ball : balls) {
+            int k = j;
+            while (k < count && shown[k] != ball)
+                k++;
+            if (k == count) {
+                dirty.addCircle(ball.getX(), ball.getY(), ball.getSize() / 2 + margin);
+                continue;
+            }
+            for (; j < k; j++)
+                dirty.addCircle(shownX[j], shownY[j], shownRadius[j]);
+            if (ball.getX() != shownX[k] || ball.getY() != shownY[k] || ball.getSize() / 2 + margin != shownRadius[k]) {
+                dirty.addCircle(shownX[k], shownY[k], shownRadius[k]);
+                dirty.addCircle(ball.getX(), ball.getY(), ball.getSize() / 2 + margin);
+            }
+            j = k + 1;
+        }
+        for (; j < count; j++)
+            dirty.addCircle(shownX[j], shownY[j], shownRadius[j]);
+        remember(balls);
+        return dirty;
+    }
+
+    /**
+     * Keep the balls of the current frame and where they are drawn.
+     *
+     * @param balls The balls of the current frame
+     */
+    private void remember(Ball[] balls) {
+        if (shown.length < balls.length) {
+            shown = new Ball[balls.length];
+            shownX = new float[balls.length];
+            shownY = new float[balls.length];
+            shownRadius = new float[balls.length];
+        }
+        if (count > balls.length)
+            Arrays.fill(shown, balls.length, count, null);
+        count = balls.length;
+        for (int i = 0; i < count; i++) {
+            shown[i] = balls[i];
+            shownX[i] = balls[i].getX();
+            shownY[i] = balls[i].getY();
+            shownRadius[i] = balls[i].getSize() / 2 + margin;
+        }
+    }
+
+    /**
+     * End a frame with the shooting guide, once all other regions of the frame were added, and merge the regions.
+     * The guide of the last frame is restored and must be drawn again if it changed, or if any other region
+     * of the frame is restored, since that region may cover part of it.
+     *
+     * @param visible True if the guide is shown in the current frame
+     * @param x X-coordinate of the white ball
+     * @param y Y-coordinate of the white ball
+     * @param aimX X-coordinate of the mouse
+     * @param aimY Y-coordinate of the mouse
+     * @return True if the guide must be drawn in the current frame
+     */
+    public boolean endGuide(boolean visible, float x, float y, float aimX, float aimY) {
+        boolean same = visible == guideShown
+                && (!visible || x == guideX && y == guideY && aimX == this.aimX && aimY == this.aimY);
+        guideDue = false;
+        if (!same || dirty.size() > 0) {
+            dirty.addAll(guide);
+            guide.clear();
+            guideDue = visible;
+        }
+        guideShown = visible;
+        guideX = x;
+        guideY = y;
+        this.aimX = aimX;
+        this.aimY = aimY;
+        dirty.merge();
+        return guideDue;
+    }
+
+    /**
+     * Note that the current frame is drawn whole, so the guide must be drawn again if it is shown.
+     */
+    public void redrawAll() {
+        guide.clear();
+        guideDue = guideShown;
+    }
+
+    /**
+     * Check if the guide must be drawn in the current frame.
+     *
+     * @return True if the guide must be drawn, false if the canvas still shows it or it is hidden
+     */
+    public boolean isGuideDue() { return guideDue; }
+
+    /**
+     * Add a rectangle covered by the guide drawn in the current frame.
+     *
+     * @param left Left edge
+     * @param top Top edge
+     * @param right Right edge
+     * @param bottom Bottom edge
+     */
+    public void addGuide(float left, float top, float right, float bottom) {
+        guide.add(left, top, right, bottom);
+    }
+
+    /**
+     * Add the square around a circle covered by the guide drawn in the current frame.
+     *
+     * @param x X-coordinate of the centre
+     * @param y Y-coordinate of the centre
+     * @param radius Radius of the circle, its outline included
+     */
+    public void addGuideCircle(float x, float y, float radius) {
+        guide.addCircle(x, y, radius);
+    }
+
+    /**
+     * Get the regions of the current frame.
+     *
+     * @return The regions to restore from the table layer and draw again
+     */
+    public DirtyRegions getDirty() { return dirty; }
+}
@@ -0,0 +1,305 @@
+package View;
+
+import Model.Ball;
+import Model.Hole;
+import Model.StateDeltaDecoder;
+import Model.Table;
+import processing.awt.PGraphicsJava2D;
+import processing.core.PFont;
+import processing.core.PGraphics;
+
+import javax.imageio.ImageIO;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ReplayRenderer class exports a recorded game to a sequence of PNG images, without a window.
+ *
+ * A recorded game is the list of frames written by StateDeltaEncoder. The frames are cut into chunks of
+ * CHUNK_FRAMES frames, and worker threads take the chunks in order. A worker decodes its chunk from the keyframe
+ * before it into its own table, draws every frame into its own offscreen buffer with the drawing code
+ * of BillardView, and encodes it as PNG. The calling thread writes the encoded chunks to disk in order.
+ * At most a window of chunks is rendered ahead of the last written one, so memory stays bounded
+ * whatever the length of the game.
+ *
+ * As on screen, the holes take the gray level of the color code of the last ball drawn.
+ * Frames before the first keyframe show an empty table.
+ *
+ * @author Tcheumen Nanseu Lionel
+ * @version 1.0
+ */
+public class ReplayRenderer {
+
+    /**
+     * Number of frames rendered by one task
+     */
+    static final int CHUNK_FRAMES = 32;
+
+    /**
+     * Table providing the geometry and the holes
+     */
+    private final Table template;
+
+    /**
+     * Size of the images
+     */
+    private final int width, height;
+
+    /**
+     * Number of worker threads
+     */
+    private final int workers;
+
+    /**
+     * Largest number of chunks rendered but not written yet
+     */
+    private final int window;
+
+    /**
+     * Constructor for the ReplayRenderer class.
+     *
+     * @param template : Table with the geometry of the recorded table
+     * @param width : Width of the images
+     * @param height : Height of the images
+     * @param workers : Number of worker threads
+     * @param window : Largest number of chunks rendered ahead of the last written one
+     */
+    public ReplayRenderer(Table template, int width, int height, int workers, int window) {
+        if (workers < 1 || window < 1)
+            throw new IllegalArgumentException("workers and window must be positive");
+        this.template = template;
+        this.width = width;
+        this.height = height;
+        this.workers = workers;
+        this.window = window;
+    }
+
+    /**
+     * Render the frames of a recorded game into a directory, as frame-000000.png, frame-000001.png and so on.
+     *
+     * @param frames : Frames of the game written by StateDeltaEncoder, one buffer per frame
+     * @param dir : Directory receiving the images
+     * @return : The number of images written
+     * @throws IOException : If an image cannot be written
+     * @throws InterruptedException : If the calling thread is interrupted
+     */
+    public int export(List<ByteBuffer> frames, Path dir) throws IOException, InterruptedException {
+        Files.createDirectories(dir);
+        int[] keyframes = keyframesBefore(frames);
+        Export export = new Export((frames.size() + CHUNK_FRAMES - 1) / CHUNK_FRAMES);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < Math.min(workers, export.chunks.length); w++)
+            threads.add(Thread.ofPlatform().name("billard-replay-" + w).daemon().start(() -> work(frames, keyframes, export)));
+        try {
+            for (int chunk = 0; chunk < export.chunks.length; chunk++) {
+                byte[][] images = export.take(chunk);
+                for (int i = 0; i < images.length; i++)
+                    Files.write(dir.resolve(String.format("frame-%06d.png", chunk * CHUNK_FRAMES + i)), images[i]);
+            }
+        } finally {
+            export.fail(null);
+            for (Thread thread : threads)
+                thread.join();
+        }
+        return frames.size();
+    }
+
+    /**
+     * Find for every frame the last keyframe at or before it.
+     *
+     * @param frames : Frames of the game
+     * @return : The index of the keyframe for every frame, 0 if there is none
+     */
+    private static int[] keyframesBefore(List<ByteBuffer> frames) {
+        int[] keyframes = new int[frames.size()];
+        int last = 0;
+        for (int i = 0; i < keyframes.length; i++) {
+            if (StateDeltaDecoder.isKeyframe(frames.get(i)))
+                last = i;
+            keyframes[i] = last;
+        }
+        return keyframes;
+    }
+
+    /**
+     * Render chunks until none is left, with one buffer and one table for the worker.
+     *
+     * @param frames : Frames of the game
+     * @param keyframes : Last keyframe at or before every frame
+     * @param export : Chunks of the export
+     */
+    private void work(List<ByteBuffer> frames, int[] keyframes, Export export) {
+        try {
+            PGraphics g = new PGraphicsJava2D();
+            g.setPrimary(false);
+            g.setSize(width, height);
+            g.beginDraw();
+            // without a sketch there is no default font
+            g.textFont(new PFont(new Font(Font.SANS_SERIF, Font.PLAIN, 60), true));
+            g.endDraw();
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            Table table = new Table(template.getMyX(), template.getMyY(), template.getMyW(), template.getHoleSize());
+
+            for (int chunk = export.claim(); chunk >= 0; chunk = export.claim()) {
+                int from = chunk * CHUNK_FRAMES, to = Math.min(frames.size(), from + CHUNK_FRAMES);
+                byte[][] images = new byte[to - from][];
+                table.setBalls(new Ball[0]);
+                StateDeltaDecoder decoder = new StateDeltaDecoder(table);
+                for (int i = keyframes[from]; i < to; i++) {
+                    decoder.apply(frames.get(i).duplicate());
+                    if (i < from)
+                        continue;
+                    drawFrame(g, table);
+                    g.loadPixels();
+                    image.setRGB(0, 0, width, height, g.pixels, 0, width);
+                    png.reset();
+                    ImageIO.write(image, "png", png);
+                    images[i - from] = png.toByteArray();
+                }
+                export.put(chunk, images);
+            }
+        } catch (IOException e) {
+            export.fail(new UncheckedIOException(e));
+        } catch (Throwable e) {
+            // an error of a worker must end the export too, or the writer waits for its chunk forever
+            export.fail(e);
+        }
+    }
+
+    /**
+     * Draw one frame of the table, as BillardView draws it during a game.
+     *
+     * @param g : Graphics to draw into
+     * @param table : The billiard table model
+     */
+    private static void drawFrame(PGraphics g, Table table) {
+        Ball[] balls = table.getBalls();
+        g.beginDraw();
+        g.background(198, 187, 123);
+        BillardView.drawTableBase(g, table);
+        BillardView.drawCounters(g, table);
+        int color = balls.length == 0 ? 0 : balls[balls.length - 1].getC();
+        for (Hole hole : table.getHoles())
+            BillardView.drawHole(g, color, hole.getX(), hole.getY(), hole.getHoleSize(), hole.getHoleSize());
+        for (Ball ball : balls)
+            BillardView.drawBall(g, ball.getC(), ball.getX(), ball.getY(), ball.getSize(), ball.getSize());
+        g.endDraw();
+    }
+
+    /**
+     * The Export class hands the chunks of one export to the workers and their images to the writer.
+     */
+    private final class Export {
+
+        /**
+         * Encoded images of every chunk, null until the chunk is rendered and again once it is written
+         */
+        private final byte[][][] chunks;
+
+        /**
+         * Next chunk to render
+         */
+        private final AtomicInteger next = new AtomicInteger();
+
+        /**
+         * Number of chunks written
+         */
+        private int written;
+
+        /**
+         * First error of a worker, null if none
+         */
+        private Throwable failure;
+
+        /**
+         * Flag indicating whether the export is over
+         */
+        private boolean over;
+
+        /**
+         * Constructor for the Export class.
+         *
+         * @param chunks : Number of chunks
+         */
+        Export(int chunks) {
+            this.chunks = new byte[chunks][][];
+        }
+
+        /**
+         * Claim the next chunk, waiting while the window of chunks ahead of the writer is full.
+         *
+         * @return : The chunk, -1 if none is left or the export is over
+         * @throws InterruptedException : If the worker is interrupted
+         */
+        int claim() throws InterruptedException {
+            int chunk = next.getAndIncrement();
+            if (chunk >= chunks.length)
+                return -1;
+            synchronized (this) {
+                while (!over && chunk >= written + window)
+                    wait();
+                return over ? -1 : chunk;
+            }
+        }
+
+        /**
+         * Hand the images of a chunk to the writer.
+         *
+         * @param chunk : The chunk
+         * @param images : Encoded images of the chunk
+         */
+        synchronized void put(int chunk, byte[][] images) {
+            chunks[chunk] = images;
+            notifyAll();
+        }
+
+        /**
+         * Wait for the images of a chunk and release its place in the window.
+         *
+         * @param chunk : The chunk
+         * @return : Encoded images of the chunk
+         * @throws IOException : If a worker failed
+         * @throws InterruptedException : If the writer is interrupted
+         */
+        synchronized byte[][] take(int chunk) throws IOException, InterruptedException {
+            while (chunks[chunk] == null && failure == null)
+                wait();
+            if (failure instanceof UncheckedIOException e)
+                throw e.getCause();
+            if (failure instanceof RuntimeException e)
+                throw e;
+            if (failure instanceof Error e)
+                throw e;
+            if (failure != null)
+                throw new IOException("rendering was interrupted", failure);
+            byte[][] images = chunks[chunk];
+            chunks[chunk] = null;
+            written++;
+            notifyAll();
+            return images;
+        }
+
+        /**
+         * End the export, recording the error of a worker if it is the first one.
+         *
+         * @param error : The error, null when the writer is done
+         */
+        synchronized void fail(Throwable error) {
+            if (failure == null && error != null)
+                failure = error;
+            over = true;
+            notifyAll();
+        }
+    }
+}